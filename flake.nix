@@ -55,7 +55,7 @@
         // {
           pname = "${mvnDefaults.pname}-check";
 
-          mvnHash = "sha256-K8sNvP1gzbhpWnFA6kYxldAUXo6jInQmvpGJeOsrN1M=";
+          mvnHash = "sha256-JV3akbV10DE/U29MArvhBHgeE8wcD4X4QzINY53SP9M=";
           mvnParameters = "${mvnDefaults.mvnParameters} verify javadoc:javadoc";
 
           installPhase = ''touch "$out"'';
@@ -69,12 +69,13 @@
           // {
             pname = "${mvnDefaults.pname}-javadocs";
 
-            mvnHash = "sha256-K8sNvP1gzbhpWnFA6kYxldAUXo6jInQmvpGJeOsrN1M=";
+            mvnHash = "sha256-JV3akbV10DE/U29MArvhBHgeE8wcD4X4QzINY53SP9M=";
             mvnParameters = "${mvnDefaults.mvnParameters} javadoc:javadoc";
 
             installPhase = ''
-              mkdir -p "$out/"
-              cp -R target/reports/apidocs/. "$out/"
+              mkdir -p "$out/core/" "$out/gui/"
+              cp -R rpn-calc-core/target/reports/apidocs/. "$out/core/"
+              cp -R rpn-calc-gui/target/reports/apidocs/. "$out/gui/"
             '';
           }
         );
@@ -82,7 +83,7 @@
         default = pkgs.maven.buildMavenPackage (
           mvnDefaults
           // {
-            mvnHash = "sha256-I2o7mEk028Fnz0o7Rozat9rO7vHOfhKw9f8AGCzrACQ=";
+            mvnHash = "sha256-kAKKqPktZuxFJAHl9eH6SXjON9ivRslG1uSJ8+R4UF0=";
             mvnParameters = "${mvnDefaults.mvnParameters} javafx:jlink";
 
             nativeBuildInputs = [ pkgs.makeWrapper ];
@@ -90,7 +91,7 @@
               mkdir -p "$out/img/"
               cp img/screenshot.png "$out/img/"
               cp README.md LICENSE "$out/"
-              cp -R target/jlink-image/. "$out/"
+              cp -R rpn-calc-gui/target/jlink-image/. "$out/"
 
               wrapProgram "$out/bin/rpn-calc" \
                 --prefix PATH : "${lib.makeBinPath [ pkgs.coreutils ]}" \
@@ -0,0 +1,94 @@
+package ch.bztf.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.CsvPipeline;
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * Compares the CSV pipeline against the usual hand-written loop, which splits
+ * every line into strings and calls {@code setRegister} and {@code eval} per row.
+ * Both read from and write to memory, so only parsing and evaluation are measured.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar CsvBenchmark}.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CsvBenchmark {
+
+    /** The expression evaluated per row. */
+    private static final String EXPR = "a b * c +";
+
+    /** The number of rows. */
+    @Param({ "100000" })
+    public int rows;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    /** The input CSV. */
+    private byte[] csv;
+
+    @Setup
+    public void setUp() {
+        calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        var random = new Random(39);
+        var builder = new StringBuilder("id,a,b,c\n");
+        for (int i = 0; i < rows; i++) {
+            builder.append(i).append(',').append(random.nextInt(10000) / 100.0).append(',')
+                   .append(random.nextInt(1000)).append(',').append(random.nextGaussian()).append('\n');
+        }
+        csv = builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int pipeline() throws IOException, RPNCalcException {
+        var out = new ByteArrayOutputStream(2 * csv.length);
+        new CsvPipeline(calc, EXPR).run(Channels.newChannel(new ByteArrayInputStream(csv)), Channels.newChannel(out));
+        return out.size();
+    }
+
+    @Benchmark
+    public int loop() throws IOException, RPNCalcException {
+        var out = new ByteArrayOutputStream(2 * csv.length);
+        var in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8));
+        String line = in.readLine();
+        out.write((line + ",result\n").getBytes(StandardCharsets.UTF_8));
+        while ((line = in.readLine()) != null) {
+            String[] fields = line.split(",");
+            calc.setRegister("a", Double.parseDouble(fields[1]));
+            calc.setRegister("b", Double.parseDouble(fields[2]));
+            calc.setRegister("c", Double.parseDouble(fields[3]));
+            out.write((line + "," + calc.eval(EXPR) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return out.size();
+    }
+}
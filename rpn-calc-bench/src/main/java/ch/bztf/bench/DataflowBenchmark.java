@@ -0,0 +1,71 @@
+package ch.bztf.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * Compares sequential and dataflow evaluation of a large generated expression,
+ * made up of independent subexpressions that are summed at the end.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar DataflowBenchmark}.
+ * The speedup depends on the number of cores; on a single core, dataflow
+ * evaluation only adds the cost of the analysis.
+ * </p>
+ * 
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataflowBenchmark {
+
+    /** Whether dataflow evaluation is enabled. */
+    @Param({ "false", "true" })
+    public boolean dataflow;
+
+    /** The number of independent subexpressions. */
+    @Param({ "16", "256" })
+    public int parts;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    /** The generated expression. */
+    private String expr;
+
+    @Setup
+    public void setUp() {
+        calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        calc.setDataflow(dataflow);
+        var builder = new StringBuilder();
+        for (int p = 0; p < parts; p++) {
+            builder.append(p + 1).append(' ');
+            for (int t = 0; t < 2000; t++) {
+                builder.append(t % 7 + 0.1).append(t % 3 == 0 ? " * " : " + ").append(t % 5 == 0 ? "sqrt " : "");
+            }
+        }
+        expr = builder.append("sum").toString();
+    }
+
+    @Benchmark
+    public Double evaluate() throws RPNCalcException {
+        return calc.eval(expr);
+    }
+}
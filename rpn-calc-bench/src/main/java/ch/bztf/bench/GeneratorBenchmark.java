@@ -0,0 +1,80 @@
+package ch.bztf.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * Compares summing a series through a generator with summing
+ * the same series typed out as literals on the stack.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar GeneratorBenchmark}.
+ * Add {@code -prof gc} to see that generators allocate independently of the series length.
+ * </p>
+ * 
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBenchmark {
+
+    /** The length of the series. */
+    @Param({ "1000", "1000000" })
+    public int length;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    /** The series written out as literals, followed by {@code sum}. */
+    private String literals;
+
+    /** The series as a range, followed by {@code sum}. */
+    private String range;
+
+    /** The series as a range mapped to squares, followed by {@code sum}. */
+    private String mapped;
+
+    @Setup
+    public void setUp() {
+        calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        var builder = new StringBuilder();
+        for (int i = 1; i <= length; i++) {
+            builder.append(i).append(' ');
+        }
+        literals = builder.append("sum").toString();
+        range = "1 " + length + " range sum";
+        mapped = "1 " + length + " range [ pow2 ] map sum";
+    }
+
+    @Benchmark
+    public Double literals() throws RPNCalcException {
+        return calc.eval(literals);
+    }
+
+    @Benchmark
+    public Double range() throws RPNCalcException {
+        return calc.eval(range);
+    }
+
+    @Benchmark
+    public Double mapped() throws RPNCalcException {
+        return calc.eval(mapped);
+    }
+}
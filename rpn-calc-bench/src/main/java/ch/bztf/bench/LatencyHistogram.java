@@ -0,0 +1,159 @@
+package ch.bztf.bench;
+
+/**
+ * A histogram of latencies in nanoseconds. It is a dependency-free clone of
+ * the log-linear layout of HdrHistogram with three significant decimal
+ * digits, covering just what the load test needs: values below 2048 are
+ * counted exactly, larger ones in buckets of 1024 linear sub-buckets per
+ * power of two. Every value is thus reported within 0.1% of its true value,
+ * however large, while recording takes constant time and a fixed amount of
+ * memory.
+ * <p>
+ * Each load test thread records into its own histogram, which are added up
+ * once the run is over, as a histogram is not thread-safe.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+final class LatencyHistogram {
+
+    /** The number of bits of each value that are kept, i.e. the resolution. */
+    private static final int SUB_BUCKET_BITS = 11;
+
+    /** The number of values counted exactly, and the size of the first bucket. */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The number of sub-buckets of each further bucket, as their lower half is already covered. */
+    private static final int HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /** The number of further buckets needed for the largest {@code long}. */
+    private static final int BUCKET_COUNT = 63 - SUB_BUCKET_BITS;
+
+    /** The number of values per sub-bucket. */
+    private final long[] counts = new long[SUB_BUCKET_COUNT + BUCKET_COUNT * HALF_COUNT];
+
+    /** The number of values recorded. */
+    private long total = 0;
+
+    /** The smallest value recorded, {@code Long.MAX_VALUE} if none. */
+    private long min = Long.MAX_VALUE;
+
+    /** The largest value recorded, {@code 0} if none. */
+    private long max = 0;
+
+    /** The sum of all values recorded, for the mean. */
+    private double sum = 0.0;
+
+    /**
+     * Helper function which finds the sub-bucket of a value.
+     *
+     * @param value The value, which must not be negative.
+     * @return The index into {@link #counts}.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_COUNT + (int)((value >>> shift) - HALF_COUNT);
+    }
+
+    /**
+     * Helper function which finds the largest value counted by a sub-bucket.
+     *
+     * @param index The index into {@link #counts}.
+     * @return The highest value equivalent to all values in the sub-bucket.
+     */
+    private static long highestOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_COUNT + 1;
+        long sub = (index - SUB_BUCKET_COUNT) % HALF_COUNT + HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param nanos The latency in nanoseconds. Negative values are recorded as {@code 0}.
+     */
+    void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        this.counts[indexOf(value)]++;
+        this.total++;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+        this.sum += value;
+    }
+
+    /**
+     * Adds all values recorded by another histogram.
+     *
+     * @param other The histogram to be added. It is left unchanged.
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.total += other.total;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        this.sum += other.sum;
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return The count.
+     */
+    long getCount() {
+        return this.total;
+    }
+
+    /**
+     * Gets the smallest value recorded.
+     *
+     * @return The minimum, or {@code 0} if nothing was recorded.
+     */
+    long getMin() {
+        return (this.total == 0) ? 0 : this.min;
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return The exact maximum, or {@code 0} if nothing was recorded.
+     */
+    long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Gets the mean of all values recorded.
+     *
+     * @return The exact mean, or {@code 0} if nothing was recorded.
+     */
+    double getMean() {
+        return (this.total == 0) ? 0.0 : this.sum / this.total;
+    }
+
+    /**
+     * Gets the value below or at which a given percentage of all values lie.
+     *
+     * @param percentile The percentage, between 0 and 100.
+     * @return The highest value equivalent to the percentile, but at most the maximum,
+     *         or {@code 0} if nothing was recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+        long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * this.total));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(highestOf(i), this.max);
+            }
+        }
+        return 0;
+    }
+}
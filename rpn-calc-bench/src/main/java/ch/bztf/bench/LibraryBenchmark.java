@@ -0,0 +1,91 @@
+package ch.bztf.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.ExpressionLibrary;
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * Measures opening an expression library of many formulas, and opening it
+ * followed by evaluating one formula, against evaluating that formula from
+ * its source text. The library is written once per trial.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar LibraryBenchmark}.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LibraryBenchmark {
+
+    /** The number of formulas in the library. */
+    @Param({ "100000" })
+    public int formulas;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    /** The formulas by name. */
+    private Map<String, String> exprs;
+
+    /** The library file. */
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException, RPNCalcException {
+        calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        var random = new Random(40);
+        exprs = new HashMap<String, String>();
+        for (int i = 0; i < formulas; i++) {
+            exprs.put("f" + i, String.format("a %d.%02d * b %d + / c sqrt +", random.nextInt(100),
+                                             random.nextInt(100), random.nextInt(1000) + 1));
+        }
+        file = Files.createTempFile("rpn-calc", ".rpnl");
+        ExpressionLibrary.write(calc, exprs, file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        return ExpressionLibrary.open(file, calc).size();
+    }
+
+    @Benchmark
+    public Double openAndEval() throws IOException, RPNCalcException {
+        return ExpressionLibrary.open(file, calc).eval("f4711");
+    }
+
+    @Benchmark
+    public Double source() throws RPNCalcException {
+        return calc.eval(exprs.get("f4711"));
+    }
+}
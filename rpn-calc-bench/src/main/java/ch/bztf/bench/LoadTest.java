@@ -0,0 +1,455 @@
+package ch.bztf.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * Replays a workload against {@link RPNCalc#eval(String)} on several threads and
+ * reports throughput, the latency distribution and GC and allocation statistics.
+ * Unlike the JMH benchmarks, it measures the calculator under a realistic mix of
+ * expressions, and compares the reports of two builds to catch regressions.
+ * <p>
+ * Each thread evaluates the workload in a loop with its own calculator, starting at
+ * its own offset. At saturation, every evaluation starts as soon as the previous one
+ * is done. At a target rate, evaluations are scheduled at fixed intervals, and their
+ * latency is measured from the scheduled start, so stalls delaying later evaluations
+ * are counted in full rather than hidden (coordinated omission). Nothing is recorded
+ * during the warmup.
+ * </p>
+ * Run with {@code java -cp rpn-calc-bench/target/benchmarks.jar ch.bztf.bench.LoadTest}
+ * and no arguments for the usage. The {@code compare} command exits with status 1
+ * if the candidate regressed, so it can fail a CI job.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class LoadTest {
+
+    /** The usage printed on invalid arguments. */
+    private static final String USAGE = String.join("\n",
+        "Usage: LoadTest run [options]",
+        "       LoadTest compare <base report> <candidate report> [--threshold <percent>]",
+        "",
+        "Workload, either recorded or synthetic:",
+        "  --corpus <file>        One expression per line; '#' starts a comment line",
+        "  --synthetic <count>    Number of synthetic expressions (default 10000)",
+        "  --tokens <count>       Tokens per synthetic expression (default 16)",
+        "  --mix <spec>           Operators and weights (default " + Workload.DEFAULT_MIX + ")",
+        "  --error-rate <share>   Share of failing synthetic expressions (default 0)",
+        "  --seed <number>        Seed of the synthetic workload (default 45)",
+        "",
+        "Load:",
+        "  --threads <count>      Threads evaluating concurrently (default 1)",
+        "  --rate <per second>    Target evaluations per second over all threads (default 0, saturation)",
+        "  --mode <mode>          DOUBLE or DECIMAL (default DOUBLE)",
+        "  --warmup <seconds>     Time before recording starts (default 5)",
+        "  --duration <seconds>   Time recorded (default 10)",
+        "  --report <file>        Writes the report, to be compared later");
+
+    /** The percentiles reported, besides minimum and maximum. */
+    private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 99.99 };
+
+    /** The report entries compared, mapped to whether larger values are better. */
+    private static final Map<String, Boolean> COMPARED = new LinkedHashMap<String, Boolean>();
+
+    static {
+        COMPARED.put("throughput.ops", true);
+        for (double p : PERCENTILES) {
+            COMPARED.put("latency.p" + label(p) + ".us", false);
+        }
+        COMPARED.put("alloc.bytes.per.op", false);
+    }
+
+    /** The nanoseconds before a scheduled evaluation during which a thread spins rather than parks. */
+    private static final long SPIN_NANOS = 200_000;
+
+    /** The default threshold of {@code compare}, in percent. */
+    private static final double DEFAULT_THRESHOLD = 10.0;
+
+    /** Private constructor, as this class only holds the entry point. */
+    private LoadTest() {
+    }
+
+    /** The state of one thread of a load test, read once the thread is done. */
+    private static final class Worker extends Thread {
+
+        /** The expressions evaluated in a loop. */
+        private final List<String> exprs;
+
+        /** The index of the first expression evaluated. */
+        private final int offset;
+
+        /** The calculator of this thread. */
+        private final RPNCalc calc;
+
+        /** The time the first evaluation is scheduled at, as per {@link System#nanoTime()}. */
+        private final long start;
+
+        /** The time recording starts. */
+        private final long measure;
+
+        /** The time the test ends. */
+        private final long end;
+
+        /** The nanoseconds between scheduled evaluations, {@code 0} at saturation. */
+        private final long interval;
+
+        /** The latencies recorded. */
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        /** The number of recorded evaluations that failed. */
+        long errors = 0;
+
+        /** The bytes allocated by this thread while recording, {@code -1} if unknown. */
+        long allocated = -1;
+
+        /**
+         * Constructor that prepares a thread, which is not started yet.
+         *
+         * @param exprs The expressions evaluated in a loop.
+         * @param offset The index of the first expression evaluated.
+         * @param mode The mode of the calculator.
+         * @param start The time the first evaluation is scheduled at.
+         * @param measure The time recording starts.
+         * @param end The time the test ends.
+         * @param interval The nanoseconds between scheduled evaluations, {@code 0} at saturation.
+         */
+        Worker(List<String> exprs, int offset, RPNCalc.Mode mode, long start, long measure, long end, long interval) {
+            super("load-test-" + offset);
+            this.exprs = exprs;
+            this.offset = offset;
+            this.calc = new RPNCalc();
+            this.calc.setHistoryCapacity(0);
+            this.calc.setMode(mode);
+            this.start = start;
+            this.measure = measure;
+            this.end = end;
+            this.interval = interval;
+        }
+
+        @Override
+        public void run() {
+            long scheduled = this.start;
+            boolean sampled = false;
+            long allocated_before = -1;
+            int i = this.offset;
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= this.end || scheduled >= this.end) {
+                    break;
+                } else if (this.interval > 0 && scheduled - now > SPIN_NANOS) {
+                    LockSupport.parkNanos(scheduled - now - SPIN_NANOS);
+                    continue; // Parking may return early
+                } else if (this.interval > 0 && scheduled > now) {
+                    Thread.onSpinWait(); // Waking up from parking is too late by up to the timer slack
+                    continue;
+                }
+                long begin = (this.interval > 0) ? scheduled : now;
+                boolean recording = begin >= this.measure;
+                if (recording && !sampled) {
+                    allocated_before = allocatedBytes(); // Sampled once, even where unsupported
+                    sampled = true;
+                }
+                boolean failed = false;
+                try {
+                    this.calc.eval(this.exprs.get(i));
+                } catch (RPNCalcException e) {
+                    failed = true;
+                }
+                if (recording) {
+                    this.histogram.record(System.nanoTime() - begin);
+                    this.errors += failed ? 1 : 0;
+                }
+                i = (i + 1 == this.exprs.size()) ? 0 : i + 1;
+                scheduled += this.interval;
+            }
+            if (allocated_before >= 0) {
+                long allocated_after = allocatedBytes();
+                this.allocated = (allocated_after >= 0) ? allocated_after - allocated_before : -1;
+            }
+        }
+    }
+
+    /**
+     * Helper function which gets the bytes allocated by the current thread so far.
+     *
+     * @return The bytes allocated, or {@code -1} if the JVM does not measure them.
+     */
+    private static long allocatedBytes() {
+        var threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            var bean = (com.sun.management.ThreadMXBean)threads;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper function which sums up the collections and collection time of all collectors.
+     *
+     * @return The number of collections and their time in milliseconds.
+     */
+    private static long[] collections() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(gc.getCollectionCount(), 0);
+            totals[1] += Math.max(gc.getCollectionTime(), 0);
+        }
+        return totals;
+    }
+
+    /**
+     * Helper function which formats a percentile for a report key, e.g. {@code 99.9}.
+     *
+     * @param p The percentile.
+     * @return The percentile without trailing zeroes.
+     */
+    private static String label(double p) {
+        return (p == Math.rint(p)) ? Long.toString((long)p) : Double.toString(p);
+    }
+
+    /**
+     * Helper function which converts nanoseconds to microseconds for a report.
+     *
+     * @param nanos The nanoseconds.
+     * @return The microseconds with three decimals.
+     */
+    private static String micros(double nanos) {
+        return String.format("%.3f", nanos / 1000.0);
+    }
+
+    /**
+     * Helper function which parses the options following a command.
+     *
+     * @param args The command line.
+     * @param from The index of the first option.
+     * @return The value of each option, keyed by its name without dashes.
+     * @throws IllegalArgumentException Raised if an option lacks its value or is given twice.
+     */
+    private static Map<String, String> options(String[] args, int from) throws IllegalArgumentException {
+        var options = new LinkedHashMap<String, String>();
+        for (int i = from; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected an option and its value at '" + args[i] + "'");
+            } else if (options.put(args[i].substring(2), args[i + 1]) != null) {
+                throw new IllegalArgumentException("Option '" + args[i] + "' given twice");
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Helper function which takes a numeric option.
+     *
+     * @param options The options, from which it is removed.
+     * @param name The name of the option.
+     * @param fallback The value if the option is missing.
+     * @return The value of the option.
+     * @throws IllegalArgumentException Raised if the value is no number.
+     */
+    private static double number(Map<String, String> options, String name, double fallback)
+    throws IllegalArgumentException {
+        String value = options.remove(name);
+        try {
+            return (value == null) ? fallback : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option '--" + name + "' must be a number");
+        }
+    }
+
+    /**
+     * Runs a load test and prints its latency distribution.
+     *
+     * @param options The options of the {@code run} command, as per the usage.
+     * @return The report, in the order written.
+     * @throws IOException Raised if the corpus cannot be read.
+     * @throws InterruptedException Raised if interrupted while waiting for the threads.
+     * @throws IllegalArgumentException Raised if an option is unknown or invalid.
+     */
+    static Map<String, String> run(Map<String, String> options)
+    throws IOException, InterruptedException, IllegalArgumentException {
+        String corpus = options.remove("corpus");
+        int count = (int)number(options, "synthetic", 10000);
+        int tokens = (int)number(options, "tokens", 16);
+        String mix = options.getOrDefault("mix", Workload.DEFAULT_MIX);
+        options.remove("mix");
+        double error_rate = number(options, "error-rate", 0.0);
+        long seed = (long)number(options, "seed", 45);
+        int threads = (int)number(options, "threads", 1);
+        double rate = number(options, "rate", 0.0);
+        RPNCalc.Mode mode = RPNCalc.Mode.valueOf(options.getOrDefault("mode", "DOUBLE"));
+        options.remove("mode");
+        double warmup = number(options, "warmup", 5.0);
+        double duration = number(options, "duration", 10.0);
+        String report_file = options.remove("report");
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown option '--" + options.keySet().iterator().next() + "'");
+        } else if (threads <= 0 || rate < 0.0 || warmup < 0.0 || duration <= 0.0) {
+            throw new IllegalArgumentException("Threads and duration must be positive, rate and warmup not negative");
+        }
+        List<String> exprs = (corpus != null) ? Workload.load(Path.of(corpus))
+                           : Workload.synthetic(count, tokens, Workload.parseMix(mix), error_rate, seed);
+
+        long interval = (rate > 0.0) ? Math.max(1, (long)(threads * 1e9 / rate)) : 0;
+        long start = System.nanoTime() + 10_000_000; // Lets all threads start before the first evaluation
+        long measure = start + (long)(warmup * 1e9);
+        long end = measure + (long)(duration * 1e9);
+        var workers = new ArrayList<Worker>();
+        for (int t = 0; t < threads; t++) {
+            /* Stagger the schedules, so the target rate is spread evenly over each interval */
+            workers.add(new Worker(exprs, (int)((long)t * exprs.size() / threads), mode,
+                                   start + interval * t / threads, measure, end, interval));
+        }
+        workers.forEach(Thread::start);
+        long idle = measure - System.nanoTime();
+        if (idle > 0) {
+            Thread.sleep(idle / 1_000_000, (int)(idle % 1_000_000));
+        }
+        long[] gc_before = collections();
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        long[] gc_after = collections();
+
+        var histogram = new LatencyHistogram();
+        long errors = 0;
+        long allocated = 0;
+        for (Worker worker : workers) {
+            histogram.add(worker.histogram);
+            errors += worker.errors;
+            allocated = (allocated < 0 || worker.allocated < 0) ? -1 : allocated + worker.allocated;
+        }
+        long operations = histogram.getCount();
+        var report = new LinkedHashMap<String, String>();
+        report.put("workload", (corpus != null) ? corpus
+                   : String.format("synthetic %d x %d tokens, mix %s, error rate %s, seed %d",
+                                   count, tokens, mix, error_rate, seed));
+        report.put("expressions", Integer.toString(exprs.size()));
+        report.put("threads", Integer.toString(threads));
+        report.put("mode", mode.name());
+        report.put("target.rate", (rate > 0.0) ? Double.toString(rate) : "saturation");
+        report.put("duration.s", Double.toString(duration));
+        report.put("java.version", System.getProperty("java.version"));
+        report.put("operations", Long.toString(operations));
+        report.put("errors", Long.toString(errors));
+        report.put("throughput.ops", String.format("%.1f", operations / duration));
+        report.put("latency.min.us", micros(histogram.getMin()));
+        report.put("latency.mean.us", micros(histogram.getMean()));
+        for (double p : PERCENTILES) {
+            report.put("latency.p" + label(p) + ".us", micros(histogram.getValueAtPercentile(p)));
+        }
+        report.put("latency.max.us", micros(histogram.getMax()));
+        report.put("gc.count", Long.toString(gc_after[0] - gc_before[0]));
+        report.put("gc.time.ms", Long.toString(gc_after[1] - gc_before[1]));
+        report.put("alloc.bytes.per.op", (allocated >= 0 && operations > 0)
+                                         ? String.format("%.1f", (double)allocated / operations) : "-1");
+
+        System.out.println("       Value(us)   Percentile   1/(1-Percentile)");
+        for (int k = 0; ; k++) {
+            double p = 100.0 * (1.0 - Math.pow(0.5, k / 2.0));
+            if (operations == 0 || 1.0 / (1.0 - p / 100.0) > operations) {
+                break;
+            }
+            System.out.printf("%16s %12.6f %18.2f%n", micros(histogram.getValueAtPercentile(p)), p / 100.0,
+                              1.0 / (1.0 - p / 100.0));
+        }
+        System.out.printf("%16s %12.6f %18s%n%n", micros(histogram.getMax()), 1.0, "inf");
+        report.forEach((key, value) -> System.out.println(key + " = " + value));
+        if (report_file != null) {
+            var lines = new ArrayList<String>();
+            lines.add("# rpn-calc load test report");
+            report.forEach((key, value) -> lines.add(key + "=" + value));
+            Files.write(Path.of(report_file), lines, StandardCharsets.UTF_8);
+        }
+        return report;
+    }
+
+    /**
+     * Compares two reports and prints the relative change of every compared entry.
+     *
+     * @param base The report of the baseline build.
+     * @param candidate The report of the build being checked.
+     * @param threshold The change in percent beyond which a worse entry is a regression.
+     * @return {@code true} if any entry regressed.
+     * @throws IOException Raised if a report cannot be read.
+     * @throws IllegalArgumentException Raised if a report lacks a compared entry.
+     */
+    static boolean compare(Path base, Path candidate, double threshold) throws IOException, IllegalArgumentException {
+        Properties before = new Properties();
+        Properties after = new Properties();
+        try (Reader in = Files.newBufferedReader(base, StandardCharsets.UTF_8)) {
+            before.load(in);
+        }
+        try (Reader in = Files.newBufferedReader(candidate, StandardCharsets.UTF_8)) {
+            after.load(in);
+        }
+        for (String key : new String[] { "workload", "threads", "mode", "target.rate" }) {
+            if (!String.valueOf(before.get(key)).equals(String.valueOf(after.get(key)))) {
+                System.out.printf("Warning: '%s' differs, so the reports may not be comparable%n", key);
+            }
+        }
+        boolean regressed = false;
+        System.out.printf("%-20s %14s %14s %9s%n", "entry", "base", "candidate", "change");
+        for (Map.Entry<String, Boolean> entry : COMPARED.entrySet()) {
+            String key = entry.getKey();
+            if (before.getProperty(key) == null || after.getProperty(key) == null) {
+                throw new IllegalArgumentException("Reports must both have '" + key + "'");
+            }
+            double old_value = Double.parseDouble(before.getProperty(key));
+            double new_value = Double.parseDouble(after.getProperty(key));
+            if (old_value < 0 || new_value < 0) {
+                continue; // Not measured by one of the JVMs
+            }
+            double change = (old_value == 0.0) ? 0.0 : 100.0 * (new_value - old_value) / old_value;
+            boolean worse = entry.getValue() ? change < -threshold : change > threshold;
+            regressed |= worse;
+            System.out.printf("%-20s %14s %14s %+8.1f%%%s%n", key, before.getProperty(key), after.getProperty(key),
+                              change, worse ? "  REGRESSION" : "");
+        }
+        return regressed;
+    }
+
+    /**
+     * Entry point of the load test.
+     *
+     * @param args The command and its options, as per the usage.
+     * @throws Exception Raised if the load test fails for other reasons than invalid arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        try {
+            if (args.length >= 1 && args[0].equals("run")) {
+                run(options(args, 1));
+            } else if (args.length >= 3 && args[0].equals("compare")) {
+                Map<String, String> options = options(args, 3);
+                double threshold = number(options, "threshold", DEFAULT_THRESHOLD);
+                if (!options.isEmpty()) {
+                    throw new IllegalArgumentException("Unknown option '--" + options.keySet().iterator().next() + "'");
+                }
+                if (compare(Path.of(args[1]), Path.of(args[2]), threshold)) {
+                    System.exit(1);
+                }
+            } else {
+                throw new IllegalArgumentException("Expected 'run' or 'compare'");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ch.bztf.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * Compares the evaluation speed of {@link RPNCalc.Mode#DOUBLE}
+ * and {@link RPNCalc.Mode#DECIMAL} mode on typical expressions.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar ModeBenchmark}.
+ * </p>
+ * 
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModeBenchmark {
+
+    /** The arithmetic under test. */
+    @Param({ "DOUBLE", "DECIMAL" })
+    public RPNCalc.Mode mode;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    /** A summation over a thousand prices with two decimal places. */
+    private String sum_expr;
+
+    @Setup
+    public void setUp() {
+        calc = new RPNCalc();
+        calc.setMode(mode);
+        calc.setHistoryCapacity(0);
+        var builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append(i % 100).append('.').append(i % 10).append("5 ");
+        }
+        sum_expr = builder.append("sum").toString();
+    }
+
+    @Benchmark
+    public Double arithmetic() throws RPNCalcException {
+        return calc.eval("0.1 0.2 + 3 * 1.5 - 4 /");
+    }
+
+    @Benchmark
+    public Double invoice() throws RPNCalcException {
+        return calc.eval("19.99 3 * 4.50 2 * + 0.077 * 19.99 3 * 4.50 2 * + +");
+    }
+
+    @Benchmark
+    public Double remainders() throws RPNCalcException {
+        return calc.eval("1234.56 100 mod 17 rem 12.5 % abs neg");
+    }
+
+    @Benchmark
+    public Double summation() throws RPNCalcException {
+        return calc.eval(sum_expr);
+    }
+}
@@ -0,0 +1,78 @@
+package ch.bztf.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.Outcome;
+import ch.bztf.ShardCoordinator;
+
+/**
+ * Measures a batch evaluated by the shard coordinator with 1, 2, 4 and 8
+ * worker processes. Workers are started by the first warmup iteration and
+ * reused, so only sharding, piping and evaluation are measured. Scaling
+ * naturally depends on the number of cores of the machine.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar ShardBenchmark}.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShardBenchmark {
+
+    /** The number of worker processes. */
+    @Param({ "1", "2", "4", "8" })
+    public int workers;
+
+    /** The number of expressions per batch. */
+    @Param({ "200000" })
+    public int size;
+
+    /** The coordinator under test. */
+    private ShardCoordinator coordinator;
+
+    /** The batch of expressions. */
+    private List<String> exprs;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(43);
+        exprs = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            exprs.add(String.format("%d.%d a <= %d * a sqrt + 1 %d range sum /", random.nextInt(1000),
+                                    random.nextInt(100), random.nextInt(100), random.nextInt(50) + 1));
+        }
+        coordinator = new ShardCoordinator(workers);
+        coordinator.setJvmOptions(List.of("-Xmx256m"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        coordinator.close();
+    }
+
+    @Benchmark
+    public List<Outcome> evaluate() throws IOException {
+        return coordinator.evaluate(exprs);
+    }
+}
@@ -0,0 +1,172 @@
+package ch.bztf.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to first frame of the GUI by starting it repeatedly as a
+ * new JVM, with the startup probe enabled, so it exits right after its first
+ * layout pulse, just before the first frame is rendered. The time is taken
+ * from starting the process to the line it prints, so it includes JVM startup,
+ * which is what users wait for.
+ * <p>
+ * Each run is measured with and without the CDS archive if one is given.
+ * The GUI needs a display, so run it with e.g. {@code xvfb-run} on a CI agent
+ * without one. The benchmark exits with status 1 if the median exceeds a budget.
+ * </p>
+ * Run with {@code java -cp rpn-calc-bench/target/benchmarks.jar ch.bztf.bench.StartupBenchmark}
+ * from the repository root, after {@code mvn package}, or {@code mvn -Pcds package} for the archive.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class StartupBenchmark {
+
+    /** The usage printed on invalid arguments. */
+    private static final String USAGE = String.join("\n",
+        "Usage: StartupBenchmark [options]",
+        "  --jar <file>           The GUI JAR (default rpn-calc-gui/target/rpn-calc-gui-1.0-SNAPSHOT.jar)",
+        "  --cds <file>           Also measures with this CDS archive, e.g. rpn-calc-gui/target/rpn-calc-gui-1.0-SNAPSHOT.jsa",
+        "  --runs <count>         Measured starts per configuration (default 10)",
+        "  --warmup <count>       Unmeasured starts first, warming the file cache (default 2)",
+        "  --max-ms <millis>      Fails if the median of any configuration exceeds it",
+        "  --report <file>        Writes the medians and extremes as a report");
+
+    /** The JVM option enabling the startup probe of the GUI, see {@code App.STARTUP_PROBE}. */
+    private static final String PROBE = "-Drpn-calc.startupProbe=true";
+
+    /** The line prefix printed by the GUI on its first frame. */
+    private static final String MARKER = "First frame after";
+
+    /** The seconds a single start may take before it counts as hung. */
+    private static final long TIMEOUT_SECONDS = 60;
+
+    /** Private constructor, as this class only holds the entry point. */
+    private StartupBenchmark() {
+    }
+
+    /**
+     * Starts the GUI once and waits for its first frame.
+     * A start taking longer than {@link #TIMEOUT_SECONDS} is killed.
+     *
+     * @param command The command starting the GUI with the startup probe enabled.
+     * @return The milliseconds from starting the process to its first frame.
+     * @throws IOException Raised if the process cannot be started or exits without a first frame,
+     *         e.g. for lack of a display. Its output is part of the message.
+     * @throws InterruptedException Raised if interrupted while waiting for the process.
+     */
+    private static double measure(List<String> command) throws IOException, InterruptedException {
+        long begin = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        /* Killing the process ends its output, should it hang */
+        CompletableFuture.delayedExecutor(TIMEOUT_SECONDS, TimeUnit.SECONDS).execute(process::destroyForcibly);
+        double millis = -1;
+        var output = new StringBuilder();
+        try (var in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (millis < 0 && line.startsWith(MARKER)) {
+                    millis = (System.nanoTime() - begin) / 1e6;
+                } else if (output.length() < 4096) {
+                    output.append(line).append('\n');
+                }
+            }
+        }
+        process.waitFor();
+        if (millis < 0) {
+            throw new IOException("The GUI exited without a first frame:\n" + output);
+        }
+        return millis;
+    }
+
+    /**
+     * Entry point of the startup benchmark.
+     *
+     * @param args The options, as per the usage.
+     * @throws Exception Raised if a start fails.
+     */
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        String jar;
+        String cds;
+        String report_file;
+        int runs;
+        int warmup;
+        double budget;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (!args[i].startsWith("--") || i + 1 == args.length) {
+                    throw new IllegalArgumentException("Expected an option and its value at '" + args[i] + "'");
+                }
+                options.put(args[i].substring(2), args[i + 1]);
+            }
+            jar = options.getOrDefault("jar", "rpn-calc-gui/target/rpn-calc-gui-1.0-SNAPSHOT.jar");
+            cds = options.get("cds");
+            report_file = options.get("report");
+            runs = Integer.parseInt(options.getOrDefault("runs", "10"));
+            warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+            budget = Double.parseDouble(options.getOrDefault("max-ms", "Infinity"));
+            options.keySet().removeAll(List.of("jar", "cds", "report", "runs", "warmup", "max-ms"));
+            if (!options.isEmpty()) {
+                throw new IllegalArgumentException("Unknown option '--" + options.keySet().iterator().next() + "'");
+            } else if (runs <= 0 || warmup < 0) {
+                throw new IllegalArgumentException("Runs must be positive, warmup not negative");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var configurations = new LinkedHashMap<String, List<String>>();
+        configurations.put("default", List.of(java, PROBE, "-jar", jar));
+        if (cds != null) {
+            if (!Files.exists(Path.of(cds))) {
+                throw new IOException("No CDS archive at '" + cds + "', build it with 'mvn -Pcds package'");
+            }
+            configurations.put("cds", List.of(java, "-XX:SharedArchiveFile=" + cds, PROBE, "-jar", jar));
+        }
+
+        var report = new ArrayList<String>();
+        report.add("# rpn-calc startup report");
+        boolean over = false;
+        for (Map.Entry<String, List<String>> configuration : configurations.entrySet()) {
+            for (int i = 0; i < warmup; i++) {
+                measure(configuration.getValue());
+            }
+            double[] times = new double[runs];
+            for (int i = 0; i < runs; i++) {
+                times[i] = measure(configuration.getValue());
+            }
+            Arrays.sort(times);
+            double median = (times[(runs - 1) / 2] + times[runs / 2]) / 2.0;
+            String name = configuration.getKey();
+            System.out.printf("%-8s first frame after %8.1f ms median, %8.1f ms min, %8.1f ms max (%d runs)%n",
+                              name, median, times[0], times[runs - 1], runs);
+            report.add(String.format("startup.%s.median.ms=%.1f", name, median));
+            report.add(String.format("startup.%s.min.ms=%.1f", name, times[0]));
+            report.add(String.format("startup.%s.max.ms=%.1f", name, times[runs - 1]));
+            over |= median > budget;
+        }
+        if (report_file != null) {
+            Files.write(Path.of(report_file), report, StandardCharsets.UTF_8);
+        }
+        if (over) {
+            System.err.printf("Median time to first frame exceeds the budget of %s ms%n", budget);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ch.bztf.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * Measures the statistics operators on a vector of random values, so parsing
+ * does not dominate, against sorting a copy of the same values as a baseline.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar StatisticsBenchmark}.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatisticsBenchmark {
+
+    /** The number of values. */
+    @Param({ "1000", "1000000" })
+    public int length;
+
+    /** The calculator instance under test, holding the values in register {@code x}. */
+    private RPNCalc calc;
+
+    /** The values, for the sorting baseline. */
+    private double[] values;
+
+    @Setup
+    public void setUp() throws RPNCalcException {
+        calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        var random = new Random(36);
+        values = new double[length];
+        var builder = new StringBuilder("{");
+        for (int i = 0; i < length; i++) {
+            values[i] = Math.floor(random.nextGaussian() * 1.0e6) / 100.0;
+            builder.append(i == 0 ? "" : ",").append(values[i]);
+        }
+        calc.eval(builder.append("} x <=").toString());
+    }
+
+    @Benchmark
+    public Double stddev() throws RPNCalcException {
+        return calc.eval("x stddev");
+    }
+
+    @Benchmark
+    public Double median() throws RPNCalcException {
+        return calc.eval("x median");
+    }
+
+    @Benchmark
+    public Double percentile() throws RPNCalcException {
+        return calc.eval("x 99 pct");
+    }
+
+    @Benchmark
+    public double sortedMedian() {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return (sorted[(length - 1) / 2] + sorted[length / 2]) / 2.0;
+    }
+}
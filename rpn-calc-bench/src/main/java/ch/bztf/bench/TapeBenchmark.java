@@ -0,0 +1,100 @@
+package ch.bztf.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+import ch.bztf.Tape;
+
+/**
+ * Measures one tick of a live feed: appending a value and reading the moving
+ * average, minimum and maximum of the window. The tape updates them in constant
+ * time, whereas recomputing them from the window, which is the least re-pushing
+ * it onto the stack would cost, takes time proportional to the window.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar TapeBenchmark}.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TapeBenchmark {
+
+    /** The number of values in the window. */
+    @Param({ "16", "1024", "65536" })
+    public int window;
+
+    /** The calculator reading the tape. */
+    private RPNCalc calc;
+
+    /** The tape under test. */
+    private Tape tape;
+
+    /** The window kept by the recomputing baseline, as a ring. */
+    private double[] ring;
+
+    /** The number of values appended to {@link #ring}. */
+    private long count;
+
+    /** The values of the feed, replayed in a loop. */
+    private double[] feed;
+
+    /** The index of the next value of {@link #feed}. */
+    private int next;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(44);
+        feed = new double[1 << 16];
+        for (int i = 0; i < feed.length; i++) {
+            feed[i] = random.nextGaussian() * 10.0 + 100.0;
+        }
+        tape = new Tape(window);
+        ring = new double[window];
+        for (int i = 0; i < window; i++) {
+            tape.append(feed[i]);
+            ring[i] = feed[i];
+        }
+        count = window;
+        calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        calc.setTape(tape);
+    }
+
+    @Benchmark
+    public Double tape() throws RPNCalcException {
+        tape.append(feed[next++ & (feed.length - 1)]);
+        return calc.eval("tmax tmin - tavg /");
+    }
+
+    @Benchmark
+    public double recompute() {
+        ring[(int)(count++ % window)] = feed[next++ & (feed.length - 1)];
+        double sum = 0.0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : ring) {
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return (max - min) / (sum / window);
+    }
+}
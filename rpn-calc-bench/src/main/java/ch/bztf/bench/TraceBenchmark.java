@@ -0,0 +1,55 @@
+package ch.bztf.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+import ch.bztf.Tracer;
+
+/**
+ * Measures the cost of tracing evaluations, compared to tracing disabled.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar TraceBenchmark}.
+ * Add {@code -prof gc} to confirm that tracing does not allocate per token.
+ * </p>
+ * 
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceBenchmark {
+
+    /** Whether a tracer is installed. */
+    @Param({ "false", "true" })
+    public boolean traced;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    @Setup
+    public void setUp() {
+        calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        calc.setTracer(traced ? new Tracer() : null);
+    }
+
+    @Benchmark
+    public Double invoice() throws RPNCalcException {
+        return calc.eval("19.99 3 * 4.50 2 * + a <= 0.077 * a +");
+    }
+}
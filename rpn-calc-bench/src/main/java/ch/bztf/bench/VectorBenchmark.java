@@ -0,0 +1,77 @@
+package ch.bztf.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * Compares evaluating a formula once over a vector with
+ * evaluating it once per element using scalar registers.
+ * <p>
+ * Run with {@code java -jar rpn-calc-bench/target/benchmarks.jar VectorBenchmark}.
+ * Add {@code --add-modules jdk.incubator.vector} to the forked JVMs
+ * ({@code -jvmArgsAppend}) to use the explicitly vectorized kernels.
+ * </p>
+ * 
+ * @author Timothy R. Schmid
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorBenchmark {
+
+    /** The formula under test, computing a gross price from a net price in register 'p'. */
+    private static final String FORMULA = "p 1.077 * 0.05 - 100 * 0.5 + 100 /";
+
+    /** The number of elements the formula is evaluated for. */
+    @Param({ "16", "1024", "65536" })
+    public int length;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    /** The net prices. */
+    private double[] prices;
+
+    @Setup
+    public void setUp() {
+        calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        prices = new double[length];
+        for (int i = 0; i < length; i++) {
+            prices[i] = (i % 1000) * 0.25;
+        }
+        calc.setRegister("p", prices);
+    }
+
+    @Benchmark
+    public double[] vector() throws RPNCalcException {
+        calc.eval(FORMULA);
+        return calc.getLastVectorResult();
+    }
+
+    @Benchmark
+    public double[] scalar() throws RPNCalcException {
+        var result = new double[length];
+        for (int i = 0; i < length; i++) {
+            calc.setRegister("p", prices[i]);
+            result[i] = calc.eval(FORMULA);
+        }
+        return result;
+    }
+}
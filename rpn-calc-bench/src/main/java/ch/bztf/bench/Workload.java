@@ -0,0 +1,177 @@
+package ch.bztf.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The expressions replayed by {@link LoadTest}: either a recorded corpus,
+ * or a synthetic one of random expressions with a given number of tokens,
+ * mix of operators and share of failing expressions.
+ * <p>
+ * Synthetic expressions are well-formed unless meant to fail, which they do
+ * by underflowing the stack or by an unknown symbol, alternately. Operands are
+ * literals and reads of the default registers {@code a} to {@code z}, so the
+ * expressions do not depend on each other. In decimal mode, dividing by a
+ * register or taking a square root may fail as well.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+final class Workload {
+
+    /** The operator mix used unless one is given, as operators and their weights. */
+    static final String DEFAULT_MIX = "+:4,-:2,*:3,/:2,sqrt:1,pow2:1,abs:1,sum:1,avg:1,max:1";
+
+    /** The operators taking one operand. */
+    private static final Set<String> UNARY = Set.of("%", "neg", "abs", "pow2", "sqrt");
+
+    /** The operators taking two operands. */
+    private static final Set<String> BINARY = Set.of("+", "-", "*", "/", "mod", "rem", "pow",
+                                                     "lt", "le", "gt", "ge", "eq", "ne");
+
+    /** The operators taking all operands on the stack. */
+    private static final Set<String> NARY = Set.of("sum", "avg", "min", "max", "cnt", "var", "stddev", "median");
+
+    /** Private constructor, as this class only holds static functions. */
+    private Workload() {
+    }
+
+    /**
+     * Reads a recorded corpus with one expression per line.
+     * Blank lines and lines starting with {@code #} are skipped.
+     *
+     * @param file The corpus file, encoded in UTF-8.
+     * @return The expressions, in file order.
+     * @throws IOException Raised if reading fails.
+     * @throws IllegalArgumentException Raised if the file holds no expression.
+     */
+    static List<String> load(Path file) throws IOException, IllegalArgumentException {
+        var exprs = new ArrayList<String>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String expr = line.strip();
+            if (!expr.isEmpty() && !expr.startsWith("#")) {
+                exprs.add(expr);
+            }
+        }
+        if (exprs.isEmpty()) {
+            throw new IllegalArgumentException("Corpus '" + file + "' holds no expression");
+        }
+        return exprs;
+    }
+
+    /**
+     * Parses an operator mix such as {@code +:3,sqrt:1}. An operator
+     * without weight, such as {@code sqrt}, has a weight of 1.
+     *
+     * @param spec The comma-separated operators and weights.
+     * @return The weight of each operator, in the order given.
+     * @throws IllegalArgumentException Raised if an operator is unknown or not supported
+     *         by synthetic expressions, or a weight is not a positive integer.
+     */
+    static Map<String, Integer> parseMix(String spec) throws IllegalArgumentException {
+        var mix = new LinkedHashMap<String, Integer>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.strip().split(":", 2);
+            String op = parts[0];
+            if (!UNARY.contains(op) && !BINARY.contains(op) && !NARY.contains(op)) {
+                throw new IllegalArgumentException("Unsupported operator '" + op + "' in mix");
+            }
+            int weight;
+            try {
+                weight = (parts.length > 1) ? Integer.parseInt(parts[1].strip()) : 1;
+            } catch (NumberFormatException e) {
+                weight = 0;
+            }
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight of '" + op + "' must be a positive integer");
+            }
+            mix.merge(op, weight, Integer::sum);
+        }
+        return mix;
+    }
+
+    /**
+     * Generates a synthetic corpus. The same arguments always give the same corpus.
+     *
+     * @param count The number of expressions.
+     * @param tokens The number of tokens of each expression, roughly.
+     *               Expressions never end in the middle of an operation.
+     * @param mix The weight of each operator, as per {@link #parseMix(String)}.
+     * @param error_rate The share of expressions that fail, between 0 and 1.
+     * @param seed The seed of the random generator.
+     * @return The expressions.
+     * @throws IllegalArgumentException Raised if {@code count} or {@code tokens} is not
+     *         positive, or {@code error_rate} is not between 0 and 1.
+     */
+    static List<String> synthetic(int count, int tokens, Map<String, Integer> mix, double error_rate, long seed)
+    throws IllegalArgumentException {
+        if (count <= 0 || tokens <= 0) {
+            throw new IllegalArgumentException("Expression and token counts must be positive");
+        } else if (!(error_rate >= 0.0 && error_rate <= 1.0)) {
+            throw new IllegalArgumentException("Error rate must be between 0 and 1");
+        }
+        String[] ops = mix.keySet().toArray(new String[0]);
+        int[] cumulative = new int[ops.length];
+        int total = 0;
+        for (int i = 0; i < ops.length; i++) {
+            total += mix.get(ops[i]);
+            cumulative[i] = total;
+        }
+        var random = new Random(seed);
+        var exprs = new ArrayList<String>(count);
+        var builder = new StringBuilder();
+        int errors = 0;
+        for (int i = 0; i < count; i++) {
+            builder.setLength(0);
+            operand(builder, random);
+            int written = 1;
+            while (written < tokens) {
+                int pick = random.nextInt(total);
+                int k = 0;
+                while (cumulative[k] <= pick) {
+                    k++;
+                }
+                String op = ops[k];
+                int operands = UNARY.contains(op) ? 0 : BINARY.contains(op) ? 1 : 1 + random.nextInt(4);
+                for (int j = 0; j < operands; j++) {
+                    builder.append(' ');
+                    operand(builder, random);
+                }
+                builder.append(' ').append(op);
+                written += operands + 1;
+            }
+            /* Spread the failing expressions evenly, so any slice of the corpus has the same share */
+            if ((long)Math.floor((i + 1) * error_rate) > errors) {
+                builder.insert(0, (errors++ % 2 == 0) ? "+ " : "undefined ");
+            }
+            exprs.add(builder.toString());
+        }
+        return exprs;
+    }
+
+    /**
+     * Helper function which appends a random operand: a positive literal
+     * with up to two decimals, or a register read one time in four.
+     *
+     * @param builder The expression being built.
+     * @param random The random generator.
+     */
+    private static void operand(StringBuilder builder, Random random) {
+        if (random.nextInt(4) == 0) {
+            builder.append((char)('a' + random.nextInt(26)));
+        } else {
+            builder.append(1 + random.nextInt(999));
+            if (random.nextBoolean()) {
+                builder.append('.').append(random.nextInt(100));
+            }
+        }
+    }
+}
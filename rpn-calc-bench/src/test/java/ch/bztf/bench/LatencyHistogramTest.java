@@ -0,0 +1,109 @@
+package ch.bztf.bench;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link LatencyHistogram} class.
+ * The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class LatencyHistogramTest {
+
+    /** The relative error every reported value is within. */
+    private static final double RESOLUTION = 0.001;
+
+    /**
+     * Helper function which checks that a reported value is equivalent to the true one,
+     * i.e. at or above it and within the resolution.
+     *
+     * @param expected The true value.
+     * @param actual The reported value.
+     */
+    private static void assertWithinResolution(long expected, long actual) {
+        assertTrue(actual + " is below " + expected, actual >= expected);
+        assertTrue(actual + " is not within 0.1% of " + expected, actual - expected <= expected * RESOLUTION);
+    }
+
+    @Test
+    public void testValuesAcrossBucketBoundaries() {
+        long[] values = { 0, 1, 2047, 2048, 2049, 4095, 4096, 4097, 1_000_000, (1L << 40) + 12345, Long.MAX_VALUE / 2 };
+        for (long value : values) {
+            var histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE); // So the maximum does not cap the percentile
+            long reported = histogram.getValueAtPercentile(50.0);
+            if (value < 2048) {
+                assertEquals(value, reported);
+            } else {
+                assertWithinResolution(value, reported);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentilesAreWithinResolution() {
+        var random = new Random(45);
+        long[] values = new long[100000];
+        var histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long)Math.exp(random.nextDouble() * 20.0); // From 1 ns to half a second
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100.0));
+        assertWithinResolution(values[49999], histogram.getValueAtPercentile(50.0));
+        assertWithinResolution(values[98999], histogram.getValueAtPercentile(99.0));
+        assertWithinResolution(values[99989], histogram.getValueAtPercentile(99.99));
+        assertEquals(Arrays.stream(values).average().getAsDouble(), histogram.getMean(), 1.0e-6);
+    }
+
+    @Test
+    public void testEmptyAndNegativeValues() {
+        var histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testAddMergesHistograms() {
+        var random = new Random(46);
+        var whole = new LatencyHistogram();
+        var first = new LatencyHistogram();
+        var second = new LatencyHistogram();
+        for (int i = 0; i < 20000; i++) {
+            long value = 1000 + random.nextInt(5_000_000);
+            whole.record(value);
+            ((i % 3 == 0) ? first : second).record(value);
+        }
+        long count = second.getCount();
+        long max = second.getMax();
+        first.add(second);
+        assertEquals(count, second.getCount()); // Left unchanged
+        assertEquals(max, second.getMax());
+        assertEquals(whole.getCount(), first.getCount());
+        assertEquals(whole.getMin(), first.getMin());
+        assertEquals(whole.getMax(), first.getMax());
+        assertEquals(whole.getMean(), first.getMean(), 1.0e-6);
+        for (double p : new double[] { 0.0, 50.0, 90.0, 99.0, 99.9, 100.0 }) {
+            assertEquals(whole.getValueAtPercentile(p), first.getValueAtPercentile(p));
+        }
+        var empty = new LatencyHistogram();
+        empty.add(new LatencyHistogram());
+        assertEquals(0, empty.getMin());
+    }
+}
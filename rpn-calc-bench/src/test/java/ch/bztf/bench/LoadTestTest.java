@@ -0,0 +1,133 @@
+package ch.bztf.bench;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This is the test suite for the report comparison of the {@link LoadTest} class.
+ * The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class LoadTestTest {
+
+    /** The report of the base build. */
+    private Path base;
+
+    /** The report of the candidate build. */
+    private Path candidate;
+
+    @Before
+    public void setUp() throws IOException {
+        base = Files.createTempFile("rpn-calc", ".properties");
+        candidate = Files.createTempFile("rpn-calc", ".properties");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(base);
+        Files.deleteIfExists(candidate);
+    }
+
+    /**
+     * Helper function which builds the compared entries of a report, all 100.
+     *
+     * @return The entries, which may be changed.
+     */
+    private static Map<String, String> entries() {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("workload", "synthetic");
+        entries.put("threads", "1");
+        entries.put("throughput.ops", "100");
+        for (String p : new String[] { "50", "90", "99", "99.9", "99.99" }) {
+            entries.put("latency.p" + p + ".us", "100");
+        }
+        entries.put("alloc.bytes.per.op", "100");
+        return entries;
+    }
+
+    /**
+     * Helper function which writes a report.
+     *
+     * @param file The report file.
+     * @param entries The entries of the report.
+     * @throws IOException Raised if writing fails.
+     */
+    private static void write(Path file, Map<String, String> entries) throws IOException {
+        var lines = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            lines.add(entry.getKey() + "=" + entry.getValue());
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper function which compares the base report with a candidate
+     * differing in a single entry, at a threshold of 10%.
+     *
+     * @param key The entry that differs.
+     * @param value The value of the entry in the candidate.
+     * @return {@code true} if the candidate regressed.
+     * @throws IOException Raised if the reports cannot be written or read.
+     */
+    private boolean regressed(String key, String value) throws IOException {
+        write(base, entries());
+        var entries = entries();
+        entries.put(key, value);
+        write(candidate, entries);
+        return LoadTest.compare(base, candidate, 10.0);
+    }
+
+    @Test
+    public void testThroughputRegressesBelowThreshold() throws IOException {
+        assertFalse(regressed("throughput.ops", "100"));
+        assertFalse(regressed("throughput.ops", "90"));
+        assertTrue(regressed("throughput.ops", "89.9"));
+        assertFalse(regressed("throughput.ops", "1000"));
+    }
+
+    @Test
+    public void testLatencyAndAllocationRegressAboveThreshold() throws IOException {
+        assertFalse(regressed("latency.p99.us", "110"));
+        assertTrue(regressed("latency.p99.us", "110.1"));
+        assertFalse(regressed("latency.p50.us", "1"));
+        assertTrue(regressed("latency.p99.99.us", "200"));
+        assertFalse(regressed("alloc.bytes.per.op", "110"));
+        assertTrue(regressed("alloc.bytes.per.op", "111"));
+    }
+
+    @Test
+    public void testUnmeasuredEntriesAreSkipped() throws IOException {
+        assertFalse(regressed("alloc.bytes.per.op", "-1"));
+        var entries = entries();
+        entries.put("alloc.bytes.per.op", "-1");
+        write(base, entries);
+        entries.put("alloc.bytes.per.op", "1000000");
+        write(candidate, entries);
+        assertFalse(LoadTest.compare(base, candidate, 10.0));
+        entries.put("throughput.ops", "50");
+        write(candidate, entries);
+        assertTrue(LoadTest.compare(base, candidate, 10.0)); // Other entries are still compared
+    }
+
+    @Test
+    public void testIncompleteReportsAreRejected() throws IOException {
+        write(base, entries());
+        var entries = entries();
+        entries.remove("latency.p90.us");
+        write(candidate, entries);
+        var e = assertThrows(IllegalArgumentException.class, () -> LoadTest.compare(base, candidate, 10.0));
+        assertEquals("Reports must both have 'latency.p90.us'", e.getMessage());
+    }
+}
@@ -0,0 +1,101 @@
+package ch.bztf.bench;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+
+/**
+ * This is the test suite for the {@link Workload} class.
+ * The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class WorkloadTest {
+
+    /**
+     * Helper function which counts the expressions failing on a new calculator.
+     *
+     * @param exprs The expressions.
+     * @param from The position of the first expression counted.
+     * @param to The position after the last expression counted.
+     * @return The number of failing expressions.
+     */
+    private static int failures(List<String> exprs, int from, int to) {
+        var calc = new RPNCalc();
+        int failed = 0;
+        for (String expr : exprs.subList(from, to)) {
+            try {
+                calc.eval(expr);
+            } catch (RPNCalcException e) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    @Test
+    public void testMixIsParsed() {
+        assertEquals(List.of("+", "sqrt", "max"), List.copyOf(Workload.parseMix("+:3, sqrt ,max:2").keySet()));
+        assertEquals(Map.of("+", 3, "sqrt", 1, "max", 2), Workload.parseMix("+:3, sqrt ,max:2"));
+        assertEquals(Map.of("*", 5), Workload.parseMix("*:2,*:3"));
+        assertFalse(Workload.parseMix(Workload.DEFAULT_MIX).isEmpty());
+    }
+
+    @Test
+    public void testBadMixesAreRejected() {
+        for (String spec : new String[] { "", "foo:1", "+:0", "+:-2", "+:x", "+:1,,-:1", "range:1" }) {
+            assertThrows(spec, IllegalArgumentException.class, () -> Workload.parseMix(spec));
+        }
+        var e = assertThrows(IllegalArgumentException.class, () -> Workload.parseMix("+:2,foo"));
+        assertEquals("Unsupported operator 'foo' in mix", e.getMessage());
+    }
+
+    @Test
+    public void testSyntheticIsDeterministic() {
+        var mix = Workload.parseMix(Workload.DEFAULT_MIX);
+        var exprs = Workload.synthetic(500, 16, mix, 0.1, 45);
+        assertEquals(500, exprs.size());
+        assertEquals(exprs, Workload.synthetic(500, 16, mix, 0.1, 45));
+        assertNotEquals(exprs, Workload.synthetic(500, 16, mix, 0.1, 46));
+        for (String expr : exprs) {
+            assertTrue(expr, expr.split(" ").length >= 16);
+        }
+    }
+
+    @Test
+    public void testSyntheticRespectsTheErrorRate() {
+        var mix = Workload.parseMix(Workload.DEFAULT_MIX);
+        assertEquals(0, failures(Workload.synthetic(1000, 12, mix, 0.0, 45), 0, 1000));
+        var exprs = Workload.synthetic(1000, 12, mix, 0.05, 45);
+        assertEquals(50, failures(exprs, 0, 1000));
+        assertEquals(25, failures(exprs, 0, 500)); // Spread evenly
+        assertEquals(1000, failures(Workload.synthetic(1000, 12, mix, 1.0, 45), 0, 1000));
+        assertThrows(IllegalArgumentException.class, () -> Workload.synthetic(0, 12, mix, 0.0, 45));
+        assertThrows(IllegalArgumentException.class, () -> Workload.synthetic(10, 0, mix, 0.0, 45));
+        assertThrows(IllegalArgumentException.class, () -> Workload.synthetic(10, 12, mix, 1.5, 45));
+        assertThrows(IllegalArgumentException.class, () -> Workload.synthetic(10, 12, mix, Double.NaN, 45));
+    }
+
+    @Test
+    public void testCorpusIsLoaded() throws IOException {
+        Path file = Files.createTempFile("rpn-calc", ".rpn");
+        try {
+            Files.write(file, List.of("# Recorded", "1 2 +", "", "  3 sqrt  "), StandardCharsets.UTF_8);
+            assertEquals(List.of("1 2 +", "3 sqrt"), Workload.load(file));
+            Files.write(file, List.of("# Nothing", " "), StandardCharsets.UTF_8);
+            assertThrows(IllegalArgumentException.class, () -> Workload.load(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package ch.bztf;
+
+import java.util.Arrays;
+
+/**
+ * Reduces a stream of doubles in a single pass, used by {@link RPNCalc}
+ * to consume generators without putting their elements on the stack.
+ * <p>
+ * Values are added one at a time or in batches. Accumulators of consecutive
+ * parts of a stream can be merged, so parts can be reduced independently,
+ * e.g. on different threads. Merging the parts in order gives the same
+ * result as adding all values to one accumulator, except for
+ * {@link Kind#MOMENTS}, where the merge formula rounds differently.
+ * </p>
+ * An accumulator is not thread-safe.
+ *
+ * @author Timothy R. Schmid
+ */
+final class Accumulator {
+
+    /** What an accumulator keeps track of, besides the number of values. */
+    enum Kind {
+
+        /** Nothing but the number of values. */
+        COUNT,
+
+        /** The sum of all values. */
+        SUM,
+
+        /** The smallest value. */
+        MIN,
+
+        /** The largest value. */
+        MAX,
+
+        /** The mean and the sum of squared deviations from it, as per Welford. */
+        MOMENTS,
+
+        /** All values, for statistics that cannot be computed in a single pass. */
+        VALUES
+    }
+
+    /** What this accumulator keeps track of. */
+    private final Kind kind;
+
+    /** The number of values added. */
+    private long count = 0;
+
+    /** The sum, minimum or maximum, depending on {@link #kind}. */
+    private double value;
+
+    /** The running mean of {@link Kind#MOMENTS}. */
+    private double mean = 0.0;
+
+    /** The running sum of squared deviations from {@link #mean} of {@link Kind#MOMENTS}. */
+    private double m2 = 0.0;
+
+    /** The values added so far of {@link Kind#VALUES}, up to {@link #count}. */
+    private double[] values;
+
+    /**
+     * Constructor that creates an empty accumulator.
+     *
+     * @param kind What the accumulator keeps track of.
+     */
+    Accumulator(Kind kind) {
+        this.kind = kind;
+        this.value = (kind == Kind.MIN) ? Double.POSITIVE_INFINITY
+                   : (kind == Kind.MAX) ? Double.NEGATIVE_INFINITY : 0.0;
+        this.values = (kind == Kind.VALUES) ? new double[16] : null;
+    }
+
+    /**
+     * Gets the kind of accumulator to be used for an n-ary operator.
+     *
+     * @param op The n-ary operator in string form.
+     * @return The kind of accumulator that the result of {@code op} can be computed from.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     */
+    static Kind kindOf(String op) throws IllegalArgumentException {
+        switch (op) {
+            case "cnt":    return Kind.COUNT;
+            case "sum":    return Kind.SUM;
+            case "avg":    return Kind.SUM;
+            case "min":    return Kind.MIN;
+            case "max":    return Kind.MAX;
+            case "var":    return Kind.MOMENTS;
+            case "stddev": return Kind.MOMENTS;
+            case "median": return Kind.VALUES;
+            case "pct":    return Kind.VALUES;
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Adds a single value.
+     *
+     * @param x The value to be added.
+     */
+    void add(double x) {
+        switch (this.kind) {
+            case SUM:
+                this.value += x;
+                break;
+            case MIN:
+                this.value = Math.min(this.value, x);
+                break;
+            case MAX:
+                this.value = Math.max(this.value, x);
+                break;
+            case MOMENTS: {
+                double delta = x - this.mean;
+                this.mean += delta / (this.count + 1);
+                this.m2 += delta * (x - this.mean);
+                break;
+            }
+            case VALUES:
+                reserve(1);
+                this.values[(int)this.count] = x;
+                break;
+            default:
+                break;
+        }
+        this.count++;
+    }
+
+    /**
+     * Adds a batch of values, in order. The kind is checked once for
+     * the whole batch, which leaves plain loops for the JIT to optimize.
+     *
+     * @param xs The values to be added.
+     * @param n The number of values to be added from the start of {@code xs}.
+     */
+    void addAll(double[] xs, int n) {
+        switch (this.kind) {
+            case SUM: {
+                double sum = this.value;
+                for (int i = 0; i < n; i++) sum += xs[i];
+                this.value = sum;
+                break;
+            }
+            case MIN: {
+                double min = this.value;
+                for (int i = 0; i < n; i++) min = Math.min(min, xs[i]);
+                this.value = min;
+                break;
+            }
+            case MAX: {
+                double max = this.value;
+                for (int i = 0; i < n; i++) max = Math.max(max, xs[i]);
+                this.value = max;
+                break;
+            }
+            case MOMENTS: {
+                double mean = this.mean;
+                double m2 = this.m2;
+                long count = this.count;
+                for (int i = 0; i < n; i++) {
+                    double delta = xs[i] - mean;
+                    mean += delta / ++count;
+                    m2 += delta * (xs[i] - mean);
+                }
+                this.mean = mean;
+                this.m2 = m2;
+                break;
+            }
+            case VALUES:
+                reserve(n);
+                System.arraycopy(xs, 0, this.values, (int)this.count, n);
+                break;
+            default:
+                break;
+        }
+        this.count += n;
+    }
+
+    /**
+     * Adds a number of values without knowing them, which only
+     * an accumulator of {@link Kind#COUNT} is able to do.
+     *
+     * @param n The number of values.
+     */
+    void addCount(long n) {
+        this.count += n;
+    }
+
+    /**
+     * Merges the values of another accumulator of the same kind into this one,
+     * as if they had been added after the values of this one. Moments are merged
+     * using the pairwise formula of Chan, Golub and LeVeque.
+     *
+     * @param other The accumulator to be merged. It is not modified.
+     */
+    void merge(Accumulator other) {
+        if (other.count == 0) {
+            return;
+        }
+        switch (this.kind) {
+            case SUM:
+                this.value += other.value;
+                break;
+            case MIN:
+                this.value = Math.min(this.value, other.value);
+                break;
+            case MAX:
+                this.value = Math.max(this.value, other.value);
+                break;
+            case MOMENTS: {
+                double total = this.count + other.count;
+                double delta = other.mean - this.mean;
+                this.mean += delta * (other.count / total);
+                this.m2 += other.m2 + delta * delta * (this.count / total) * other.count;
+                break;
+            }
+            case VALUES:
+                reserve(other.count);
+                System.arraycopy(other.values, 0, this.values, (int)this.count, (int)other.count);
+                break;
+            default:
+                break;
+        }
+        this.count += other.count;
+    }
+
+    /**
+     * Helper function which makes room for more values in {@link #values}.
+     *
+     * @param n The number of values about to be added.
+     * @throws ArithmeticException Raised if the values would not fit into an array.
+     */
+    private void reserve(long n) throws ArithmeticException {
+        long needed = this.count + n;
+        if (needed > Statistics.MAX_VALUES) {
+            throw new ArithmeticException(String.format("More than %d values", Statistics.MAX_VALUES));
+        }
+        if (needed > this.values.length) {
+            long grown = Math.max(needed, Math.min(2L * this.values.length, Statistics.MAX_VALUES));
+            this.values = Arrays.copyOf(this.values, (int)grown);
+        }
+    }
+
+    /**
+     * Gets the number of values added.
+     *
+     * @return The count.
+     */
+    long count() {
+        return this.count;
+    }
+
+    /**
+     * Gets the sum, minimum or maximum, depending on the kind.
+     *
+     * @return The reduced value. It is NaN for the minimum and maximum of no values.
+     */
+    double value() {
+        return (this.count == 0 && this.kind != Kind.SUM) ? Double.NaN : this.value;
+    }
+
+    /**
+     * Gets the sample variance of {@link Kind#MOMENTS}.
+     *
+     * @return The variance, with Bessel's correction.
+     * @throws ArithmeticException Raised if there are fewer than two values,
+     *         like {@link Statistics#variance(Decimal[])} does.
+     */
+    double variance() throws ArithmeticException {
+        if (this.count < 2) {
+            throw new ArithmeticException("Variance requires at least two values");
+        }
+        return this.m2 / (this.count - 1);
+    }
+
+    /**
+     * Gets the values of {@link Kind#VALUES}.
+     *
+     * @return The values added so far, in order, which may be reordered by the caller.
+     *         The array may be longer than {@link #count()}.
+     */
+    double[] values() {
+        return this.values;
+    }
+}
@@ -0,0 +1,123 @@
+package ch.bztf;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only table of named constants, set per calculator via
+ * {@link RPNCalc#setConstants(Constants)}.
+ * <p>
+ * Unlike registers, constants are resolved to literals when an expression
+ * is read, so they are never looked up while it runs, never journaled and
+ * never rolled back. Storing into a constant is rejected.
+ * </p>
+ * Instances are immutable and can be shared between any number of calculators
+ * and threads. Start from {@link #NONE} or {@link #DEFAULT} and add constants,
+ * e.g. {@code Constants.DEFAULT.with("G", 6.6743e-11)}.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class Constants {
+
+    /** No constants at all. This is the default of every calculator. */
+    public static final Constants NONE = new Constants(Map.of());
+
+    /** The constants of the GUI: {@code PI}, {@code E}, {@code MIN}, {@code MAX}, {@code INF} and {@code NAN}. */
+    public static final Constants DEFAULT = NONE.with("PI",  Math.PI)
+                                                .with("E",   Math.E)
+                                                .with("MIN", Double.MIN_VALUE)
+                                                .with("MAX", Double.MAX_VALUE)
+                                                .with("INF", Double.POSITIVE_INFINITY)
+                                                .with("NAN", Double.NaN);
+
+    /** The value of each constant, in the order they were added. */
+    private final Map<String, Double> values;
+
+    /** The names of all constants, for looking up tokens without allocating. */
+    private final SymbolTable names = new SymbolTable();
+
+    /**
+     * Constructor that takes all constants.
+     *
+     * @param values The value of each constant. It is not copied.
+     */
+    private Constants(Map<String, Double> values) {
+        this.values = Collections.unmodifiableMap(values);
+        for (String name : values.keySet()) {
+            this.names.add(name);
+        }
+    }
+
+    /**
+     * Creates a copy with an additional or replaced constant.
+     *
+     * @param name The name of the constant. It is used as a token in expressions.
+     * @param value The value of the constant.
+     * @return The new constants.
+     * @throws IllegalArgumentException Raised if {@code name} is empty,
+     *         contains whitespace or is a numeric literal.
+     */
+    public Constants with(String name, double value) throws IllegalArgumentException {
+        if (name.isEmpty() || name.chars().anyMatch(c -> Tokenizer.isWhitespace((char)c))) {
+            throw new IllegalArgumentException(String.format("Constant name '%s' is not a single token", name));
+        }
+        if (Literals.isCandidate(name, 0, name.length())) {
+            try {
+                Literals.parseDouble(name, 0, name.length());
+                throw new IllegalArgumentException(String.format("Constant name '%s' is a number", name));
+            } catch (NumberFormatException e) {
+                /* Only looks like a number */
+            }
+        }
+        var values = new LinkedHashMap<String, Double>(this.values);
+        values.put(name, value);
+        return new Constants(values);
+    }
+
+    /**
+     * Gets the value of a constant.
+     *
+     * @param name The name of the constant.
+     * @return The value of {@code name}, or {@code null} if there is no such constant.
+     */
+    public Double get(String name) {
+        return this.values.get(name);
+    }
+
+    /**
+     * Checks whether a constant exists.
+     *
+     * @param name The name to be checked.
+     * @return {@code true} if {@code name} is a constant.
+     */
+    public boolean contains(String name) {
+        return this.values.containsKey(name);
+    }
+
+    /**
+     * Gets the names of all constants.
+     *
+     * @return The names, in the order they were added. The set cannot be modified.
+     */
+    public Set<String> names() {
+        return this.values.keySet();
+    }
+
+    /**
+     * Looks up the value of the constant named by a span.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @return The value of the constant, or {@code null} if the span names none.
+     */
+    Double lookup(CharSequence chars, int start, int length) {
+        if (this.values.isEmpty()) {
+            return null; // The common case of a calculator without constants
+        }
+        String name = this.names.lookup(chars, start, length);
+        return (name != null) ? this.values.get(name) : null;
+    }
+}
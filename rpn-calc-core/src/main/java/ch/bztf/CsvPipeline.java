@@ -0,0 +1,657 @@
+package ch.bztf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Evaluates an RPN expression once for every row of a CSV file, with the
+ * columns bound to the registers of the same name, and writes each row
+ * followed by its result to another CSV file.
+ * <p>
+ * For example, evaluating {@code a b * c +} on
+ * </p>
+ * <pre>
+ * a,b,c
+ * 2,3,1
+ * </pre>
+ * writes
+ * <pre>
+ * a,b,c,result
+ * 2,3,1,7.0
+ * </pre>
+ * <p>
+ * The first row is the header. Columns named after a register of the
+ * calculator are bound to it, all others are passed through untouched.
+ * Every row is evaluated on its own, starting from the registers the
+ * calculator holds when the pipeline is run, so stores into registers
+ * do not carry over from one row to the next. The calculator itself is
+ * not changed. Fields may be quoted as described by RFC 4180.
+ * </p>
+ * <p>
+ * The input is read through a buffer in chunks of rows. Numbers are parsed
+ * straight from the bytes of the chunk, without a string per field, and the
+ * expression is compiled only once. Chunks are evaluated in parallel, each on
+ * its own copy of the calculator, but written in their original order. Only
+ * a bounded number of chunks is in memory at a time, whatever the file size.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+public final class CsvPipeline {
+
+    /** The default number of rows evaluated as one chunk. */
+    public static final int DEFAULT_CHUNK_ROWS = 1 << 12;
+
+    /** The default name of the column the results are written to. */
+    public static final String DEFAULT_RESULT_COLUMN = "result";
+
+    /** The size of the buffer the input is read into, which grows for longer chunks. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The byte order mark some tools put in front of UTF-8 files. */
+    private static final byte[] BOM = { (byte)0xEF, (byte)0xBB, (byte)0xBF };
+
+    /** The calculator providing mode, limits and registers. */
+    private final RPNCalc calc;
+
+    /** The RPN expression evaluated for every row. */
+    private final String expr;
+
+    /** The number of rows evaluated as one chunk. */
+    private int chunk_rows = DEFAULT_CHUNK_ROWS;
+
+    /** The maximum number of chunks evaluated at the same time. */
+    private int parallelism = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+
+    /** The name of the column the results are written to. */
+    private String result_column = DEFAULT_RESULT_COLUMN;
+
+    /**
+     * Constructor that takes the calculator and the expression.
+     * Neither is used before the pipeline is run.
+     *
+     * @param calc The calculator whose mode, limits and registers are used.
+     * @param expr The RPN expression to be evaluated for every row.
+     *             It must yield exactly one number.
+     */
+    public CsvPipeline(RPNCalc calc, String expr) {
+        this.calc = calc;
+        this.expr = expr;
+    }
+
+    /**
+     * Sets the number of rows evaluated as one chunk. Larger chunks cost
+     * more memory, smaller ones more coordination between threads.
+     *
+     * @param rows The number of rows per chunk.
+     * @throws IllegalArgumentException Raised if {@code rows} is less than one.
+     */
+    public void setChunkRows(int rows) throws IllegalArgumentException {
+        if (rows < 1) {
+            throw new IllegalArgumentException("Chunks must hold at least one row");
+        }
+        this.chunk_rows = rows;
+    }
+
+    /**
+     * Sets the maximum number of chunks evaluated at the same time.
+     * This also bounds the number of chunks held in memory.
+     * The default is the parallelism of the common fork-join pool.
+     *
+     * @param parallelism The number of chunks, 1 to evaluate sequentially.
+     * @throws IllegalArgumentException Raised if {@code parallelism} is less than one.
+     */
+    public void setParallelism(int parallelism) throws IllegalArgumentException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least one");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the name of the column the results are written to.
+     *
+     * @param name The column name, written to the header as it is.
+     */
+    public void setResultColumn(String name) {
+        this.result_column = name;
+    }
+
+    /**
+     * Runs the pipeline on two files. The output file is created or replaced.
+     *
+     * @param in The input CSV file.
+     * @param out The output CSV file.
+     * @return The number of rows evaluated, excluding the header.
+     * @throws IOException Raised if reading or writing fails.
+     * @throws RPNCalcException Raised if the expression or the header is invalid,
+     *         or if evaluating a row fails. The output is incomplete in that case.
+     */
+    public long run(Path in, Path out) throws IOException, RPNCalcException {
+        try (var input = FileChannel.open(in, StandardOpenOption.READ);
+             var output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING)) {
+            return run(input, output);
+        }
+    }
+
+    /**
+     * Runs the pipeline on two channels, which are not closed.
+     * Rows are written as soon as all rows before them have been,
+     * so the output can be consumed while the input is still being read.
+     *
+     * @param in The channel providing the input CSV.
+     * @param out The channel the output CSV is written to.
+     * @return The number of rows evaluated, excluding the header.
+     * @throws IOException Raised if reading or writing fails.
+     * @throws RPNCalcException Raised if the expression or the header is invalid,
+     *         or if evaluating a row fails. The output is incomplete in that case.
+     */
+    public long run(ReadableByteChannel in, WritableByteChannel out) throws IOException, RPNCalcException {
+        Quotation code = this.calc.compile(this.expr);
+        var reader = new ChunkReader(in);
+        Chunk header = reader.next(1);
+        if (header == null) {
+            throw new RPNCalcException("CSV input has no header");
+        }
+        Binding binding = bind(header);
+        var output = new Output(header.bytes.length + this.result_column.length() + 2);
+        output.write(header.bytes, header.starts[0], header.ends[0]);
+        output.write(',');
+        output.write(this.result_column);
+        output.write('\n');
+        output.drain(out);
+
+        /* One calculator per chunk in flight, as calculators are not thread-safe */
+        var workers = new ConcurrentLinkedQueue<RPNCalc>();
+        for (int i = 0; i < this.parallelism; i++) {
+            workers.add(this.calc.fork());
+        }
+        Executor executor = (this.parallelism == 1) ? Runnable::run : ForkJoinPool.commonPool();
+        var pending = new ArrayDeque<CompletableFuture<Output>>();
+        long rows = 0;
+        try {
+            Chunk chunk;
+            while ((chunk = reader.next(this.chunk_rows)) != null) {
+                if (pending.size() == this.parallelism) {
+                    pending.poll().join().drain(out); // Keeps the output in order
+                }
+                Chunk current = chunk;
+                long first = rows + 1;
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    RPNCalc worker = workers.poll();
+                    try {
+                        return evaluate(worker, code, binding, current, first);
+                    } catch (RPNCalcException e) {
+                        throw new CompletionException(e);
+                    } finally {
+                        workers.add(worker);
+                    }
+                }, executor));
+                rows += chunk.rows;
+            }
+            while (!pending.isEmpty()) {
+                pending.poll().join().drain(out);
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RPNCalcException) {
+                throw (RPNCalcException)e.getCause();
+            }
+            throw e;
+        } finally {
+            /* Chunks still in flight if a row, reading or writing failed; none otherwise */
+            for (CompletableFuture<Output> future : pending) {
+                future.cancel(false);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Helper function which maps the columns named after registers to them.
+     *
+     * @param header The chunk holding the header row.
+     * @return The binding of columns to registers.
+     * @throws RPNCalcException Raised if a register is named twice or holds a formula.
+     */
+    private Binding bind(Chunk header) throws RPNCalcException {
+        var names = new ArrayList<String>();
+        var columns = new ArrayList<Integer>();
+        int column = 0;
+        int from = header.starts[0];
+        int end = header.ends[0];
+        if (end - from >= BOM.length && Arrays.equals(header.bytes, from, from + BOM.length, BOM, 0, BOM.length)) {
+            from += BOM.length;
+        }
+        while (from <= end) {
+            int to = fieldEnd(header.bytes, from, end);
+            String name = unquote(new String(header.bytes, from, to - from, StandardCharsets.UTF_8).trim());
+            if (this.calc.hasRegister(name)) {
+                if (names.contains(name)) {
+                    throw new RPNCalcException(String.format("Column '%s' appears twice", name));
+                } else if (this.calc.getFormula(name) != null) {
+                    throw new RPNCalcException(String.format("Column '%s' is bound to a formula register", name));
+                }
+                names.add(name);
+                columns.add(column);
+            }
+            column++;
+            from = to + 1;
+        }
+        var binding = new Binding(names.toArray(new String[0]), column);
+        for (int i = 0; i < columns.size(); i++) {
+            binding.slots[columns.get(i)] = i;
+        }
+        return binding;
+    }
+
+    /**
+     * Helper function which evaluates all rows of a chunk.
+     *
+     * @param worker The calculator the rows are evaluated on.
+     * @param code The compiled expression.
+     * @param binding The binding of columns to registers.
+     * @param chunk The rows.
+     * @param first The number of the first row, counting from 1 after the header.
+     * @return The rows followed by their results.
+     * @throws RPNCalcException Raised if a field is no number or evaluating a row fails.
+     */
+    private Output evaluate(RPNCalc worker, Quotation code, Binding binding, Chunk chunk, long first)
+    throws RPNCalcException {
+        var output = new Output(chunk.bytes.length + chunk.rows * 24);
+        var chars = new ByteChars(chunk.bytes);
+        var vals = new Object[binding.regs.length];
+        boolean decimal = worker.getMode() == RPNCalc.Mode.DECIMAL;
+        for (int row = 0; row < chunk.rows; row++) {
+            long number = first + row;
+            int from = chunk.starts[row];
+            int end = chunk.ends[row];
+            int found = 0;
+            for (int column = 0; from <= end && found < vals.length; column++) {
+                int to = fieldEnd(chunk.bytes, from, end);
+                int slot = (column < binding.slots.length) ? binding.slots[column] : -1;
+                if (slot >= 0) {
+                    vals[slot] = parse(chars, from, to, decimal, number, binding.regs[slot]);
+                    found++;
+                }
+                from = to + 1;
+            }
+            if (found < vals.length) {
+                throw new RPNCalcException(String.format("Row %d: Too few columns", number));
+            }
+            Object result;
+            try {
+                result = worker.evalRow(code, binding.regs, vals);
+            } catch (RPNCalcException e) {
+                var error = new RPNCalcException(String.format("Row %d: %s", number, e.getMessage()));
+                error.initCause(e);
+                throw error;
+            }
+            output.write(chunk.bytes, chunk.starts[row], end);
+            output.write(',');
+            output.write(result.toString());
+            output.write('\n');
+        }
+        return output;
+    }
+
+    /**
+     * Helper function which parses a field as a number, without copying it.
+     * Surrounding whitespace and quotes are ignored.
+     *
+     * @param chars The bytes of the chunk, as characters.
+     * @param from The start of the field.
+     * @param to The end of the field, exclusive.
+     * @param decimal Whether to parse a decimal instead of a double.
+     * @param row The number of the row, for error messages.
+     * @param reg The register the column is bound to, for error messages.
+     * @return The parsed number.
+     * @throws RPNCalcException Raised if the field is no number.
+     */
+    private static Object parse(ByteChars chars, int from, int to, boolean decimal, long row, String reg)
+    throws RPNCalcException {
+        while (from < to && chars.charAt(from) == ' ') {
+            from++;
+        }
+        while (to > from && chars.charAt(to - 1) == ' ') {
+            to--;
+        }
+        if (to - from >= 2 && chars.charAt(from) == '"' && chars.charAt(to - 1) == '"') {
+            from++;
+            to--;
+        }
+        try {
+            if (to > from && Literals.isCandidate(chars, from, to - from)) {
+                return decimal ? Decimal.parse(chars, from, to - from) : Literals.parseDouble(chars, from, to - from);
+            }
+        } catch (NumberFormatException e) {
+            /* Reported below */
+        }
+        throw new RPNCalcException(String.format("Row %d: Column '%s' is not a number", row, reg));
+    }
+
+    /**
+     * Helper function which finds the end of a field, skipping over commas in quotes.
+     *
+     * @param bytes The bytes of the row.
+     * @param from The start of the field.
+     * @param end The end of the row, exclusive.
+     * @return The position of the comma ending the field, or {@code end} for the last one.
+     */
+    private static int fieldEnd(byte[] bytes, int from, int end) {
+        boolean quoted = false;
+        int i = from;
+        for (; i < end; i++) {
+            if (bytes[i] == '"') {
+                quoted = !quoted;
+            } else if (bytes[i] == ',' && !quoted) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Helper function which removes the quotes around a header field.
+     *
+     * @param field The field, without surrounding whitespace.
+     * @return The field without quotes, with escaped quotes unescaped.
+     */
+    private static String unquote(String field) {
+        if (field.length() >= 2 && field.startsWith("\"") && field.endsWith("\"")) {
+            return field.substring(1, field.length() - 1).replace("\"\"", "\"");
+        }
+        return field;
+    }
+
+    /** Which columns are bound to which registers. */
+    private static final class Binding {
+
+        /** The registers bound, in order of their columns. */
+        final String[] regs;
+
+        /** The position within {@link #regs} of each column, or -1 if it is not bound. */
+        final int[] slots;
+
+        /**
+         * Constructor that leaves all columns unbound.
+         *
+         * @param regs The registers bound, in order of their columns.
+         * @param columns The number of columns in the header.
+         */
+        Binding(String[] regs, int columns) {
+            this.regs = regs;
+            this.slots = new int[columns];
+            Arrays.fill(this.slots, -1);
+        }
+    }
+
+    /** A number of consecutive rows, copied out of the input buffer. */
+    private static final class Chunk {
+
+        /** The bytes of the rows. */
+        final byte[] bytes;
+
+        /** The start of each row within {@link #bytes}. */
+        final int[] starts;
+
+        /** The end of each row within {@link #bytes}, exclusive and without line terminator. */
+        final int[] ends;
+
+        /** The number of rows. */
+        final int rows;
+
+        /**
+         * Constructor that takes all fields.
+         *
+         * @param bytes The bytes of the rows.
+         * @param starts The start of each row.
+         * @param ends The end of each row.
+         * @param rows The number of rows.
+         */
+        Chunk(byte[] bytes, int[] starts, int[] ends, int rows) {
+            this.bytes = bytes;
+            this.starts = starts;
+            this.ends = ends;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Splits the input into chunks of rows. Rows end at line feeds outside
+     * of quotes. Carriage returns before them and empty rows are dropped.
+     */
+    private static final class ChunkReader {
+
+        /** The channel the input is read from. */
+        private final ReadableByteChannel channel;
+
+        /** The bytes read but not yet handed out in a chunk. */
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        /** The number of valid bytes in {@link #buffer}. */
+        private int length = 0;
+
+        /** The position up to which {@link #buffer} has been split into rows. */
+        private int scan = 0;
+
+        /** Whether {@link #scan} is within quotes. */
+        private boolean quoted = false;
+
+        /** Whether the channel has no more bytes. */
+        private boolean eof = false;
+
+        /**
+         * Constructor that takes the channel.
+         *
+         * @param channel The channel the input is read from.
+         */
+        ChunkReader(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Reads the next chunk.
+         *
+         * @param max The maximum number of rows in the chunk.
+         * @return The chunk, or {@code null} at the end of the input.
+         * @throws IOException Raised if reading fails.
+         */
+        Chunk next(int max) throws IOException {
+            var starts = new int[max];
+            var ends = new int[max];
+            int rows = 0;
+            int start = 0;
+            while (rows < max) {
+                if (this.scan == this.length) {
+                    if (this.eof) {
+                        break;
+                    }
+                    fill();
+                    continue;
+                }
+                byte b = this.buffer[this.scan++];
+                if (b == '"') {
+                    this.quoted = !this.quoted;
+                } else if (b == '\n' && !this.quoted) {
+                    int end = this.scan - 1;
+                    if (end > start && this.buffer[end - 1] == '\r') {
+                        end--;
+                    }
+                    if (end > start) {
+                        starts[rows] = start;
+                        ends[rows++] = end;
+                    }
+                    start = this.scan;
+                }
+            }
+            if (rows < max && this.eof && this.scan > start) {
+                int end = this.scan; // Last row without line terminator
+                if (this.buffer[end - 1] == '\r') {
+                    end--;
+                }
+                if (end > start) {
+                    starts[rows] = start;
+                    ends[rows++] = end;
+                }
+                start = this.scan;
+            }
+            if (rows == 0) {
+                return null;
+            }
+            /* Hand out the rows and keep the rest of the buffer */
+            byte[] bytes = Arrays.copyOf(this.buffer, start);
+            System.arraycopy(this.buffer, start, this.buffer, 0, this.length - start);
+            this.length -= start;
+            this.scan -= start;
+            return new Chunk(bytes, starts, ends, rows);
+        }
+
+        /**
+         * Helper function which reads more bytes, growing the buffer if it is full.
+         *
+         * @throws IOException Raised if reading fails.
+         */
+        private void fill() throws IOException {
+            if (this.length == this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, 2 * this.buffer.length);
+            }
+            int read = this.channel.read(ByteBuffer.wrap(this.buffer, this.length, this.buffer.length - this.length));
+            if (read < 0) {
+                this.eof = true;
+            } else {
+                this.length += read;
+            }
+        }
+    }
+
+    /**
+     * A view of bytes as characters, so fields can be parsed in place.
+     * Numbers are ASCII, so each byte is one character.
+     */
+    private static final class ByteChars implements CharSequence {
+
+        /** The bytes viewed. */
+        private final byte[] bytes;
+
+        /**
+         * Constructor that takes the bytes.
+         *
+         * @param bytes The bytes to be viewed.
+         */
+        ByteChars(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return this.bytes.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char)(this.bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(this.bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(this.bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /** A growing buffer of output bytes. */
+    private static final class Output {
+
+        /** The bytes written so far. */
+        private byte[] bytes;
+
+        /** The number of bytes written so far. */
+        private int length = 0;
+
+        /**
+         * Constructor that takes the expected size.
+         *
+         * @param capacity The initial capacity in bytes.
+         */
+        Output(int capacity) {
+            this.bytes = new byte[Math.max(16, capacity)];
+        }
+
+        /**
+         * Helper function which makes room for more bytes.
+         *
+         * @param more The number of bytes to make room for.
+         */
+        private void reserve(int more) {
+            if (this.length + more > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(2 * this.bytes.length, this.length + more));
+            }
+        }
+
+        /**
+         * Appends a single byte.
+         *
+         * @param b The byte.
+         */
+        void write(char b) {
+            reserve(1);
+            this.bytes[this.length++] = (byte)b;
+        }
+
+        /**
+         * Appends a range of bytes.
+         *
+         * @param src The bytes.
+         * @param from The start of the range.
+         * @param to The end of the range, exclusive.
+         */
+        void write(byte[] src, int from, int to) {
+            reserve(to - from);
+            System.arraycopy(src, from, this.bytes, this.length, to - from);
+            this.length += to - from;
+        }
+
+        /**
+         * Appends a string, encoded as UTF-8.
+         *
+         * @param str The string.
+         */
+        void write(String str) {
+            byte[] encoded = str.getBytes(StandardCharsets.UTF_8);
+            write(encoded, 0, encoded.length);
+        }
+
+        /**
+         * Writes all bytes to a channel and empties the buffer.
+         *
+         * @param channel The channel to be written to.
+         * @throws IOException Raised if writing fails.
+         */
+        void drain(WritableByteChannel channel) throws IOException {
+            var buffer = ByteBuffer.wrap(this.bytes, 0, this.length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            this.length = 0;
+        }
+    }
+}
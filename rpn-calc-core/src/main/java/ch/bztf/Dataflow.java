@@ -0,0 +1,399 @@
+package ch.bztf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dataflow graph of an RPN expression, used by {@link RPNCalc} to evaluate
+ * independent subexpressions of large expressions concurrently.
+ * <p>
+ * The graph is built token by token, like the expression would be evaluated,
+ * except that the stack holds nodes instead of values. Each operator becomes
+ * a node whose children are the nodes it pops, so the graph is a forest whose
+ * roots are the final stack. Nodes are numbered in token order, which makes
+ * every subexpression a contiguous range of nodes ending with its root.
+ * Evaluating a range in order is exactly what sequential evaluation does.
+ * </p>
+ * <p>
+ * Where a node has at least two subexpressions of {@link #threshold} nodes or
+ * more, these are evaluated on the common fork-join pool. Smaller neighbouring
+ * subexpressions are batched up to the threshold first. Register accesses
+ * keep their sequential order: subexpressions only run concurrently if none
+ * of them stores into a register, or if the only one that does is also the
+ * only one accessing registers at all. Otherwise they run in token order.
+ * </p>
+ * Node values are computed by an {@link Evaluator}, so the graph itself
+ * knows nothing about operators or registers.
+ *
+ * @author Timothy R. Schmid
+ */
+final class Dataflow {
+
+    /**
+     * Computes the value of a single node.
+     * It may be called on several threads at once.
+     */
+    @FunctionalInterface
+    interface Evaluator {
+
+        /**
+         * Computes the value of a single node from the values of its children.
+         *
+         * @param op What the node does.
+         * @param operand The value pushed by {@link Quotation.Op#PUSH},
+         *                or the register or operator name otherwise.
+         * @param operands The values of the children, in token order.
+         * @return The value of the node.
+         * @throws RPNCalcException Raised if the value cannot be computed.
+         */
+        Object evaluate(Quotation.Op op, Object operand, Object[] operands) throws RPNCalcException;
+    }
+
+    /** The maximum number of nested fork points, beyond which ranges are evaluated in order. */
+    private static final int MAX_FORK_DEPTH = 64;
+
+    /** The minimum number of nodes of a subexpression worth evaluating concurrently. */
+    private final int threshold;
+
+    /** What each node does. */
+    private Quotation.Op[] ops = new Quotation.Op[64];
+
+    /** The pushed value or name of each node. */
+    private Object[] operands = new Object[64];
+
+    /** The children of each node in token order, {@code null} for leaves. */
+    private int[][] children = new int[64][];
+
+    /** The first node of the subexpression of each node, i.e. the start of its range. */
+    private int[] first = new int[64];
+
+    /** The number of register reads and stores before each node, for range queries. */
+    private int[] accesses = new int[65];
+
+    /** The number of register stores before each node, for range queries. */
+    private int[] stores = new int[65];
+
+    /** The number of nodes. */
+    private int size = 0;
+
+    /** The nodes on the stack, topmost last. */
+    private int[] stack = new int[64];
+
+    /** The number of nodes on the stack. */
+    private int depth = 0;
+
+    /** The value of each node, once evaluated. */
+    private Object[] values = null;
+
+    /**
+     * Constructor that takes the size from which subexpressions are evaluated concurrently.
+     *
+     * @param threshold The minimum number of nodes of a concurrently evaluated subexpression.
+     */
+    Dataflow(int threshold) {
+        this.threshold = Math.max(1, threshold);
+    }
+
+    /**
+     * Gets the number of nodes.
+     *
+     * @return The number of nodes added so far.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Adds a literal, which is pushed onto the stack.
+     *
+     * @param value The literal value.
+     */
+    void push(Object value) {
+        add(Quotation.Op.PUSH, value, null, false, false);
+    }
+
+    /**
+     * Adds a register read, which is pushed onto the stack.
+     *
+     * @param reg The register to be read.
+     */
+    void read(String reg) {
+        add(Quotation.Op.READ, reg, null, true, false);
+    }
+
+    /**
+     * Adds a register store, which replaces the topmost node of the stack.
+     * Like the store itself, it yields the value it stores.
+     *
+     * @param reg The register to be stored into.
+     * @return {@code false} if the stack is empty, in which case nothing is added.
+     */
+    boolean store(String reg) {
+        if (this.depth == 0) {
+            return false;
+        }
+        add(Quotation.Op.STORE, reg, new int[] { this.stack[--this.depth] }, true, true);
+        return true;
+    }
+
+    /**
+     * Adds an operator, which replaces its operands on the stack.
+     *
+     * @param op The operator name.
+     * @param arity The number of operands, or a negative number to take the whole stack.
+     * @return {@code false} if the stack holds too few operands, in which case nothing is added.
+     */
+    boolean apply(String op, int arity) {
+        int count = (arity < 0) ? this.depth : arity;
+        if (count == 0 || count > this.depth) {
+            return false;
+        }
+        this.depth -= count;
+        add(Quotation.Op.APPLY, op, Arrays.copyOfRange(this.stack, this.depth, this.depth + count), false, false);
+        return true;
+    }
+
+    /**
+     * Helper function which adds a node and pushes it onto the stack.
+     *
+     * @param op What the node does.
+     * @param operand The pushed value or name.
+     * @param kids The children in token order, or {@code null} for a leaf.
+     * @param access Whether the node reads or stores into a register.
+     * @param store Whether the node stores into a register.
+     */
+    private void add(Quotation.Op op, Object operand, int[] kids, boolean access, boolean store) {
+        int node = this.size;
+        if (node == this.ops.length) {
+            int capacity = 2 * node;
+            this.ops = Arrays.copyOf(this.ops, capacity);
+            this.operands = Arrays.copyOf(this.operands, capacity);
+            this.children = Arrays.copyOf(this.children, capacity);
+            this.first = Arrays.copyOf(this.first, capacity);
+            this.accesses = Arrays.copyOf(this.accesses, capacity + 1);
+            this.stores = Arrays.copyOf(this.stores, capacity + 1);
+        }
+        this.ops[node] = op;
+        this.operands[node] = operand;
+        this.children[node] = kids;
+        this.first[node] = (kids == null) ? node : this.first[kids[0]];
+        this.accesses[node + 1] = this.accesses[node] + (access ? 1 : 0);
+        this.stores[node + 1] = this.stores[node] + (store ? 1 : 0);
+        this.size++;
+        if (this.depth == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, 2 * this.depth);
+        }
+        this.stack[this.depth++] = node;
+    }
+
+    /**
+     * Evaluates all nodes. If the graph is large enough, independent
+     * subexpressions are evaluated on the common fork-join pool.
+     *
+     * @param evaluator Computes the value of each node.
+     * @return The values of the nodes left on the stack, topmost last.
+     * @throws RPNCalcException Raised if the value of a node cannot be computed.
+     *         If several nodes fail concurrently, any one of them is reported.
+     */
+    Object[] evaluate(Evaluator evaluator) throws RPNCalcException {
+        int[] roots = Arrays.copyOf(this.stack, this.depth);
+        this.depth = 0;
+        add(null, null, roots, false, false); // Collects the final stack, without computing anything
+        int root = this.size - 1;
+        this.values = new Object[this.size];
+        try {
+            if (this.size >= 2 * this.threshold) {
+                ForkJoinPool.commonPool().invoke(new Task(evaluator, this.first[root], root, 0));
+            } else {
+                evaluateRange(evaluator, 0, root);
+            }
+        } catch (CompletionException e) {
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof RPNCalcException) {
+                    throw (RPNCalcException)cause;
+                }
+            }
+            throw e;
+        }
+        var result = new Object[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            result[i] = this.values[roots[i]];
+        }
+        return result;
+    }
+
+    /** Evaluates a contiguous range of nodes, forking where it pays off. */
+    private final class Task extends RecursiveAction {
+
+        /** Required, as fork-join tasks are serializable. */
+        private static final long serialVersionUID = 1L;
+
+        /** Computes the value of each node. */
+        private final transient Evaluator evaluator;
+
+        /** The first node of the range. */
+        private final int from;
+
+        /** The last node of the range, inclusive. */
+        private final int to;
+
+        /** The number of fork points this task is nested in. */
+        private final int forks;
+
+        /**
+         * Constructor that takes all fields.
+         *
+         * @param evaluator Computes the value of each node.
+         * @param from The first node of the range.
+         * @param to The last node of the range, inclusive.
+         * @param forks The number of fork points this task is nested in.
+         */
+        Task(Evaluator evaluator, int from, int to, int forks) {
+            this.evaluator = evaluator;
+            this.from = from;
+            this.to = to;
+            this.forks = forks;
+        }
+
+        /** Evaluates the range, which is a single subexpression or a batch of them. */
+        @Override
+        protected void compute() {
+            if (first[this.to] != this.from) {
+                evaluateRange(this.evaluator, this.from, this.to); // A batch of small subexpressions
+            } else {
+                evaluateTree(this.evaluator, this.to, this.forks);
+            }
+        }
+    }
+
+    /**
+     * Helper function which evaluates the subexpression of a node. It descends
+     * while there is a single large subexpression, to the first node with at
+     * least two of them. The nodes before that one's subexpression are evaluated
+     * first and those after it last, so their order is the sequential one.
+     *
+     * @param evaluator Computes the value of each node.
+     * @param root The root node of the subexpression.
+     * @param forks The number of fork points this evaluation is nested in.
+     */
+    private void evaluateTree(Evaluator evaluator, int root, int forks) {
+        int node = root;
+        while (forks < MAX_FORK_DEPTH) {
+            List<int[]> units = unitsOf(node);
+            int large = 0;
+            int[] last = null;
+            for (int[] unit : units) {
+                if (unit[1] - unit[0] + 1 >= this.threshold) {
+                    large++;
+                    last = unit;
+                }
+            }
+            if (large >= 2 && isIndependent(units)) {
+                evaluateRange(evaluator, this.first[root], this.first[node] - 1);
+                var tasks = new ArrayList<Task>();
+                for (int[] unit : units) {
+                    if (unit[1] - unit[0] + 1 >= this.threshold) {
+                        tasks.add(new Task(evaluator, unit[0], unit[1], forks + 1));
+                    } else {
+                        evaluateRange(evaluator, unit[0], unit[1]);
+                    }
+                }
+                ForkJoinTask.invokeAll(tasks);
+                evaluateRange(evaluator, node, root);
+                return;
+            } else if (large == 1 && this.first[last[1]] == last[0]) {
+                node = last[1]; // Descend into the only large subexpression
+            } else {
+                break;
+            }
+        }
+        evaluateRange(evaluator, this.first[root], root);
+    }
+
+    /**
+     * Helper function which splits the children of a node into units of work.
+     * Each unit is either a child with at least {@link #threshold} nodes, or
+     * a run of smaller neighbouring children batched up to the threshold.
+     *
+     * @param node The node whose children are split.
+     * @return The first and last node of each unit, in token order.
+     */
+    private List<int[]> unitsOf(int node) {
+        var units = new ArrayList<int[]>();
+        int[] kids = this.children[node];
+        if (kids == null) {
+            return units;
+        }
+        int start = -1;
+        for (int kid : kids) {
+            if (kid - this.first[kid] + 1 >= this.threshold) {
+                if (start >= 0) {
+                    units.add(new int[] { start, this.first[kid] - 1 });
+                    start = -1;
+                }
+                units.add(new int[] { this.first[kid], kid });
+            } else {
+                start = (start < 0) ? this.first[kid] : start;
+                if (kid - start + 1 >= this.threshold) {
+                    units.add(new int[] { start, kid });
+                    start = -1;
+                }
+            }
+        }
+        if (start >= 0) {
+            units.add(new int[] { start, kids[kids.length - 1] });
+        }
+        return units;
+    }
+
+    /**
+     * Helper function which checks whether units can be evaluated in any order
+     * without changing what register accesses see.
+     *
+     * @param units The first and last node of each unit.
+     * @return {@code true} if no unit stores into a register, or the only one
+     *         that does is also the only one accessing registers.
+     */
+    private boolean isIndependent(List<int[]> units) {
+        int accessing = 0;
+        int storing = 0;
+        for (int[] unit : units) {
+            accessing += (this.accesses[unit[1] + 1] > this.accesses[unit[0]]) ? 1 : 0;
+            storing += (this.stores[unit[1] + 1] > this.stores[unit[0]]) ? 1 : 0;
+        }
+        return storing == 0 || (storing == 1 && accessing == 1);
+    }
+
+    /**
+     * Helper function which evaluates a contiguous range of nodes in token order,
+     * as sequential evaluation would. Children outside of the range must have
+     * been evaluated already.
+     *
+     * @param evaluator Computes the value of each node.
+     * @param from The first node of the range.
+     * @param to The last node of the range, inclusive. The range is empty if it is less than {@code from}.
+     * @throws CompletionException Raised if the value of a node cannot be computed, with the cause.
+     */
+    private void evaluateRange(Evaluator evaluator, int from, int to) throws CompletionException {
+        for (int node = from; node <= to; node++) {
+            if (this.ops[node] == null) {
+                continue; // The final stack
+            }
+            int[] kids = this.children[node];
+            var args = new Object[(kids == null) ? 0 : kids.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = this.values[kids[i]];
+            }
+            try {
+                this.values[node] = evaluator.evaluate(this.ops[node], this.operands[node], args);
+            } catch (RPNCalcException e) {
+                throw new CompletionException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package ch.bztf;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * An immutable, exact decimal number used by {@link RPNCalc} in
+ * {@link RPNCalc.Mode#DECIMAL} mode.
+ * <p>
+ * Values are stored as a 64-bit unscaled value together with a scale of
+ * up to {@link #MAX_LONG_SCALE} decimal places, so that the common cases
+ * never allocate anything but the result. A {@link BigDecimal} is used
+ * only if a result overflows a {@code long} or needs more places.
+ * </p>
+ * Addition, subtraction, multiplication, modulo and remainder are always
+ * exact. Division is exact if the quotient terminates, otherwise it is
+ * rounded to {@link #CONTEXT}. Unlike {@code double}, there is no NaN or
+ * infinity: operations that would produce one raise an
+ * {@link ArithmeticException} instead.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class Decimal extends Number implements Comparable<Decimal> {
+
+    /** Necessary as {@code Number} implements {@code Serializable}. */
+    private static final long serialVersionUID = 1L;
+
+    /** The maximum scale a value can have while stored in a {@code long}. */
+    public static final int MAX_LONG_SCALE = 18;
+
+    /** The precision used for results that cannot be represented exactly. */
+    public static final MathContext CONTEXT = MathContext.DECIMAL128;
+
+    /** The value zero. */
+    public static final Decimal ZERO = new Decimal(0, 0, null);
+
+    /** The value one. */
+    public static final Decimal ONE = new Decimal(1, 0, null);
+
+    /** Powers of ten that fit into a {@code long}, indexed by exponent. */
+    private static final long[] POW10 = new long[MAX_LONG_SCALE + 1];
+
+    /** Powers of ten that are exactly representable as a {@code double}. */
+    private static final double[] POW10_DOUBLE = new double[MAX_LONG_SCALE + 1];
+
+    static {
+        POW10[0] = 1;
+        POW10_DOUBLE[0] = 1.0;
+        for (int i = 1; i <= MAX_LONG_SCALE; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+            POW10_DOUBLE[i] = POW10_DOUBLE[i - 1] * 10.0;
+        }
+    }
+
+    /** The largest magnitude a {@code long} can convert to {@code double} exactly. */
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    /** The unscaled value. Unused if {@link #big} is set. */
+    private final long unscaled;
+
+    /** The number of decimal places. Unused if {@link #big} is set. */
+    private final int scale;
+
+    /** The value, if it doesn't fit the compact representation. */
+    private final BigDecimal big;
+
+    /**
+     * Private constructor, use the factory functions instead.
+     *
+     * @param unscaled The unscaled value.
+     * @param scale The number of decimal places, from 0 to {@link #MAX_LONG_SCALE}.
+     * @param big The value as a {@code BigDecimal}, or {@code null} if the
+     *            compact representation is used.
+     */
+    private Decimal(long unscaled, int scale, BigDecimal big) {
+        this.unscaled = unscaled;
+        this.scale = scale;
+        this.big = big;
+    }
+
+    /**
+     * Creates a decimal from its compact representation.
+     *
+     * @param unscaled The unscaled value.
+     * @param scale The number of decimal places, from 0 to {@link #MAX_LONG_SCALE}.
+     * @return The decimal {@code unscaled / 10^scale}.
+     */
+    public static Decimal valueOf(long unscaled, int scale) {
+        if (scale < 0 || scale > MAX_LONG_SCALE) {
+            return of(BigDecimal.valueOf(unscaled, scale));
+        }
+        return new Decimal(unscaled, scale, null);
+    }
+
+    /**
+     * Creates a decimal from an integer.
+     *
+     * @param value The integer value.
+     * @return The decimal with the same value.
+     */
+    public static Decimal valueOf(long value) {
+        return new Decimal(value, 0, null);
+    }
+
+    /**
+     * Creates a decimal from a {@code double}, using its shortest
+     * decimal representation rather than its exact binary value.
+     * Therefore, {@code 0.1} becomes exactly one tenth.
+     *
+     * @param value The value to be converted.
+     * @return The decimal with the same shortest representation.
+     * @throws ArithmeticException Raised if {@code value} is NaN or infinite.
+     */
+    public static Decimal valueOf(double value) throws ArithmeticException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new ArithmeticException("Value not representable");
+        }
+        long truncated = (long)value;
+        if (truncated == value && Math.abs(truncated) < MAX_EXACT_DOUBLE) {
+            return valueOf(truncated); // Integral values are common, so skip the string
+        }
+        return of(BigDecimal.valueOf(value));
+    }
+
+    /**
+     * Creates a decimal from a {@code BigDecimal}.
+     * The compact representation is used if possible.
+     *
+     * @param value The value to be converted.
+     * @return The decimal with the same value.
+     */
+    public static Decimal of(BigDecimal value) {
+        if (value.signum() == 0) {
+            return ZERO;
+        }
+        if (value.scale() > MAX_LONG_SCALE) {
+            value = value.stripTrailingZeros();
+        }
+        /* Expand negative scales, but only if the result is small */
+        if (value.scale() < 0 && value.precision() - value.scale() <= 19) {
+            value = value.setScale(0);
+        }
+        BigInteger unscaled = value.unscaledValue();
+        if (value.scale() >= 0 && value.scale() <= MAX_LONG_SCALE && unscaled.bitLength() < 64) {
+            return new Decimal(unscaled.longValue(), value.scale(), null);
+        }
+        return new Decimal(0, 0, value);
+    }
+
+    /**
+     * Parses a decimal literal such as {@code -12.5} or {@code 2.1e1}.
+     * Literals without an exponent and with at most 18 digits are
+     * parsed without creating any intermediate objects.
+     *
+     * @param str The literal to be parsed.
+     * @return The decimal with the exact value of the literal.
+     * @throws NumberFormatException Raised if {@code str} is not a valid literal.
+     */
+    public static Decimal parse(CharSequence str) throws NumberFormatException {
+        return parse(str, 0, str.length());
+    }
+
+    /**
+     * Parses a decimal literal from a region of a character sequence.
+     *
+     * @param str The sequence containing the literal.
+     * @param offset The index of the first character of the literal.
+     * @param length The number of characters of the literal.
+     * @return The decimal with the exact value of the literal.
+     * @throws NumberFormatException Raised if the region is not a valid literal.
+     * @see #parse(CharSequence)
+     */
+    public static Decimal parse(CharSequence str, int offset, int length) throws NumberFormatException {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = false;
+        if (i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+            negative = str.charAt(i++) == '-';
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1; // Not yet seen a decimal point
+        for (; i < end; i++) {
+            char c = str.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_LONG_SCALE) {
+                    break;
+                }
+                unscaled = unscaled * 10 + (c - '0');
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0) {
+            return new Decimal(negative ? -unscaled : unscaled, Math.max(scale, 0), null);
+        }
+        /* Exponents, long literals and invalid input take the slow path */
+        return of(new BigDecimal(str.subSequence(offset, end).toString()));
+    }
+
+    /**
+     * Converts this decimal to a {@code BigDecimal}.
+     *
+     * @return The {@code BigDecimal} with the same value.
+     */
+    public BigDecimal toBigDecimal() {
+        return (this.big != null) ? this.big : BigDecimal.valueOf(this.unscaled, this.scale);
+    }
+
+    /**
+     * Gets the sign of this decimal.
+     *
+     * @return -1, 0 or 1 if this decimal is negative, zero or positive.
+     */
+    public int signum() {
+        return (this.big != null) ? this.big.signum() : Long.signum(this.unscaled);
+    }
+
+    /** The largest exponent {@link #pow(Decimal)} computes in decimal arithmetic. */
+    private static final BigDecimal MAX_EXPONENT = BigDecimal.valueOf(999999999);
+
+    /**
+     * Helper function which checks whether a multiplication overflowed.
+     * The full product fits into a {@code long} if and only if its high
+     * word is nothing but the sign extension of its low word.
+     *
+     * @param left The left factor.
+     * @param right The right factor.
+     * @param product The truncated product {@code left * right}.
+     * @return {@code true} if {@code product} is not the exact product.
+     */
+    private static boolean overflows(long left, long right, long product) {
+        return Math.multiplyHigh(left, right) != (product >> 63);
+    }
+
+    /**
+     * Adds another decimal to this one.
+     *
+     * @param other The summand.
+     * @return The exact sum.
+     */
+    public Decimal add(Decimal other) {
+        if (this.big == null && other.big == null) {
+            int s = Math.max(this.scale, other.scale);
+            long fa = POW10[s - this.scale];
+            long fb = POW10[s - other.scale];
+            long a = this.unscaled * fa;
+            long b = other.unscaled * fb;
+            long sum = a + b;
+            if (!overflows(this.unscaled, fa, a) && !overflows(other.unscaled, fb, b) &&
+                ((a ^ sum) & (b ^ sum)) >= 0) { // Signed overflow check
+                return new Decimal(sum, s, null);
+            }
+        }
+        return of(toBigDecimal().add(other.toBigDecimal()));
+    }
+
+    /**
+     * Subtracts another decimal from this one.
+     *
+     * @param other The subtrahend.
+     * @return The exact difference.
+     */
+    public Decimal subtract(Decimal other) {
+        return add(other.negate());
+    }
+
+    /**
+     * Multiplies this decimal by another one.
+     *
+     * @param other The multiplier.
+     * @return The exact product.
+     */
+    public Decimal multiply(Decimal other) {
+        if (this.big == null && other.big == null) {
+            long product = this.unscaled * other.unscaled;
+            if (!overflows(this.unscaled, other.unscaled, product)) {
+                int s = this.scale + other.scale;
+                while (s > MAX_LONG_SCALE && product % 10 == 0) {
+                    product /= 10;
+                    s--;
+                }
+                if (s <= MAX_LONG_SCALE) {
+                    return new Decimal(product, s, null);
+                }
+            }
+        }
+        return of(toBigDecimal().multiply(other.toBigDecimal()));
+    }
+
+    /**
+     * Divides this decimal by another one.
+     * The result is exact if the quotient terminates within
+     * {@link #CONTEXT}, otherwise it is rounded to it.
+     *
+     * @param other The divisor.
+     * @return The quotient.
+     * @throws ArithmeticException Raised on division by zero.
+     */
+    public Decimal divide(Decimal other) throws ArithmeticException {
+        if (other.signum() == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (this.big == null && other.big == null) {
+            /* Find the fewest extra places that make the division exact */
+            for (int extra = 0; this.scale + extra <= MAX_LONG_SCALE; extra++) {
+                long dividend = this.unscaled * POW10[extra];
+                if (overflows(this.unscaled, POW10[extra], dividend) ||
+                    (dividend == Long.MIN_VALUE && other.unscaled == -1)) {
+                    break;
+                }
+                if (dividend % other.unscaled == 0) {
+                    long quotient = dividend / other.unscaled;
+                    int s = this.scale + extra - other.scale;
+                    if (s >= 0) {
+                        return new Decimal(quotient, s, null);
+                    }
+                    long expanded = quotient * POW10[-s];
+                    if (!overflows(quotient, POW10[-s], expanded)) {
+                        return new Decimal(expanded, 0, null);
+                    }
+                    break;
+                }
+            }
+        }
+        return of(toBigDecimal().divide(other.toBigDecimal(), CONTEXT));
+    }
+
+    /**
+     * Computes the remainder of a truncating division,
+     * which has the same sign as this decimal.
+     *
+     * @param other The divisor.
+     * @return The exact remainder.
+     * @throws ArithmeticException Raised on division by zero.
+     */
+    public Decimal remainder(Decimal other) throws ArithmeticException {
+        if (other.signum() == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (this.big == null && other.big == null) {
+            int s = Math.max(this.scale, other.scale);
+            long fa = POW10[s - this.scale];
+            long fb = POW10[s - other.scale];
+            long a = this.unscaled * fa;
+            long b = other.unscaled * fb;
+            if (!overflows(this.unscaled, fa, a) && !overflows(other.unscaled, fb, b)) {
+                return new Decimal(a % b, s, null); // Long.MIN_VALUE % -1 is 0, no overflow
+            }
+        }
+        return of(toBigDecimal().remainder(other.toBigDecimal()));
+    }
+
+    /**
+     * Computes the remainder of a flooring division,
+     * which has the same sign as the divisor.
+     *
+     * @param other The divisor.
+     * @return The exact modulus.
+     * @throws ArithmeticException Raised on division by zero.
+     */
+    public Decimal mod(Decimal other) throws ArithmeticException {
+        Decimal rem = remainder(other);
+        if (rem.signum() != 0 && rem.signum() != other.signum()) {
+            return rem.add(other);
+        }
+        return rem;
+    }
+
+    /**
+     * Negates this decimal.
+     *
+     * @return The exact negation.
+     */
+    public Decimal negate() {
+        if (this.big == null && this.unscaled != Long.MIN_VALUE) {
+            return new Decimal(-this.unscaled, this.scale, null);
+        }
+        return of(toBigDecimal().negate());
+    }
+
+    /**
+     * Computes the absolute value of this decimal.
+     *
+     * @return The exact absolute value.
+     */
+    public Decimal abs() {
+        return (signum() < 0) ? negate() : this;
+    }
+
+    /**
+     * Divides this decimal by one hundred.
+     *
+     * @return The exact percentage.
+     */
+    public Decimal percent() {
+        if (this.big == null && this.scale + 2 <= MAX_LONG_SCALE) {
+            return new Decimal(this.unscaled, this.scale + 2, null);
+        }
+        return of(toBigDecimal().movePointLeft(2));
+    }
+
+    /**
+     * Computes the square root of this decimal, rounded to {@link #CONTEXT}.
+     *
+     * @return The square root.
+     * @throws ArithmeticException Raised if this decimal is negative.
+     */
+    public Decimal sqrt() throws ArithmeticException {
+        if (signum() < 0) {
+            throw new ArithmeticException("Square root of negative number");
+        }
+        return of(toBigDecimal().sqrt(CONTEXT));
+    }
+
+    /**
+     * Raises this decimal to the power of another one.
+     * Small integral exponents are computed exactly and large ones
+     * are rounded to {@link #CONTEXT}. Other exponents are computed
+     * in {@code double} precision.
+     *
+     * @param exponent The exponent.
+     * @return The power.
+     * @throws ArithmeticException Raised if the result is undefined or infinite.
+     */
+    public Decimal pow(Decimal exponent) throws ArithmeticException {
+        BigDecimal exp = exponent.toBigDecimal().stripTrailingZeros();
+        if (exp.scale() <= 0 && exp.abs().compareTo(MAX_EXPONENT) <= 0) {
+            int n = exp.intValue();
+            if (n < 0 && signum() == 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+            if (n >= 0 && n <= 64) {
+                return of(toBigDecimal().pow(n));
+            }
+            return of(toBigDecimal().pow(n, CONTEXT));
+        }
+        return valueOf(Math.pow(doubleValue(), exponent.doubleValue()));
+    }
+
+    /**
+     * Gets the smaller of this decimal and another one.
+     *
+     * @param other The decimal to compare with.
+     * @return The smaller value.
+     */
+    public Decimal min(Decimal other) {
+        return (compareTo(other) <= 0) ? this : other;
+    }
+
+    /**
+     * Gets the larger of this decimal and another one.
+     *
+     * @param other The decimal to compare with.
+     * @return The larger value.
+     */
+    public Decimal max(Decimal other) {
+        return (compareTo(other) >= 0) ? this : other;
+    }
+
+    @Override
+    public int compareTo(Decimal other) {
+        if (this.big == null && other.big == null) {
+            int s = Math.max(this.scale, other.scale);
+            long fa = POW10[s - this.scale];
+            long fb = POW10[s - other.scale];
+            long a = this.unscaled * fa;
+            long b = other.unscaled * fb;
+            if (!overflows(this.unscaled, fa, a) && !overflows(other.unscaled, fb, b)) {
+                return Long.compare(a, b);
+            }
+        }
+        return toBigDecimal().compareTo(other.toBigDecimal());
+    }
+
+    /**
+     * Formats this decimal with a fixed number of decimal places.
+     * The value is rounded half up, just as {@code String.format}
+     * does for {@code double}.
+     *
+     * @param places The number of decimal places.
+     * @return The formatted decimal.
+     */
+    public String format(int places) {
+        if (this.big == null) {
+            if (this.scale <= places && places - this.scale <= MAX_LONG_SCALE) {
+                long factor = POW10[places - this.scale];
+                long padded = this.unscaled * factor;
+                if (!overflows(this.unscaled, factor, padded)) {
+                    return render(padded, places);
+                }
+            } else if (this.scale > places && this.scale - places <= MAX_LONG_SCALE) {
+                long divisor = POW10[this.scale - places];
+                long quotient = this.unscaled / divisor;
+                long rest = Math.abs(this.unscaled % divisor);
+                if (rest >= divisor - rest) { // Round half up, away from zero
+                    quotient += Long.signum(this.unscaled);
+                }
+                return render(quotient, places);
+            }
+        }
+        return toBigDecimal().setScale(places, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    /**
+     * Helper function which renders an unscaled value as a plain string.
+     *
+     * @param unscaled The unscaled value.
+     * @param places The scale of {@code unscaled}.
+     * @return The rendered value.
+     */
+    private static String render(long unscaled, int places) {
+        if (unscaled == Long.MIN_VALUE) {
+            return BigDecimal.valueOf(unscaled, places).toPlainString();
+        }
+        var builder = new StringBuilder(24);
+        builder.append(Math.abs(unscaled));
+        while (builder.length() <= places) {
+            builder.insert(0, '0');
+        }
+        if (places > 0) {
+            builder.insert(builder.length() - places, '.');
+        }
+        if (unscaled < 0) {
+            builder.insert(0, '-');
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public double doubleValue() {
+        if (this.big == null && Math.abs(this.unscaled) < MAX_EXACT_DOUBLE) {
+            return this.unscaled / POW10_DOUBLE[this.scale]; // Both exact, so correctly rounded
+        }
+        return toBigDecimal().doubleValue();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float)doubleValue();
+    }
+
+    @Override
+    public long longValue() {
+        if (this.big == null) {
+            return this.unscaled / POW10[this.scale];
+        }
+        return this.big.longValue();
+    }
+
+    @Override
+    public int intValue() {
+        return (int)longValue();
+    }
+
+    /**
+     * Checks whether another object is a decimal of equal value.
+     * Unlike {@code BigDecimal}, the scale is irrelevant, so
+     * {@code 1.0} and {@code 1.00} are equal.
+     *
+     * @param obj The object to compare with.
+     * @return Whether {@code obj} is a decimal of equal value.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return (obj instanceof Decimal) && compareTo((Decimal)obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(doubleValue()); // Equal values convert equally
+    }
+
+    /**
+     * Converts this decimal to a plain string without exponent.
+     *
+     * @return The decimal as a string.
+     */
+    @Override
+    public String toString() {
+        return (this.big != null) ? this.big.toPlainString() : render(this.unscaled, this.scale);
+    }
+}
@@ -0,0 +1,189 @@
+package ch.bztf;
+
+import java.util.Arrays;
+
+/**
+ * Bounded history of evaluation steps, used by {@link RPNCalc}
+ * to provide undo and redo.
+ * <p>
+ * Steps are kept in a ring buffer. Once it is full, recording
+ * a new step discards the oldest one. Recording a step after
+ * undoing discards all steps that could have been redone.
+ * </p>
+ * Each step refers to its result stacks as {@link PersistentStack}s,
+ * so successive steps share all unchanged stack elements.
+ *
+ * @author Timothy R. Schmid
+ */
+class EvalHistory {
+
+    /** A single evaluation step. */
+    static final class Step {
+
+        /** The result stack before the step. {@code null} if there was none. */
+        final PersistentStack<Object> before;
+
+        /** The result stack after the step. */
+        final PersistentStack<Object> after;
+
+        /** The registers written by the step. */
+        final String[] regs;
+
+        /** The values of {@link #regs} before the step, by index. */
+        final Object[] old_vals;
+
+        /** The values of {@link #regs} after the step, by index. */
+        final Object[] new_vals;
+
+        /**
+         * Constructor that takes all fields.
+         *
+         * @param before The result stack before the step.
+         * @param after The result stack after the step.
+         * @param regs The registers written by the step.
+         * @param old_vals The register values before the step.
+         * @param new_vals The register values after the step.
+         */
+        Step(PersistentStack<Object> before, PersistentStack<Object> after,
+             String[] regs, Object[] old_vals, Object[] new_vals) {
+            this.before = before;
+            this.after = after;
+            this.regs = regs;
+            this.old_vals = old_vals;
+            this.new_vals = new_vals;
+        }
+    }
+
+    /** The ring buffer holding the recorded steps. */
+    private Step[] steps;
+
+    /** The ring buffer index of the oldest recorded step. */
+    private int start = 0;
+
+    /** The number of recorded steps. */
+    private int size = 0;
+
+    /**
+     * The number of recorded steps currently applied.
+     * Steps from this position up to {@link #size} can be redone.
+     */
+    private int cursor = 0;
+
+    /**
+     * Constructor that takes the maximum number of steps to be kept.
+     *
+     * @param capacity The maximum number of steps.
+     * @throws IllegalArgumentException Raised if the capacity is negative.
+     */
+    EvalHistory(int capacity) throws IllegalArgumentException {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(String.format("Capacity %d is negative", capacity));
+        }
+        this.steps = new Step[capacity];
+    }
+
+    /**
+     * Gets the maximum number of steps kept.
+     *
+     * @return The capacity.
+     */
+    int capacity() {
+        return this.steps.length;
+    }
+
+    /**
+     * Changes the maximum number of steps kept.
+     * If there are more steps than fit, the oldest ones are discarded.
+     *
+     * @param capacity The new maximum number of steps.
+     * @throws IllegalArgumentException Raised if the capacity is negative.
+     */
+    void resize(int capacity) throws IllegalArgumentException {
+        var resized = new EvalHistory(capacity);
+        int dropped = Math.max(0, this.size - capacity);
+        for (int pos = dropped; pos < this.size; pos++) {
+            resized.steps[pos - dropped] = at(pos);
+        }
+        this.steps = resized.steps;
+        this.start = 0;
+        this.size -= dropped;
+        this.cursor = Math.max(0, this.cursor - dropped);
+    }
+
+    /** Discards all recorded steps. */
+    void clear() {
+        Arrays.fill(this.steps, null);
+        this.start = 0;
+        this.size = 0;
+        this.cursor = 0;
+    }
+
+    /**
+     * Helper function which gets a step by its position.
+     *
+     * @param pos The position, where 0 is the oldest step.
+     * @return The step at {@code pos}.
+     */
+    private Step at(int pos) {
+        return this.steps[(this.start + pos) % this.steps.length];
+    }
+
+    /**
+     * Records a new step as the most recent one.
+     * Any steps that could have been redone are discarded.
+     *
+     * @param step The step to be recorded.
+     */
+    void record(Step step) {
+        if (this.steps.length == 0) {
+            return;
+        }
+        for (int pos = this.cursor; pos < this.size; pos++) {
+            this.steps[(this.start + pos) % this.steps.length] = null; // Allow GC
+        }
+        this.size = this.cursor;
+        if (this.size == this.steps.length) {
+            this.steps[this.start] = null;
+            this.start = (this.start + 1) % this.steps.length;
+            this.size--;
+        }
+        this.steps[(this.start + this.size) % this.steps.length] = step;
+        this.cursor = ++this.size;
+    }
+
+    /**
+     * Checks whether there is a step that can be undone.
+     *
+     * @return {@code true} if {@link #undo()} would succeed.
+     */
+    boolean canUndo() {
+        return this.cursor > 0;
+    }
+
+    /**
+     * Checks whether there is a step that can be redone.
+     *
+     * @return {@code true} if {@link #redo()} would succeed.
+     */
+    boolean canRedo() {
+        return this.cursor < this.size;
+    }
+
+    /**
+     * Steps back by one step.
+     *
+     * @return The step to be reverted, or {@code null} if there is none.
+     */
+    Step undo() {
+        return canUndo() ? at(--this.cursor) : null;
+    }
+
+    /**
+     * Steps forward by one step.
+     *
+     * @return The step to be reapplied, or {@code null} if there is none.
+     */
+    Step redo() {
+        return canRedo() ? at(this.cursor++) : null;
+    }
+}
@@ -0,0 +1,527 @@
+package ch.bztf;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates a stream of RPN expressions asynchronously, for producers that
+ * must not block while the calculator is busy, e.g. message consumers.
+ * <p>
+ * As a {@link Flow.Processor}, it subscribes to a publisher of expressions
+ * and publishes one {@link Outcome} per expression, in the same order, to a
+ * single subscriber. Expressions that fail to evaluate are published as
+ * outcomes holding the error, so one bad expression does not end the stream.
+ * Expressions can also be submitted one by one with {@link #evalAsync(String)}.
+ * </p>
+ * <p>
+ * At most {@link #getCapacity()} expressions are accepted but not yet
+ * evaluated at any time. More are only requested from the publisher as
+ * expressions are evaluated, and an expression is only evaluated once the
+ * subscriber has requested its outcome. A slow subscriber thus slows down
+ * the publisher instead of filling a queue.
+ * </p>
+ * Expressions are evaluated one at a time on the given executor, in order,
+ * so stores into registers carry over from one expression to the next just
+ * as with {@link RPNCalc#eval(CharSequence)}. The calculator must not be used
+ * by anything else while the processor is running.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class EvalProcessor implements Flow.Processor<String, Outcome> {
+
+    /** The default number of expressions accepted but not yet evaluated. */
+    public static final int DEFAULT_CAPACITY = Flow.defaultBufferSize();
+
+    /** An expression accepted but not yet evaluated. */
+    private static final class Task {
+
+        /** The expression. */
+        final String expr;
+
+        /** The future completed with its result, or {@code null} if its outcome is published. */
+        final CompletableFuture<Double> future;
+
+        /**
+         * Constructor that takes all fields.
+         *
+         * @param expr The expression.
+         * @param future The future, or {@code null}.
+         */
+        Task(String expr, CompletableFuture<Double> future) {
+            this.expr = expr;
+            this.future = future;
+        }
+    }
+
+    /** The calculator evaluating the expressions. */
+    private final RPNCalc calc;
+
+    /** The executor the expressions are evaluated on. */
+    private final Executor executor;
+
+    /** The maximum number of expressions accepted but not yet evaluated. */
+    private final int capacity;
+
+    /** The expressions accepted but not yet evaluated, in order. Guarded by {@code this}. */
+    private final ArrayDeque<Task> queue = new ArrayDeque<Task>();
+
+    /** The subscription to the publisher of expressions. Guarded by {@code this}. */
+    private Flow.Subscription upstream = null;
+
+    /** The number of expressions requested but not yet received. Guarded by {@code this}. */
+    private long requested = 0;
+
+    /** Whether the publisher has completed or failed. Guarded by {@code this}. */
+    private boolean done = false;
+
+    /** The error the publisher failed with, or the subscriber caused. Guarded by {@code this}. */
+    private Throwable failure = null;
+
+    /** The subscriber of outcomes. Guarded by {@code this}. */
+    private Flow.Subscriber<? super Outcome> downstream = null;
+
+    /** The number of outcomes requested but not yet published. Guarded by {@code this}. */
+    private long demand = 0;
+
+    /** Whether the subscriber has cancelled. Guarded by {@code this}. */
+    private boolean cancelled = false;
+
+    /** Whether the subscriber has been completed or failed. Only accessed while draining. */
+    private boolean terminated = false;
+
+    /** The number of times draining was asked for while it was running. */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /** The highest number of expressions that were waiting at the same time. Guarded by {@code this}. */
+    private int peak = 0;
+
+    /** The number of expressions evaluated. */
+    private final AtomicLong evaluated = new AtomicLong();
+
+    /** The number of expressions that failed to evaluate. */
+    private final AtomicLong failed = new AtomicLong();
+
+    /** The time spent evaluating in nanoseconds. */
+    private final AtomicLong busy_nanos = new AtomicLong();
+
+    /**
+     * Constructor that evaluates on the common fork-join pool,
+     * accepting up to {@link #DEFAULT_CAPACITY} expressions at a time.
+     *
+     * @param calc The calculator evaluating the expressions.
+     */
+    public EvalProcessor(RPNCalc calc) {
+        this(calc, ForkJoinPool.commonPool(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor that takes the executor and capacity.
+     *
+     * @param calc The calculator evaluating the expressions.
+     * @param executor The executor the expressions are evaluated on.
+     *                 Only one of its threads is used at a time.
+     * @param capacity The maximum number of expressions accepted but not yet evaluated.
+     * @throws IllegalArgumentException Raised if {@code capacity} is less than one.
+     */
+    public EvalProcessor(RPNCalc calc, Executor executor, int capacity) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least one");
+        }
+        this.calc = calc;
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets the maximum number of expressions accepted but not yet evaluated.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Gets the number of expressions accepted but not yet evaluated.
+     *
+     * @return The current queue occupancy, at most {@link #getCapacity()}.
+     */
+    public synchronized int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * Gets the highest number of expressions that were waiting at the same time.
+     *
+     * @return The peak queue occupancy, at most {@link #getCapacity()}.
+     */
+    public synchronized int getPeakQueueSize() {
+        return this.peak;
+    }
+
+    /**
+     * Gets the number of expressions evaluated so far, including failed ones.
+     *
+     * @return The number of expressions.
+     */
+    public long getEvaluatedCount() {
+        return this.evaluated.get();
+    }
+
+    /**
+     * Gets the number of expressions that failed to evaluate so far.
+     *
+     * @return The number of expressions.
+     */
+    public long getFailedCount() {
+        return this.failed.get();
+    }
+
+    /**
+     * Gets the time spent evaluating so far. Together with
+     * {@link #getEvaluatedCount()}, it yields the throughput.
+     *
+     * @return The time in nanoseconds, excluding time spent waiting or publishing.
+     */
+    public long getBusyNanos() {
+        return this.busy_nanos.get();
+    }
+
+    /**
+     * Submits a single expression, to be evaluated after all expressions accepted before.
+     *
+     * @param expr The RPN expression.
+     * @return A future completed with the immediate result, or {@code null} if the
+     *         expression does not reduce to a single number. It fails with an
+     *         {@link RPNCalcException} if evaluation fails, with a
+     *         {@link RejectedExecutionException} if the processor is at capacity,
+     *         counting expressions requested from the publisher, or with a
+     *         {@link CancellationException} if the subscriber cancels first.
+     */
+    public CompletableFuture<Double> evalAsync(String expr) {
+        Objects.requireNonNull(expr);
+        var future = new CompletableFuture<Double>();
+        synchronized (this) {
+            if (this.queue.size() + this.requested >= this.capacity) {
+                future.completeExceptionally(new RejectedExecutionException("Too many pending expressions"));
+                return future;
+            }
+            enqueue(new Task(expr, future));
+        }
+        schedule();
+        return future;
+    }
+
+    /**
+     * Subscribes to the publisher of expressions. Expressions are requested up
+     * to the capacity right away, and replenished as they are evaluated.
+     *
+     * @param subscription The subscription to the publisher.
+     */
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (this.upstream == null && !this.cancelled) {
+                this.upstream = subscription;
+                subscription = null;
+            }
+        }
+        if (subscription != null) {
+            subscription.cancel(); // Only one publisher at a time
+            return;
+        }
+        replenish();
+        schedule(); // Signals the failure should the publisher throw on request
+    }
+
+    /**
+     * Accepts an expression from the publisher.
+     *
+     * @param expr The RPN expression.
+     */
+    @Override
+    public void onNext(String expr) {
+        Objects.requireNonNull(expr);
+        synchronized (this) {
+            this.requested--;
+            enqueue(new Task(expr, null));
+        }
+        schedule();
+    }
+
+    /**
+     * Fails the subscriber once the expressions accepted before are evaluated.
+     *
+     * @param error The error the publisher failed with.
+     */
+    @Override
+    public void onError(Throwable error) {
+        Objects.requireNonNull(error);
+        synchronized (this) {
+            this.done = true;
+            this.failure = error;
+        }
+        schedule();
+    }
+
+    /** Completes the subscriber once the expressions accepted before are evaluated. */
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            this.done = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Subscribes to the outcomes. Only a single subscriber is supported.
+     *
+     * @param subscriber The subscriber receiving the outcomes.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Outcome> subscriber) {
+        Objects.requireNonNull(subscriber);
+        boolean accepted;
+        synchronized (this) {
+            accepted = (this.downstream == null);
+            if (accepted) {
+                this.downstream = subscriber;
+            }
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override public void request(long n) { }
+                @Override public void cancel() { }
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                synchronized (EvalProcessor.this) {
+                    if (n <= 0) {
+                        EvalProcessor.this.failure = new IllegalArgumentException("Requested " + n + " outcomes");
+                        EvalProcessor.this.cancelled = true;
+                    } else {
+                        EvalProcessor.this.demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                    }
+                }
+                schedule();
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (EvalProcessor.this) {
+                    EvalProcessor.this.cancelled = true;
+                }
+                schedule();
+            }
+        });
+        schedule(); // The publisher may have completed already
+    }
+
+    /**
+     * Helper function which appends a task to the queue. The caller must hold the lock.
+     *
+     * @param task The task to be appended.
+     */
+    private void enqueue(Task task) {
+        this.queue.add(task);
+        this.peak = Math.max(this.peak, this.queue.size());
+    }
+
+    /** Helper function which requests as many expressions as there is room for. */
+    private void replenish() {
+        Flow.Subscription subscription;
+        long n;
+        synchronized (this) {
+            subscription = this.upstream;
+            n = this.capacity - this.queue.size() - this.requested;
+            if (subscription == null || this.done || this.cancelled || n <= 0) {
+                return;
+            }
+            this.requested += n;
+        }
+        try {
+            subscription.request(n);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                this.failure = e; // A publisher that throws is considered failed
+                this.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Helper function which makes sure the queue is drained on the executor.
+     * If it is being drained already, that run continues instead.
+     */
+    private void schedule() {
+        if (this.wip.getAndIncrement() == 0) {
+            try {
+                this.executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    this.failure = e;
+                    this.cancelled = true;
+                }
+                drain(); // Only fails and cancels, without evaluating anything
+            }
+        }
+    }
+
+    /**
+     * Helper function which evaluates and publishes queued expressions as long
+     * as they are demanded, and signals completion or errors. Only one thread
+     * runs it at a time, so the calculator is never used concurrently.
+     */
+    private void drain() {
+        int missed = 1;
+        do {
+            while (step()) {
+                replenish();
+            }
+            missed = this.wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Helper function which evaluates and publishes the next expression, if possible.
+     *
+     * @return {@code true} if an expression was evaluated, {@code false} if
+     *         draining has to wait for more expressions or demand.
+     */
+    private boolean step() {
+        Task task;
+        Flow.Subscriber<? super Outcome> subscriber;
+        Flow.Subscription subscription = null;
+        Throwable error;
+        synchronized (this) {
+            subscriber = this.downstream;
+            error = this.failure;
+            if (this.cancelled) {
+                subscription = this.upstream;
+                this.upstream = null;
+                this.done = true;
+                task = null;
+            } else {
+                task = this.queue.peek();
+                if (task == null && !this.done) {
+                    return false;
+                }
+                if (task != null && task.future == null && (subscriber == null || this.demand == 0)) {
+                    return false;
+                }
+                if (task != null) {
+                    this.queue.poll();
+                    if (task.future == null) {
+                        this.demand--;
+                    }
+                }
+            }
+        }
+        if (task == null) {
+            if (subscription != null) {
+                try {
+                    subscription.cancel();
+                } catch (RuntimeException e) {
+                    /* The publisher is not used anymore either way */
+                }
+            }
+            terminate(subscriber, error);
+            return false;
+        }
+        Outcome outcome = evaluate(task.expr);
+        if (task.future == null) {
+            try {
+                subscriber.onNext(outcome);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    this.cancelled = true; // A subscriber that throws is considered cancelled
+                }
+            }
+        } else if (outcome.isSuccess()) {
+            task.future.complete(outcome.getResult());
+        } else {
+            task.future.completeExceptionally(outcome.getError());
+        }
+        return true;
+    }
+
+    /**
+     * Helper function which completes or fails the subscriber once, and fails
+     * all futures still waiting if the processor was cancelled.
+     *
+     * @param subscriber The subscriber, or {@code null} if there is none yet.
+     * @param error The error to fail it with, or {@code null} to complete it.
+     */
+    private void terminate(Flow.Subscriber<? super Outcome> subscriber, Throwable error) {
+        Task task;
+        while (true) {
+            synchronized (this) {
+                task = this.queue.poll();
+            }
+            if (task == null) {
+                break;
+            }
+            if (task.future != null) {
+                task.future.completeExceptionally(new CancellationException("Processor was cancelled"));
+            }
+        }
+        if (subscriber == null || this.terminated) {
+            return;
+        }
+        this.terminated = true;
+        synchronized (this) {
+            if (error == null && this.cancelled) {
+                return; // Cancelled subscribers are not signalled anymore
+            }
+        }
+        try {
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        } catch (RuntimeException e) {
+            /* Nothing is signalled after this, and draining must not be stopped by it */
+        }
+    }
+
+    /**
+     * Helper function which evaluates a single expression and counts it.
+     * Unexpected runtime exceptions fail the expression like calculation
+     * errors do, wrapped as cause of an {@link RPNCalcException}, so they
+     * can never stop the queue from being drained.
+     *
+     * @param expr The RPN expression.
+     * @return The outcome of the evaluation.
+     */
+    private Outcome evaluate(String expr) {
+        long start = System.nanoTime();
+        Outcome outcome;
+        try {
+            outcome = new Outcome(expr, this.calc.eval(expr), null);
+        } catch (RPNCalcException e) {
+            this.failed.incrementAndGet();
+            outcome = new Outcome(expr, null, e);
+        } catch (RuntimeException e) {
+            this.failed.incrementAndGet();
+            var error = new RPNCalcException("Unexpected error: " + e);
+            error.initCause(e);
+            outcome = new Outcome(expr, null, error);
+        }
+        this.busy_nanos.addAndGet(System.nanoTime() - start);
+        this.evaluated.incrementAndGet();
+        return outcome;
+    }
+}
@@ -0,0 +1,831 @@
+package ch.bztf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A library of named RPN expressions, compiled ahead of time into a compact
+ * binary file, so services do not have to scan and classify their standard
+ * formulas again on every start.
+ * <p>
+ * Libraries are written by {@link #write(RPNCalc, Map, Path)}, which compiles
+ * every expression like {@link RPNCalc#eval(CharSequence)} would: literals are
+ * parsed and symbols are resolved. Opening a library with {@link #open(Path, RPNCalc)}
+ * maps the file into memory and only checks its header and that its tables
+ * lie within the file, so it takes the same time however many expressions it
+ * holds. The strings an index entry points to are checked when they are read. An expression is decoded the first
+ * time it is evaluated, at which point its operators and registers are
+ * validated against the calculator, and then kept for later evaluations.
+ * </p>
+ * <p>
+ * The file consists of a fixed header, followed by tables of fixed-size
+ * entries pointing into the rest of the file, all numbers big-endian:
+ * </p>
+ * <pre>
+ * header    "RPNL", u16 version, u16 reserved, u32 expressions, u32 symbols,
+ *           u32 literals, u32 offset of each table below
+ * index     per expression, sorted by name: u32 name, u32 code
+ * symbols   per register or operator name: u32 string
+ * literals  per literal: u32 literal
+ * string    u16 length, UTF-8 bytes
+ * literal   u8 tag, then f64 (double), string (decimal) or u32 count, f64... (vector)
+ * code      u32 source string, varint instructions, instructions
+ * insn      u8 opcode, varint operand, varint token index, varint character offset;
+ *           nested quotations have their instruction count and instructions as operand
+ * </pre>
+ * Names are sorted by their UTF-8 bytes, so they are found by binary search
+ * in the mapped file, without building a map of all names first.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class ExpressionLibrary {
+
+    /** The format version written, and the only one read. */
+    public static final int VERSION = 1;
+
+    /** The bytes every library starts with. */
+    private static final byte[] MAGIC = { 'R', 'P', 'N', 'L' };
+
+    /** The size of the header in bytes. */
+    private static final int HEADER_SIZE = 32;
+
+    /** Opcode pushing a literal of the literal pool. */
+    private static final int OP_LITERAL = 0;
+
+    /** Opcode pushing a nested quotation. */
+    private static final int OP_QUOTATION = 1;
+
+    /** Opcode pushing a register of the symbol pool. */
+    private static final int OP_READ = 2;
+
+    /** Opcode storing into a register of the symbol pool. */
+    private static final int OP_STORE = 3;
+
+    /** Opcode applying an operator of the symbol pool. */
+    private static final int OP_APPLY = 4;
+
+    /** Literal tag of a double. */
+    private static final int TAG_DOUBLE = 0;
+
+    /** Literal tag of a decimal, stored as its plain string. */
+    private static final int TAG_DECIMAL = 1;
+
+    /** Literal tag of a vector of doubles. */
+    private static final int TAG_VECTOR = 2;
+
+    /** The mapped file. Only absolute reads are used, so it can be shared between threads. */
+    private final ByteBuffer data;
+
+    /** The calculator expressions are validated against and evaluated on. */
+    private final RPNCalc calc;
+
+    /** The number of expressions. */
+    private final int size;
+
+    /** The number of symbols. */
+    private final int symbol_count;
+
+    /** The number of literals. */
+    private final int literal_count;
+
+    /** The offset of the index. */
+    private final int index_offset;
+
+    /** The offset of the symbol table. */
+    private final int symbols_offset;
+
+    /** The offset of the literal table. */
+    private final int literals_offset;
+
+    /** The expressions decoded so far, by position in the index. */
+    private final AtomicReferenceArray<Quotation> decoded;
+
+    /**
+     * Constructor that checks the header of a mapped library.
+     *
+     * @param data The mapped file.
+     * @param calc The calculator expressions are validated against.
+     * @throws IOException Raised if the file is no library or of another version.
+     */
+    private ExpressionLibrary(ByteBuffer data, RPNCalc calc) throws IOException {
+        this.data = data;
+        this.calc = calc;
+        if (data.limit() < HEADER_SIZE || data.get(0) != MAGIC[0] || data.get(1) != MAGIC[1]
+            || data.get(2) != MAGIC[2] || data.get(3) != MAGIC[3]) {
+            throw new IOException("Not an expression library");
+        }
+        int version = Short.toUnsignedInt(data.getShort(4));
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported library version %d", version));
+        }
+        this.size = data.getInt(8);
+        this.symbol_count = data.getInt(12);
+        this.literal_count = data.getInt(16);
+        this.index_offset = data.getInt(20);
+        this.symbols_offset = data.getInt(24);
+        this.literals_offset = data.getInt(28);
+        if (this.size < 0 || this.symbol_count < 0 || this.literal_count < 0
+            || !fits(this.index_offset, 8L * this.size) || !fits(this.symbols_offset, 4L * this.symbol_count)
+            || !fits(this.literals_offset, 4L * this.literal_count)) {
+            throw new IOException("Truncated expression library");
+        }
+        this.decoded = new AtomicReferenceArray<Quotation>(this.size);
+    }
+
+    /**
+     * Helper function which checks whether a table lies within the file.
+     *
+     * @param offset The offset of the table.
+     * @param length The length of the table in bytes.
+     * @return {@code true} if the table is entirely within the file.
+     */
+    private boolean fits(int offset, long length) {
+        return offset >= HEADER_SIZE && offset + length <= this.data.limit();
+    }
+
+    /**
+     * Opens a library by mapping it into memory. Only the header is read.
+     *
+     * @param file The library file.
+     * @param calc The calculator the expressions are validated against and evaluated on.
+     * @return The library.
+     * @throws IOException Raised if the file cannot be read, is no library or of another version.
+     */
+    public static ExpressionLibrary open(Path file, RPNCalc calc) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Expression library is too large");
+            }
+            /* The mapping stays valid after the channel is closed */
+            return new ExpressionLibrary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), calc);
+        }
+    }
+
+    /**
+     * Gets the number of expressions in the library.
+     *
+     * @return The number of expressions.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks whether the library holds an expression.
+     *
+     * @param name The name of the expression.
+     * @return {@code true} if an expression of that name exists.
+     * @throws RPNCalcException Raised if the index is corrupt.
+     */
+    public boolean contains(String name) throws RPNCalcException {
+        return find(name) >= 0;
+    }
+
+    /**
+     * Gets the source text of an expression, as it was compiled.
+     *
+     * @param name The name of the expression.
+     * @return The RPN expression, or {@code null} if there is no expression of that name.
+     * @throws RPNCalcException Raised if the index or the expression is corrupt.
+     */
+    public String getExpression(String name) throws RPNCalcException {
+        int pos = find(name);
+        if (pos < 0) {
+            return null;
+        }
+        try {
+            return string(this.data.getInt(this.data.getInt(this.index_offset + 8 * pos + 4)));
+        } catch (IndexOutOfBoundsException e) {
+            throw new RPNCalcException(String.format("Library expression '%s' is corrupt", name));
+        }
+    }
+
+    /**
+     * Evaluates an expression on the calculator, exactly like
+     * {@link RPNCalc#eval(CharSequence)} would evaluate its source.
+     * It is decoded and validated the first time it is evaluated.
+     *
+     * @param name The name of the expression.
+     * @return The immediate result in numerical form.
+     * @throws RPNCalcException Raised if there is no such expression, it is corrupt,
+     *         refers to an operator or register the calculator does not know,
+     *         or if evaluation fails.
+     */
+    public Double eval(String name) throws RPNCalcException {
+        int pos = find(name);
+        if (pos < 0) {
+            throw new RPNCalcException(String.format("Unknown expression '%s'", name));
+        }
+        Quotation code = this.decoded.get(pos);
+        if (code == null) {
+            code = decode(name, pos);
+            this.decoded.set(pos, code); // Decoding twice on a race is harmless
+        }
+        return this.calc.eval(code);
+    }
+
+    /**
+     * Helper function which finds an expression by binary search over the index.
+     *
+     * @param name The name of the expression.
+     * @return The position of the expression in the index, or -1 if there is none.
+     * @throws RPNCalcException Raised if a name the search passes lies outside the file.
+     */
+    private int find(String name) throws RPNCalcException {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = this.size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = this.data.getInt(this.index_offset + 8 * mid); // The index fits, as checked on open
+            int cmp;
+            try {
+                cmp = compare(entry, key);
+            } catch (IndexOutOfBoundsException e) {
+                throw new RPNCalcException(String.format("Library index is corrupt at entry %d", mid));
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper function which compares a string of the file with a key,
+     * byte by byte, without decoding the string.
+     *
+     * @param offset The offset of the string.
+     * @param key The UTF-8 bytes of the key.
+     * @return A negative number, zero or a positive number if the string
+     *         sorts before, equal to or after the key.
+     * @throws IndexOutOfBoundsException Raised if the string lies outside the file.
+     */
+    private int compare(int offset, byte[] key) throws IndexOutOfBoundsException {
+        int length = length(offset);
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int cmp = Byte.toUnsignedInt(this.data.get(offset + 2 + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Helper function which reads the length of a string of the file,
+     * checking that the string lies after the header and within the file.
+     *
+     * @param offset The offset of the string.
+     * @return The length of the string in bytes.
+     * @throws IndexOutOfBoundsException Raised if the string lies outside the file.
+     */
+    private int length(int offset) throws IndexOutOfBoundsException {
+        if (offset < HEADER_SIZE || offset > this.data.limit() - 2) {
+            throw new IndexOutOfBoundsException(String.format("String at %d is outside the library", offset));
+        }
+        int length = Short.toUnsignedInt(this.data.getShort(offset));
+        if (length > this.data.limit() - 2 - offset) {
+            throw new IndexOutOfBoundsException(String.format("String at %d exceeds the library", offset));
+        }
+        return length;
+    }
+
+    /**
+     * Helper function which decodes a string of the file.
+     *
+     * @param offset The offset of the string.
+     * @return The string.
+     * @throws IndexOutOfBoundsException Raised if the string lies outside the file.
+     */
+    private String string(int offset) throws IndexOutOfBoundsException {
+        var bytes = new byte[length(offset)];
+        this.data.duplicate().position(offset + 2).get(bytes); // Leaves the shared position alone
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper function which decodes and validates an expression.
+     *
+     * @param name The name of the expression, for error messages.
+     * @param pos The position of the expression in the index.
+     * @return The compiled expression.
+     * @throws RPNCalcException Raised if the expression is corrupt or refers
+     *         to an operator or register the calculator does not know.
+     */
+    private Quotation decode(String name, int pos) throws RPNCalcException {
+        try {
+            var reader = new Reader(this.data.getInt(this.index_offset + 8 * pos + 4));
+            String source = string(reader.u32());
+            return decode(name, reader, source, false);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new RPNCalcException(String.format("Library expression '%s' is corrupt", name));
+        }
+    }
+
+    /**
+     * Helper function which decodes the instructions of a quotation. The text
+     * of the quotation is rebuilt from the source, the same way it is compiled.
+     *
+     * @param name The name of the expression, for error messages.
+     * @param reader The reader, positioned at the instruction count.
+     * @param source The source text of the expression.
+     * @param nested Whether the quotation is enclosed in brackets.
+     * @return The quotation.
+     * @throws RPNCalcException Raised if an operator or register is unknown to the calculator.
+     */
+    private Quotation decode(String name, Reader reader, String source, boolean nested) throws RPNCalcException {
+        int count = reader.varint();
+        var code = new ArrayList<Quotation.Instruction>(count);
+        var text = new StringBuilder(nested ? "[" : "");
+        for (int i = 0; i < count; i++) {
+            int op = reader.u8();
+            Object operand = null;
+            if (op == OP_QUOTATION) {
+                int index = reader.varint();
+                int offset = reader.varint();
+                operand = decode(name, reader, source, true);
+                code.add(new Quotation.Instruction(Quotation.Op.PUSH, operand, "[", index, offset));
+                text.append(text.length() > 0 ? " " : "").append(operand);
+                continue;
+            }
+            int id = reader.varint();
+            int index = reader.varint();
+            int offset = reader.varint();
+            String token = token(source, offset);
+            Quotation.Op kind;
+            switch (op) {
+                case OP_LITERAL:
+                    kind = Quotation.Op.PUSH;
+                    operand = literal(id);
+                    break;
+                case OP_READ:
+                case OP_STORE:
+                    kind = (op == OP_READ) ? Quotation.Op.READ : Quotation.Op.STORE;
+                    operand = symbol(id);
+                    if (!this.calc.hasRegister((String)operand)) {
+                        throw new RPNCalcException(String.format("Library expression '%s' reads unknown register", name),
+                                                   token, index, offset);
+                    }
+                    break;
+                case OP_APPLY:
+                    kind = Quotation.Op.APPLY;
+                    operand = symbol(id);
+                    if (!this.calc.isOperator((String)operand)) {
+                        throw new RPNCalcException(String.format("Library expression '%s' applies unknown operator", name),
+                                                   token, index, offset);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown opcode");
+            }
+            code.add(new Quotation.Instruction(kind, operand, token, index, offset));
+            text.append(text.length() > 0 ? " " : "").append(token).append(kind == Quotation.Op.STORE ? " <=" : "");
+        }
+        return new Quotation(code, nested ? text.append(" ]").toString() : text.toString());
+    }
+
+    /**
+     * Helper function which cuts a token out of the source, up to the next whitespace.
+     *
+     * @param source The source text.
+     * @param offset The character offset of the token.
+     * @return The token.
+     */
+    private static String token(String source, int offset) {
+        int end = offset;
+        while (end < source.length() && !Tokenizer.isWhitespace(source.charAt(end))) {
+            end++;
+        }
+        return source.substring(offset, end);
+    }
+
+    /**
+     * Helper function which decodes a symbol.
+     *
+     * @param id The position of the symbol in the symbol table.
+     * @return The register or operator name.
+     */
+    private String symbol(int id) {
+        if (id < 0 || id >= this.symbol_count) {
+            throw new IndexOutOfBoundsException("Symbol out of range");
+        }
+        return string(this.data.getInt(this.symbols_offset + 4 * id));
+    }
+
+    /**
+     * Helper function which decodes a literal.
+     *
+     * @param id The position of the literal in the literal table.
+     * @return The number or vector.
+     */
+    private Object literal(int id) {
+        if (id < 0 || id >= this.literal_count) {
+            throw new IndexOutOfBoundsException("Literal out of range");
+        }
+        int offset = this.data.getInt(this.literals_offset + 4 * id);
+        switch (this.data.get(offset)) {
+            case TAG_DOUBLE:
+                return this.data.getDouble(offset + 1);
+            case TAG_DECIMAL:
+                return Decimal.parse(string(offset + 1));
+            case TAG_VECTOR:
+                var vector = new double[this.data.getInt(offset + 1)];
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] = this.data.getDouble(offset + 5 + 8 * i);
+                }
+                return vector;
+            default:
+                throw new IllegalArgumentException("Unknown literal tag");
+        }
+    }
+
+    /** Sequential reader of code at absolute positions of the mapped file. */
+    private final class Reader {
+
+        /** The position of the next byte. */
+        private int pos;
+
+        /**
+         * Constructor that takes the start position.
+         *
+         * @param pos The position of the first byte.
+         */
+        Reader(int pos) {
+            this.pos = pos;
+        }
+
+        /**
+         * Reads an unsigned byte.
+         *
+         * @return The byte.
+         */
+        int u8() {
+            return Byte.toUnsignedInt(data.get(this.pos++));
+        }
+
+        /**
+         * Reads a 32-bit integer.
+         *
+         * @return The integer.
+         */
+        int u32() {
+            int value = data.getInt(this.pos);
+            this.pos += 4;
+            return value;
+        }
+
+        /**
+         * Reads an unsigned integer of 7 bits per byte, least significant first.
+         *
+         * @return The integer.
+         * @throws IllegalArgumentException Raised if it does not fit into an {@code int}.
+         */
+        int varint() throws IllegalArgumentException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = u8();
+                value |= (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+    }
+
+    /**
+     * Compiles expressions and writes them to a library file, which is
+     * created or replaced. Literals are compiled in the current mode of the
+     * calculator, but converted to the mode of the calculator evaluating them.
+     *
+     * @param calc The calculator whose operators, registers and mode are used for compiling.
+     * @param exprs The RPN expressions by name.
+     * @param file The library file.
+     * @throws IOException Raised if writing fails.
+     * @throws RPNCalcException Raised if an expression cannot be compiled, naming it.
+     */
+    public static void write(RPNCalc calc, Map<String, String> exprs, Path file) throws IOException, RPNCalcException {
+        var writer = new Writer();
+        var names = new byte[exprs.size()][];
+        var codes = new int[exprs.size()];
+        int i = 0;
+        for (String name : exprs.keySet()) {
+            names[i++] = name.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(names, Arrays::compareUnsigned);
+        for (i = 0; i < names.length; i++) {
+            String name = new String(names[i], StandardCharsets.UTF_8);
+            String expr = exprs.get(name);
+            Quotation code;
+            try {
+                code = calc.compile(expr);
+            } catch (RPNCalcException e) {
+                var error = new RPNCalcException(String.format("Expression '%s': %s", name, e.getMessage()));
+                error.initCause(e);
+                throw error;
+            }
+            codes[i] = writer.code(writer.string(expr), code);
+        }
+        writer.finish(names, codes, file);
+    }
+
+    /** Builds the pools and the code of a library in memory. */
+    private static final class Writer {
+
+        /** The code and all strings and literals, written after the tables. */
+        final Output body = new Output();
+
+        /** The offsets of the strings written so far, relative to {@link #body}. */
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        /** The symbols written so far, by their position in the symbol table. */
+        private final Map<String, Integer> symbols = new HashMap<String, Integer>();
+
+        /** The string offsets of the symbols, relative to {@link #body}. */
+        private final List<Integer> symbol_offsets = new ArrayList<Integer>();
+
+        /** The literals written so far, by their position in the literal table. */
+        private final Map<Object, Integer> literals = new HashMap<Object, Integer>();
+
+        /** The offsets of the literals, relative to {@link #body}. */
+        private final List<Integer> literal_offsets = new ArrayList<Integer>();
+
+        /**
+         * Helper function which writes a string once and returns its offset.
+         *
+         * @param str The string, at most 65535 bytes long in UTF-8.
+         * @return The offset of the string, relative to {@link #body}.
+         * @throws IOException Raised if the string is too long.
+         */
+        int string(String str) throws IOException {
+            Integer offset = this.strings.get(str);
+            if (offset == null) {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF) {
+                    throw new IOException("Expression or name too long for a library");
+                }
+                offset = this.body.size();
+                this.body.u16(bytes.length);
+                this.body.write(bytes, 0, bytes.length);
+                this.strings.put(str, offset);
+            }
+            return offset;
+        }
+
+        /**
+         * Helper function which adds a symbol to the symbol table once.
+         *
+         * @param name The register or operator name.
+         * @return The position of the symbol in the symbol table.
+         * @throws IOException Raised if the name is too long.
+         */
+        int symbol(String name) throws IOException {
+            Integer id = this.symbols.get(name);
+            if (id == null) {
+                id = this.symbol_offsets.size();
+                this.symbol_offsets.add(string(name));
+                this.symbols.put(name, id);
+            }
+            return id;
+        }
+
+        /**
+         * Helper function which adds a literal to the literal table once.
+         * Vectors are compared by identity, as they are rarely repeated.
+         *
+         * @param value The number or vector.
+         * @return The position of the literal in the literal table.
+         * @throws IOException Raised if a decimal is too long.
+         */
+        int literal(Object value) throws IOException {
+            /* Boxed doubles are compared by their bits, so 0.0 and -0.0 stay apart,
+               while decimals are compared by their text, so 1.0 and 1.00 do */
+            Object key = (value instanceof Decimal) ? value.toString() : value;
+            Integer id = this.literals.get(key);
+            if (id == null) {
+                id = this.literal_offsets.size();
+                if (value instanceof Decimal) {
+                    byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                    if (bytes.length > 0xFFFF) {
+                        throw new IOException("Decimal literal too long for a library");
+                    }
+                    this.literal_offsets.add(this.body.size());
+                    this.body.u8(TAG_DECIMAL);
+                    this.body.u16(bytes.length);
+                    this.body.write(bytes, 0, bytes.length);
+                } else if (value instanceof double[]) {
+                    double[] vector = (double[])value;
+                    this.literal_offsets.add(this.body.size());
+                    this.body.u8(TAG_VECTOR);
+                    this.body.u32(vector.length);
+                    for (double element : vector) {
+                        this.body.f64(element);
+                    }
+                } else {
+                    this.literal_offsets.add(this.body.size());
+                    this.body.u8(TAG_DOUBLE);
+                    this.body.f64((Double)value);
+                }
+                this.literals.put(key, id);
+            }
+            return id;
+        }
+
+        /**
+         * Helper function which writes the code of an expression.
+         * The instructions are encoded into a buffer of their own first,
+         * because their pool entries are appended to the body while encoding.
+         *
+         * @param source The offset of the source text.
+         * @param code The compiled expression.
+         * @return The offset of the code, relative to {@link #body}.
+         * @throws IOException Raised if a name or literal is too long.
+         */
+        int code(int source, Quotation code) throws IOException {
+            var out = new Output();
+            encode(code, out);
+            int offset = this.body.size();
+            this.body.u32(source);
+            this.body.write(out.bytes(), 0, out.size());
+            return offset;
+        }
+
+        /**
+         * Helper function which encodes the instructions of a quotation, recursively.
+         *
+         * @param code The quotation.
+         * @param out The buffer the instructions are encoded into.
+         * @throws IOException Raised if a name or literal is too long.
+         */
+        private void encode(Quotation code, Output out) throws IOException {
+            out.varint(code.size());
+            for (int i = 0; i < code.size(); i++) {
+                Quotation.Instruction insn = code.get(i);
+                if (insn.operand instanceof Quotation) {
+                    out.u8(OP_QUOTATION);
+                    out.varint(insn.index);
+                    out.varint(insn.offset);
+                    encode((Quotation)insn.operand, out);
+                    continue;
+                }
+                switch (insn.op) {
+                    case PUSH:
+                        out.u8(OP_LITERAL);
+                        out.varint(literal(insn.operand));
+                        break;
+                    case READ:
+                        out.u8(OP_READ);
+                        out.varint(symbol((String)insn.operand));
+                        break;
+                    case STORE:
+                        out.u8(OP_STORE);
+                        out.varint(symbol((String)insn.operand));
+                        break;
+                    default:
+                        out.u8(OP_APPLY);
+                        out.varint(symbol((String)insn.operand));
+                        break;
+                }
+                out.varint(insn.index);
+                out.varint(insn.offset);
+            }
+        }
+
+        /**
+         * Writes the header, the tables and the body to a file.
+         *
+         * @param names The UTF-8 names of the expressions, sorted.
+         * @param codes The offsets of the code of each expression, relative to {@link #body}.
+         * @param file The library file.
+         * @throws IOException Raised if writing fails or the library is too large.
+         */
+        void finish(byte[][] names, int[] codes, Path file) throws IOException {
+            var name_offsets = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                name_offsets[i] = string(new String(names[i], StandardCharsets.UTF_8));
+            }
+            long tables = 8L * names.length + 4L * this.symbol_offsets.size() + 4L * this.literal_offsets.size();
+            if (HEADER_SIZE + tables + this.body.size() > Integer.MAX_VALUE) {
+                throw new IOException("Expression library is too large");
+            }
+            int index_offset = HEADER_SIZE;
+            int symbols_offset = index_offset + 8 * names.length;
+            int literals_offset = symbols_offset + 4 * this.symbol_offsets.size();
+            int base = literals_offset + 4 * this.literal_offsets.size();
+            var head = new Output();
+            head.write(MAGIC, 0, MAGIC.length);
+            head.u16(VERSION);
+            head.u16(0);
+            head.u32(names.length);
+            head.u32(this.symbol_offsets.size());
+            head.u32(this.literal_offsets.size());
+            head.u32(index_offset);
+            head.u32(symbols_offset);
+            head.u32(literals_offset);
+            for (int i = 0; i < names.length; i++) {
+                head.u32(base + name_offsets[i]);
+                head.u32(base + codes[i]);
+            }
+            for (int offset : this.symbol_offsets) {
+                head.u32(base + offset);
+            }
+            for (int offset : this.literal_offsets) {
+                head.u32(base + offset);
+            }
+            /* The code refers to strings relative to the body, so they are rebased as well */
+            byte[] body = this.body.bytes();
+            var buffer = ByteBuffer.wrap(body, 0, this.body.size());
+            for (int code : codes) {
+                buffer.putInt(code, base + buffer.getInt(code));
+            }
+            try (var out = Files.newOutputStream(file)) {
+                out.write(head.bytes(), 0, head.size());
+                out.write(body, 0, this.body.size());
+            }
+        }
+    }
+
+    /** A growing buffer of big-endian output. */
+    private static final class Output extends ByteArrayOutputStream {
+
+        /**
+         * Gets the underlying bytes without copying them.
+         *
+         * @return The buffer, of which the first {@link #size()} bytes are valid.
+         */
+        byte[] bytes() {
+            return this.buf;
+        }
+
+        /**
+         * Appends an unsigned byte.
+         *
+         * @param value The byte.
+         */
+        void u8(int value) {
+            write(value);
+        }
+
+        /**
+         * Appends an unsigned 16-bit integer.
+         *
+         * @param value The integer.
+         */
+        void u16(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        /**
+         * Appends a 32-bit integer.
+         *
+         * @param value The integer.
+         */
+        void u32(int value) {
+            u16(value >>> 16);
+            u16(value & 0xFFFF);
+        }
+
+        /**
+         * Appends a double.
+         *
+         * @param value The double.
+         */
+        void f64(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            u32((int)(bits >>> 32));
+            u32((int)bits);
+        }
+
+        /**
+         * Appends an unsigned integer of 7 bits per byte, least significant first.
+         *
+         * @param value The integer, which must not be negative.
+         */
+        void varint(int value) {
+            while (value >= 0x80) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+    }
+}
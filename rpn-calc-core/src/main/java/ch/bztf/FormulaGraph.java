@@ -0,0 +1,220 @@
+package ch.bztf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dependency graph between formula registers and the registers they read,
+ * used by {@link RPNCalc} to recompute formulas when their inputs change.
+ * <p>
+ * Each formula register has a set of inputs. The graph keeps the reverse
+ * edges as well, so the formulas affected by a change are found without
+ * visiting unrelated ones. Definitions that would make a formula depend
+ * on itself, directly or through other formulas, are rejected.
+ * </p>
+ * The graph only holds names. Values live in the calculator's registers.
+ *
+ * @author Timothy R. Schmid
+ */
+class FormulaGraph {
+
+    /** The expression of each formula register. */
+    private final Map<String, String> formulas = new HashMap<String, String>();
+
+    /** The registers read by each formula register. */
+    private final Map<String, Set<String>> inputs = new HashMap<String, Set<String>>();
+
+    /** The formula registers reading each register. */
+    private final Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+
+    /**
+     * Checks whether a register holds a formula.
+     *
+     * @param reg The register to be checked.
+     * @return {@code true} if {@code reg} is defined by a formula.
+     */
+    boolean isFormula(String reg) {
+        return this.formulas.containsKey(reg);
+    }
+
+    /**
+     * Gets the expression defining a formula register.
+     *
+     * @param reg The register to be queried.
+     * @return The RPN expression, or {@code null} if {@code reg} holds no formula.
+     */
+    String expression(String reg) {
+        return this.formulas.get(reg);
+    }
+
+    /**
+     * Gets the registers a formula reads.
+     *
+     * @param reg The formula register to be queried.
+     * @return The registers read by {@code reg}, empty if it holds no formula.
+     */
+    Set<String> inputsOf(String reg) {
+        return Collections.unmodifiableSet(this.inputs.getOrDefault(reg, Collections.emptySet()));
+    }
+
+    /**
+     * Finds an input that would make a formula depend on itself.
+     *
+     * @param reg The formula register about to be defined.
+     * @param reads The registers the formula would read.
+     * @return The first input through which {@code reg} would depend
+     *         on itself, or {@code null} if there is no cycle.
+     */
+    String findCycle(String reg, Collection<String> reads) {
+        for (String input : reads) {
+            if (reaches(input, reg, new HashSet<String>())) {
+                return input;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper function which checks whether a register depends on another one.
+     *
+     * @param from The register to start at.
+     * @param target The register to be found.
+     * @param visited The formula registers already searched.
+     * @return {@code true} if {@code from} is {@code target} or
+     *         one of its formula inputs, transitively, is.
+     */
+    private boolean reaches(String from, String target, Set<String> visited) {
+        if (from.equals(target)) {
+            return true;
+        }
+        if (visited.add(from)) {
+            for (String input : this.inputs.getOrDefault(from, Collections.emptySet())) {
+                if (reaches(input, target, visited)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Defines or redefines a formula register.
+     * The caller must have checked for cycles with {@link #findCycle(String, Collection)}.
+     *
+     * @param reg The formula register.
+     * @param expr The RPN expression defining it.
+     * @param reads The registers read by {@code expr}.
+     */
+    void define(String reg, String expr, Collection<String> reads) {
+        remove(reg);
+        this.formulas.put(reg, expr);
+        this.inputs.put(reg, new LinkedHashSet<String>(reads));
+        for (String input : reads) {
+            this.dependents.computeIfAbsent(input, k -> new LinkedHashSet<String>()).add(reg);
+        }
+    }
+
+    /**
+     * Turns a formula register back into a plain register.
+     * Formulas reading it are not affected.
+     *
+     * @param reg The formula register.
+     * @return Whether {@code reg} held a formula.
+     */
+    boolean remove(String reg) {
+        if (this.formulas.remove(reg) == null) {
+            return false;
+        }
+        for (String input : this.inputs.remove(reg)) {
+            Set<String> readers = this.dependents.get(input);
+            readers.remove(reg);
+            if (readers.isEmpty()) {
+                this.dependents.remove(input);
+            }
+        }
+        return true;
+    }
+
+    /** Removes all formulas. */
+    void clear() {
+        this.formulas.clear();
+        this.inputs.clear();
+        this.dependents.clear();
+    }
+
+    /**
+     * Replaces all formulas by copies of those of another graph.
+     * The graphs share no sets, so either can be changed afterwards.
+     *
+     * @param other The graph to be copied.
+     */
+    void copyFrom(FormulaGraph other) {
+        clear();
+        this.formulas.putAll(other.formulas);
+        other.inputs.forEach((reg, reads) -> this.inputs.put(reg, new LinkedHashSet<String>(reads)));
+        other.dependents.forEach((reg, readers) -> this.dependents.put(reg, new LinkedHashSet<String>(readers)));
+    }
+
+    /**
+     * Determines which formulas must be recomputed after registers changed,
+     * and in which order. Formulas are grouped into levels. Each formula only
+     * reads formulas of earlier levels, so all formulas of one level are
+     * independent of each other and can be computed in parallel.
+     *
+     * @param changed The registers whose values changed.
+     * @return The levels of affected formulas, in topological order.
+     *         It is empty if no formula reads any of {@code changed}.
+     */
+    List<List<String>> levels(Collection<String> changed) {
+        if (this.dependents.isEmpty()) {
+            return List.of(); // No formulas at all, the common case
+        }
+        /* Collect all formulas reachable through reverse edges */
+        var affected = new LinkedHashSet<String>();
+        var queue = new ArrayDeque<String>(changed);
+        while (!queue.isEmpty()) {
+            for (String reader : this.dependents.getOrDefault(queue.poll(), Collections.emptySet())) {
+                if (affected.add(reader)) {
+                    queue.add(reader);
+                }
+            }
+        }
+        /* Kahn's algorithm, restricted to the affected formulas */
+        var pending = new HashMap<String, Integer>();
+        var level = new ArrayList<String>();
+        for (String reg : affected) {
+            int count = 0;
+            for (String input : this.inputs.get(reg)) {
+                if (affected.contains(input)) {
+                    count++;
+                }
+            }
+            pending.put(reg, count);
+            if (count == 0) {
+                level.add(reg);
+            }
+        }
+        var levels = new ArrayList<List<String>>();
+        while (!level.isEmpty()) {
+            levels.add(level);
+            var next = new ArrayList<String>();
+            for (String reg : level) {
+                for (String reader : this.dependents.getOrDefault(reg, Collections.emptySet())) {
+                    if (pending.merge(reader, -1, Integer::sum) == 0) {
+                        next.add(reader);
+                    }
+                }
+            }
+            level = next;
+        }
+        return levels;
+    }
+}
@@ -0,0 +1,142 @@
+package ch.bztf;
+
+import java.util.Arrays;
+
+/**
+ * A lazy sequence of numbers, created by the {@code range} operator of
+ * {@link RPNCalc} and transformed by {@code map}. It is pushed onto the
+ * stack as a single value, while its elements are only computed when an
+ * n-ary operator consumes it, one at a time.
+ * <p>
+ * The elements are those of an arithmetic progression with a step of
+ * one or minus one, each passed through all mapping quotations in order.
+ * As any element can be computed from its position alone, a generator
+ * can be split into chunks that are reduced independently.
+ * </p>
+ * Generators are immutable, so mapping returns a new generator.
+ *
+ * @author Timothy R. Schmid
+ */
+final class Generator {
+
+    /** The first element before mapping. */
+    private final double first;
+
+    /** The difference between successive elements before mapping, either 1 or -1. */
+    private final double step;
+
+    /** The number of elements. */
+    private final long size;
+
+    /** The quotations each element is passed through, in order. */
+    private final Quotation[] maps;
+
+    /** Whether all {@link #maps} may be run on several threads at once. */
+    private final boolean parallel;
+
+    /**
+     * Constructor that takes all fields.
+     *
+     * @param first The first element before mapping.
+     * @param step The step between elements before mapping.
+     * @param size The number of elements.
+     * @param maps The mapping quotations. The array is not copied.
+     * @param parallel Whether the mapping quotations may be run on several threads at once.
+     */
+    private Generator(double first, double step, long size, Quotation[] maps, boolean parallel) {
+        this.first = first;
+        this.step = step;
+        this.size = size;
+        this.maps = maps;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Creates a generator counting from one number to another, both inclusive.
+     * It counts down if {@code to} is less than {@code from}.
+     *
+     * @param from The first element.
+     * @param to The bound of the last element, which is only reached
+     *           if it differs from {@code from} by a whole number.
+     * @param max_size The maximum number of elements allowed.
+     * @return The generator.
+     * @throws ArithmeticException Raised if a bound is not finite
+     *         or there would be more than {@code max_size} elements.
+     */
+    static Generator range(double from, double to, long max_size) throws ArithmeticException {
+        if (!Double.isFinite(from) || !Double.isFinite(to)) {
+            throw new ArithmeticException("Range bounds must be finite");
+        }
+        double span = Math.floor(Math.abs(to - from));
+        if (span >= max_size) {
+            throw new ArithmeticException(String.format("Range exceeds %d elements", max_size));
+        }
+        return new Generator(from, (to < from) ? -1.0 : 1.0, (long)span + 1, new Quotation[0], true);
+    }
+
+    /**
+     * Creates a generator passing each element of this one through a quotation.
+     *
+     * @param quotation The quotation, which must turn one number into exactly one number.
+     * @param parallel Whether the quotation may be run on several threads at once.
+     * @return The new generator. This one is not modified.
+     */
+    Generator map(Quotation quotation, boolean parallel) {
+        Quotation[] mapped = Arrays.copyOf(this.maps, this.maps.length + 1);
+        mapped[this.maps.length] = quotation;
+        return new Generator(this.first, this.step, this.size, mapped, this.parallel && parallel);
+    }
+
+    /**
+     * Gets the number of elements.
+     *
+     * @return The number of elements, which does not require computing any of them.
+     */
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Gets an element before mapping. It is computed from its position
+     * rather than by repeated addition, so no rounding errors accumulate.
+     *
+     * @param i The position of the element.
+     * @return The element at position {@code i}, before passing it through {@link #maps()}.
+     */
+    double get(long i) {
+        return this.first + i * this.step;
+    }
+
+    /**
+     * Gets the mapping quotations.
+     *
+     * @return The quotations each element is passed through, in order. Must not be modified.
+     */
+    Quotation[] maps() {
+        return this.maps;
+    }
+
+    /**
+     * Checks whether elements can be computed on several threads at once.
+     *
+     * @return {@code true} if no mapping quotation has side effects.
+     */
+    boolean isParallel() {
+        return this.parallel;
+    }
+
+    /**
+     * Gets the generator in RPN form.
+     *
+     * @return The expression creating the generator, e.g. {@code 1.0 10.0 range [ pow2 ] map}.
+     */
+    @Override
+    public String toString() {
+        var builder = new StringBuilder();
+        builder.append(this.first).append(' ').append(get(this.size - 1)).append(" range");
+        for (Quotation quotation : this.maps) {
+            builder.append(' ').append(quotation).append(" map");
+        }
+        return builder.toString();
+    }
+}
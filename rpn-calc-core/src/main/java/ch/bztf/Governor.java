@@ -0,0 +1,146 @@
+package ch.bztf;
+
+/**
+ * Tracks the resources used by a single evaluation against its {@link Limits}.
+ * <p>
+ * All checks are plain comparisons of counters, except for the clock,
+ * which is only read every {@link #CLOCK_INTERVAL} tokens.
+ * </p>
+ * The size of values is estimated from the usual 64-bit JVM object layout
+ * with compressed references. It need not be exact to stop runaway input.
+ *
+ * @author Timothy R. Schmid
+ */
+final class Governor {
+
+    /** The number of tokens between two reads of the clock. Must be a power of two. */
+    static final int CLOCK_INTERVAL = 64;
+
+    /** The estimated size of a scalar on the stack, i.e. a boxed double plus a reference. */
+    private static final long SCALAR_BYTES = 24;
+
+    /** The estimated size of a vector apart from its elements. */
+    private static final long VECTOR_BYTES = 24;
+
+    /** The maximum number of tokens. */
+    private final long max_tokens;
+
+    /** The maximum stack depth. */
+    private final int max_depth;
+
+    /** The approximate maximum number of bytes. */
+    private final long max_bytes;
+
+    /** The time budget in nanoseconds, kept for error messages. */
+    private final long max_nanos;
+
+    /** Whether there is a time budget at all. */
+    private final boolean timed;
+
+    /** The time the evaluation must be complete by, as per {@link System#nanoTime()}. */
+    private final long deadline;
+
+    /** The number of tokens seen so far. */
+    private long tokens = 0;
+
+    /** The approximate number of bytes used so far. */
+    private long bytes = 0;
+
+    /**
+     * Constructor that takes all budgets and starts the clock.
+     *
+     * @param max_tokens The maximum number of tokens.
+     * @param max_depth The maximum stack depth.
+     * @param max_bytes The approximate maximum number of bytes.
+     * @param max_nanos The maximum wall-clock time in nanoseconds.
+     */
+    Governor(long max_tokens, int max_depth, long max_bytes, long max_nanos) {
+        this.max_tokens = max_tokens;
+        this.max_depth = max_depth;
+        this.max_bytes = max_bytes;
+        this.max_nanos = max_nanos;
+        this.timed = (max_nanos != Long.MAX_VALUE);
+        this.deadline = System.nanoTime() + max_nanos; // May wrap around, see checkTime()
+    }
+
+    /**
+     * Accounts for a token about to be evaluated.
+     *
+     * @param length The length of the token in characters.
+     * @throws LimitExceededException Raised if the token, memory or time budget is exhausted.
+     */
+    void token(int length) throws LimitExceededException {
+        if (++this.tokens > this.max_tokens) {
+            throw new LimitExceededException(LimitExceededException.Resource.TOKENS, this.max_tokens);
+        }
+        charge(2L * length);
+        if ((this.tokens & (CLOCK_INTERVAL - 1)) == 0) {
+            checkTime();
+        }
+    }
+
+    /**
+     * Accounts for a value pushed onto the stack.
+     *
+     * @param depth The stack depth after pushing.
+     * @param value The value pushed.
+     * @throws LimitExceededException Raised if the stack depth or memory budget is exhausted.
+     */
+    void push(int depth, Object value) throws LimitExceededException {
+        if (depth > this.max_depth) {
+            throw new LimitExceededException(LimitExceededException.Resource.STACK_DEPTH, this.max_depth);
+        }
+        charge(sizeOf(value));
+    }
+
+    /**
+     * Accounts for work that is not tied to a token, e.g. the elements
+     * produced by an operator. The clock is checked every time.
+     *
+     * @param bytes The approximate number of bytes allocated.
+     * @throws LimitExceededException Raised if the memory or time budget is exhausted.
+     */
+    void work(long bytes) throws LimitExceededException {
+        charge(bytes);
+        checkTime();
+    }
+
+    /**
+     * Helper function which adds to the memory used.
+     *
+     * @param amount The approximate number of bytes to add.
+     * @throws LimitExceededException Raised if the memory budget is exhausted.
+     */
+    private void charge(long amount) throws LimitExceededException {
+        this.bytes += amount;
+        if (this.bytes > this.max_bytes) {
+            throw new LimitExceededException(LimitExceededException.Resource.BYTES, this.max_bytes);
+        }
+    }
+
+    /**
+     * Helper function which checks the clock against the deadline.
+     *
+     * @throws LimitExceededException Raised if the time budget is exhausted.
+     */
+    private void checkTime() throws LimitExceededException {
+        if (this.timed && System.nanoTime() - this.deadline > 0) {
+            throw new LimitExceededException(LimitExceededException.Resource.TIME, this.max_nanos);
+        }
+    }
+
+    /**
+     * Estimates the size of a stack value.
+     *
+     * @param value The value, which may be a scalar or a vector.
+     * @return The approximate number of bytes it takes up.
+     */
+    static long sizeOf(Object value) {
+        if (value instanceof double[]) {
+            return VECTOR_BYTES + 8L * ((double[])value).length;
+        } else if (value instanceof Decimal) {
+            return 2 * SCALAR_BYTES; // Unscaled value, scale and an optional BigDecimal
+        }
+        return SCALAR_BYTES;
+    }
+}
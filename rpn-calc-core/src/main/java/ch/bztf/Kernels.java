@@ -0,0 +1,376 @@
+package ch.bztf;
+
+/**
+ * Element-wise kernels for vector-valued stack entries.
+ * <p>
+ * Every operator has its own plain counted loop over primitive arrays,
+ * with the operator chosen once outside of it. Loops like these are
+ * compiled to SIMD instructions by the JIT (superword optimization),
+ * so nothing here depends on a particular instruction set.
+ * </p>
+ * If the {@code jdk.incubator.vector} module is available at run time,
+ * the most common kernels are delegated to {@link SimdKernels} instead.
+ * Kernels never modify their input arrays unless stated otherwise.
+ *
+ * @author Timothy R. Schmid
+ */
+final class Kernels {
+
+    /** Relation bit of a left operand less than the right one. */
+    private static final int LESS = 1;
+
+    /** Relation bit of equal operands. */
+    private static final int EQUAL = 2;
+
+    /** Relation bit of a left operand greater than the right one. */
+    private static final int GREATER = 4;
+
+    /** Relation bit of unordered operands, i.e. if either is NaN. */
+    private static final int UNORDERED = 8;
+
+    /** Prevents instantiation, as this class only holds static functions. */
+    private Kernels() {
+    }
+
+    /**
+     * Maps a comparison operator to the set of relations it holds for.
+     *
+     * @param op The comparison operator in string form.
+     * @return The relation bits, or 0 if {@code op} is no comparison.
+     */
+    static int relations(String op) {
+        switch (op) {
+            case "lt": return LESS;
+            case "le": return LESS | EQUAL;
+            case "gt": return GREATER;
+            case "ge": return GREATER | EQUAL;
+            case "eq": return EQUAL;
+            case "ne": return LESS | GREATER | UNORDERED; // NaN is unequal to everything
+            default:   return 0;
+        }
+    }
+
+    /**
+     * Compares two numbers.
+     *
+     * @param relations The relation bits of the comparison, as per {@link #relations(String)}.
+     * @param l The left operand.
+     * @param r The right operand.
+     * @return 1 if the operands are in one of the given relations, 0 otherwise.
+     */
+    static double compare(int relations, double l, double r) {
+        int actual = (l < r) ? LESS : (l > r) ? GREATER : (l == r) ? EQUAL : UNORDERED;
+        return ((relations & actual) != 0) ? 1.0 : 0.0;
+    }
+
+    /**
+     * Helper function which makes sure two vectors can be combined.
+     *
+     * @param left The length of the left operand.
+     * @param right The length of the right operand.
+     * @throws ArithmeticException Raised if the lengths differ.
+     */
+    static void checkLengths(int left, int right) throws ArithmeticException {
+        if (left != right) {
+            throw new ArithmeticException(String.format("Vector lengths %d and %d differ", left, right));
+        }
+    }
+
+    /**
+     * Applies a unary operator to each element of a vector.
+     *
+     * @param op The unary operator in string form.
+     * @param x The operand.
+     * @return A new vector holding the results.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     */
+    static double[] unary(String op, double[] x) throws IllegalArgumentException {
+        int n = x.length;
+        var out = new double[n];
+        if (SimdKernels.AVAILABLE && SimdKernels.unary(op, x, out)) {
+            return out;
+        }
+        switch (op) {
+            case "%":
+                for (int i = 0; i < n; i++) out[i] = x[i] / 100.0;
+                return out;
+            case "neg":
+                for (int i = 0; i < n; i++) out[i] = -x[i];
+                return out;
+            case "abs":
+                for (int i = 0; i < n; i++) out[i] = Math.abs(x[i]);
+                return out;
+            case "pow2":
+                for (int i = 0; i < n; i++) out[i] = x[i] * x[i];
+                return out;
+            case "sqrt":
+                for (int i = 0; i < n; i++) out[i] = Math.sqrt(x[i]);
+                return out;
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Applies a binary operator to each pair of elements of two vectors.
+     *
+     * @param op The binary operator in string form.
+     * @param l The left operand.
+     * @param r The right operand. It must be as long as {@code l}.
+     * @return A new vector holding the results.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     * @throws ArithmeticException Raised if the vector lengths differ.
+     */
+    static double[] binary(String op, double[] l, double[] r)
+    throws IllegalArgumentException, ArithmeticException {
+        checkLengths(l.length, r.length);
+        int n = l.length;
+        var out = new double[n];
+        if (SimdKernels.AVAILABLE && SimdKernels.binary(op, l, r, out)) {
+            return out;
+        }
+        switch (op) {
+            case "+":
+                for (int i = 0; i < n; i++) out[i] = l[i] + r[i];
+                return out;
+            case "-":
+                for (int i = 0; i < n; i++) out[i] = l[i] - r[i];
+                return out;
+            case "*":
+                for (int i = 0; i < n; i++) out[i] = l[i] * r[i];
+                return out;
+            case "/":
+                for (int i = 0; i < n; i++) out[i] = l[i] / r[i];
+                return out;
+            case "mod":
+                for (int i = 0; i < n; i++) out[i] = l[i] - r[i] * Math.floor(l[i] / r[i]);
+                return out;
+            case "rem":
+                for (int i = 0; i < n; i++) out[i] = l[i] % r[i];
+                return out;
+            case "pow":
+                for (int i = 0; i < n; i++) out[i] = Math.pow(l[i], r[i]);
+                return out;
+        }
+        int relations = relations(op);
+        if (relations != 0) {
+            for (int i = 0; i < n; i++) out[i] = compare(relations, l[i], r[i]);
+            return out;
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Applies a binary operator to each element of a vector
+     * and a scalar, which is broadcast to the vector's length.
+     *
+     * @param op The binary operator in string form.
+     * @param l The left operand.
+     * @param r The right operand.
+     * @return A new vector holding the results.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     */
+    static double[] binary(String op, double[] l, double r) throws IllegalArgumentException {
+        int n = l.length;
+        var out = new double[n];
+        if (SimdKernels.AVAILABLE && SimdKernels.binary(op, l, r, out)) {
+            return out;
+        }
+        switch (op) {
+            case "+":
+                for (int i = 0; i < n; i++) out[i] = l[i] + r;
+                return out;
+            case "-":
+                for (int i = 0; i < n; i++) out[i] = l[i] - r;
+                return out;
+            case "*":
+                for (int i = 0; i < n; i++) out[i] = l[i] * r;
+                return out;
+            case "/":
+                for (int i = 0; i < n; i++) out[i] = l[i] / r;
+                return out;
+            case "mod":
+                for (int i = 0; i < n; i++) out[i] = l[i] - r * Math.floor(l[i] / r);
+                return out;
+            case "rem":
+                for (int i = 0; i < n; i++) out[i] = l[i] % r;
+                return out;
+            case "pow":
+                for (int i = 0; i < n; i++) out[i] = Math.pow(l[i], r);
+                return out;
+        }
+        int relations = relations(op);
+        if (relations != 0) {
+            for (int i = 0; i < n; i++) out[i] = compare(relations, l[i], r);
+            return out;
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Applies a binary operator to a scalar, which is broadcast
+     * to the vector's length, and each element of a vector.
+     *
+     * @param op The binary operator in string form.
+     * @param l The left operand.
+     * @param r The right operand.
+     * @return A new vector holding the results.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     */
+    static double[] binary(String op, double l, double[] r) throws IllegalArgumentException {
+        if (op.equals("+") || op.equals("*")) {
+            return binary(op, r, l); // Commutative, which allocates the result itself
+        }
+        int n = r.length;
+        var out = new double[n];
+        switch (op) {
+            case "-":
+                for (int i = 0; i < n; i++) out[i] = l - r[i];
+                return out;
+            case "/":
+                for (int i = 0; i < n; i++) out[i] = l / r[i];
+                return out;
+            case "mod":
+                for (int i = 0; i < n; i++) out[i] = l - r[i] * Math.floor(l / r[i]);
+                return out;
+            case "rem":
+                for (int i = 0; i < n; i++) out[i] = l % r[i];
+                return out;
+            case "pow":
+                for (int i = 0; i < n; i++) out[i] = Math.pow(l, r[i]);
+                return out;
+        }
+        int relations = relations(op);
+        if (relations != 0) {
+            for (int i = 0; i < n; i++) out[i] = compare(relations, l, r[i]);
+            return out;
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Combines a vector into an accumulator, element by element.
+     * This is the building block for reducing across several vectors.
+     *
+     * @param op The combining operator, one of {@code +}, {@code min} and {@code max}.
+     * @param acc The accumulator, which is modified in place.
+     * @param x The vector to be combined into {@code acc}.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     * @throws ArithmeticException Raised if the vector lengths differ.
+     */
+    static void accumulate(String op, double[] acc, double[] x)
+    throws IllegalArgumentException, ArithmeticException {
+        checkLengths(acc.length, x.length);
+        int n = acc.length;
+        switch (op) {
+            case "+":
+                for (int i = 0; i < n; i++) acc[i] += x[i];
+                return;
+            case "min":
+                for (int i = 0; i < n; i++) acc[i] = Math.min(acc[i], x[i]);
+                return;
+            case "max":
+                for (int i = 0; i < n; i++) acc[i] = Math.max(acc[i], x[i]);
+                return;
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Combines a scalar, which is broadcast to the accumulator's
+     * length, into an accumulator, element by element.
+     *
+     * @param op The combining operator, one of {@code +}, {@code min} and {@code max}.
+     * @param acc The accumulator, which is modified in place.
+     * @param x The scalar to be combined into {@code acc}.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     */
+    static void accumulate(String op, double[] acc, double x) throws IllegalArgumentException {
+        int n = acc.length;
+        switch (op) {
+            case "+":
+                for (int i = 0; i < n; i++) acc[i] += x;
+                return;
+            case "min":
+                for (int i = 0; i < n; i++) acc[i] = Math.min(acc[i], x);
+                return;
+            case "max":
+                for (int i = 0; i < n; i++) acc[i] = Math.max(acc[i], x);
+                return;
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Reduces all elements of a single vector to a scalar.
+     * <p>
+     * Sums are split across four independent partial sums. Unlike a single
+     * running sum, this does not serialize every addition on the previous one.
+     * </p>
+     *
+     * @param op The n-ary operator in string form.
+     * @param x The vector to be reduced.
+     * @return The reduced value. Except for {@code sum} and {@code cnt},
+     *         the result for an empty vector is NaN, as is the variance
+     *         of a single element.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     */
+    static double reduce(String op, double[] x) throws IllegalArgumentException {
+        int n = x.length;
+        switch (op) {
+            case "cnt":
+                return n;
+            case "sum":
+                return sum(x);
+            case "avg":
+                return (n == 0) ? Double.NaN : sum(x) / n;
+            case "min": {
+                if (n == 0) return Double.NaN;
+                if (SimdKernels.AVAILABLE) return SimdKernels.min(x);
+                double min = x[0];
+                for (int i = 1; i < n; i++) min = Math.min(min, x[i]);
+                return min;
+            }
+            case "max": {
+                if (n == 0) return Double.NaN;
+                if (SimdKernels.AVAILABLE) return SimdKernels.max(x);
+                double max = x[0];
+                for (int i = 1; i < n; i++) max = Math.max(max, x[i]);
+                return max;
+            }
+            case "var":
+            case "stddev": {
+                var acc = new Accumulator(Accumulator.Kind.MOMENTS);
+                acc.addAll(x, n);
+                return op.equals("var") ? acc.variance() : Math.sqrt(acc.variance());
+            }
+            case "median":
+                return Statistics.percentile(x.clone(), n, 50.0); // Selection reorders the elements
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Helper function which sums all elements of a vector.
+     *
+     * @param x The vector to be summed.
+     * @return The sum of all elements, or zero if {@code x} is empty.
+     */
+    private static double sum(double[] x) {
+        if (SimdKernels.AVAILABLE) {
+            return SimdKernels.sum(x);
+        }
+        int n = x.length;
+        int bound = n & ~3;
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        for (int i = 0; i < bound; i += 4) {
+            s0 += x[i];
+            s1 += x[i + 1];
+            s2 += x[i + 2];
+            s3 += x[i + 3];
+        }
+        for (int i = bound; i < n; i++) {
+            s0 += x[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,82 @@
+package ch.bztf;
+
+/**
+ * Raised when an evaluation exceeds one of its {@link Limits}.
+ * It is reported as the cause of an {@link RPNCalcException},
+ * which also carries the token and index at which the limit was hit.
+ *
+ * @author Timothy R. Schmid
+ */
+public class LimitExceededException extends RuntimeException {
+
+    /** Necessary as {@code Exception} implements {@code Serializable}. */
+    private static final long serialVersionUID = 1L;
+
+    /** The resources an evaluation is limited in. */
+    public enum Resource {
+
+        /** The number of tokens. */
+        TOKENS,
+
+        /** The number of operands on the stack. */
+        STACK_DEPTH,
+
+        /** The approximate number of bytes of input and values. */
+        BYTES,
+
+        /** The wall-clock time. */
+        TIME
+    }
+
+    /** The resource that was exhausted. */
+    private final Resource resource;
+
+    /** The limit that was exceeded, in the unit of {@link #resource}. */
+    private final long limit;
+
+    /**
+     * Exception constructor that takes the exhausted resource and its limit.
+     *
+     * @param resource The resource that was exhausted.
+     * @param limit The limit that was exceeded. Time is given in nanoseconds.
+     */
+    public LimitExceededException(Resource resource, long limit) {
+        super(describe(resource, limit));
+        this.resource = resource;
+        this.limit = limit;
+    }
+
+    /**
+     * Helper function which builds the error message.
+     *
+     * @param resource The resource that was exhausted.
+     * @param limit The limit that was exceeded.
+     * @return The error message.
+     */
+    private static String describe(Resource resource, long limit) {
+        switch (resource) {
+            case TOKENS:      return String.format("Token limit of %d exceeded", limit);
+            case STACK_DEPTH: return String.format("Stack depth limit of %d exceeded", limit);
+            case BYTES:       return String.format("Memory limit of %d bytes exceeded", limit);
+            default:          return String.format("Time limit of %d ms exceeded", limit / 1_000_000);
+        }
+    }
+
+    /**
+     * Gets the resource that was exhausted.
+     *
+     * @return The exhausted resource.
+     */
+    public Resource getResource() {
+        return this.resource;
+    }
+
+    /**
+     * Gets the limit that was exceeded.
+     *
+     * @return The limit, in nanoseconds for {@link Resource#TIME}.
+     */
+    public long getLimit() {
+        return this.limit;
+    }
+}
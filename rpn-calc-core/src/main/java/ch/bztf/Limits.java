@@ -0,0 +1,171 @@
+package ch.bztf;
+
+import java.time.Duration;
+
+/**
+ * Budgets that bound the resources a single evaluation may use.
+ * Limits are set per calculator via {@link RPNCalc#setLimits(Limits)} or
+ * passed along with an individual evaluation, e.g. to apply the budget
+ * of a particular client session.
+ * <p>
+ * Instances are immutable. Start from {@link #NONE} and tighten the
+ * budgets of interest, e.g.
+ * {@code Limits.NONE.withMaxTokens(10_000).withMaxTime(Duration.ofMillis(50))}.
+ * </p>
+ * Exceeding a limit aborts the evaluation with an {@link RPNCalcException}
+ * whose cause is a {@link LimitExceededException}.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class Limits {
+
+    /** No limits at all. This is the default of every calculator. */
+    public static final Limits NONE = new Limits(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /** The maximum number of tokens evaluated. */
+    private final long max_tokens;
+
+    /** The maximum number of operands on the stack at any time. */
+    private final int max_depth;
+
+    /** The maximum number of bytes of input and values, approximately. */
+    private final long max_bytes;
+
+    /** The maximum wall-clock time in nanoseconds. */
+    private final long max_nanos;
+
+    /**
+     * Constructor that takes all budgets.
+     *
+     * @param max_tokens The maximum number of tokens evaluated.
+     * @param max_depth The maximum stack depth.
+     * @param max_bytes The approximate maximum number of bytes.
+     * @param max_nanos The maximum wall-clock time in nanoseconds.
+     */
+    private Limits(long max_tokens, int max_depth, long max_bytes, long max_nanos) {
+        this.max_tokens = max_tokens;
+        this.max_depth = max_depth;
+        this.max_bytes = max_bytes;
+        this.max_nanos = max_nanos;
+    }
+
+    /**
+     * Helper function which validates a budget.
+     *
+     * @param name The name of the budget, used in the error message.
+     * @param value The budget to be checked.
+     * @throws IllegalArgumentException Raised if {@code value} is not positive.
+     */
+    private static void checkPositive(String name, long value) throws IllegalArgumentException {
+        if (value <= 0) {
+            throw new IllegalArgumentException(String.format("%s %d is not positive", name, value));
+        }
+    }
+
+    /**
+     * Creates a copy with a different token budget.
+     *
+     * @param max_tokens The maximum number of tokens an evaluation may consist of.
+     * @return The new limits.
+     * @throws IllegalArgumentException Raised if {@code max_tokens} is not positive.
+     */
+    public Limits withMaxTokens(long max_tokens) throws IllegalArgumentException {
+        checkPositive("Token limit", max_tokens);
+        return new Limits(max_tokens, this.max_depth, this.max_bytes, this.max_nanos);
+    }
+
+    /**
+     * Creates a copy with a different stack depth budget.
+     *
+     * @param max_depth The maximum number of operands on the stack at any time.
+     * @return The new limits.
+     * @throws IllegalArgumentException Raised if {@code max_depth} is not positive.
+     */
+    public Limits withMaxStackDepth(int max_depth) throws IllegalArgumentException {
+        checkPositive("Stack depth limit", max_depth);
+        return new Limits(this.max_tokens, max_depth, this.max_bytes, this.max_nanos);
+    }
+
+    /**
+     * Creates a copy with a different memory budget. The budget covers the
+     * characters of all tokens plus the estimated size of every value pushed
+     * onto the stack, so it bounds the total allocation of an evaluation.
+     *
+     * @param max_bytes The approximate maximum number of bytes.
+     * @return The new limits.
+     * @throws IllegalArgumentException Raised if {@code max_bytes} is not positive.
+     */
+    public Limits withMaxBytes(long max_bytes) throws IllegalArgumentException {
+        checkPositive("Memory limit", max_bytes);
+        return new Limits(this.max_tokens, this.max_depth, max_bytes, this.max_nanos);
+    }
+
+    /**
+     * Creates a copy with a different time budget.
+     * The clock is checked periodically, not after every token.
+     *
+     * @param max_time The maximum wall-clock time an evaluation may take.
+     * @return The new limits.
+     * @throws IllegalArgumentException Raised if {@code max_time} is not positive.
+     */
+    public Limits withMaxTime(Duration max_time) throws IllegalArgumentException {
+        long nanos = (max_time.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0) ? Long.MAX_VALUE : max_time.toNanos();
+        checkPositive("Time limit", nanos);
+        return new Limits(this.max_tokens, this.max_depth, this.max_bytes, nanos);
+    }
+
+    /**
+     * Gets the token budget.
+     *
+     * @return The maximum number of tokens.
+     */
+    public long getMaxTokens() {
+        return this.max_tokens;
+    }
+
+    /**
+     * Gets the stack depth budget.
+     *
+     * @return The maximum stack depth.
+     */
+    public int getMaxStackDepth() {
+        return this.max_depth;
+    }
+
+    /**
+     * Gets the memory budget.
+     *
+     * @return The approximate maximum number of bytes.
+     */
+    public long getMaxBytes() {
+        return this.max_bytes;
+    }
+
+    /**
+     * Gets the time budget.
+     *
+     * @return The maximum wall-clock time.
+     */
+    public Duration getMaxTime() {
+        return Duration.ofNanos(this.max_nanos);
+    }
+
+    /**
+     * Checks whether no budget is set at all.
+     *
+     * @return {@code true} if evaluations are not limited in any way.
+     */
+    public boolean isUnlimited() {
+        return this.max_tokens == Long.MAX_VALUE && this.max_depth == Integer.MAX_VALUE
+            && this.max_bytes == Long.MAX_VALUE && this.max_nanos == Long.MAX_VALUE;
+    }
+
+    /**
+     * Starts tracking a single evaluation against these limits.
+     *
+     * @return A fresh governor for one evaluation.
+     */
+    Governor start() {
+        return new Governor(this.max_tokens, this.max_depth, this.max_bytes, this.max_nanos);
+    }
+}
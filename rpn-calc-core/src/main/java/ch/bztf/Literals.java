@@ -0,0 +1,210 @@
+package ch.bztf;
+
+/**
+ * Helper functions for recognizing and parsing numeric literals
+ * directly from a span of characters, as produced by {@link Tokenizer}.
+ *
+ * @author Timothy R. Schmid
+ */
+final class Literals {
+
+    /** Powers of ten that are exactly representable as a {@code double}. */
+    private static final double[] POW10 = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** The largest mantissa that is exactly representable as a {@code double}. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /** The maximum number of significant digits handled by the fast path. */
+    private static final int MAX_DIGITS = 18;
+
+    /** Not instantiable. */
+    private Literals() {}
+
+    /**
+     * Helper function which checks whether a span equals a string.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @param str The string to compare with.
+     * @return Whether the span consists of exactly the characters of {@code str}.
+     */
+    private static boolean regionEquals(CharSequence chars, int start, int length, String str) {
+        if (length != str.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars.charAt(start + i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a span could be a numeric literal.
+     * This is a cheap test used to avoid throwing and catching
+     * a {@code NumberFormatException} for every symbol.
+     * If it returns {@code false}, the span is certainly no literal.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @return {@code true} if the span may be a literal.
+     */
+    static boolean isCandidate(CharSequence chars, int start, int length) {
+        if (length > 1 && (chars.charAt(start) == '+' || chars.charAt(start) == '-')) {
+            start++;
+            length--;
+        }
+        char c = chars.charAt(start);
+        return (c >= '0' && c <= '9') || c == '.' ||
+               regionEquals(chars, start, length, "NaN") ||
+               regionEquals(chars, start, length, "Infinity");
+    }
+
+    /**
+     * Parses a span as a {@code double}, with the exact same results as
+     * {@link Double#parseDouble(String)}. Plain decimal literals with up to
+     * 18 significant digits and small exponents are converted without
+     * allocating, using the fact that a single multiplication or division
+     * of two exactly representable doubles is correctly rounded.
+     * Everything else is delegated to {@code Double.parseDouble}.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @return The parsed value.
+     * @throws NumberFormatException Raised if the span is not a valid literal.
+     */
+    static double parseDouble(CharSequence chars, int start, int length) throws NumberFormatException {
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if (i < end && (chars.charAt(i) == '+' || chars.charAt(i) == '-')) {
+            negative = chars.charAt(i++) == '-';
+        }
+        long mantissa = 0;
+        int digits = 0;       // Significant digits in the mantissa
+        int exponent = 0;     // Decimal exponent applied to the mantissa
+        boolean any = false;  // Whether any digit was seen at all
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (mantissa == 0 && c == '0') {
+                    exponent -= point ? 1 : 0; // Leading zeros are not significant
+                    continue;
+                }
+                if (++digits > MAX_DIGITS) {
+                    return parseSlowly(chars, start, length);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                exponent -= point ? 1 : 0;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (any && i < end && (chars.charAt(i) == 'e' || chars.charAt(i) == 'E')) {
+            boolean exp_negative = false;
+            if (++i < end && (chars.charAt(i) == '+' || chars.charAt(i) == '-')) {
+                exp_negative = chars.charAt(i++) == '-';
+            }
+            int exp_start = i;
+            int exp = 0;
+            for (; i < end && chars.charAt(i) >= '0' && chars.charAt(i) <= '9'; i++) {
+                if (exp > 999) {
+                    return parseSlowly(chars, start, length);
+                }
+                exp = exp * 10 + (chars.charAt(i) - '0');
+            }
+            if (i == exp_start) {
+                return parseSlowly(chars, start, length); // Missing exponent digits
+            }
+            exponent += exp_negative ? -exp : exp;
+        }
+        if (!any || i != end || mantissa >= MAX_EXACT_MANTISSA) {
+            return parseSlowly(chars, start, length);
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (exponent >= 0 && exponent < POW10.length) {
+            value = mantissa * POW10[exponent];
+        } else if (exponent < 0 && -exponent < POW10.length) {
+            value = mantissa / POW10[-exponent];
+        } else {
+            return parseSlowly(chars, start, length);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Helper function which parses a span by copying it into a string.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @return The parsed value.
+     * @throws NumberFormatException Raised if the span is not a valid literal.
+     */
+    private static double parseSlowly(CharSequence chars, int start, int length) throws NumberFormatException {
+        return Double.parseDouble(chars.subSequence(start, start + length).toString());
+    }
+
+    /**
+     * Checks whether a span could be a vector literal, i.e. whether it is
+     * enclosed in braces. Its elements are only checked while parsing.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @return {@code true} if the span may be a vector literal.
+     */
+    static boolean isVectorCandidate(CharSequence chars, int start, int length) {
+        return length >= 2 && chars.charAt(start) == '{' && chars.charAt(start + length - 1) == '}';
+    }
+
+    /**
+     * Parses a vector literal, which consists of one or more comma-separated
+     * numeric literals enclosed in braces, e.g. {@code {1,2.5,-3e2}}.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @return The parsed vector.
+     * @throws NumberFormatException Raised if the span is not a valid vector literal.
+     */
+    static double[] parseVector(CharSequence chars, int start, int length) throws NumberFormatException {
+        if (!isVectorCandidate(chars, start, length)) {
+            throw new NumberFormatException("Not a vector literal");
+        }
+        int end = start + length - 1; // Position of the closing brace
+        int count = 1;
+        for (int i = start + 1; i < end; i++) {
+            if (chars.charAt(i) == ',') {
+                count++;
+            }
+        }
+        var vector = new double[count];
+        int from = start + 1;
+        for (int n = 0; n < count; n++) {
+            int to = from;
+            while (to < end && chars.charAt(to) != ',') {
+                to++;
+            }
+            if (!isCandidate(chars, from, to - from)) {
+                throw new NumberFormatException("Not a vector element");
+            }
+            vector[n] = parseDouble(chars, from, to - from);
+            from = to + 1;
+        }
+        return vector;
+    }
+}
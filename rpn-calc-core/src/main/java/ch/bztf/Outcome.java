@@ -0,0 +1,71 @@
+package ch.bztf;
+
+/**
+ * The result of evaluating a single expression on its own: its immediate
+ * result, or the error it raised. Outcomes are published by {@link EvalProcessor}
+ * and returned by {@link ShardCoordinator} for each expression of a batch.
+ * Instances are immutable.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class Outcome {
+
+    /** The expression evaluated. */
+    private final String expr;
+
+    /** The immediate result, or {@code null} if there is none. */
+    private final Double result;
+
+    /** The error raised, or {@code null} if evaluation succeeded. */
+    private final RPNCalcException error;
+
+    /**
+     * Constructor that takes all fields.
+     *
+     * @param expr The expression evaluated.
+     * @param result The immediate result.
+     * @param error The error raised.
+     */
+    Outcome(String expr, Double result, RPNCalcException error) {
+        this.expr = expr;
+        this.result = result;
+        this.error = error;
+    }
+
+    /**
+     * Gets the expression evaluated.
+     *
+     * @return The RPN expression.
+     */
+    public String getExpression() {
+        return this.expr;
+    }
+
+    /**
+     * Gets the immediate result of the expression.
+     *
+     * @return The result in numerical form, or {@code null} if evaluation
+     *         failed or the expression did not reduce to a single number.
+     */
+    public Double getResult() {
+        return this.result;
+    }
+
+    /**
+     * Gets the error raised by the expression.
+     *
+     * @return The error, or {@code null} if evaluation succeeded.
+     */
+    public RPNCalcException getError() {
+        return this.error;
+    }
+
+    /**
+     * Checks whether evaluation succeeded.
+     *
+     * @return {@code true} if no error was raised.
+     */
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+}
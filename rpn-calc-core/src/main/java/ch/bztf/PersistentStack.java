@@ -0,0 +1,258 @@
+package ch.bztf;
+
+import java.util.EmptyStackException;
+import java.util.Stack;
+
+/**
+ * An immutable stack implemented as a singly linked list.
+ * Pushing and popping never modify an existing instance, but return
+ * a new one instead, which shares all of its remaining nodes with
+ * the original. This makes it cheap to keep many versions of a
+ * stack around at the same time, as {@link EvalHistory} does.
+ *
+ * @param <T> The type of the stack elements.
+ *
+ * @author Timothy R. Schmid
+ */
+final class PersistentStack<T> {
+
+    /**
+     * A mutable copy of a persistent stack which keeps track of how many
+     * of its bottom elements are still the ones it was copied from.
+     * Pushing, popping and replacing single elements are tracked exactly.
+     * Any other modification is detected by the changed modification
+     * count and treated as if the whole copy had changed.
+     *
+     * @param <T> The type of the stack elements.
+     */
+    private static final class Copy<T> extends Stack<T> {
+
+        /** Required, as stacks are serializable. */
+        private static final long serialVersionUID = 1L;
+
+        /** The stack this one was copied from. */
+        private final transient PersistentStack<T> origin;
+
+        /** The number of bottom elements known to be unchanged. */
+        private int unchanged;
+
+        /** The modification count after the last tracked modification. */
+        private int tracked;
+
+        /**
+         * Copies a persistent stack.
+         *
+         * @param origin The stack to be copied.
+         */
+        @SuppressWarnings("unchecked") // All elements were pushed as T
+        Copy(PersistentStack<T> origin) {
+            this.origin = origin;
+            ensureCapacity(origin.size);
+            for (Object value : origin.toArray()) {
+                addElement((T)value);
+            }
+            this.unchanged = origin.size;
+        }
+
+        /**
+         * Gets the number of bottom elements that are still those of {@link #origin}.
+         *
+         * @return The number of unchanged elements.
+         */
+        synchronized int unchanged() {
+            return (this.modCount == this.tracked) ? this.unchanged : 0;
+        }
+
+        @Override
+        public synchronized void addElement(T value) {
+            super.addElement(value);
+            this.tracked = this.modCount;
+        }
+
+        @Override
+        public synchronized void removeElementAt(int index) {
+            super.removeElementAt(index);
+            this.unchanged = Math.min(this.unchanged, index);
+            this.tracked = this.modCount;
+        }
+
+        @Override
+        public synchronized T set(int index, T value) {
+            this.unchanged = Math.min(this.unchanged, index);
+            return super.set(index, value);
+        }
+
+        @Override
+        public synchronized void setElementAt(T value, int index) {
+            this.unchanged = Math.min(this.unchanged, index);
+            super.setElementAt(value, index);
+        }
+    }
+
+    /** The shared instance representing the empty stack. */
+    private static final PersistentStack<?> EMPTY = new PersistentStack<Object>(null, null, 0);
+
+    /** The topmost element. This is {@code null} for the empty stack. */
+    private final T head;
+
+    /** The remainder of the stack below {@link #head}. */
+    private final PersistentStack<T> tail;
+
+    /** The number of elements, cached so it can be queried in constant time. */
+    private final int size;
+
+    /**
+     * Private constructor, use {@link #empty()} and {@link #push(Object)} instead.
+     *
+     * @param head The topmost element.
+     * @param tail The remainder of the stack.
+     * @param size The total number of elements including {@code head}.
+     */
+    private PersistentStack(T head, PersistentStack<T> tail, int size) {
+        this.head = head;
+        this.tail = tail;
+        this.size = size;
+    }
+
+    /**
+     * Gets the empty stack.
+     *
+     * @param <T> The type of the stack elements.
+     * @return The shared empty stack instance.
+     */
+    @SuppressWarnings("unchecked") // The empty stack holds no elements of any type
+    static <T> PersistentStack<T> empty() {
+        return (PersistentStack<T>)EMPTY;
+    }
+
+    /**
+     * Creates a persistent copy of a mutable stack.
+     * Elements are pushed in the same order they were pushed onto {@code stack}.
+     *
+     * @param <T> The type of the stack elements.
+     * @param stack The stack to be copied. It is not modified.
+     * @return The persistent copy.
+     */
+    static <T> PersistentStack<T> of(Stack<T> stack) {
+        return PersistentStack.<T>empty().pushAll(stack, 0);
+    }
+
+    /**
+     * Pushes an element onto the stack.
+     *
+     * @param value The element to be pushed.
+     * @return A new stack with {@code value} on top of this one.
+     */
+    PersistentStack<T> push(T value) {
+        return new PersistentStack<T>(value, this, this.size + 1);
+    }
+
+    /**
+     * Pushes the elements of a mutable stack starting at a given index,
+     * from the bottom up.
+     *
+     * @param stack The stack holding the elements to be pushed.
+     * @param from The index of the first (lowest) element to be pushed.
+     * @return A new stack with the elements on top of this one.
+     */
+    PersistentStack<T> pushAll(Stack<T> stack, int from) {
+        PersistentStack<T> result = this;
+        for (int i = from; i < stack.size(); i++) {
+            result = result.push(stack.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the topmost element without removing it.
+     *
+     * @return The topmost element.
+     * @throws EmptyStackException Raised if the stack is empty.
+     */
+    T peek() throws EmptyStackException {
+        if (this.size == 0) {
+            throw new EmptyStackException();
+        }
+        return this.head;
+    }
+
+    /**
+     * Gets the stack without its topmost element.
+     *
+     * @return The remainder of the stack.
+     * @throws EmptyStackException Raised if the stack is empty.
+     */
+    PersistentStack<T> pop() throws EmptyStackException {
+        if (this.size == 0) {
+            throw new EmptyStackException();
+        }
+        return this.tail;
+    }
+
+    /**
+     * Gets the number of elements on the stack.
+     *
+     * @return The number of elements.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks whether the stack holds no elements.
+     *
+     * @return {@code true} if the stack is empty, {@code false} otherwise.
+     */
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Copies the elements into an array, from the bottom up.
+     *
+     * @return The array holding all elements. Index 0 is the bottom.
+     */
+    Object[] toArray() {
+        Object[] values = new Object[this.size];
+        PersistentStack<T> node = this;
+        for (int i = this.size - 1; i >= 0; i--) {
+            values[i] = node.head;
+            node = node.tail;
+        }
+        return values;
+    }
+
+    /**
+     * Copies the elements into a new mutable stack.
+     * The copy remembers which of its elements remain unchanged,
+     * so {@link #share(Stack)} can reuse their nodes later on.
+     *
+     * @return The mutable copy, with the same element on top.
+     */
+    Stack<T> toStack() {
+        return new Copy<T>(this);
+    }
+
+    /**
+     * Creates a persistent copy of a mutable stack that shares as many
+     * nodes as possible with this one. If {@code stack} was created by
+     * {@link #toStack()} on this very stack, the elements it has left
+     * untouched at the bottom are reused as they are, and only the
+     * elements above them are allocated anew. Otherwise, nothing is shared.
+     * Either way, the cost depends only on the elements that changed.
+     *
+     * @param stack The stack to be copied. It is not modified.
+     * @return The persistent copy, equal in content to {@code stack}.
+     */
+    PersistentStack<T> share(Stack<T> stack) {
+        int depth = 0;
+        if (stack instanceof Copy && ((Copy<T>)stack).origin == this) {
+            depth = ((Copy<T>)stack).unchanged();
+        }
+        PersistentStack<T> base = (depth > 0) ? this : empty();
+        while (base.size > depth) {
+            base = base.tail; // Only the nodes above the unchanged bottom are walked
+        }
+        return base.pushAll(stack, depth);
+    }
+}
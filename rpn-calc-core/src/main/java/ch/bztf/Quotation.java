@@ -0,0 +1,118 @@
+package ch.bztf;
+
+import java.util.List;
+
+/**
+ * A block of RPN code written in brackets (e.g. {@code [ 1 + ]}),
+ * which is pushed onto the stack as a value instead of being evaluated.
+ * Quotations are run by the {@code if} and {@code ifelse} operators of
+ * {@link RPNCalc}, but only if their branch is taken.
+ * <p>
+ * The tokens of a quotation are compiled into instructions once, when the
+ * quotation is read. Literals are parsed and symbols are resolved up front,
+ * so running a quotation neither scans nor parses any text. Quotations are
+ * immutable and can be stored in registers to be run any number of times.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+final class Quotation {
+
+    /** What an instruction does when it is run. */
+    enum Op {
+
+        /** Pushes a literal or nested quotation onto the stack. */
+        PUSH,
+
+        /** Pushes the value of a register onto the stack. */
+        READ,
+
+        /** Stores the topmost value of the stack in a register. */
+        STORE,
+
+        /** Applies an operator to the stack. */
+        APPLY
+    }
+
+    /** A single compiled token. */
+    static final class Instruction {
+
+        /** What the instruction does. */
+        final Op op;
+
+        /** The value pushed by {@link Op#PUSH}, or the register or operator name otherwise. */
+        final Object operand;
+
+        /** The token the instruction was compiled from, for error messages. */
+        final String text;
+
+        /** The token index within the expression the quotation was read from. */
+        final int index;
+
+        /** The character offset within the expression the quotation was read from. */
+        final int offset;
+
+        /**
+         * Constructor that takes all fields.
+         *
+         * @param op What the instruction does.
+         * @param operand The value pushed, or the register or operator name.
+         * @param text The token the instruction was compiled from.
+         * @param index The token index.
+         * @param offset The character offset.
+         */
+        Instruction(Op op, Object operand, String text, int index, int offset) {
+            this.op = op;
+            this.operand = operand;
+            this.text = text;
+            this.index = index;
+            this.offset = offset;
+        }
+    }
+
+    /** The compiled instructions, in order of execution. */
+    private final Instruction[] code;
+
+    /** The source text, normalized to single spaces between tokens. */
+    private final String text;
+
+    /**
+     * Constructor that takes the compiled instructions.
+     *
+     * @param code The instructions, in order of execution. They are copied.
+     * @param text The source text, including the enclosing brackets.
+     */
+    Quotation(List<Instruction> code, String text) {
+        this.code = code.toArray(new Instruction[0]);
+        this.text = text;
+    }
+
+    /**
+     * Gets the number of instructions.
+     *
+     * @return The number of compiled tokens, excluding the enclosing brackets.
+     */
+    int size() {
+        return this.code.length;
+    }
+
+    /**
+     * Gets a single instruction.
+     *
+     * @param i The position of the instruction.
+     * @return The instruction at position {@code i}.
+     */
+    Instruction get(int i) {
+        return this.code[i];
+    }
+
+    /**
+     * Gets the source text of the quotation.
+     *
+     * @return The tokens within brackets, delimited by a single space each.
+     */
+    @Override
+    public String toString() {
+        return this.text;
+    }
+}
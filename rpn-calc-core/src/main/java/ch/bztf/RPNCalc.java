@@ -0,0 +1,2791 @@
+package ch.bztf;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EmptyStackException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.stream.IntStream;
+
+/**
+ * Contains the entire logic for evaluating RPN expressions.
+ * Expressions are passed in via {@link RPNCalc#eval(CharSequence)}.
+ * <p>
+ * Besides scalars, stack entries can be vectors of doubles, written as
+ * comma-separated literals in braces (e.g. {@code {1,2,3}}) or bound from
+ * registers. Unary and binary operators apply element-wise, broadcasting
+ * scalars to the length of the other operand. N-ary operators reduce across
+ * all entries element-wise, or across the elements of a lone vector.
+ * </p>
+ * <p>
+ * Code in brackets (e.g. {@code [ 2 * ]}) is a quotation. It is compiled once
+ * and pushed as a value, and only run by {@code if} or {@code ifelse} if its
+ * branch is taken. Together with comparison operators, this allows branching
+ * without evaluating the branch that is not taken.
+ * </p>
+ * <p>
+ * The {@code range} operator pushes a lazy sequence of numbers, which
+ * {@code map} passes through a quotation. N-ary operators consume such
+ * generators element by element, without ever putting the elements on
+ * the stack. Large generators are reduced in chunks, in parallel if
+ * their mapping quotations have no side effects.
+ * </p>
+ * <p>
+ * Registers can also be defined by formulas via {@link #setFormula(String, String)}.
+ * Whenever a register changes, all formulas depending on it are recomputed.
+ * </p>
+ * <p>
+ * Large expressions can be evaluated as a dataflow graph via {@link #setDataflow(boolean)},
+ * which evaluates independent subexpressions concurrently.
+ * </p>
+ * 
+ * @author Timothy R. Schmid
+ */
+public class RPNCalc {
+
+    /** The kinds of arithmetic expressions can be evaluated in. */
+    public enum Mode {
+
+        /** 64-bit IEEE-754 floating point arithmetic. This is the default. */
+        DOUBLE,
+
+        /**
+         * Exact decimal arithmetic using {@link Decimal}.
+         * There is no NaN or infinity in this mode, so operations
+         * producing one (e.g. division by zero) raise an error.
+         */
+        DECIMAL
+    }
+
+    /**
+     * Required for evaluating n-ary operators via lambda.
+     * 
+     * @param <T> The operand type, which depends on the {@link Mode}.
+     */
+    @FunctionalInterface
+    private interface NAryOperation<T> {
+
+        /**
+         * Applies an n-ary operator a single time.
+         * Doing this multiple times in succession yields the final result.
+         * 
+         * @param curr The operand most recently popped off the stack.
+         * @param acc The accumulated result of prior calculations.
+         *            If {@code n} is equal to 1, this will be {@code null}.
+         * @param n The nth time the function is being applied.
+         *          This argument is 1 the first time around.
+         * @return The calculation result of this single application.
+         *         Assume that the return value is fed back into {@code acc}
+         *         on every subsequent iteration.
+         */
+        T apply(T curr, T acc, int n);
+    }
+
+    /** The maximum output precision allowed. */
+    public static final int MAX_PRECISION = 15;
+
+    /** The default output precision. */
+    private static final int DEFAULT_PRECISION = 3;
+
+    /** The default number of evaluation steps that can be undone. */
+    public static final int DEFAULT_HISTORY_CAPACITY = 100;
+
+    /**
+     * The minimum number of independent formulas recomputed in parallel.
+     * A single formula takes microseconds, so smaller batches are
+     * faster to compute on the calling thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 4;
+
+    /**
+     * The journal formulas are evaluated with. Stores are rejected while it is
+     * in use, as formulas may run quotations kept in registers, which no scan
+     * of the formula text can see, and are evaluated in parallel.
+     */
+    private static final Map<String, Object> FORMULA_JOURNAL =
+        Collections.unmodifiableMap(new HashMap<String, Object>());
+
+    /**
+     * The maximum number of quotations running inside each other. Quotations
+     * may run themselves through registers, so this bounds the recursion.
+     */
+    private static final int MAX_QUOTATION_DEPTH = 1000;
+
+    /**
+     * The maximum number of elements of a generator. Beyond this,
+     * consecutive elements are no longer distinct doubles.
+     */
+    private static final long MAX_RANGE_SIZE = 1L << 53;
+
+    /**
+     * The minimum number of generator elements reduced as one chunk. Chunks
+     * are reduced in parallel, but their results are always combined in order,
+     * so results do not depend on the number of threads.
+     */
+    private static final long STREAM_CHUNK = 1L << 16;
+
+    /** The maximum number of chunks a generator is split into, larger ones get larger chunks. */
+    private static final long MAX_STREAM_CHUNKS = 1024;
+
+    /**
+     * The number of generator elements computed into a buffer before it is
+     * added to an accumulator, small enough for the buffer to stay in cache.
+     */
+    private static final int STREAM_BATCH = 1 << 12;
+
+    /**
+     * The minimum number of tokens of a subexpression evaluated concurrently in
+     * dataflow mode. Smaller ones take less time than handing them to a thread.
+     */
+    private static final int DATAFLOW_THRESHOLD = 1 << 10;
+
+    /** The maximum number of token characters quoted when a resource limit is exceeded. */
+    private static final int EXCERPT_LENGTH = 32;
+
+    /**
+     * The output precision of {@link #result} as the number of decimal places,
+     * ranging from 0 to {@link #MAX_PRECISION}.
+     */
+    private int precision = DEFAULT_PRECISION;
+
+    /**
+     * The immediate result of the previous calculation.
+     * This is overwritten every time an RPN expression is successfully evaluated,
+     * as long as exactly one operand remains on the stack (perfect evaluation).
+     * This field is {@code null} if this is not the case.
+     */
+    private Double result = null;
+
+    /** The arithmetic used for evaluating expressions. */
+    private Mode mode = Mode.DOUBLE;
+
+    /**
+     * The complete result of the previous calculation.
+     * This is shared with {@link #history}, so it must never be copied
+     * element by element unless the caller asks for a mutable stack.
+     */
+    private PersistentStack<Object> snapshot = null;
+
+    /**
+     * Mutable copy of {@link #snapshot}, created on demand
+     * by {@link #getLastStack()} and dropped whenever it changes.
+     */
+    private Stack<Double> leftover = null;
+
+    /**
+     * Array copy of {@link #snapshot} for access by position, created
+     * on demand by {@link #getFormattedStackEntry(int)} and dropped
+     * whenever it changes.
+     */
+    private Object[] entries = null;
+
+    /** The canonical names of all operators and registers seen in expressions. */
+    private final SymbolTable symbols = new SymbolTable();
+
+    /** The formula registers and the registers they depend on. */
+    private final FormulaGraph formulas = new FormulaGraph();
+
+    /** The resource budgets applied to every evaluation. */
+    private Limits limits = Limits.NONE;
+
+    /** The read-only constants, resolved to literals whenever an expression is read. */
+    private Constants constants = Constants.NONE;
+
+    /** The tape read by {@code tsum}, {@code tavg} and the like, {@code null} if none is attached. */
+    private Tape tape = null;
+
+    /** Whether large expressions are evaluated as a dataflow graph. */
+    private boolean dataflow = false;
+
+    /** The tracer recording evaluations token by token, {@code null} if disabled. */
+    private Tracer tracer = null;
+
+    /** The evaluation steps that can be undone and redone. */
+    private final EvalHistory history = new EvalHistory(DEFAULT_HISTORY_CAPACITY);
+
+    /**
+     * The registers from "a" to "z" (lowercase only) for saving values.
+     * Values are either {@code Double} or {@link Decimal}, depending on
+     * the mode they were stored in, and converted whenever they are read.
+     * Registers may also hold vectors as {@code double[]}, which are never
+     * modified once stored, as well as {@link Quotation}s and {@link Generator}s.
+     */
+    private Map<String, Object> registers = new HashMap<String, Object>();
+
+    /** Constructor that sets all fields to default values. */
+    public RPNCalc() {
+        clearRegisters();
+    }
+
+    /**
+     * Constructor that takes an initial precision value.
+     * 
+     * @param precision The initial precision to be set.
+     * @throws IllegalArgumentException Raised if the precision is invalid.
+     */
+    public RPNCalc(int precision) throws IllegalArgumentException {
+        setPrecision(precision);
+        clearRegisters();
+    } 
+
+    /** 
+     * Clears all default registers by setting them to zero.
+     * It is legal to use this function for initialization.
+     * <p>
+     * Note that this function never affects manually added registers,
+     * except for recomputing formulas that depend on default registers.
+     * Default registers holding formulas become plain registers again.
+     * </p>
+     */
+    public void clearRegisters() {
+        var changed = new ArrayList<String>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            String reg = c + "";
+            this.registers.put(reg, 0.0);
+            this.formulas.remove(reg);
+            changed.add(reg);
+        }
+        recompute(changed, null, null);
+    }
+
+    /**
+     * Gets the value of the specified register.
+     * 
+     * @param reg The register to be queried.
+     * @return The value of register {@code reg}. {@code null} is returned if
+     *         it does not exist or holds a vector, quotation or generator.
+     */
+    public Double getRegister(String reg) {
+        return toDouble(registers.get(reg));
+    }
+
+    /**
+     * Gets the vector held by the specified register.
+     * 
+     * @param reg The register to be queried.
+     * @return A copy of the vector in register {@code reg}.
+     *         {@code null} is returned if it does not exist or holds a scalar.
+     */
+    public double[] getVectorRegister(String reg) {
+        Object val = registers.get(reg);
+        return (val instanceof double[]) ? ((double[])val).clone() : null;
+    }
+
+    /**
+     * Stores a given value in the specified register.
+     * 
+     * @param reg The register the value will be stored in.
+     * @param val The value to be stored in {@code reg}.
+     * @return Whether the assignment to {@code reg} succeeded.
+     *         {@code false} is returned if the register does not exist.
+     */
+    public boolean setRegister(String reg, Double val) {
+        return putRegister(reg, val);
+    }
+
+    /**
+     * Stores a given exact value in the specified register.
+     * Use this to bind exact inputs for {@link Mode#DECIMAL} mode.
+     * 
+     * @param reg The register the value will be stored in.
+     * @param val The value to be stored in {@code reg}.
+     * @return Whether the assignment to {@code reg} succeeded.
+     *         {@code false} is returned if the register does not exist.
+     */
+    public boolean setRegister(String reg, Decimal val) {
+        return putRegister(reg, val);
+    }
+
+    /**
+     * Stores a given vector in the specified register.
+     * Vectors are only supported in {@link Mode#DOUBLE} mode.
+     * 
+     * @param reg The register the vector will be stored in.
+     * @param val The vector to be stored in {@code reg}. It is copied,
+     *            so later changes to the array do not affect the register.
+     * @return Whether the assignment to {@code reg} succeeded.
+     *         {@code false} is returned if the register does not exist.
+     */
+    public boolean setRegister(String reg, double[] val) {
+        return putRegister(reg, val.clone());
+    }
+
+    /**
+     * Helper function which stores a value of any supported type in a register.
+     * If the register held a formula, it is replaced by the value.
+     * Formulas depending on the register are recomputed.
+     * 
+     * @param reg The register the value will be stored in.
+     * @param val The value to be stored in {@code reg}.
+     * @return Whether the assignment to {@code reg} succeeded.
+     */
+    private boolean putRegister(String reg, Object val) {
+        if (registers.containsKey(reg)) {
+            registers.put(reg, val);
+            this.formulas.remove(reg);
+            recompute(List.of(reg), null, null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Defines a register by a formula, i.e. an RPN expression that is
+     * recomputed whenever one of the registers it reads changes.
+     * The formula is evaluated immediately, in the current mode.
+     * <p>
+     * Formulas may read other formula registers, but must not depend on
+     * themselves, directly or indirectly. They cannot store into registers.
+     * If recomputing a formula fails later on, e.g. because of a division
+     * by zero in {@link Mode#DECIMAL} mode, its register is set to NaN.
+     * </p>
+     * 
+     * @param reg The register to be defined.
+     * @param expr The RPN expression, which must yield exactly one value.
+     * @return Whether the definition succeeded.
+     *         {@code false} is returned if the register does not exist.
+     * @throws RPNCalcException Raised if {@code expr} cannot be evaluated,
+     *         stores into a register or would make {@code reg} depend on itself.
+     */
+    public boolean setFormula(String reg, String expr) throws RPNCalcException {
+        if (!registers.containsKey(reg)) {
+            return false;
+        }
+        Set<String> reads = readsOf(expr);
+        String cycle = this.formulas.findCycle(reg, reads);
+        if (cycle != null) {
+            throw new RPNCalcException(String.format("Formula for '%s' depends on itself through '%s'", reg, cycle));
+        }
+        Object value = evalFormula(expr, null);
+        this.formulas.define(reg, expr, reads);
+        this.registers.put(reg, value);
+        recompute(List.of(reg), null, null);
+        return true;
+    }
+
+    /**
+     * Gets the formula defining the specified register.
+     * 
+     * @param reg The register to be queried.
+     * @return The RPN expression of the formula.
+     *         {@code null} is returned if {@code reg} holds no formula.
+     */
+    public String getFormula(String reg) {
+        return this.formulas.expression(reg);
+    }
+
+    /**
+     * Turns a formula register into a plain register holding its current value.
+     * 
+     * @param reg The register whose formula is to be removed.
+     * @return Whether {@code reg} held a formula.
+     */
+    public boolean clearFormula(String reg) {
+        return this.formulas.remove(reg);
+    }
+
+    /**
+     * Helper function which finds all registers an expression reads.
+     * 
+     * @param expr The RPN expression to be scanned.
+     * @return The registers read by {@code expr}, in order of appearance.
+     * @throws RPNCalcException Raised if {@code expr} stores into a register.
+     */
+    private Set<String> readsOf(String expr) throws RPNCalcException {
+        var reads = new LinkedHashSet<String>();
+        var tokens = new Tokenizer(expr);
+        while (tokens.next()) {
+            if (tokens.matches("<=")) {
+                throw new RPNCalcException("Formulas cannot store into registers", 
+                                           tokens.text(), tokens.index(), tokens.offset());
+            }
+            String symbol = resolve(tokens);
+            if (symbol != null && this.registers.containsKey(symbol)) {
+                reads.add(symbol);
+            }
+        }
+        return reads;
+    }
+
+    /**
+     * Helper function which evaluates a formula without recording a result.
+     * It only reads registers, as stores are rejected, so several formulas may
+     * be evaluated in parallel, as long as no registers are written at the same time.
+     * 
+     * @param expr The RPN expression of the formula.
+     * @param governor The governor of the evaluation the formula is recomputed for,
+     *                 or {@code null} if unlimited. Its budgets are shared with the formula.
+     * @return The single value the formula yields.
+     * @throws RPNCalcException Raised if evaluation fails or does not yield exactly one value,
+     *         or with a {@link LimitExceededException} as cause if a limit is exceeded.
+     */
+    private Object evalFormula(String expr, Governor governor) throws RPNCalcException {
+        Stack<Object> stack = execute(new Tokenizer(expr), new Stack<Object>(), FORMULA_JOURNAL, null, governor);
+        if (stack.size() != 1) {
+            throw new RPNCalcException("Formula must yield exactly one value");
+        }
+        return stack.peek();
+    }
+
+    /**
+     * Helper function which recomputes all formulas affected by changed registers.
+     * Formulas are recomputed level by level in topological order. The formulas
+     * of a level are independent of each other and computed in parallel if there
+     * are enough of them and no limits apply, as a governor is not thread-safe.
+     * Their values are only stored once the level is complete.
+     * 
+     * @param changed The registers whose values changed.
+     * @param journal The values registers held before the evaluation started.
+     *                Previous values of recomputed formulas are added if missing.
+     *                It may be {@code null} if changes are not to be recorded.
+     * @param governor The governor of the evaluation that changed the registers,
+     *                 or {@code null} if unlimited.
+     * @throws LimitExceededException Raised if a formula exceeds a limit of {@code governor}.
+     */
+    private void recompute(Collection<String> changed, Map<String, Object> journal, Governor governor)
+    throws LimitExceededException {
+        for (List<String> level : this.formulas.levels(changed)) {
+            var values = new Object[level.size()];
+            if (level.size() >= PARALLEL_THRESHOLD && governor == null) {
+                IntStream.range(0, values.length).parallel()
+                         .forEach(i -> values[i] = recomputeFormula(level.get(i), null));
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = recomputeFormula(level.get(i), governor);
+                }
+            }
+            for (int i = 0; i < values.length; i++) {
+                String reg = level.get(i);
+                if (journal != null) {
+                    journal.putIfAbsent(reg, this.registers.get(reg));
+                }
+                this.registers.put(reg, values[i]);
+            }
+        }
+    }
+
+    /**
+     * Helper function which recomputes the value of a single formula register.
+     * 
+     * @param reg The formula register.
+     * @param governor The governor of the evaluation that changed the registers,
+     *                 or {@code null} if unlimited.
+     * @return The new value, or NaN if the formula could not be evaluated.
+     * @throws LimitExceededException Raised if the formula exceeds a limit of {@code governor},
+     *         which fails the whole evaluation rather than just the formula.
+     */
+    private Object recomputeFormula(String reg, Governor governor) throws LimitExceededException {
+        try {
+            return evalFormula(this.formulas.expression(reg), governor);
+        } catch (RPNCalcException e) {
+            if (e.getCause() instanceof LimitExceededException) {
+                throw (LimitExceededException)e.getCause();
+            }
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Adds a new register and initializes it to the given value.
+     * 
+     * @param reg The name of the register to be added.
+     * @param val The initial value to be stored in {@code reg}.
+     * @return Whether the creation of {@code reg} succeeded.
+     *         {@code false} is returned if the register already existed
+     *         or a constant of that name exists, in which case the
+     *         initialization will also not take place.
+     */
+    public boolean addRegister(String reg, Double val) {
+        if (!registers.containsKey(reg) && !this.constants.contains(reg)) {
+            registers.put(reg, val);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a register exists.
+     * 
+     * @param reg The register to be checked.
+     * @return {@code true} if {@code reg} is a default or added register.
+     */
+    boolean hasRegister(String reg) {
+        return registers.containsKey(reg);
+    }
+
+    /**
+     * Creates an independent calculator with the same mode, precision, limits,
+     * registers and formulas, e.g. for evaluating on another thread.
+     * The tape is shared, not copied.
+     * The copy keeps no history and traces nothing. Register values are
+     * immutable, so they are shared rather than copied.
+     * 
+     * @return The new calculator.
+     */
+    RPNCalc fork() {
+        var copy = new RPNCalc(this.precision);
+        copy.mode = this.mode;
+        copy.limits = this.limits;
+        copy.constants = this.constants;
+        copy.tape = this.tape;
+        copy.registers = new HashMap<String, Object>(this.registers);
+        copy.formulas.copyFrom(this.formulas);
+        copy.setHistoryCapacity(0);
+        return copy;
+    }
+
+    /**
+     * Helper function which validates the range of a given precision.
+     * 
+     * @param precision The precision to be checked.
+     * @throws IllegalArgumentException Raised if the precision is invalid.
+     */
+    private void checkPrecision(int precision) throws IllegalArgumentException {
+        if (precision < 0 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(String.format("Precision %d is out of range", precision));
+        }
+    }
+
+    /**
+     * Gets the current output precision.
+     * 
+     * @return The output precision.
+     */
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Sets the output precision to a given value.
+     * 
+     * @param precision The precision to be set.
+     * @return The new precision, given by {@code precision}.
+     * @throws IllegalArgumentException Raised if the new precision is invalid.
+     */
+    public int setPrecision(int precision) throws IllegalArgumentException {
+        checkPrecision(precision);
+        return (this.precision = precision);
+    }
+
+    /**
+     * Shifts the output precision by a given number of decimal places.
+     * 
+     * @param places The amount of places the current output precision is to 
+     *               be shifted by. This value may be positive or negative. 
+     *               A positive value means that more places are added.
+     * @return The new precision.
+     * @throws IllegalArgumentException Raised if the new precision is invalid.
+     */
+    public int shiftPrecision(int places) throws IllegalArgumentException {
+        int new_precision = this.precision + places;
+        checkPrecision(new_precision);
+        return (this.precision = new_precision);
+    }
+
+    /**
+     * Gets the arithmetic used for evaluating expressions.
+     * 
+     * @return The current mode.
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Sets the arithmetic used for evaluating expressions.
+     * Registers keep their values and are converted when read.
+     * 
+     * @param mode The mode to be set.
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Converts a given number to a string and formats
+     * the output using the currently set precision.
+     * Vectors are formatted element by element, using the
+     * same syntax as vector literals. Quotations and generators
+     * are formatted as the RPN code creating them.
+     * 
+     * @param num The number or vector to be formatted.
+     * @return The fully formatted number.
+     *         The empty string is returned if {@code null}
+     *         is passed in for {@code num}.
+     */
+    private String formatNumber(Object num) {
+        if (num instanceof Decimal) {
+            return ((Decimal)num).format(this.precision);
+        } else if (num instanceof double[]) {
+            var builder = new StringBuilder("{");
+            for (double element : (double[])num) {
+                if (builder.length() > 1) {
+                    builder.append(',');
+                }
+                builder.append(formatNumber(element));
+            }
+            return builder.append('}').toString();
+        } else if (num instanceof Quotation || num instanceof Generator) {
+            return num.toString();
+        }
+        return (num == null) ? "" : String.format("%." + this.precision + "f", num);
+    }
+
+    /**
+     * Helper function which converts a number of any supported type to a double.
+     * 
+     * @param num The number to be converted. It may be {@code null}.
+     * @return The converted number, or {@code null} if {@code num} is
+     *         {@code null}, a vector, a quotation or a generator.
+     */
+    private static Double toDouble(Object num) {
+        if (num == null || num instanceof Double) {
+            return (Double)num;
+        }
+        return (num instanceof Number) ? Double.valueOf(((Number)num).doubleValue()) : null;
+    }
+
+    /**
+     * Helper function which converts a value to the type used by the current mode.
+     * 
+     * @param num The number, vector, quotation or generator to be converted.
+     * @return The converted value. Vectors, quotations and generators are returned as they are.
+     * @throws ArithmeticException Raised if {@code num} is not representable in the current
+     *         mode, e.g. NaN, a vector or a generator in {@link Mode#DECIMAL} mode.
+     */
+    private Object coerce(Object num) throws ArithmeticException {
+        if (num instanceof Quotation) {
+            return num;
+        } else if (num instanceof Generator) {
+            checkGeneratorMode();
+            return num;
+        } else if (num instanceof double[]) {
+            checkVectorMode();
+            return num;
+        } else if (this.mode == Mode.DECIMAL) {
+            return (num instanceof Decimal) ? num : Decimal.valueOf(((Number)num).doubleValue());
+        }
+        return toDouble(num);
+    }
+
+    /**
+     * Helper function which makes sure vectors can be used in the current mode.
+     * 
+     * @throws ArithmeticException Raised in {@link Mode#DECIMAL} mode.
+     */
+    private void checkVectorMode() throws ArithmeticException {
+        if (this.mode == Mode.DECIMAL) {
+            throw new ArithmeticException("Vectors are not supported in decimal mode");
+        }
+    }
+
+    /**
+     * Helper function which makes sure generators can be used in the current mode.
+     * 
+     * @throws ArithmeticException Raised in {@link Mode#DECIMAL} mode.
+     */
+    private void checkGeneratorMode() throws ArithmeticException {
+        if (this.mode == Mode.DECIMAL) {
+            throw new ArithmeticException("Generators are not supported in decimal mode");
+        }
+    }
+
+
+    /**
+     * Gets the maximum number of evaluation steps that can be undone.
+     * 
+     * @return The history capacity.
+     */
+    public int getHistoryCapacity() {
+        return this.history.capacity();
+    }
+
+    /**
+     * Sets the maximum number of evaluation steps that can be undone.
+     * If more steps have been recorded, the oldest ones are discarded.
+     * A capacity of zero disables the history.
+     * 
+     * @param capacity The history capacity to be set.
+     * @throws IllegalArgumentException Raised if the capacity is negative.
+     */
+    public void setHistoryCapacity(int capacity) throws IllegalArgumentException {
+        this.history.resize(capacity);
+    }
+
+    /**
+     * Gets the resource budgets applied to every evaluation.
+     * 
+     * @return The limits, which are {@link Limits#NONE} by default.
+     */
+    public Limits getLimits() {
+        return this.limits;
+    }
+
+    /**
+     * Sets the resource budgets applied to every evaluation
+     * that does not pass its own limits.
+     * 
+     * @param limits The limits to be set. Use {@link Limits#NONE} to remove all limits.
+     */
+    public void setLimits(Limits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Gets the read-only constants available in expressions.
+     * 
+     * @return The constants, which are {@link Constants#NONE} by default.
+     */
+    public Constants getConstants() {
+        return this.constants;
+    }
+
+    /**
+     * Sets the read-only constants available in expressions. Each constant is
+     * replaced by its value when an expression is read, converted to the current
+     * mode, and cannot be stored into. The constants are not copied, so one
+     * instance may be shared by any number of calculators.
+     * 
+     * @param constants The constants to be set. Use {@link Constants#NONE} to remove all constants.
+     * @throws IllegalArgumentException Raised if a constant has the name of a register or operator.
+     */
+    public void setConstants(Constants constants) throws IllegalArgumentException {
+        for (String name : constants.names()) {
+            if (this.registers.containsKey(name) || isOperator(name)) {
+                throw new IllegalArgumentException(String.format("Constant '%s' would hide a register or operator", name));
+            }
+        }
+        this.constants = constants;
+    }
+
+    /**
+     * Gets the tape read by the operators {@code tsum}, {@code tavg}, {@code tmin},
+     * {@code tmax}, {@code tcnt} and {@code tewma}.
+     * 
+     * @return The tape, or {@code null} if none is attached, which is the default.
+     */
+    public Tape getTape() {
+        return this.tape;
+    }
+
+    /**
+     * Attaches a tape, whose statistics can then be used as operands in expressions,
+     * converted to the current mode. The tape is not copied, so values appended to it
+     * are visible to the next operator reading it. Formulas reading the tape are not
+     * recomputed when values are appended, only when registers they read change.
+     * 
+     * @param tape The tape to be attached, or {@code null} to detach it.
+     */
+    public void setTape(Tape tape) {
+        this.tape = tape;
+    }
+
+    /**
+     * Checks whether large expressions are evaluated as a dataflow graph.
+     * 
+     * @return {@code true} if dataflow evaluation is enabled, which it is not by default.
+     */
+    public boolean isDataflow() {
+        return this.dataflow;
+    }
+
+    /**
+     * Enables or disables dataflow evaluation. While enabled, an expression of
+     * several thousand tokens is first analysed into a graph of subexpressions,
+     * using the arity of each operator. Independent subexpressions are then
+     * evaluated concurrently on the common fork-join pool. Register stores are
+     * seen in the same order as by sequential evaluation, so results are the same.
+     * <p>
+     * Expressions using quotations or generators, limited or traced evaluations
+     * and expressions read from a stream are always evaluated sequentially.
+     * If dataflow evaluation fails, the expression is evaluated sequentially
+     * again to report the error at the right token.
+     * </p>
+     * 
+     * @param dataflow Whether dataflow evaluation is enabled.
+     */
+    public void setDataflow(boolean dataflow) {
+        this.dataflow = dataflow;
+    }
+
+    /**
+     * Gets the tracer recording evaluations.
+     * 
+     * @return The tracer, or {@code null} if tracing is disabled.
+     */
+    public Tracer getTracer() {
+        return this.tracer;
+    }
+
+    /**
+     * Enables or disables tracing of evaluations. While enabled, every token
+     * evaluated by {@link #eval(CharSequence)} is recorded. Formulas
+     * recomputed in the background are not traced.
+     * 
+     * @param tracer The tracer to record into, or {@code null} to disable tracing.
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Checks whether there is an evaluation step that can be undone.
+     * 
+     * @return {@code true} if {@link #undo()} would succeed.
+     */
+    public boolean canUndo() {
+        return this.history.canUndo();
+    }
+
+    /**
+     * Checks whether there is an evaluation step that can be redone.
+     * 
+     * @return {@code true} if {@link #redo()} would succeed.
+     */
+    public boolean canRedo() {
+        return this.history.canRedo();
+    }
+
+    /**
+     * Reverts the most recent evaluation step.
+     * The previous result stack is restored, as are all
+     * registers that were stored into during the step.
+     * This takes constant time regardless of the stack size.
+     * 
+     * @return Whether a step was undone.
+     *         {@code false} is returned if the history is exhausted.
+     */
+    public boolean undo() {
+        EvalHistory.Step step = this.history.undo();
+        if (step == null) {
+            return false;
+        }
+        for (int i = step.regs.length - 1; i >= 0; i--) {
+            this.registers.put(step.regs[i], step.old_vals[i]);
+        }
+        setSnapshot(step.before);
+        return true;
+    }
+
+    /**
+     * Reapplies the most recently undone evaluation step.
+     * This takes constant time regardless of the stack size.
+     * 
+     * @return Whether a step was redone.
+     *         {@code false} is returned if there is nothing to redo.
+     */
+    public boolean redo() {
+        EvalHistory.Step step = this.history.redo();
+        if (step == null) {
+            return false;
+        }
+        for (int i = 0; i < step.regs.length; i++) {
+            this.registers.put(step.regs[i], step.new_vals[i]);
+        }
+        setSnapshot(step.after);
+        return true;
+    }
+
+    /**
+     * Helper function which makes a given stack the current result.
+     * 
+     * @param snapshot The new result stack. It may be {@code null}.
+     */
+    private void setSnapshot(PersistentStack<Object> snapshot) {
+        this.snapshot = snapshot;
+        this.leftover = null;
+        this.entries = null;
+        this.result = (snapshot != null && snapshot.size() == 1 ? toDouble(snapshot.peek()) : null);
+    }
+
+    /**
+     * Gets the last result in numerical form.
+     * 
+     * @return The previous calculation result.
+     *         {@code null} if none is available. 
+     */
+    public Double getLastResult() {
+        return this.result;
+    }
+
+    /**
+     * Gets the last result if it is a vector.
+     * 
+     * @return A copy of the previous calculation result.
+     *         {@code null} if none is available or it is a scalar. 
+     */
+    public double[] getLastVectorResult() {
+        if (this.snapshot != null && this.snapshot.size() == 1 && this.snapshot.peek() instanceof double[]) {
+            return ((double[])this.snapshot.peek()).clone();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the last result as an exact decimal.
+     * This is only available for results of {@link Mode#DECIMAL} mode.
+     * 
+     * @return The previous calculation result.
+     *         {@code null} if none is available or it is not exact. 
+     */
+    public BigDecimal getLastDecimalResult() {
+        if (this.result != null && this.snapshot.peek() instanceof Decimal) {
+            return ((Decimal)this.snapshot.peek()).toBigDecimal();
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the last result as a String and formats
+     * the output using the currently set precision.
+     * 
+     * @return The fully formatted result, which may be a vector.
+     *         The empty string is returned if none is available.
+     */
+    public String getFormattedLastResult() {
+        return formatNumber(this.snapshot != null && this.snapshot.size() == 1 ? this.snapshot.peek() : null);
+    }
+
+    /**
+     * Retrieves the complete result stack of the last calculation.
+     * 
+     * @return The result stack. If {@link #getLastResult()} returns a 
+     *         non-{@code null} value, it will hold exactly one element.
+     *         Vectors, quotations and generators are represented by {@code null} elements.
+     *         {@code null} is returned if none is available.
+     */
+    public Stack<Double> getLastStack() {
+        if (this.leftover == null && this.snapshot != null) {
+            var stack = new Stack<Double>();
+            for (Object value : this.snapshot.toArray()) {
+                stack.push(toDouble(value));
+            }
+            this.leftover = stack;
+        }
+        return this.leftover;
+    }
+
+    /**
+     * Gets the number of values on the result stack of the last calculation.
+     * 
+     * @return The stack size, or 0 if no result is available.
+     */
+    public int getLastStackSize() {
+        return (this.snapshot != null) ? this.snapshot.size() : 0;
+    }
+
+    /**
+     * Formats a single value of the result stack of the last calculation
+     * using the currently set precision. Unlike {@link #getFormattedLastStack()},
+     * this only formats the requested value, so views can show a few values of
+     * a large stack at a time.
+     * 
+     * @param pos The position of the value, from 0 for the bottom
+     *            to {@link #getLastStackSize()} minus 1 for the top.
+     * @return The formatted value.
+     * @throws IndexOutOfBoundsException Raised if there is no value at {@code pos}.
+     */
+    public String getFormattedStackEntry(int pos) throws IndexOutOfBoundsException {
+        if (this.entries == null) {
+            this.entries = (this.snapshot != null) ? this.snapshot.toArray() : new Object[0];
+        }
+        return formatNumber(this.entries[pos]);
+    }
+
+    /**
+     * Clears the result stack of the last calculation.
+     * Like an evaluation, this can be undone.
+     */
+    public void clearLastStack() {
+        if (this.snapshot != null && !this.snapshot.isEmpty()) {
+            commit(new Stack<Object>(), new LinkedHashMap<String, Object>());
+        }
+    }
+
+    /**
+     * Retrieves the complete result stack of the last calculation as a
+     * string and formats each value using the currently set precision.
+     * The values are delimited by a single space each.
+     * 
+     * @return The fully formatted result stack.
+     *         The empty string is returned if it is empty or none is available.
+     */
+    public String getFormattedLastStack() {
+        if (this.snapshot != null) {
+            var builder = new StringBuilder(); // More efficient for concatenation
+            for (Object value : this.snapshot.toArray()) {
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+                builder.append(formatNumber(value));
+            }
+            return builder.toString();
+        }
+        return "";
+    }
+
+    /**
+     * Checks whether a given operator has unary arity.
+     * 
+     * @param op The operator in string form.
+     * @return {@code true} if {@code op} is a unary operator,
+     *         {@code false} otherwise. 
+     */
+    private boolean isUnary(String op) {
+        switch (op) {
+            case "%":
+            case "neg":
+            case "abs":
+            case "pow2":
+            case "sqrt":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether a given operator has binary arity.
+     * 
+     * @param op The operator in string form.
+     * @return {@code true} if {@code op} is a binary operator,
+     *         {@code false} otherwise. 
+     */
+    private boolean isBinary(String op) {
+        switch (op) {
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+            case "mod":
+            case "rem":
+            case "pow":
+            case "lt":
+            case "le":
+            case "gt":
+            case "ge":
+            case "eq":
+            case "ne":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether a given operator has a flexible arity
+     * of N, where N is the number of operands on the stack.
+     * 
+     * @param op The operator in string form.
+     * @return {@code true} if {@code op} is an N-ary operator,
+     *         {@code false} otherwise. 
+     */
+    private boolean isNAry(String op) {
+        switch (op) {
+            case "sum":
+            case "avg":
+            case "min":
+            case "max":
+            case "cnt":
+            case "var":
+            case "stddev":
+            case "median":
+            case "pct":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether a given operator runs quotations conditionally.
+     * These are applied by {@link #branch}, not {@link #apply(Stack, String)}.
+     * 
+     * @param op The operator in string form.
+     * @return {@code true} if {@code op} is {@code if} or {@code ifelse},
+     *         {@code false} otherwise. 
+     */
+    private boolean isConditional(String op) {
+        switch (op) {
+            case "if":
+            case "ifelse":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether a symbol is an operator of any arity or kind.
+     * 
+     * @param op The symbol in string form.
+     * @return {@code true} if {@code op} can be applied.
+     */
+    boolean isOperator(String op) {
+        return isUnary(op) || isBinary(op) || isNAry(op) || isConditional(op) || isGenerator(op) || isTape(op);
+    }
+
+    /**
+     * Checks whether a given operator reads a statistic of the tape.
+     * These take no operands and are applied by {@link #readTape(String)}.
+     * 
+     * @param op The operator in string form.
+     * @return {@code true} if {@code op} is a tape operator,
+     *         {@code false} otherwise. 
+     */
+    private boolean isTape(String op) {
+        switch (op) {
+            case "tsum":
+            case "tavg":
+            case "tmin":
+            case "tmax":
+            case "tcnt":
+            case "tewma":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether a given operator creates a generator.
+     * These are applied by {@link #generate(Stack, String)}.
+     * 
+     * @param op The operator in string form.
+     * @return {@code true} if {@code op} is {@code range} or {@code map},
+     *         {@code false} otherwise. 
+     */
+    private boolean isGenerator(String op) {
+        switch (op) {
+            case "range":
+            case "map":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Applies an n-ary operator to a stack in its current state.
+     * Operands are popped off the stack until it is completely empty.
+     * 
+     * @param <T> The operand type. All operands on the stack must be of this type.
+     * @param stack The stack holding any number of possible operands.
+     * @param op The operator to be applied, which is best passed in as a lambda.
+     *           It is applied as many times as there are operands on the stack.
+     * @return The final calculation result after repeatedly applying the operator. 
+     * @throws EmptyStackException Raised on stack underflow.
+     */
+    @SuppressWarnings("unchecked") // The stack is homogeneous within an evaluation
+    private <T> T applyNAry(Stack<Object> stack, NAryOperation<T> op) throws EmptyStackException {
+        int n = 1;    // The nth time the operator is being applied
+        T acc = null; // The accumulated result
+        do {
+            acc = op.apply((T)stack.pop(), acc, n++);
+        } while (!stack.empty());
+        return acc;
+    }
+
+    /**
+     * Helper function which pops all operands off a stack into a single-pass
+     * accumulator of their mean and squared deviations, as per Welford.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     *              All operands must be of type {@code Double}.
+     * @return The accumulated moments of all operands.
+     * @throws EmptyStackException Raised if the stack is empty.
+     */
+    private Accumulator moments(Stack<Object> stack) throws EmptyStackException {
+        var acc = new Accumulator(Accumulator.Kind.MOMENTS);
+        do {
+            acc.add((Double)stack.pop());
+        } while (!stack.empty());
+        return acc;
+    }
+
+    /**
+     * Helper function which pops all operands off a stack into a primitive array,
+     * which order statistics can reorder without boxing or touching the stack.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     *              All operands must be of type {@code Double}.
+     * @return The operands, topmost first.
+     * @throws EmptyStackException Raised if the stack is empty.
+     */
+    private double[] popDoubles(Stack<Object> stack) throws EmptyStackException {
+        var values = new double[stack.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (Double)stack.pop();
+        }
+        if (values.length == 0) {
+            throw new EmptyStackException();
+        }
+        return values;
+    }
+
+    /**
+     * Helper function which pops all operands off a stack into an array.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     *              All operands must be of type {@link Decimal}.
+     * @return The operands, topmost first.
+     * @throws EmptyStackException Raised if the stack is empty.
+     */
+    private Decimal[] popDecimals(Stack<Object> stack) throws EmptyStackException {
+        var values = new Decimal[stack.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (Decimal)stack.pop();
+        }
+        if (values.length == 0) {
+            throw new EmptyStackException();
+        }
+        return values;
+    }
+
+    /**
+     * Applies an operator to a stack in its current state.
+     * As many operands are popped off the stack as needed.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     * @param op The operator to be applied.
+     *           Unary, binary and n-ary operators are supported.
+     * @return The calculation result of the operator application. 
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     * @throws ArithmeticException Raised if the result is undefined in the current mode
+     *         or an operand is a quotation or generator.
+     */
+    private Object apply(Stack<Object> stack, String op) 
+    throws EmptyStackException, IllegalArgumentException, ArithmeticException {
+        if (hasVectorOperand(stack, op)) {
+            return applyVector(stack, op);
+        }
+        return (this.mode == Mode.DECIMAL) ? applyDecimal(stack, op) : applyDouble(stack, op);
+    }
+
+    /**
+     * Checks whether any operand of an operator is a vector.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     * @param op The operator to be applied.
+     * @return {@code true} if at least one of the operands {@code op}
+     *         would pop off the stack is a vector.
+     * @throws ArithmeticException Raised if one of the operands is a quotation or generator.
+     */
+    private boolean hasVectorOperand(Stack<Object> stack, String op) throws ArithmeticException {
+        int operands = isUnary(op) ? 1 : isBinary(op) ? 2 : stack.size();
+        boolean vector = false;
+        for (int i = stack.size() - 1; i >= 0 && i >= stack.size() - operands; i--) {
+            Object operand = stack.get(i);
+            if (operand instanceof Quotation) {
+                throw new ArithmeticException("Quotations can only be run by 'if' and 'ifelse'");
+            } else if (operand instanceof Generator) {
+                throw new ArithmeticException("Generators can only be consumed by n-ary operators");
+            }
+            vector |= (operand instanceof double[]);
+        }
+        return vector;
+    }
+
+    /**
+     * Applies an operator involving at least one vector.
+     * Unary and binary operators are applied element-wise,
+     * broadcasting scalar operands to the length of the vector.
+     * N-ary operators reduce across all operands element-wise, except
+     * for a lone vector, whose elements are reduced to a scalar instead.
+     * Statistics are only defined for a lone vector, which {@code pct}
+     * expects below the percentile.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     *              Scalar operands must be of type {@code Double}.
+     * @param op The operator to be applied.
+     * @return The calculation result of the operator application. 
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     * @throws ArithmeticException Raised if the lengths of vectors differ
+     *         or a statistic is applied to more than a lone vector.
+     * @see #apply(Stack, String)
+     */
+    private Object applyVector(Stack<Object> stack, String op) 
+    throws EmptyStackException, IllegalArgumentException, ArithmeticException {
+        if (isUnary(op)) {
+            return Kernels.unary(op, (double[])stack.pop());
+        } else if (isBinary(op)) {
+            Object right = stack.pop();
+            Object left  = stack.pop();
+            if (!(right instanceof double[])) {
+                return Kernels.binary(op, (double[])left, (Double)right);
+            } else if (!(left instanceof double[])) {
+                return Kernels.binary(op, (Double)left, (double[])right);
+            }
+            return Kernels.binary(op, (double[])left, (double[])right);
+        } else if (isNAry(op)) {
+            int count = stack.size();
+            if (op.equals("pct") && count == 2 && stack.get(0) instanceof double[] && stack.get(1) instanceof Double) {
+                double p = (Double)stack.pop();
+                double[] values = ((double[])stack.pop()).clone(); // Selection reorders the elements
+                return Statistics.percentile(values, values.length, p);
+            } else if (op.equals("pct")) {
+                throw new ArithmeticException("'pct' requires scalars, or a vector and a percentile");
+            } else if (count == 1) {
+                return Kernels.reduce(op, (double[])stack.pop()); // Reduce a lone vector's elements
+            } else if (Accumulator.kindOf(op) == Accumulator.Kind.MOMENTS || op.equals("median")) {
+                throw new ArithmeticException(String.format("'%s' requires scalars or a lone vector", op));
+            }
+            /* Reduce into a fresh accumulator, as operands may be shared with registers. */
+            String combine = op.equals("min") || op.equals("max") ? op : "+";
+            int seed = 0;
+            while (!(stack.get(seed) instanceof double[])) {
+                seed++;
+            }
+            double[] acc = ((double[])stack.get(seed)).clone();
+            for (int i = count - 1; i >= 0; i--) {
+                Object operand = stack.pop();
+                if (i == seed) {
+                    continue; // Already in the accumulator
+                } else if (operand instanceof double[]) {
+                    Kernels.accumulate(combine, acc, (double[])operand);
+                } else {
+                    Kernels.accumulate(combine, acc, (Double)operand);
+                }
+            }
+            switch (op) {
+                case "sum": return acc;
+                case "avg": return Kernels.binary("/", acc, (double)count);
+                case "min": return acc;
+                case "max": return acc;
+                case "cnt": return Double.valueOf(count);
+            }
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Applies an operator using {@code double} arithmetic.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     *              All operands must be of type {@code Double}.
+     * @param op The operator to be applied.
+     * @return The calculation result of the operator application. 
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     * @see #apply(Stack, String)
+     */
+    private Double applyDouble(Stack<Object> stack, String op) 
+    throws EmptyStackException, IllegalArgumentException {
+        if (isUnary(op)) {
+            return unaryDouble(op, (Double)stack.pop());
+        } else if (isBinary(op)) {
+            Double right = (Double)stack.pop();
+            Double left  = (Double)stack.pop();
+            return binaryDouble(op, left, right);
+        } else if (isNAry(op)) {
+            switch (op) {
+                case "sum": return this.<Double>applyNAry(stack, (curr, acc, n) -> acc == null ? curr : curr + acc);
+                case "avg": return this.<Double>applyNAry(stack, (curr, acc, n) -> acc == null ? curr : (curr + acc * (n-1)) / n);
+                case "min": return this.<Double>applyNAry(stack, (curr, acc, n) -> acc == null ? curr : Math.min(curr, acc));
+                case "max": return this.<Double>applyNAry(stack, (curr, acc, n) -> acc == null ? curr : Math.max(curr, acc));
+                case "cnt": return this.<Double>applyNAry(stack, (curr, acc, n) -> Double.valueOf(n));
+                case "var": return moments(stack).variance();
+                case "stddev": return Math.sqrt(moments(stack).variance());
+                case "median":
+                case "pct": {
+                    double p = op.equals("pct") ? (Double)stack.pop() : 50.0;
+                    double[] values = popDoubles(stack);
+                    return Statistics.percentile(values, values.length, p);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Helper function which applies a unary operator to a {@code double}.
+     * 
+     * @param op The unary operator in string form.
+     * @param operand The operand.
+     * @return The calculation result.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown unary operator.
+     */
+    private static double unaryDouble(String op, double operand) throws IllegalArgumentException {
+        switch (op) {
+            case "%":    return operand / 100.0;
+            case "neg":  return -operand;
+            case "abs":  return Math.abs(operand);
+            case "pow2": return operand * operand;
+            case "sqrt": return Math.sqrt(operand);
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Helper function which applies a binary operator to two {@code double}s.
+     * 
+     * @param op The binary operator in string form.
+     * @param left The left operand.
+     * @param right The right operand.
+     * @return The calculation result.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown binary operator.
+     */
+    private static double binaryDouble(String op, double left, double right) throws IllegalArgumentException {
+        switch (op) {
+            case "+": return left + right;
+            case "-": return left - right;
+            case "*": return left * right;
+            case "/": return left / right;
+            case "mod": return left - right * Math.floor(left / right);
+            case "rem": return left % right;
+            case "pow": return Math.pow(left, right);
+            case "lt":
+            case "le":
+            case "gt":
+            case "ge":
+            case "eq":
+            case "ne":  return Kernels.compare(Kernels.relations(op), left, right);
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Applies an operator using exact decimal arithmetic.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     *              All operands must be of type {@link Decimal}.
+     * @param op The operator to be applied.
+     * @return The calculation result of the operator application. 
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     * @throws ArithmeticException Raised if the result is undefined.
+     * @see #apply(Stack, String)
+     */
+    private Decimal applyDecimal(Stack<Object> stack, String op) 
+    throws EmptyStackException, IllegalArgumentException, ArithmeticException {
+        if (isUnary(op)) {
+            Decimal operand = (Decimal)stack.pop();
+            switch (op) {
+                case "%":    return operand.percent();
+                case "neg":  return operand.negate();
+                case "abs":  return operand.abs();
+                case "pow2": return operand.multiply(operand);
+                case "sqrt": return operand.sqrt();
+            }
+        } else if (isBinary(op)) {
+            Decimal right = (Decimal)stack.pop();
+            Decimal left  = (Decimal)stack.pop();
+            switch (op) {
+                case "+": return left.add(right);
+                case "-": return left.subtract(right);
+                case "*": return left.multiply(right);
+                case "/": return left.divide(right);
+                case "mod": return left.mod(right);
+                case "rem": return left.remainder(right);
+                case "pow": return left.pow(right);
+                case "lt":
+                case "le":
+                case "gt":
+                case "ge":
+                case "eq":
+                case "ne":  return (Kernels.compare(Kernels.relations(op), left.compareTo(right), 0) != 0)
+                                   ? Decimal.ONE : Decimal.ZERO;
+            }
+        } else if (isNAry(op)) {
+            int count = stack.size(); // Averaging divides only once, after summing
+            switch (op) {
+                case "sum": return this.<Decimal>applyNAry(stack, (curr, acc, n) -> acc == null ? curr : curr.add(acc));
+                case "avg": return this.<Decimal>applyNAry(stack, (curr, acc, n) -> acc == null ? curr : curr.add(acc))
+                                       .divide(Decimal.valueOf(count));
+                case "min": return this.<Decimal>applyNAry(stack, (curr, acc, n) -> acc == null ? curr : curr.min(acc));
+                case "max": return this.<Decimal>applyNAry(stack, (curr, acc, n) -> acc == null ? curr : curr.max(acc));
+                case "cnt": return this.<Decimal>applyNAry(stack, (curr, acc, n) -> Decimal.valueOf(n));
+                case "var": return Statistics.variance(popDecimals(stack));
+                case "stddev": return Statistics.variance(popDecimals(stack)).sqrt();
+                case "median": return Statistics.percentile(popDecimals(stack), Decimal.valueOf(50));
+                case "pct": {
+                    Decimal p = (Decimal)stack.pop();
+                    return Statistics.percentile(popDecimals(stack), p);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unknown operator '" + op + "'");
+    }
+
+    /**
+     * Stores the topmost value of the stack in the passed register.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     * @param reg The register the topmost stack value will be stored in.
+     * @param journal The values registers held before the evaluation started.
+     *                The previous value of {@code reg} is added if missing,
+     *                as are those of all formulas recomputed because of it.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     *                 Recomputing the formulas depending on {@code reg} counts against them.
+     * @return The topmost value of the stack. It is only peeked, not popped.
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws LimitExceededException Raised if recomputing a formula exceeds a limit.
+     */
+    private Object store(Stack<Object> stack, String reg, Map<String, Object> journal, Governor governor) 
+    throws EmptyStackException, LimitExceededException {
+        Object operand = stack.peek();
+        journal.putIfAbsent(reg, this.registers.get(reg));
+        this.registers.put(reg, operand);
+        recompute(List.of(reg), journal, governor); // Later tokens see up-to-date formulas
+        return operand;
+    }
+
+    /**
+     * Helper function which restores all registers
+     * recorded in a journal to their previous values.
+     * 
+     * @param journal The values registers held before the evaluation started.
+     */
+    private void rollback(Map<String, Object> journal) {
+        this.registers.putAll(journal);
+    }
+
+    /**
+     * Helper function which records a successful evaluation in the history
+     * and makes its result stack the current one.
+     * 
+     * @param stack The result stack of the evaluation.
+     * @param journal The values registers held before the evaluation started.
+     */
+    private void commit(Stack<Object> stack, Map<String, Object> journal) {
+        var regs = new String[journal.size()];
+        var old_vals = new Object[regs.length];
+        var new_vals = new Object[regs.length];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : journal.entrySet()) {
+            regs[i] = entry.getKey();
+            old_vals[i] = entry.getValue();
+            new_vals[i++] = this.registers.get(entry.getKey());
+        }
+        PersistentStack<Object> before = this.snapshot;
+        PersistentStack<Object> after = (before != null ? before : PersistentStack.<Object>empty()).share(stack);
+        this.history.record(new EvalHistory.Step(before, after, regs, old_vals, new_vals));
+        setSnapshot(after);
+    }
+
+    /**
+     * Helper function which maps the current token to its canonical symbol.
+     * Known symbols are found without allocating. Unknown ones are copied
+     * once and remembered if they turn out to be an operator or register.
+     * 
+     * @param tokens The tokenizer positioned at the token to be resolved.
+     * @return The operator or register name equal to the current token,
+     *         or {@code null} if the token is neither.
+     */
+    private String resolve(Tokenizer tokens) {
+        String symbol = this.symbols.lookup(tokens.chars(), tokens.start(), tokens.length());
+        if (symbol == null) {
+            String name = tokens.text();
+            if (this.registers.containsKey(name) || isOperator(name)) {
+                symbol = this.symbols.add(name);
+            }
+        }
+        return symbol;
+    }
+
+    /**
+     * Helper function which parses the current token as a literal, if it is one.
+     * Constants count as literals, converted to the current mode.
+     * 
+     * @param tokens The tokenizer positioned at the token to be parsed.
+     * @return The parsed number or vector, or {@code null} if the token is no literal.
+     * @throws ArithmeticException Raised if the token is a vector literal
+     *         and vectors are not supported in the current mode, or
+     *         a constant that is not representable in the current mode.
+     */
+    private Object parseLiteral(Tokenizer tokens) throws ArithmeticException {
+        CharSequence chars = tokens.chars();
+        int start = tokens.start();
+        int length = tokens.length();
+        boolean vector = Literals.isVectorCandidate(chars, start, length);
+        if (vector || Literals.isCandidate(chars, start, length)) {
+            try {
+                if (vector) {
+                    double[] parsed = Literals.parseVector(chars, start, length);
+                    checkVectorMode();
+                    return parsed;
+                } else if (this.mode == Mode.DECIMAL) {
+                    return Decimal.parse(chars, start, length);
+                }
+                return Literals.parseDouble(chars, start, length);
+            } catch (NumberFormatException e) {
+                /* Not a number, but possibly a constant */
+            }
+        }
+        /* Symbols are rejected cheaply, without exceptions */
+        Double constant = this.constants.lookup(chars, start, length);
+        return (constant != null) ? coerce(constant) : null;
+    }
+
+    /**
+     * Evaluates a full RPN expression.
+     * 
+     * @param expr The RPN expression. It is scanned in place without being copied.
+     * @return The immediate result in numerical form.
+     *         If the expression cannot be reduced to a
+     *         single number, {@code null} is returned.
+     * @throws RPNCalcException Raised in any of the following cases:
+     *         - The expression {@code expr} is blank or empty
+     *         - Stack underflow occurred while applying an operator
+     *         - An unrecognized symbol is encountered during parsing
+     *         - An operation is undefined in {@link Mode#DECIMAL} mode
+     */
+    public Double eval(CharSequence expr) throws RPNCalcException {
+        return eval(expr, this.limits);
+    }
+
+    /**
+     * Evaluates a full RPN expression within the given resource budgets,
+     * instead of those set for the calculator.
+     * 
+     * @param expr The RPN expression. It is scanned in place without being copied.
+     * @param limits The budgets of this evaluation, e.g. those of a client session.
+     * @return The immediate result in numerical form.
+     * @throws RPNCalcException Raised in the same cases as {@link #eval(CharSequence)},
+     *         or with a {@link LimitExceededException} as cause if a limit is exceeded.
+     */
+    public Double eval(CharSequence expr, Limits limits) throws RPNCalcException {
+        /* Every token takes at least two characters, including the delimiter */
+        if (this.dataflow && limits.isUnlimited() && this.tracer == null 
+            && expr.length() >= 4 * DATAFLOW_THRESHOLD) {
+            Map<String, Object> journal = new LinkedHashMap<String, Object>();
+            Stack<Object> stack = executeDataflow(expr, journal);
+            if (stack != null) {
+                commit(stack, journal);
+                return this.result;
+            }
+        }
+        return eval(new Tokenizer(expr), limits);
+    }
+
+    /**
+     * Evaluates an RPN expression on top of the result stack of the last
+     * calculation, as if the stack had been typed in front of it. This lets
+     * a calculation continue without the stack being formatted and parsed again.
+     * 
+     * @param expr The RPN expression. It is scanned in place without being copied.
+     * @return The immediate result in numerical form.
+     * @throws RPNCalcException Raised in the same cases as {@link #eval(CharSequence)},
+     *         or if a value of the last stack is not representable in the current mode.
+     */
+    public Double evalOnLastStack(CharSequence expr) throws RPNCalcException {
+        Stack<Object> stack = (this.snapshot != null) ? this.snapshot.toStack() : new Stack<Object>();
+        try {
+            for (int i = 0; i < stack.size(); i++) {
+                Object value = coerce(stack.get(i)); // The mode may have changed since
+                if (value != stack.get(i)) {
+                    stack.set(i, value); // Values left alone stay shared with the history
+                }
+            }
+        } catch (ArithmeticException e) {
+            throw new RPNCalcException(e.getMessage());
+        }
+        return eval(new Tokenizer(expr), stack, this.limits);
+    }
+
+    /**
+     * Evaluates an expression compiled by {@link #compile(CharSequence)},
+     * exactly like {@link #eval(CharSequence)} would evaluate its source.
+     * 
+     * @param code The compiled expression.
+     * @return The immediate result in numerical form.
+     * @throws RPNCalcException Raised if evaluation fails.
+     */
+    Double eval(Quotation code) throws RPNCalcException {
+        Map<String, Object> journal = new LinkedHashMap<String, Object>();
+        Governor governor = this.limits.isUnlimited() ? null : this.limits.start();
+        var stack = new Stack<Object>();
+        if (this.tracer != null) {
+            this.tracer.begin();
+        }
+        run(code, stack, journal, this.tracer, governor, 0);
+        commit(stack, journal);
+        return this.result;
+    }
+
+    /**
+     * Runs a compiled expression once for a row of inputs, which are bound to
+     * registers for the duration of the run. Afterwards, all registers hold
+     * their previous values again, including those the expression stored into,
+     * so every row starts from the same state. No result is recorded.
+     * 
+     * @param code The expression, as compiled by {@link #compile(CharSequence)}.
+     * @param regs The registers the inputs are bound to. Must not hold formulas.
+     * @param vals The inputs, in the same order as {@code regs}.
+     * @return The single scalar the expression yields.
+     * @throws RPNCalcException Raised if evaluation fails or does not yield exactly one number.
+     */
+    Object evalRow(Quotation code, String[] regs, Object[] vals) throws RPNCalcException {
+        Map<String, Object> journal = new LinkedHashMap<String, Object>();
+        Governor governor = this.limits.isUnlimited() ? null : this.limits.start();
+        try {
+            for (int i = 0; i < regs.length; i++) {
+                journal.putIfAbsent(regs[i], this.registers.get(regs[i]));
+                this.registers.put(regs[i], vals[i]);
+            }
+            recompute(Arrays.asList(regs), journal, governor);
+            var stack = new Stack<Object>();
+            run(code, stack, journal, null, governor, 0);
+            if (stack.size() != 1 || !(stack.peek() instanceof Number)) {
+                throw new RPNCalcException("Expression must yield exactly one number");
+            }
+            return stack.peek();
+        } finally {
+            rollback(journal);
+        }
+    }
+
+    /**
+     * Evaluates a full RPN expression read from a stream.
+     * The expression is consumed token by token, so it never
+     * needs to be held in memory in its entirety.
+     * 
+     * @param expr The reader providing the RPN expression.
+     *             It is read to the end but not closed.
+     * @return The immediate result in numerical form.
+     *         If the expression cannot be reduced to a
+     *         single number, {@code null} is returned.
+     * @throws IOException Raised if reading from {@code expr} fails.
+     * @throws RPNCalcException Raised in the same cases as {@link #eval(CharSequence)}.
+     */
+    public Double eval(Reader expr) throws IOException, RPNCalcException {
+        return eval(expr, this.limits);
+    }
+
+    /**
+     * Evaluates a full RPN expression read from a stream within
+     * the given resource budgets, instead of those set for the calculator.
+     * 
+     * @param expr The reader providing the RPN expression.
+     *             It is read up to the end or the exceeded limit, but not closed.
+     * @param limits The budgets of this evaluation, e.g. those of a client session.
+     * @return The immediate result in numerical form.
+     * @throws IOException Raised if reading from {@code expr} fails.
+     * @throws RPNCalcException Raised in the same cases as {@link #eval(CharSequence, Limits)}.
+     */
+    public Double eval(Reader expr, Limits limits) throws IOException, RPNCalcException {
+        try {
+            return eval(new Tokenizer(expr), limits);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Evaluates all tokens provided by a tokenizer.
+     * 
+     * @param tokens The tokenizer, positioned before the first token.
+     * @param limits The resource budgets of the evaluation.
+     * @return The immediate result in numerical form.
+     * @throws RPNCalcException Raised if evaluation fails.
+     * @see #eval(CharSequence)
+     */
+    private Double eval(Tokenizer tokens, Limits limits) throws RPNCalcException {
+        return eval(tokens, new Stack<Object>(), limits);
+    }
+
+    /**
+     * Evaluates all tokens provided by a tokenizer on top of an initial stack.
+     * 
+     * @param tokens The tokenizer, positioned before the first token.
+     * @param stack The initial operand stack, which is modified.
+     * @param limits The resource budgets of the evaluation.
+     * @return The immediate result in numerical form.
+     * @throws RPNCalcException Raised if evaluation fails.
+     * @see #eval(CharSequence)
+     */
+    private Double eval(Tokenizer tokens, Stack<Object> stack, Limits limits) throws RPNCalcException {
+
+        /* Journal register stores so we can restore them in case of error. */
+        Map<String, Object> journal = new LinkedHashMap<String, Object>();
+
+        Governor governor = limits.isUnlimited() ? null : limits.start();
+        tokens.setGovernor(governor);
+        execute(tokens, stack, journal, this.tracer, governor);
+        commit(stack, journal); // Complete and immediate result
+        return this.result;
+    }
+
+    /**
+     * Executes all tokens provided by a tokenizer without recording a result.
+     * 
+     * @param tokens The tokenizer, positioned before the first token.
+     * @param stack The initial operand stack, usually empty. It is modified.
+     * @param journal The values registers held before the evaluation started.
+     *                Registers stored into are added. They are restored
+     *                if evaluation fails.
+     * @param tracer The tracer recording each token, or {@code null} if disabled.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     * @return The resulting operand stack, which is {@code stack} itself.
+     * @throws RPNCalcException Raised if evaluation fails.
+     */
+    private Stack<Object> execute(Tokenizer tokens, Stack<Object> stack, Map<String, Object> journal, 
+                                  Tracer tracer, Governor governor) throws RPNCalcException {
+
+        if (tracer != null) {
+            tracer.begin();
+        }
+
+        /* A register is only pushed once we know it isn't followed by '<=' */
+        String pending = null;
+        int pending_index = 0;
+        int pending_offset = 0;
+
+        /* The constant pushed by the previous token, if any, to reject stores into it */
+        String constant = null;
+        int constant_index = 0;
+        int constant_offset = 0;
+
+        try {
+
+           /*
+            * The algorithm abides by the following rules:
+            * 1. Literal values are pushed onto the stack.
+            * 2. If a register is followed by a '<=' token,
+            *    the topmost value of the stack is stored in it.
+            *    Otherwise, the register is pushed onto the stack.
+            * 3. Operators pop the required number of operands off
+            *    the stack and push the result back onto the stack.
+            * 4. Tokens in brackets are compiled into a quotation,
+            *    which is pushed onto the stack without being run.
+            */
+            while (tokens.next()) {
+                if (governor != null) {
+                    governor.token(tokens.length());
+                }
+                if (constant != null && tokens.matches("<=")) {
+                    rollback(journal);
+                    throw new RPNCalcException("Cannot store into a constant", constant, constant_index, constant_offset);
+                }
+                constant = null;
+                if (pending != null) {
+                    if (tokens.matches("<=")) {
+                        if (journal == FORMULA_JOURNAL) {
+                            throw new RPNCalcException("Formulas cannot store into registers",
+                                                       pending, pending_index, pending_offset);
+                        } else if (this.formulas.isFormula(pending)) {
+                            rollback(journal);
+                            throw new RPNCalcException("Register holds a formula", 
+                                                       pending, pending_index, pending_offset);
+                        }
+                        store(stack, pending, journal, governor);  // Treat register as lvalue
+                        if (tracer != null) {
+                            tracer.record(pending_index, Tracer.Kind.REGISTER_STORE, pending, stack.size(), stack.peek());
+                        }
+                        pending = null;
+                        continue;
+                    }
+                    pushRegister(stack, pending, pending_index, pending_offset, journal);
+                    if (governor != null) {
+                        governor.push(stack.size(), stack.peek());
+                    }
+                    if (tracer != null) {
+                        tracer.record(pending_index, Tracer.Kind.REGISTER_READ, pending, stack.size(), stack.peek());
+                    }
+                    pending = null;
+                }
+                Object literal = parseLiteral(tokens);
+                if (literal != null) {
+                    stack.push(literal);                 // Literals are operands
+                    if (governor != null) {
+                        governor.push(stack.size(), literal);
+                    }
+                    if (tracer != null) {
+                        tracer.record(tokens.index(), Tracer.Kind.LITERAL, null, stack.size(), literal);
+                    }
+                    if (this.constants.lookup(tokens.chars(), tokens.start(), tokens.length()) != null) {
+                        constant = tokens.text();
+                        constant_index = tokens.index();
+                        constant_offset = tokens.offset();
+                    }
+                    continue;
+                }
+                if (tokens.matches("[")) {
+                    int open_index = tokens.index();
+                    Quotation quotation = compile(tokens, journal, governor);
+                    stack.push(quotation);               // Quotations are operands, too
+                    if (governor != null) {
+                        governor.push(stack.size(), quotation);
+                    }
+                    if (tracer != null) {
+                        tracer.record(open_index, Tracer.Kind.QUOTATION, null, stack.size(), quotation);
+                    }
+                    continue;
+                }
+                String symbol = resolve(tokens);         // Check if register
+                if (symbol == null) {
+                    throw new IllegalArgumentException("Unknown symbol");
+                } else if (this.registers.containsKey(symbol)) {
+                    pending = symbol;                    // Defer until next token
+                    pending_index = tokens.index();
+                    pending_offset = tokens.offset();
+                } else if (isConditional(symbol)) {
+                    branch(stack, symbol, journal, tracer, governor, 1);
+                    if (tracer != null) {
+                        tracer.record(tokens.index(), Tracer.Kind.OPERATOR, symbol, stack.size(), 
+                                      stack.empty() ? null : stack.peek());
+                    }
+                } else {
+                    stack.push(dispatch(stack, symbol, journal, governor, 1)); // Apply operator
+                    if (governor != null) {
+                        governor.push(stack.size(), stack.peek());
+                    }
+                    if (tracer != null) {
+                        tracer.record(tokens.index(), Tracer.Kind.OPERATOR, symbol, stack.size(), stack.peek());
+                    }
+                }
+            }
+            if (pending != null) {
+                pushRegister(stack, pending, pending_index, pending_offset, journal);
+                if (governor != null) {
+                    governor.push(stack.size(), stack.peek());
+                }
+                if (tracer != null) {
+                    tracer.record(pending_index, Tracer.Kind.REGISTER_READ, pending, stack.size(), stack.peek());
+                }
+            }
+
+        } catch (EmptyStackException e) {
+            rollback(journal);
+            throw new RPNCalcException("Stack underflow", tokens.text(), tokens.index(), tokens.offset());
+        } catch (IllegalArgumentException e) {
+            rollback(journal);
+            throw new RPNCalcException("Unrecognized symbol", tokens.text(), tokens.index(), tokens.offset());
+        } catch (ArithmeticException e) {
+            rollback(journal);
+            throw new RPNCalcException(e.getMessage(), tokens.text(), tokens.index(), tokens.offset());
+        } catch (LimitExceededException e) {
+            rollback(journal);
+            throw new RPNCalcException(e.getMessage(), excerpt(tokens), tokens.index(), tokens.offset(), e);
+        }
+
+        /* Filter out expressions containing only whitespace. */
+        if (tokens.index() < 0) {
+            throw new RPNCalcException("No expression available");
+        }
+        return stack;
+    }
+
+    /**
+     * Executes a full RPN expression as a dataflow graph without recording a result.
+     * 
+     * @param expr The RPN expression.
+     * @param journal The values registers held before the evaluation started.
+     *                Registers stored into are added. They are restored
+     *                if evaluation fails.
+     * @return The resulting operand stack, or {@code null} if the expression
+     *         is not suited for dataflow evaluation or its evaluation failed.
+     */
+    private Stack<Object> executeDataflow(CharSequence expr, Map<String, Object> journal) {
+        Dataflow graph = analyse(new Tokenizer(expr));
+        if (graph == null) {
+            return null;
+        }
+        var stack = new Stack<Object>();
+        try {
+            for (Object value : graph.evaluate((op, operand, operands) -> evaluate(op, operand, operands, journal))) {
+                stack.push(value);
+            }
+        } catch (RPNCalcException | RuntimeException e) {
+            rollback(journal);
+            journal.clear();
+            return null; // Sequential evaluation reports the error at the right token
+        }
+        return stack;
+    }
+
+    /**
+     * Helper function which analyses all tokens into a dataflow graph, following
+     * the same rules as {@link #execute}. Literals are parsed and symbols are
+     * resolved up front, so evaluating the graph neither scans nor parses any text.
+     * 
+     * @param tokens The tokenizer, positioned before the first token.
+     * @return The dataflow graph, or {@code null} if the expression cannot be
+     *         analysed. This is the case if it is empty, contains an unknown symbol,
+     *         a quotation or generator, or would fail by stack underflow.
+     */
+    private Dataflow analyse(Tokenizer tokens) {
+        var graph = new Dataflow(DATAFLOW_THRESHOLD);
+        String pending = null;
+        try {
+            while (tokens.next()) {
+                if (pending != null) {
+                    if (tokens.matches("<=")) {
+                        if (this.formulas.isFormula(pending) || !graph.store(pending)) {
+                            return null;
+                        }
+                        pending = null;
+                        continue;
+                    }
+                    graph.read(pending);
+                    pending = null;
+                }
+                Object literal = parseLiteral(tokens);
+                if (literal != null) {
+                    graph.push(literal);
+                    continue;
+                }
+                String symbol = resolve(tokens);
+                if (symbol == null || isConditional(symbol) || isGenerator(symbol) || isTape(symbol)) {
+                    return null; // The tape may advance while nodes are computed
+                } else if (this.registers.containsKey(symbol)) {
+                    Object value = this.registers.get(symbol);
+                    if (value instanceof Quotation || value instanceof Generator) {
+                        return null; // Mapping quotations may store into registers
+                    }
+                    pending = symbol;
+                } else if (!graph.apply(symbol, isUnary(symbol) ? 1 : isBinary(symbol) ? 2 : -1)) {
+                    return null;
+                }
+            }
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        if (pending != null) {
+            graph.read(pending);
+        }
+        return (graph.size() > 0) ? graph : null;
+    }
+
+    /**
+     * Helper function which computes the value of a single dataflow node, like
+     * {@link #execute} does for the token it was analysed from. It may be called
+     * on several threads at once, but never while a register is stored into.
+     * 
+     * @param op What the node does.
+     * @param operand The literal, or the register or operator name.
+     * @param operands The values of the operands, in stack order.
+     * @param journal The values registers held before the evaluation started.
+     * @return The value of the node.
+     * @throws RPNCalcException Raised if applying an operator fails.
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws IllegalArgumentException Raised if the operator is unknown.
+     * @throws ArithmeticException Raised if the result is undefined in the current mode
+     *         or an operand is of the wrong type.
+     */
+    private Object evaluate(Quotation.Op op, Object operand, Object[] operands, Map<String, Object> journal)
+    throws RPNCalcException, EmptyStackException, IllegalArgumentException, ArithmeticException {
+        switch (op) {
+            case PUSH:
+                return operand;
+            case READ:
+                return coerce(this.registers.get(operand));
+            default:
+                var stack = new Stack<Object>();
+                for (Object value : operands) {
+                    stack.push(value);
+                }
+                return (op == Quotation.Op.STORE) ? store(stack, (String)operand, journal, null)
+                                                  : dispatch(stack, (String)operand, journal, null, 1);
+        }
+    }
+
+    /**
+     * Compiles a full RPN expression into a quotation, so it can be run
+     * any number of times without being scanned or parsed again, e.g. by
+     * {@link #evalRow(Quotation, String[], Object[])}.
+     * Literals are parsed in the current mode, but converted whenever they are pushed.
+     * 
+     * @param expr The RPN expression.
+     * @return The compiled expression, without enclosing brackets.
+     * @throws RPNCalcException Raised if the expression is blank or empty,
+     *         contains an unknown symbol or an unterminated quotation.
+     */
+    Quotation compile(CharSequence expr) throws RPNCalcException {
+        var tokens = new Tokenizer(expr);
+        Quotation code;
+        try {
+            code = compile(tokens, false, new LinkedHashMap<String, Object>(), null);
+        } catch (IllegalArgumentException e) {
+            throw new RPNCalcException("Unrecognized symbol", tokens.text(), tokens.index(), tokens.offset());
+        } catch (ArithmeticException e) {
+            throw new RPNCalcException(e.getMessage(), tokens.text(), tokens.index(), tokens.offset());
+        }
+        if (code.size() == 0) {
+            throw new RPNCalcException("No expression available");
+        }
+        return code;
+    }
+
+    /**
+     * Helper function which compiles the tokens up to a closing bracket into a quotation.
+     * Literals are parsed in the current mode, but converted whenever they are pushed.
+     * 
+     * @param tokens The tokenizer, positioned at the opening bracket.
+     *               It is left at the matching closing bracket.
+     * @param journal The values registers held before the evaluation started.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     * @return The compiled quotation.
+     * @throws RPNCalcException Raised if the closing bracket is missing.
+     * @throws IllegalArgumentException Raised if an unknown symbol is encountered.
+     * @throws ArithmeticException Raised if a literal is not supported in the current mode.
+     * @throws LimitExceededException Raised if a resource limit is exceeded.
+     */
+    private Quotation compile(Tokenizer tokens, Map<String, Object> journal, Governor governor)
+    throws RPNCalcException, IllegalArgumentException, ArithmeticException, LimitExceededException {
+        return compile(tokens, true, journal, governor);
+    }
+
+    /**
+     * Helper function which compiles tokens into a quotation, either up to a
+     * closing bracket or, for a full expression, up to the end of the input.
+     * 
+     * @param tokens The tokenizer, positioned at the opening bracket or before the first token.
+     *               It is left at the matching closing bracket or the end of the input.
+     * @param nested Whether the tokens are enclosed in brackets.
+     *               If not, a closing bracket is an unknown symbol.
+     * @param journal The values registers held before the evaluation started.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     * @return The compiled quotation.
+     * @throws RPNCalcException Raised if the closing bracket is missing.
+     * @throws IllegalArgumentException Raised if an unknown symbol is encountered.
+     * @throws ArithmeticException Raised if a literal is not supported in the current mode.
+     * @throws LimitExceededException Raised if a resource limit is exceeded.
+     */
+    private Quotation compile(Tokenizer tokens, boolean nested, Map<String, Object> journal, Governor governor)
+    throws RPNCalcException, IllegalArgumentException, ArithmeticException, LimitExceededException {
+        int open_index = tokens.index();
+        int open_offset = tokens.offset();
+        var code = new ArrayList<Quotation.Instruction>();
+        var text = new StringBuilder(nested ? "[" : "");
+        while (tokens.next()) {
+            if (governor != null) {
+                governor.token(tokens.length());
+            }
+            if (nested && tokens.matches("]")) {
+                return new Quotation(code, text.append(" ]").toString());
+            } else if (tokens.matches("[")) {
+                int index = tokens.index();
+                int offset = tokens.offset();
+                Quotation quotation = compile(tokens, true, journal, governor);
+                code.add(new Quotation.Instruction(Quotation.Op.PUSH, quotation, "[", index, offset));
+                text.append(text.length() > 0 ? " " : "").append(quotation);
+                continue;
+            }
+            String token = tokens.text();
+            text.append(text.length() > 0 ? " " : "").append(token);
+            Object literal = parseLiteral(tokens);
+            if (literal != null) {
+                code.add(new Quotation.Instruction(Quotation.Op.PUSH, literal, token, tokens.index(), tokens.offset()));
+                continue;
+            }
+            Quotation.Instruction last = code.isEmpty() ? null : code.get(code.size() - 1);
+            if (tokens.matches("<=") && last != null && last.op == Quotation.Op.PUSH 
+                && this.constants.contains(last.text)) {
+                rollback(journal);
+                throw new RPNCalcException("Cannot store into a constant", last.text, last.index, last.offset);
+            }
+            if (tokens.matches("<=") && last != null && last.op == Quotation.Op.READ) {
+                /* Turn the preceding register into an lvalue */
+                code.set(code.size() - 1, new Quotation.Instruction(
+                    Quotation.Op.STORE, last.operand, last.text, last.index, last.offset
+                ));
+                continue;
+            }
+            String symbol = resolve(tokens);
+            if (symbol == null) {
+                throw new IllegalArgumentException("Unknown symbol");
+            }
+            Quotation.Op op = this.registers.containsKey(symbol) ? Quotation.Op.READ : Quotation.Op.APPLY;
+            code.add(new Quotation.Instruction(op, symbol, token, tokens.index(), tokens.offset()));
+        }
+        if (!nested) {
+            return new Quotation(code, text.toString());
+        }
+        rollback(journal);
+        throw new RPNCalcException("Unterminated quotation", "[", open_index, open_offset);
+    }
+
+    /**
+     * Helper function which applies {@code if} or {@code ifelse}. The quotation
+     * of the branch taken is run, while the other one is discarded unseen.
+     * A condition holds if it is neither zero nor NaN.
+     * 
+     * @param stack The stack holding the condition and the quotations, topmost last.
+     * @param op The conditional operator.
+     * @param journal The values registers held before the evaluation started.
+     * @param tracer The tracer recording each instruction, or {@code null} if disabled.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     * @param depth The number of quotations the taken one will be running inside of.
+     * @throws RPNCalcException Raised if running the quotation fails.
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws ArithmeticException Raised if the operands are of the wrong type
+     *         or quotations are nested too deeply.
+     */
+    private void branch(Stack<Object> stack, String op, Map<String, Object> journal, Tracer tracer,
+                        Governor governor, int depth) 
+    throws RPNCalcException, EmptyStackException, ArithmeticException {
+        Quotation otherwise = op.equals("ifelse") ? toQuotation(stack.pop()) : null;
+        Quotation then = toQuotation(stack.pop());
+        Object condition = stack.pop();
+        boolean holds;
+        if (condition instanceof Decimal) {
+            holds = ((Decimal)condition).signum() != 0;
+        } else if (condition instanceof Double) {
+            double value = (Double)condition;
+            holds = !(value == 0.0 || Double.isNaN(value));
+        } else {
+            throw new ArithmeticException("Condition must be a scalar");
+        }
+        Quotation taken = holds ? then : otherwise;
+        if (taken != null) {
+            if (depth > MAX_QUOTATION_DEPTH) {
+                throw new ArithmeticException("Quotations nested too deeply");
+            }
+            run(taken, stack, journal, tracer, governor, depth);
+        }
+    }
+
+    /**
+     * Helper function which applies any operator other than a conditional.
+     * Tape statistics are read here. Generators are created here, and consumed if {@code op} is n-ary.
+     * All other operators are passed on to {@link #apply(Stack, String)}.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     * @param op The operator to be applied.
+     * @param journal The values registers held before the evaluation started.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     * @param depth The number of quotations a mapping quotation will be running inside of.
+     * @return The calculation result of the operator application.
+     * @throws RPNCalcException Raised if running a mapping quotation fails.
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws IllegalArgumentException Raised if {@code op} is an unknown operator.
+     * @throws ArithmeticException Raised if the result is undefined in the current mode
+     *         or an operand is of the wrong type.
+     * @throws LimitExceededException Raised if a resource limit is exceeded.
+     */
+    private Object dispatch(Stack<Object> stack, String op, Map<String, Object> journal, Governor governor,
+                            int depth) throws RPNCalcException, EmptyStackException, IllegalArgumentException,
+                                              ArithmeticException, LimitExceededException {
+        if (isTape(op)) {
+            return readTape(op);
+        } else if (isGenerator(op)) {
+            return generate(stack, op);
+        } else if (isNAry(op) && hasGeneratorOperand(stack)) {
+            return stream(stack, op, journal, governor, depth);
+        }
+        return apply(stack, op);
+    }
+
+    /**
+     * Helper function which reads a statistic of the tape, converted to the current mode.
+     * 
+     * @param op The tape operator.
+     * @return The statistic.
+     * @throws ArithmeticException Raised if no tape is attached, or if the window is empty
+     *         and {@code op} has no value for it, i.e. is neither {@code tsum} nor {@code tcnt}.
+     */
+    private Object readTape(String op) throws ArithmeticException {
+        Tape tape = this.tape;
+        if (tape == null) {
+            throw new ArithmeticException("No tape is attached");
+        }
+        double value;
+        synchronized (tape) { // Emptiness and statistic must agree while another thread appends
+            if (tape.size() == 0 && !op.equals("tsum") && !op.equals("tcnt")) {
+                throw new ArithmeticException("Tape is empty");
+            }
+            switch (op) {
+                case "tsum":  value = tape.sum(); break;
+                case "tavg":  value = tape.average(); break;
+                case "tmin":  value = tape.min(); break;
+                case "tmax":  value = tape.max(); break;
+                case "tcnt":  value = tape.size(); break;
+                case "tewma": value = tape.ewma(); break;
+                default: throw new IllegalArgumentException("Unknown operator '" + op + "'");
+            }
+        }
+        return coerce(value);
+    }
+
+    /**
+     * Helper function which applies {@code range} or {@code map}.
+     * Neither of them computes any elements.
+     * 
+     * @param stack The stack holding the operands, topmost last.
+     * @param op The generator operator.
+     * @return The new generator.
+     * @throws EmptyStackException Raised on stack underflow.
+     * @throws ArithmeticException Raised if the operands are of the wrong type,
+     *         the range is invalid or generators are not supported in the current mode.
+     */
+    private Generator generate(Stack<Object> stack, String op) throws EmptyStackException, ArithmeticException {
+        Object right = stack.pop();
+        Object left = stack.pop();
+        checkGeneratorMode();
+        if (op.equals("range")) {
+            if (!(left instanceof Double) || !(right instanceof Double)) {
+                throw new ArithmeticException("Range bounds must be scalars");
+            }
+            return Generator.range((Double)left, (Double)right, MAX_RANGE_SIZE);
+        } else if (!(left instanceof Generator)) {
+            throw new ArithmeticException("Only generators can be mapped");
+        }
+        Quotation quotation = toQuotation(right);
+        return ((Generator)left).map(quotation, isArithmetic(quotation));
+    }
+
+    /**
+     * Helper function which checks whether a quotation maps one number to one
+     * number by arithmetic alone. Such a quotation only reads registers, so it
+     * may run on several threads, and never underflows the stack, so it can be
+     * run on a primitive stack by {@link #runArithmetic}.
+     * 
+     * @param quotation The quotation to be checked.
+     * @return {@code true} if {@code quotation} only pushes doubles, reads registers
+     *         and applies unary and binary operators, turning one operand into one result.
+     */
+    private boolean isArithmetic(Quotation quotation) {
+        int depth = 1; // The number mapped
+        for (int i = 0; i < quotation.size(); i++) {
+            Quotation.Instruction instruction = quotation.get(i);
+            switch (instruction.op) {
+                case PUSH:
+                    if (!(instruction.operand instanceof Double)) {
+                        return false;
+                    }
+                    depth++;
+                    break;
+                case READ:
+                    depth++;
+                    break;
+                case APPLY:
+                    String op = (String)instruction.operand;
+                    if (isBinary(op) && depth >= 2) {
+                        depth--;
+                    } else if (!isUnary(op)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return depth == 1;
+    }
+
+    /**
+     * Helper function which checks whether the mapping quotations of a generator
+     * can be run by {@link #runArithmetic}, given the current registers and mode.
+     * 
+     * @param generator The generator to be checked.
+     * @return {@code true} if all mapping quotations are arithmetic, only read
+     *         registers holding doubles and double arithmetic is used.
+     */
+    private boolean isArithmetic(Generator generator) {
+        if (!generator.isParallel() || this.mode != Mode.DOUBLE) {
+            return false;
+        }
+        for (Quotation map : generator.maps()) {
+            for (int i = 0; i < map.size(); i++) {
+                Quotation.Instruction instruction = map.get(i);
+                if (instruction.op == Quotation.Op.READ && !(this.registers.get(instruction.operand) instanceof Double)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper function which resolves the operands pushed by an arithmetic quotation
+     * up front, so they can be pushed onto a primitive stack without unboxing.
+     * 
+     * @param quotation The arithmetic quotation.
+     * @return The pushed value of each instruction, by position. Unused for operators.
+     */
+    private double[] operandsOf(Quotation quotation) {
+        var operands = new double[quotation.size()];
+        for (int i = 0; i < operands.length; i++) {
+            Quotation.Instruction instruction = quotation.get(i);
+            if (instruction.op == Quotation.Op.PUSH) {
+                operands[i] = (Double)instruction.operand;
+            } else if (instruction.op == Quotation.Op.READ) {
+                operands[i] = (Double)this.registers.get(instruction.operand);
+            }
+        }
+        return operands;
+    }
+
+    /**
+     * Helper function which runs an arithmetic quotation on a primitive stack.
+     * This avoids boxing every intermediate value. The quotation must have been
+     * checked by {@link #isArithmetic(Quotation)}, so it cannot fail.
+     * 
+     * @param quotation The arithmetic quotation.
+     * @param operands The pushed values, as per {@link #operandsOf(Quotation)}.
+     * @param value The number to be mapped.
+     * @param stack The primitive stack, at least one longer than the quotation.
+     * @return The mapped number.
+     */
+    private double runArithmetic(Quotation quotation, double[] operands, double value, double[] stack) {
+        int top = 0;
+        stack[0] = value;
+        for (int i = 0; i < operands.length; i++) {
+            Quotation.Instruction instruction = quotation.get(i);
+            if (instruction.op != Quotation.Op.APPLY) {
+                stack[++top] = operands[i];
+            } else if (isUnary((String)instruction.operand)) {
+                stack[top] = unaryDouble((String)instruction.operand, stack[top]);
+            } else {
+                top--;
+                stack[top] = binaryDouble((String)instruction.operand, stack[top], stack[top + 1]);
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Checks whether any operand on the stack is a generator.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     * @return {@code true} if at least one entry is a generator.
+     */
+    private boolean hasGeneratorOperand(Stack<Object> stack) {
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            if (stack.get(i) instanceof Generator) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper function which applies an n-ary operator to a stack holding generators.
+     * Generators contribute all of their elements as operands, which are computed
+     * in batches and never pushed onto the stack. {@code cnt} only needs the
+     * number of elements, so it does not run any mapping quotations. Only
+     * {@code median} and {@code pct} keep all elements in memory at once.
+     * 
+     * @param stack The stack holding scalars and at least one generator.
+     * @param op The n-ary operator.
+     * @param journal The values registers held before the evaluation started.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     * @param depth The number of quotations a mapping quotation will be running inside of.
+     * @return The calculation result across all operands and generator elements.
+     *         Except for {@code sum} and {@code cnt}, it is NaN if there are none.
+     * @throws RPNCalcException Raised if running a mapping quotation fails.
+     * @throws ArithmeticException Raised if an operand is neither a scalar nor
+     *         a generator, or a mapping quotation does not yield one number.
+     * @throws LimitExceededException Raised if a resource limit is exceeded.
+     */
+    private Double stream(Stack<Object> stack, String op, Map<String, Object> journal, Governor governor,
+                          int depth) throws RPNCalcException, ArithmeticException, LimitExceededException {
+        double percentile = 50.0;
+        if (op.equals("pct")) {
+            Object operand = stack.pop();
+            if (!(operand instanceof Double)) {
+                throw new ArithmeticException("Percentile must be a scalar");
+            }
+            percentile = (Double)operand;
+        }
+        Accumulator.Kind kind = Accumulator.kindOf(op);
+        var acc = new Accumulator(kind);
+        while (!stack.empty()) {
+            Object operand = stack.pop();
+            if (operand instanceof Generator) {
+                Generator generator = (Generator)operand;
+                if (kind == Accumulator.Kind.COUNT) {
+                    acc.addCount(generator.size());
+                } else {
+                    acc.merge(reduce(generator, kind, journal, governor, depth));
+                }
+            } else if (operand instanceof Double) {
+                acc.add((Double)operand);
+            } else {
+                throw new ArithmeticException("Generators can only be reduced together with scalars");
+            }
+        }
+        switch (op) {
+            case "avg":    return acc.value() / acc.count();
+            case "cnt":    return (double)acc.count();
+            case "var":    return acc.variance();
+            case "stddev": return Math.sqrt(acc.variance());
+            case "median":
+            case "pct":    return Statistics.percentile(acc.values(), (int)acc.count(), percentile);
+            default:       return acc.value();
+        }
+    }
+
+    /**
+     * Helper function which reduces all elements of a generator.
+     * The generator is split into chunks of at least {@value #STREAM_CHUNK}
+     * elements. If all mapping quotations are arithmetic and no resource limits
+     * apply, chunks are reduced in parallel on primitive stacks. Either way,
+     * chunk results are merged in order, so the result does not depend on
+     * the number of threads.
+     * 
+     * @param generator The generator to be reduced.
+     * @param kind What to accumulate, which must not be {@link Accumulator.Kind#COUNT}.
+     * @param journal The values registers held before the evaluation started.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     *                 Keeping all elements is charged at 8 bytes per element.
+     * @param depth The number of quotations a mapping quotation will be running inside of.
+     * @return The accumulated elements.
+     * @throws RPNCalcException Raised if running a mapping quotation fails.
+     * @throws ArithmeticException Raised if a mapping quotation does not yield one number,
+     *         quotations are nested too deeply or there are too many elements to keep.
+     * @throws LimitExceededException Raised if a resource limit is exceeded.
+     */
+    private Accumulator reduce(Generator generator, Accumulator.Kind kind, Map<String, Object> journal, 
+                               Governor governor, int depth) 
+    throws RPNCalcException, ArithmeticException, LimitExceededException {
+        if (generator.maps().length > 0 && depth > MAX_QUOTATION_DEPTH) {
+            throw new ArithmeticException("Quotations nested too deeply");
+        }
+        long size = generator.size();
+        if (kind == Accumulator.Kind.VALUES && size > Statistics.MAX_VALUES) {
+            throw new ArithmeticException(String.format("More than %d values", Statistics.MAX_VALUES));
+        }
+        long chunk = Math.max(STREAM_CHUNK, (size + MAX_STREAM_CHUNKS - 1) / MAX_STREAM_CHUNKS);
+        int chunks = (int)((size + chunk - 1) / chunk);
+        var parts = new Accumulator[chunks];
+        if (governor == null && isArithmetic(generator)) {
+            /* Arithmetic quotations neither store nor fail, so chunks are independent */
+            Quotation[] maps = generator.maps();
+            var operands = new double[maps.length][];
+            int height = 1;
+            for (int m = 0; m < maps.length; m++) {
+                operands[m] = operandsOf(maps[m]);
+                height = Math.max(height, maps[m].size() + 1);
+            }
+            int stack_size = height;
+            IntStream indices = IntStream.range(0, chunks);
+            (chunks > 1 ? indices.parallel() : indices).forEach(c -> {
+                parts[c] = new Accumulator(kind);
+                reduceArithmetic(generator, operands, parts[c], c * chunk, Math.min(size, (c + 1) * chunk), 
+                                 new double[stack_size]);
+            });
+        } else {
+            for (int c = 0; c < chunks; c++) {
+                parts[c] = new Accumulator(kind);
+                long end = Math.min(size, (c + 1) * chunk);
+                /* Continuing the same accumulator keeps the order of operations unchanged */
+                for (long from = c * chunk; from < end; from += STREAM_CHUNK) {
+                    long to = Math.min(end, from + STREAM_CHUNK);
+                    if (governor != null) {
+                        /* Checks the time limit, and the memory limit for elements kept */
+                        governor.work((kind == Accumulator.Kind.VALUES) ? Double.BYTES * (to - from) : 0);
+                    }
+                    reduceChunk(generator, parts[c], from, to, journal, governor, depth);
+                }
+            }
+        }
+        var acc = new Accumulator(kind);
+        for (Accumulator part : parts) {
+            acc.merge(part);
+        }
+        return acc;
+    }
+
+    /**
+     * Helper function which reduces a contiguous chunk of elements of
+     * a generator whose mapping quotations are all arithmetic. Elements are
+     * computed into a buffer of {@value #STREAM_BATCH}, which is then added to
+     * the accumulator at once.
+     * 
+     * @param generator The generator to be reduced.
+     * @param operands The pushed values of each mapping quotation, as per {@link #operandsOf(Quotation)}.
+     * @param acc The accumulator the elements are added to.
+     * @param from The position of the first element, inclusive.
+     * @param to The position of the last element, exclusive.
+     * @param stack The primitive stack used by {@link #runArithmetic}.
+     */
+    private void reduceArithmetic(Generator generator, double[][] operands, Accumulator acc, 
+                                  long from, long to, double[] stack) {
+        Quotation[] maps = generator.maps();
+        var batch = new double[(int)Math.min(STREAM_BATCH, to - from)];
+        for (long start = from; start < to; start += batch.length) {
+            int n = (int)Math.min(batch.length, to - start);
+            for (int j = 0; j < n; j++) {
+                double value = generator.get(start + j);
+                for (int m = 0; m < maps.length; m++) {
+                    value = runArithmetic(maps[m], operands[m], value, stack);
+                }
+                batch[j] = value;
+            }
+            acc.addAll(batch, n);
+        }
+    }
+
+    /**
+     * Helper function which reduces a contiguous chunk of generator elements,
+     * running the mapping quotations like any other quotation. Elements are
+     * batched like in {@link #reduceArithmetic}, so both add them in the same order.
+     * 
+     * @param generator The generator to be reduced.
+     * @param acc The accumulator the elements are added to.
+     * @param from The position of the first element, inclusive.
+     * @param to The position of the last element, exclusive.
+     * @param journal The values registers held before the evaluation started.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     * @param depth The number of quotations a mapping quotation will be running inside of.
+     * @throws RPNCalcException Raised if running a mapping quotation fails.
+     * @throws ArithmeticException Raised if a mapping quotation does not yield one number.
+     * @throws LimitExceededException Raised if a resource limit is exceeded.
+     */
+    private void reduceChunk(Generator generator, Accumulator acc, long from, long to, 
+                             Map<String, Object> journal, Governor governor, int depth) 
+    throws RPNCalcException, ArithmeticException, LimitExceededException {
+        Quotation[] maps = generator.maps();
+        var scratch = new Stack<Object>();
+        var batch = new double[(int)Math.min(STREAM_BATCH, to - from)];
+        for (long start = from; start < to; start += batch.length) {
+            int n = (int)Math.min(batch.length, to - start);
+            for (int j = 0; j < n; j++) {
+                double value = generator.get(start + j);
+                for (Quotation map : maps) {
+                    scratch.clear();
+                    scratch.push(value);
+                    run(map, scratch, journal, null, governor, depth);
+                    if (scratch.size() != 1 || !(scratch.peek() instanceof Double)) {
+                        throw new ArithmeticException("Mapping must yield exactly one number");
+                    }
+                    value = (Double)scratch.pop();
+                }
+                batch[j] = value;
+            }
+            acc.addAll(batch, n);
+        }
+    }
+
+    /**
+     * Helper function which makes sure an operand is a quotation.
+     * 
+     * @param value The operand.
+     * @return The operand as a quotation.
+     * @throws ArithmeticException Raised if {@code value} is no quotation.
+     */
+    private static Quotation toQuotation(Object value) throws ArithmeticException {
+        if (!(value instanceof Quotation)) {
+            throw new ArithmeticException("Expected a quotation");
+        }
+        return (Quotation)value;
+    }
+
+    /**
+     * Helper function which runs the instructions of a quotation on a stack.
+     * Errors are reported at the token the failing instruction was compiled from.
+     * Every instruction counts as a token towards the token limit.
+     * 
+     * @param quotation The quotation to be run.
+     * @param stack The stack the quotation operates on.
+     * @param journal The values registers held before the evaluation started.
+     * @param tracer The tracer recording each instruction, or {@code null} if disabled.
+     * @param governor The governor enforcing resource budgets, or {@code null} if unlimited.
+     * @param depth The number of quotations running, including this one.
+     * @throws RPNCalcException Raised if an instruction fails.
+     */
+    private void run(Quotation quotation, Stack<Object> stack, Map<String, Object> journal, 
+                     Tracer tracer, Governor governor, int depth) throws RPNCalcException {
+        Quotation.Instruction current = null;
+        try {
+            for (int i = 0; i < quotation.size(); i++) {
+                current = quotation.get(i);
+                if (governor != null) {
+                    governor.token(0); // Compiled already, so nothing is buffered
+                }
+                Tracer.Kind kind;
+                switch (current.op) {
+                    case PUSH:
+                        stack.push(coerce(current.operand));
+                        kind = (current.operand instanceof Quotation) ? Tracer.Kind.QUOTATION : Tracer.Kind.LITERAL;
+                        break;
+                    case READ:
+                        stack.push(coerce(this.registers.get(current.operand)));
+                        kind = Tracer.Kind.REGISTER_READ;
+                        break;
+                    case STORE:
+                        if (journal == FORMULA_JOURNAL) {
+                            throw new RPNCalcException("Formulas cannot store into registers",
+                                                       current.text, current.index, current.offset);
+                        } else if (this.formulas.isFormula((String)current.operand)) {
+                            rollback(journal);
+                            throw new RPNCalcException("Register holds a formula", 
+                                                       current.text, current.index, current.offset);
+                        }
+                        store(stack, (String)current.operand, journal, governor);
+                        kind = Tracer.Kind.REGISTER_STORE;
+                        break;
+                    default:
+                        String op = (String)current.operand;
+                        if (isConditional(op)) {
+                            branch(stack, op, journal, tracer, governor, depth + 1);
+                        } else {
+                            stack.push(dispatch(stack, op, journal, governor, depth + 1));
+                        }
+                        kind = Tracer.Kind.OPERATOR;
+                        break;
+                }
+                if (governor != null && kind != Tracer.Kind.REGISTER_STORE && !stack.empty()) {
+                    governor.push(stack.size(), stack.peek());
+                }
+                if (tracer != null) {
+                    String symbol = (current.op == Quotation.Op.PUSH) ? null : (String)current.operand;
+                    tracer.record(current.index, kind, symbol, stack.size(), stack.empty() ? null : stack.peek());
+                }
+            }
+        } catch (EmptyStackException e) {
+            rollback(journal);
+            throw new RPNCalcException("Stack underflow", current.text, current.index, current.offset);
+        } catch (IllegalArgumentException e) {
+            rollback(journal);
+            throw new RPNCalcException("Unrecognized symbol", current.text, current.index, current.offset);
+        } catch (ArithmeticException e) {
+            rollback(journal);
+            throw new RPNCalcException(e.getMessage(), current.text, current.index, current.offset);
+        } catch (LimitExceededException e) {
+            rollback(journal);
+            throw new RPNCalcException(e.getMessage(), current.text, current.index, current.offset, e);
+        }
+    }
+
+    /**
+     * Helper function which gets the current token for an error message,
+     * shortened if it is too long, as with tokens exceeding the memory limit.
+     * 
+     * @param tokens The tokenizer, positioned at the offending token.
+     * @return The token text, at most {@value #EXCERPT_LENGTH} characters plus an ellipsis.
+     */
+    private static String excerpt(Tokenizer tokens) {
+        if (tokens.length() <= EXCERPT_LENGTH) {
+            return tokens.text();
+        }
+        return tokens.chars().subSequence(tokens.start(), tokens.start() + EXCERPT_LENGTH) + "...";
+    }
+
+    /**
+     * Helper function which pushes the value of a register onto the stack,
+     * treating it as an rvalue.
+     * 
+     * @param stack The stack holding any number of possible operands.
+     * @param reg The register to be pushed.
+     * @param index The token index the register appeared at.
+     * @param offset The character offset the register appeared at.
+     * @param journal The values registers held before the evaluation started.
+     * @throws RPNCalcException Raised if the register value is not
+     *         representable in the current mode.
+     */
+    private void pushRegister(Stack<Object> stack, String reg, int index, int offset, 
+                              Map<String, Object> journal) throws RPNCalcException {
+        try {
+            stack.push(coerce(this.registers.get(reg)));
+        } catch (ArithmeticException e) {
+            rollback(journal);
+            throw new RPNCalcException(e.getMessage(), reg, index, offset);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ch.bztf;
+
+/**
+ * Class for custom exceptions thrown by {@link RPNCalc}.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class RPNCalcException extends Exception {
+
+    /** Necessary as {@code Exception} implements {@code Serializable}. */
+    private static final long serialVersionUID = 1L;
+
+    /** The token that caused the error, or {@code null} if unknown. */
+    private final String token;
+
+    /** The token index of {@link #token}, or -1 if unknown. */
+    private final int index;
+
+    /** The character offset of {@link #token}, or -1 if unknown. */
+    private final int offset;
+
+    /**
+     * Exception constructor that takes a plain error message.
+     * 
+     * @param message The error message. It can be retrieved via
+     *                {@link Exception#getMessage()}.
+     */
+    public RPNCalcException(String message) {
+        super(message);
+        this.token = null;
+        this.index = -1;
+        this.offset = -1;
+    }
+
+    /**
+     * Exception constructor that takes an error message in
+     * addition to arguments detailing the exact position.
+     * 
+     * @param message The error message. 
+     *                It can be retrieved via {@link Exception#getMessage()}.
+     * @param token The specific token in the RPN expression that caused the error.
+     * @param index The corresponding index for {@code token}.
+     */
+    public RPNCalcException(String message, String token, int index) {
+        super(String.format("%s ('%s' at index %d)", message, token, index));
+        this.token = token;
+        this.index = index;
+        this.offset = -1;
+    }
+
+    /**
+     * Exception constructor that takes an error message in addition to
+     * arguments detailing the exact position, both as token index and
+     * as character offset within the expression.
+     * 
+     * @param message The error message. 
+     *                It can be retrieved via {@link Exception#getMessage()}.
+     * @param token The specific token in the RPN expression that caused the error.
+     * @param index The corresponding index for {@code token}.
+     * @param offset The character offset at which {@code token} starts.
+     */
+    public RPNCalcException(String message, String token, int index, int offset) {
+        super(String.format("%s ('%s' at index %d, offset %d)", message, token, index, offset));
+        this.token = token;
+        this.index = index;
+        this.offset = offset;
+    }
+
+    /**
+     * Exception constructor that takes an error message, the exact position
+     * and the underlying cause, e.g. a {@link LimitExceededException}.
+     * 
+     * @param message The error message. 
+     *                It can be retrieved via {@link Exception#getMessage()}.
+     * @param token The specific token in the RPN expression that caused the error.
+     * @param index The corresponding index for {@code token}.
+     * @param offset The character offset at which {@code token} starts.
+     * @param cause The underlying cause. It can be retrieved via {@link Exception#getCause()}.
+     */
+    public RPNCalcException(String message, String token, int index, int offset, Throwable cause) {
+        this(message, token, index, offset);
+        initCause(cause);
+    }
+
+    /**
+     * Gets the token that caused the error.
+     * 
+     * @return The token, or {@code null} if no position is known.
+     */
+    public String getToken() {
+        return this.token;
+    }
+
+    /**
+     * Gets the token index at which the error occurred.
+     * 
+     * @return The token index, or -1 if no position is known.
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Gets the character offset at which the error occurred.
+     * 
+     * @return The character offset, or -1 if it is not known.
+     */
+    public int getOffset() {
+        return this.offset;
+    }
+}
@@ -0,0 +1,446 @@
+package ch.bztf;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Evaluates large batches of independent expressions in several worker
+ * processes on the same machine, so that no single JVM's heap and garbage
+ * collector becomes the bottleneck.
+ * <p>
+ * The expressions are split into shards of consecutive expressions. Each
+ * worker, a JVM running {@link ShardWorker}, takes the next shard waiting,
+ * receives its expressions through a pipe to its standard input and sends
+ * the outcomes back through its standard output. The outcomes of all shards
+ * are merged in the order of the input. If a worker exits or its pipe breaks
+ * before a shard is complete, or the shard takes longer than
+ * {@link #setShardTimeout(Duration)}, e.g. because the worker hangs, it is
+ * replaced by a new process and the shard is evaluated again, up to
+ * {@link #setMaxRetries(int)} times.
+ * </p>
+ * <p>
+ * Every expression starts from cleared registers in {@link #setMode(RPNCalc.Mode)}
+ * mode, so outcomes do not depend on how expressions are sharded. Workers are
+ * started by the first batch and reused by later ones until {@link #close()}.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+public final class ShardCoordinator implements AutoCloseable {
+
+    /** The default number of expressions per shard. */
+    public static final int DEFAULT_SHARD_SIZE = 1 << 14;
+
+    /** The default number of times a shard is retried on a new worker. */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    /** The default time a worker may take for a shard before it is considered hung. */
+    public static final Duration DEFAULT_SHARD_TIMEOUT = Duration.ofMinutes(5);
+
+    /** A worker process and the pipes to it. */
+    private static final class Worker {
+
+        /** The process. */
+        final Process process;
+
+        /** The pipe to its standard input. */
+        final BufferedWriter in;
+
+        /** The pipe from its standard output. */
+        final BufferedReader out;
+
+        /**
+         * Constructor that wraps the pipes of a started process.
+         *
+         * @param process The worker process.
+         */
+        Worker(Process process) {
+            this.process = process;
+            this.in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8),
+                                         1 << 16);
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8),
+                                          1 << 16);
+        }
+    }
+
+    /** The number of worker processes. */
+    private final int workers;
+
+    /** The number of expressions per shard. */
+    private int shard_size = DEFAULT_SHARD_SIZE;
+
+    /** The number of times a shard is retried on a new worker. */
+    private int max_retries = DEFAULT_MAX_RETRIES;
+
+    /** The time a worker may take for a shard, in nanoseconds. */
+    private long shard_timeout = DEFAULT_SHARD_TIMEOUT.toNanos();
+
+    /** The arithmetic used by the workers. */
+    private RPNCalc.Mode mode = RPNCalc.Mode.DOUBLE;
+
+    /** The options passed to the worker JVMs, e.g. heap sizes. */
+    private List<String> jvm_options = List.of();
+
+    /** The command starting a worker, or {@code null} for the default one. */
+    private List<String> command = null;
+
+    /** The running workers, {@code null} where none is running. */
+    private final Worker[] running;
+
+    /**
+     * Constructor that takes the number of worker processes.
+     * No process is started before the first batch.
+     *
+     * @param workers The number of worker processes.
+     * @throws IllegalArgumentException Raised if {@code workers} is less than one.
+     */
+    public ShardCoordinator(int workers) throws IllegalArgumentException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        this.workers = workers;
+        this.running = new Worker[workers];
+    }
+
+    /**
+     * Sets the number of expressions per shard. Larger shards mean less
+     * coordination, smaller ones less work lost if a worker crashes.
+     *
+     * @param size The number of expressions per shard.
+     * @throws IllegalArgumentException Raised if {@code size} is less than one.
+     */
+    public void setShardSize(int size) throws IllegalArgumentException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Shards must hold at least one expression");
+        }
+        this.shard_size = size;
+    }
+
+    /**
+     * Sets the number of times a shard is retried on a new worker after its
+     * worker crashed. The batch fails once a shard crashed more often.
+     *
+     * @param retries The number of retries, 0 to fail on the first crash.
+     * @throws IllegalArgumentException Raised if {@code retries} is negative.
+     */
+    public void setMaxRetries(int retries) throws IllegalArgumentException {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Retries must not be negative");
+        }
+        this.max_retries = retries;
+    }
+
+    /**
+     * Sets the time a worker may take for a single shard. A worker taking
+     * longer is stopped, and the shard retried as if the worker had crashed.
+     *
+     * @param timeout The time from writing the first expression of a shard
+     *                to reading the last outcome.
+     * @throws IllegalArgumentException Raised if {@code timeout} is not positive.
+     */
+    public void setShardTimeout(Duration timeout) throws IllegalArgumentException {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Shard timeout must be positive");
+        }
+        this.shard_timeout = timeout.toNanos();
+    }
+
+    /**
+     * Sets the arithmetic used by the workers.
+     * Running workers are stopped, so the next batch starts new ones.
+     *
+     * @param mode The mode, {@link RPNCalc.Mode#DOUBLE} by default.
+     */
+    public void setMode(RPNCalc.Mode mode) {
+        this.mode = mode;
+        close();
+    }
+
+    /**
+     * Sets the options passed to the worker JVMs of the default command, e.g.
+     * {@code -Xmx256m} or {@code -XX:+UseSerialGC}.
+     * Running workers are stopped, so the next batch starts new ones.
+     *
+     * @param options The JVM options.
+     */
+    public void setJvmOptions(List<String> options) {
+        this.jvm_options = List.copyOf(options);
+        close();
+    }
+
+    /**
+     * Replaces the command starting a worker, e.g. to pin workers to CPUs
+     * with {@code taskset}. The name of the mode is appended as last argument.
+     * By default, the JVM running the coordinator is started with the JVM
+     * options and the same class path, running {@link ShardWorker}.
+     * Running workers are stopped, so the next batch starts new ones.
+     *
+     * @param command The command, or {@code null} to restore the default.
+     */
+    public void setWorkerCommand(List<String> command) {
+        this.command = (command != null) ? List.copyOf(command) : null;
+        close();
+    }
+
+    /**
+     * Evaluates a batch of expressions, each on its own.
+     *
+     * @param exprs The RPN expressions. Line breaks within them count as spaces.
+     * @return The outcome of each expression, in the same order.
+     * @throws IOException Raised if a worker cannot be started, or a shard
+     *         crashed or timed out its worker more often than allowed.
+     */
+    public List<Outcome> evaluate(List<String> exprs) throws IOException {
+        int shards = (exprs.size() + this.shard_size - 1) / this.shard_size;
+        var outcomes = new Outcome[exprs.size()];
+        var attempts = new int[shards];
+        var waiting = new ConcurrentLinkedQueue<Integer>();
+        for (int i = 0; i < shards; i++) {
+            waiting.add(i);
+        }
+        var failure = new AtomicReference<IOException>();
+        /* One thread reading from and one writing to each worker */
+        ExecutorService threads = Executors.newFixedThreadPool(2 * this.workers, runnable -> {
+            var thread = new Thread(runnable, "rpn-calc-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "rpn-calc-shard-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            var slots = new ArrayList<CompletableFuture<Void>>();
+            for (int slot = 0; slot < Math.min(this.workers, shards); slot++) {
+                int s = slot;
+                slots.add(CompletableFuture.runAsync(() -> serve(s, exprs, outcomes, attempts, waiting, failure, threads, timers),
+                                                     threads));
+            }
+            for (CompletableFuture<Void> slot : slots) {
+                slot.join();
+            }
+        } catch (CompletionException e) {
+            throw new IOException("Shard coordination failed", e.getCause());
+        } finally {
+            threads.shutdownNow();
+            timers.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    /**
+     * Helper function which lets one worker evaluate shards until none is waiting.
+     * Shards whose worker crashed or timed out are put back, and the worker is replaced.
+     *
+     * @param slot The position of the worker.
+     * @param exprs The RPN expressions.
+     * @param outcomes The outcomes, filled in by shard.
+     * @param attempts The number of times each shard crashed so far. Each entry
+     *                 is only accessed by the slot holding the shard.
+     * @param waiting The shards waiting to be evaluated.
+     * @param failure The first error ending the batch.
+     * @param writers The executor writing expressions to workers.
+     * @param timers The executor stopping workers that take too long.
+     */
+    private void serve(int slot, List<String> exprs, Outcome[] outcomes, int[] attempts,
+                       ConcurrentLinkedQueue<Integer> waiting, AtomicReference<IOException> failure,
+                       ExecutorService writers, ScheduledExecutorService timers) {
+        Integer shard;
+        while (failure.get() == null && (shard = waiting.poll()) != null) {
+            int start = shard * this.shard_size;
+            int end = Math.min(start + this.shard_size, exprs.size());
+            try {
+                Worker worker = worker(slot);
+                if (!run(worker, exprs, start, end, outcomes, writers, timers)) {
+                    stop(slot);
+                    if (++attempts[shard] > this.max_retries) {
+                        failure.compareAndSet(null, new IOException(String.format(
+                            "Shard %d crashed or timed out its worker %d times", shard, attempts[shard]
+                        )));
+                        return;
+                    }
+                    waiting.add(shard);
+                }
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Helper function which evaluates a shard on a worker. The expressions are
+     * written by another thread while the outcomes are read, so neither pipe
+     * can fill up and block the worker. A worker that takes longer than the
+     * shard timeout is destroyed, which ends its output like a crash does.
+     *
+     * @param worker The worker.
+     * @param exprs The RPN expressions.
+     * @param start The position of the first expression of the shard.
+     * @param end The position after the last expression of the shard.
+     * @param outcomes The outcomes, filled in from {@code start} to {@code end}.
+     * @param writers The executor writing the expressions.
+     * @param timers The executor enforcing the shard timeout.
+     * @return {@code false} if the worker crashed or timed out before the shard was complete.
+     */
+    private boolean run(Worker worker, List<String> exprs, int start, int end,
+                        Outcome[] outcomes, ExecutorService writers, ScheduledExecutorService timers) {
+        ScheduledFuture<?> deadline = timers.schedule(() -> {
+            worker.process.destroyForcibly();
+        }, this.shard_timeout, TimeUnit.NANOSECONDS);
+        var written = CompletableFuture.runAsync(() -> {
+            try {
+                for (int i = start; i < end; i++) {
+                    String expr = exprs.get(i);
+                    worker.in.write((expr.indexOf('\n') < 0 && expr.indexOf('\r') < 0)
+                                    ? expr : expr.replace('\n', ' ').replace('\r', ' '));
+                    worker.in.write('\n');
+                }
+                worker.in.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // The reader notices the crash as well
+            }
+        }, writers);
+        try {
+            for (int i = start; i < end; i++) {
+                String line = worker.out.readLine();
+                if (line == null) {
+                    return false;
+                }
+                outcomes[i] = parse(exprs.get(i), line);
+            }
+            written.join(); // Done already, as the worker answered every expression
+            return true;
+        } catch (IOException | IllegalArgumentException | CompletionException e) {
+            return false;
+        } finally {
+            deadline.cancel(false);
+        }
+    }
+
+    /**
+     * Helper function which parses an output line of a worker.
+     *
+     * @param expr The RPN expression the line belongs to.
+     * @param line The output line.
+     * @return The outcome.
+     * @throws IllegalArgumentException Raised if the line is malformed.
+     */
+    private static Outcome parse(String expr, String line) throws IllegalArgumentException {
+        if (line.equals("N")) {
+            return new Outcome(expr, null, null);
+        } else if (line.startsWith("R ")) {
+            return new Outcome(expr, Double.valueOf(line.substring(2)), null);
+        } else if (line.startsWith("E ")) {
+            return new Outcome(expr, null, new RPNCalcException(line.substring(2)));
+        }
+        throw new IllegalArgumentException("Malformed worker output");
+    }
+
+    /**
+     * Helper function which gets the worker of a slot, starting one if necessary.
+     *
+     * @param slot The position of the worker.
+     * @return The running worker.
+     * @throws IOException Raised if the worker cannot be started.
+     */
+    private Worker worker(int slot) throws IOException {
+        synchronized (this.running) {
+            if (this.running[slot] == null || !this.running[slot].process.isAlive()) {
+                stop(slot);
+                var builder = new ProcessBuilder(command());
+                builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+                this.running[slot] = new Worker(builder.start());
+            }
+            return this.running[slot];
+        }
+    }
+
+    /**
+     * Helper function which builds the command starting a worker.
+     *
+     * @return The command, including the mode as last argument.
+     */
+    private List<String> command() {
+        var cmd = new ArrayList<String>();
+        if (this.command != null) {
+            cmd.addAll(this.command);
+        } else {
+            cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            cmd.addAll(this.jvm_options);
+            cmd.add("-cp");
+            cmd.add(classPath());
+            cmd.add(ShardWorker.class.getName());
+        }
+        cmd.add(this.mode.name());
+        return cmd;
+    }
+
+    /**
+     * Helper function which builds the class path of the default worker command.
+     * The location of the core comes first, as the class path of the coordinator's
+     * JVM may only be a launcher, e.g. when run by a build tool.
+     *
+     * @return The class path.
+     */
+    private static String classPath() {
+        var source = ShardWorker.class.getProtectionDomain().getCodeSource();
+        String class_path = System.getProperty("java.class.path");
+        if (source == null) {
+            return class_path;
+        }
+        try {
+            return Path.of(source.getLocation().toURI()) + File.pathSeparator + class_path;
+        } catch (URISyntaxException e) {
+            return class_path;
+        }
+    }
+
+    /**
+     * Helper function which stops the worker of a slot, if there is one.
+     *
+     * @param slot The position of the worker.
+     */
+    private void stop(int slot) {
+        synchronized (this.running) {
+            Worker worker = this.running[slot];
+            if (worker != null) {
+                worker.process.destroyForcibly();
+                this.running[slot] = null;
+            }
+        }
+    }
+
+    /** Stops all workers. The coordinator can still be used, which starts new ones. */
+    @Override
+    public void close() {
+        for (int slot = 0; slot < this.workers; slot++) {
+            stop(slot);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ch.bztf;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The worker process started by {@link ShardCoordinator}. It reads one
+ * expression per line from standard input and writes one line per
+ * expression to standard output, until standard input is closed.
+ * <p>
+ * Each output line is {@code R} followed by a space and the result,
+ * {@code N} if the expression did not reduce to a single number, or
+ * {@code E} followed by a space and the error message. Every expression
+ * starts from cleared registers, so expressions are independent of each
+ * other and of the shard they end up in.
+ * </p>
+ * The only argument is the name of the {@link RPNCalc.Mode}, which defaults to
+ * {@link RPNCalc.Mode#DOUBLE}.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class ShardWorker {
+
+    /** Prevents instantiation, as this class only provides the worker's entry point. */
+    private ShardWorker() {
+    }
+
+    /**
+     * Evaluates a single expression into a line of the protocol.
+     *
+     * @param calc The calculator, whose registers are cleared afterwards.
+     * @param expr The RPN expression.
+     * @return The output line, without line feed.
+     */
+    static String evaluate(RPNCalc calc, String expr) {
+        try {
+            Double result = calc.eval(expr);
+            return (result != null) ? "R " + result : "N";
+        } catch (RPNCalcException e) {
+            return "E " + e.getMessage().replace('\n', ' ').replace('\r', ' ');
+        } finally {
+            calc.clearRegisters();
+        }
+    }
+
+    /**
+     * Entry point of the worker process.
+     * Output is flushed whenever no more input is buffered.
+     *
+     * @param args The name of the mode, optionally.
+     * @throws IOException Raised if reading or writing fails.
+     */
+    public static void main(String[] args) throws IOException {
+        var calc = new RPNCalc();
+        calc.setHistoryCapacity(0);
+        if (args.length > 0) {
+            calc.setMode(RPNCalc.Mode.valueOf(args[0]));
+        }
+        var in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16);
+        var out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        String line;
+        while ((line = in.readLine()) != null) {
+            out.write(evaluate(calc, line));
+            out.write('\n');
+            if (!in.ready()) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
+}
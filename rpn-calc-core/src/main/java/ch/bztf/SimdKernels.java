@@ -0,0 +1,106 @@
+package ch.bztf;
+
+/**
+ * Explicitly vectorized kernels based on the {@code jdk.incubator.vector} API.
+ * <p>
+ * This is the baseline version, used on Java 11 and whenever the core is
+ * not loaded from its multi-release JAR. It is never available, so
+ * {@link Kernels} always falls back to its own loops. The real implementation
+ * lives in {@code src/main/java17} and is only built by the {@code simd}
+ * profile, which is active on JDK 17 and later.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+final class SimdKernels {
+
+    /** Whether these kernels can be used. Always {@code false} in this version. */
+    static final boolean AVAILABLE = detect();
+
+    /** Prevents instantiation, as this class only holds static functions. */
+    private SimdKernels() {
+    }
+
+    /**
+     * Helper function which checks whether these kernels can be used.
+     * This is not a constant expression on purpose. Otherwise, the compiler
+     * would inline it into {@link Kernels}, which would then never see the
+     * versioned implementation.
+     *
+     * @return Always {@code false} in this version.
+     */
+    private static boolean detect() {
+        return false;
+    }
+
+    /**
+     * Applies a unary operator to each element of a vector.
+     *
+     * @param op The unary operator in string form.
+     * @param x The operand.
+     * @param out The vector receiving the results.
+     * @return Whether {@code op} is supported. Always {@code false} in this version.
+     */
+    static boolean unary(String op, double[] x, double[] out) {
+        return false;
+    }
+
+    /**
+     * Applies a binary operator to each pair of elements of two vectors.
+     *
+     * @param op The binary operator in string form.
+     * @param l The left operand.
+     * @param r The right operand, as long as {@code l}.
+     * @param out The vector receiving the results.
+     * @return Whether {@code op} is supported. Always {@code false} in this version.
+     */
+    static boolean binary(String op, double[] l, double[] r, double[] out) {
+        return false;
+    }
+
+    /**
+     * Applies a binary operator to each element of a vector and a scalar.
+     *
+     * @param op The binary operator in string form.
+     * @param l The left operand.
+     * @param r The right operand.
+     * @param out The vector receiving the results.
+     * @return Whether {@code op} is supported. Always {@code false} in this version.
+     */
+    static boolean binary(String op, double[] l, double r, double[] out) {
+        return false;
+    }
+
+    /**
+     * Sums all elements of a vector.
+     *
+     * @param x The vector to be summed.
+     * @return Never returns normally in this version.
+     * @throws UnsupportedOperationException Always raised in this version.
+     */
+    static double sum(double[] x) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Vector API not available");
+    }
+
+    /**
+     * Finds the smallest element of a non-empty vector.
+     *
+     * @param x The vector to be searched.
+     * @return Never returns normally in this version.
+     * @throws UnsupportedOperationException Always raised in this version.
+     */
+    static double min(double[] x) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Vector API not available");
+    }
+
+    /**
+     * Finds the largest element of a non-empty vector.
+     *
+     * @param x The vector to be searched.
+     * @return Never returns normally in this version.
+     * @throws UnsupportedOperationException Always raised in this version.
+     */
+    static double max(double[] x) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Vector API not available");
+    }
+}
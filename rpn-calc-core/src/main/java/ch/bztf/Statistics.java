@@ -0,0 +1,261 @@
+package ch.bztf;
+
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Order statistics and variance for the {@code median}, {@code pct} and
+ * {@code var} operators of {@link RPNCalc}.
+ * <p>
+ * Percentiles are found by quickselect on a primitive copy of the operands,
+ * which takes linear time on average instead of the n log n of a full sort.
+ * Should the pivots degrade, the remaining range is sorted instead, which
+ * bounds the worst case at n log n as well. Percentiles between two values
+ * are linearly interpolated, like most spreadsheets do.
+ * </p>
+ * Single-pass variance of doubles is computed by {@link Accumulator}.
+ *
+ * @author Timothy R. Schmid
+ */
+final class Statistics {
+
+    /** The maximum number of values that fit into an array on common JVMs. */
+    static final long MAX_VALUES = Integer.MAX_VALUE - 8;
+
+    /** The range length below which quickselect falls back to insertion sort. */
+    private static final int INSERTION_THRESHOLD = 16;
+
+    /** Private constructor, as this class only holds static functions. */
+    private Statistics() {
+    }
+
+    /**
+     * Helper function which checks a percentile.
+     *
+     * @param p The percentile.
+     * @throws ArithmeticException Raised if {@code p} is not between 0 and 100.
+     */
+    private static void checkPercentile(double p) throws ArithmeticException {
+        if (!(p >= 0.0 && p <= 100.0)) {
+            throw new ArithmeticException("Percentile must be between 0 and 100");
+        }
+    }
+
+    /**
+     * Computes a percentile of some values, interpolating linearly between the
+     * two closest ranks. The 0th percentile is the minimum, the 50th the median
+     * and the 100th the maximum.
+     *
+     * @param x The values, which are reordered.
+     * @param n The number of values, counting from the start of {@code x}.
+     * @param p The percentile, from 0 to 100.
+     * @return The percentile, or NaN if there are no values or one of them is NaN.
+     * @throws ArithmeticException Raised if {@code p} is not between 0 and 100.
+     */
+    static double percentile(double[] x, int n, double p) throws ArithmeticException {
+        checkPercentile(p);
+        if (n == 0) {
+            return Double.NaN;
+        }
+        for (int i = 0; i < n; i++) {
+            if (Double.isNaN(x[i])) {
+                return Double.NaN; // NaN has no rank
+            }
+        }
+        double h = (n - 1) * (p / 100.0);
+        int k = (int)Math.floor(h);
+        double fraction = h - k;
+        double lower = select(x, n, k);
+        if (fraction == 0.0) {
+            return lower;
+        }
+        /* After selecting, everything past k is at least as large, so its minimum is the next rank */
+        double upper = x[k + 1];
+        for (int i = k + 2; i < n; i++) {
+            upper = Math.min(upper, x[i]);
+        }
+        return lower + fraction * (upper - lower);
+    }
+
+    /**
+     * Finds the value of rank {@code k} by quickselect. Afterwards, no value
+     * before position {@code k} is larger, and none after it is smaller.
+     *
+     * @param x The values, which are reordered. Must not contain NaN.
+     * @param n The number of values, counting from the start of {@code x}.
+     * @param k The rank, from 0 for the smallest to {@code n - 1} for the largest.
+     * @return The value of rank {@code k}, which is now at position {@code k}.
+     */
+    static double select(double[] x, int n, int k) {
+        int lo = 0;
+        int hi = n - 1;
+        int budget = 2 * (32 - Integer.numberOfLeadingZeros(n)); // Rounds before sorting instead
+        while (hi - lo >= INSERTION_THRESHOLD) {
+            if (budget-- == 0) {
+                Arrays.sort(x, lo, hi + 1);
+                return x[k];
+            }
+            /* Median of three, moved to lo, with the smaller at lo+1 and the larger at hi */
+            int mid = (lo + hi) >>> 1;
+            if (x[mid] < x[lo]) swap(x, mid, lo);
+            if (x[hi] < x[lo]) swap(x, hi, lo);
+            if (x[hi] < x[mid]) swap(x, hi, mid);
+            swap(x, mid, lo + 1);
+            swap(x, lo, lo + 1);
+            double pivot = x[lo];
+            /* Three-way partition: < pivot in [lo, lt), == pivot in [lt, i), > pivot in (gt, hi] */
+            int lt = lo;
+            int gt = hi;
+            int i = lo + 1;
+            while (i <= gt) {
+                if (x[i] < pivot) {
+                    swap(x, lt++, i++);
+                } else if (x[i] > pivot) {
+                    swap(x, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                return pivot; // Within the run of values equal to the pivot
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            double value = x[i];
+            int j = i - 1;
+            for (; j >= lo && x[j] > value; j--) {
+                x[j + 1] = x[j];
+            }
+            x[j + 1] = value;
+        }
+        return x[k];
+    }
+
+    /**
+     * Helper function which swaps two values.
+     *
+     * @param x The values.
+     * @param i The position of the first value.
+     * @param j The position of the second value.
+     */
+    private static void swap(double[] x, int i, int j) {
+        double value = x[i];
+        x[i] = x[j];
+        x[j] = value;
+    }
+
+    /**
+     * Computes a percentile of some decimals, like {@link #percentile(double[], int, double)}.
+     * The ranks are found by quickselect as well, but on references.
+     *
+     * @param x The values, which are reordered.
+     * @param p The percentile, from 0 to 100.
+     * @return The percentile, which is exact unless the interpolation does not terminate.
+     * @throws ArithmeticException Raised if {@code p} is not between 0 and 100.
+     */
+    static Decimal percentile(Decimal[] x, Decimal p) throws ArithmeticException {
+        if (p.signum() < 0 || p.compareTo(Decimal.valueOf(100)) > 0) {
+            throw new ArithmeticException("Percentile must be between 0 and 100");
+        }
+        int n = x.length;
+        Decimal h = Decimal.valueOf(n - 1).multiply(p).divide(Decimal.valueOf(100));
+        int k = h.toBigDecimal().setScale(0, RoundingMode.FLOOR).intValueExact();
+        Decimal fraction = h.subtract(Decimal.valueOf(k));
+        Decimal lower = select(x, k);
+        if (fraction.signum() == 0) {
+            return lower;
+        }
+        Decimal upper = x[k + 1];
+        for (int i = k + 2; i < n; i++) {
+            upper = upper.min(x[i]);
+        }
+        return lower.add(fraction.multiply(upper.subtract(lower)));
+    }
+
+    /**
+     * Finds the decimal of rank {@code k} by quickselect,
+     * like {@link #select(double[], int, int)}.
+     *
+     * @param x The values, which are reordered.
+     * @param k The rank, from 0 for the smallest to {@code x.length - 1} for the largest.
+     * @return The value of rank {@code k}, which is now at position {@code k}.
+     */
+    static Decimal select(Decimal[] x, int k) {
+        int lo = 0;
+        int hi = x.length - 1;
+        int budget = 2 * (32 - Integer.numberOfLeadingZeros(x.length));
+        while (lo < hi) {
+            if (budget-- == 0) {
+                Arrays.sort(x, lo, hi + 1);
+                return x[k];
+            }
+            Decimal pivot = x[(lo + hi) >>> 1];
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                int cmp = x[i].compareTo(pivot);
+                if (cmp < 0) {
+                    swap(x, lt++, i++);
+                } else if (cmp > 0) {
+                    swap(x, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                return pivot;
+            }
+        }
+        return x[k];
+    }
+
+    /**
+     * Helper function which swaps two decimals.
+     *
+     * @param x The values.
+     * @param i The position of the first value.
+     * @param j The position of the second value.
+     */
+    private static void swap(Decimal[] x, int i, int j) {
+        Decimal value = x[i];
+        x[i] = x[j];
+        x[j] = value;
+    }
+
+    /**
+     * Computes the sample variance of some decimals. Unlike doubles, decimals
+     * are summed without cancellation, so the mean is computed first and the
+     * squared deviations from it are summed in a second pass. The result is
+     * still rounded, as each sum, product and division rounds to
+     * {@link Decimal#CONTEXT}.
+     *
+     * @param x The values.
+     * @return The variance, with Bessel's correction.
+     * @throws ArithmeticException Raised if there are fewer than two values.
+     */
+    static Decimal variance(Decimal[] x) throws ArithmeticException {
+        if (x.length < 2) {
+            throw new ArithmeticException("Variance requires at least two values");
+        }
+        Decimal sum = Decimal.ZERO;
+        for (Decimal value : x) {
+            sum = sum.add(value);
+        }
+        Decimal mean = sum.divide(Decimal.valueOf(x.length));
+        Decimal squares = Decimal.ZERO;
+        for (Decimal value : x) {
+            Decimal deviation = value.subtract(mean);
+            squares = squares.add(deviation.multiply(deviation));
+        }
+        return squares.divide(Decimal.valueOf(x.length - 1));
+    }
+}
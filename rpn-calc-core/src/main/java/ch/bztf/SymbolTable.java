@@ -0,0 +1,124 @@
+package ch.bztf;
+
+/**
+ * Open-addressing hash set of symbol names that can be queried
+ * with a span of characters instead of a string.
+ * This allows {@link RPNCalc} to map tokens to the canonical
+ * strings used as operator names and register keys without
+ * allocating a new string for every token.
+ *
+ * @author Timothy R. Schmid
+ */
+final class SymbolTable {
+
+    /** The hash table. Its length is always a power of two. */
+    private String[] names = new String[64];
+
+    /** The number of names in the table. */
+    private int size = 0;
+
+    /**
+     * Helper function which computes the hash of a span,
+     * which is equal to {@link String#hashCode()} of its characters.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @return The hash code.
+     */
+    private static int hash(CharSequence chars, int start, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + chars.charAt(start + i);
+        }
+        return h;
+    }
+
+    /**
+     * Helper function which spreads the bits of a hash code
+     * so that the lower bits can be used as a table index.
+     *
+     * @param h The hash code.
+     * @return The spread hash code.
+     */
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Looks up the name equal to a span.
+     *
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @param length The length of the span.
+     * @return The name equal to the span, or {@code null} if there is none.
+     */
+    String lookup(CharSequence chars, int start, int length) {
+        int mask = this.names.length - 1;
+        for (int i = spread(hash(chars, start, length)) & mask; ; i = (i + 1) & mask) {
+            String name = this.names[i];
+            if (name == null) {
+                return null;
+            }
+            if (name.length() == length && regionMatches(name, chars, start)) {
+                return name;
+            }
+        }
+    }
+
+    /**
+     * Helper function which compares a name to a span of the same length.
+     *
+     * @param name The name to compare with.
+     * @param chars The characters containing the span.
+     * @param start The start of the span.
+     * @return Whether all characters are equal.
+     */
+    private static boolean regionMatches(String name, CharSequence chars, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a name to the table, unless an equal one is present already.
+     *
+     * @param name The name to be added.
+     * @return The canonical instance of {@code name}.
+     */
+    String add(String name) {
+        String present = lookup(name, 0, name.length());
+        if (present != null) {
+            return present;
+        }
+        if (2 * (this.size + 1) > this.names.length) {
+            String[] old = this.names;
+            this.names = new String[old.length * 2];
+            for (String n : old) {
+                if (n != null) {
+                    insert(n);
+                }
+            }
+        }
+        insert(name);
+        this.size++;
+        return name;
+    }
+
+    /**
+     * Helper function which inserts a name into a free slot.
+     *
+     * @param name The name to be inserted. It must not be present.
+     */
+    private void insert(String name) {
+        int mask = this.names.length - 1;
+        int i = spread(name.hashCode()) & mask;
+        while (this.names[i] != null) {
+            i = (i + 1) & mask;
+        }
+        this.names[i] = name;
+    }
+}
@@ -0,0 +1,312 @@
+package ch.bztf;
+
+/**
+ * A bounded window over a continuous stream of numbers, e.g. a live
+ * measurement feed, attached to a calculator via {@link RPNCalc#setTape(Tape)}.
+ * <p>
+ * Values are appended to a ring buffer, evicting the oldest value once the
+ * window is full. The moving sum, average, minimum and maximum of the window
+ * and the exponentially weighted moving average of all values are updated on
+ * every append in constant time, so reading them never costs more than an
+ * append, however large the window:
+ * </p>
+ * <ul>
+ * <li>The sum adds the appended and subtracts the evicted value, compensated
+ *     as per Neumaier. Infinities and NaNs are counted instead of summed,
+ *     so they do not poison the sum once they have left the window.</li>
+ * <li>The minimum and maximum are the heads of two monotonic deques of
+ *     window positions. Every value enters and leaves each deque once.</li>
+ * <li>The EWMA moves towards each appended value by the smoothing factor.</li>
+ * </ul>
+ * In expressions, the statistics are read by the operators {@code tsum},
+ * {@code tavg}, {@code tmin}, {@code tmax}, {@code tcnt} and {@code tewma},
+ * which take no operands. A tape is thread-safe, so one thread may append
+ * while others evaluate.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class Tape {
+
+    /** The values in the window, at their position modulo the capacity. */
+    private final double[] values;
+
+    /** The smoothing factor of the EWMA. */
+    private final double alpha;
+
+    /** The positions of the window's candidates for its minimum, ascending by value, as a ring. */
+    private final long[] min_deque;
+
+    /** The positions of the window's candidates for its maximum, descending by value, as a ring. */
+    private final long[] max_deque;
+
+    /** The index of the head of {@link #min_deque}. */
+    private int min_head = 0;
+
+    /** The number of positions in {@link #min_deque}. */
+    private int min_size = 0;
+
+    /** The index of the head of {@link #max_deque}. */
+    private int max_head = 0;
+
+    /** The number of positions in {@link #max_deque}. */
+    private int max_size = 0;
+
+    /** The number of values appended since the tape was created or cleared, i.e. the next position. */
+    private long count = 0;
+
+    /** The sum of the finite values in the window. */
+    private double sum = 0.0;
+
+    /** The rounding error of {@link #sum}, as per Neumaier. */
+    private double compensation = 0.0;
+
+    /** The number of NaNs in the window. */
+    private int nans = 0;
+
+    /** The number of positive infinities in the window. */
+    private int positive_infinities = 0;
+
+    /** The number of negative infinities in the window. */
+    private int negative_infinities = 0;
+
+    /** The EWMA of all values appended, {@code NaN} before the first. */
+    private double ewma = Double.NaN;
+
+    /**
+     * Constructor that creates an empty tape whose EWMA has the same center of
+     * mass as the window, i.e. a smoothing factor of {@code 2 / (capacity + 1)}.
+     *
+     * @param capacity The number of values in a full window.
+     * @throws IllegalArgumentException Raised if {@code capacity} is not positive.
+     */
+    public Tape(int capacity) throws IllegalArgumentException {
+        this(capacity, 2.0 / (capacity + 1.0));
+    }
+
+    /**
+     * Constructor that creates an empty tape.
+     *
+     * @param capacity The number of values in a full window.
+     * @param alpha The smoothing factor of the EWMA, i.e. the weight of each appended value.
+     * @throws IllegalArgumentException Raised if {@code capacity} is not positive
+     *         or {@code alpha} is not greater than 0 and at most 1.
+     */
+    public Tape(int capacity, double alpha) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Tape capacity must be positive");
+        } else if (!(alpha > 0.0 && alpha <= 1.0)) {
+            throw new IllegalArgumentException("Smoothing factor must be greater than 0 and at most 1");
+        }
+        this.values = new double[capacity];
+        this.alpha = alpha;
+        this.min_deque = new long[capacity];
+        this.max_deque = new long[capacity];
+    }
+
+    /**
+     * Gets the number of values in a full window.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return this.values.length;
+    }
+
+    /**
+     * Gets the smoothing factor of the EWMA.
+     *
+     * @return The weight of each appended value.
+     */
+    public double getAlpha() {
+        return this.alpha;
+    }
+
+    /**
+     * Appends a value, evicting the oldest one if the window is full.
+     *
+     * @param value The value to be appended.
+     */
+    public synchronized void append(double value) {
+        int capacity = this.values.length;
+        int slot = (int)(this.count % capacity);
+        if (this.count >= capacity) {
+            account(this.values[slot], -1);
+            long oldest = this.count - capacity;
+            if (this.min_size > 0 && this.min_deque[this.min_head] == oldest) {
+                this.min_head = (this.min_head + 1) % capacity;
+                this.min_size--;
+            }
+            if (this.max_size > 0 && this.max_deque[this.max_head] == oldest) {
+                this.max_head = (this.max_head + 1) % capacity;
+                this.max_size--;
+            }
+        }
+        this.values[slot] = value;
+        account(value, 1);
+        if (!Double.isNaN(value)) {
+            /* Candidates no smaller (larger) than the new value can never be the minimum (maximum) again */
+            while (this.min_size > 0 && value <= this.values[slot(this.min_deque, this.min_head, this.min_size)]) {
+                this.min_size--;
+            }
+            this.min_deque[(this.min_head + this.min_size++) % capacity] = this.count;
+            while (this.max_size > 0 && value >= this.values[slot(this.max_deque, this.max_head, this.max_size)]) {
+                this.max_size--;
+            }
+            this.max_deque[(this.max_head + this.max_size++) % capacity] = this.count;
+        }
+        this.ewma = (this.count == 0) ? value : this.ewma + this.alpha * (value - this.ewma);
+        this.count++;
+    }
+
+    /**
+     * Appends several values in order, as if appended one at a time.
+     *
+     * @param values The values to be appended.
+     */
+    public synchronized void append(double... values) {
+        for (double value : values) {
+            append(value);
+        }
+    }
+
+    /**
+     * Helper function which finds the buffer slot of the last position in a deque.
+     *
+     * @param deque The deque.
+     * @param head The index of its head.
+     * @param size The number of positions in it, at least one.
+     * @return The index into {@link #values}.
+     */
+    private int slot(long[] deque, int head, int size) {
+        return (int)(deque[(head + size - 1) % deque.length] % this.values.length);
+    }
+
+    /**
+     * Helper function which adds a value to or removes it from the sum.
+     *
+     * @param value The value entering or leaving the window.
+     * @param sign {@code 1} if it enters, {@code -1} if it leaves.
+     */
+    private void account(double value, int sign) {
+        if (Double.isNaN(value)) {
+            this.nans += sign;
+        } else if (value == Double.POSITIVE_INFINITY) {
+            this.positive_infinities += sign;
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            this.negative_infinities += sign;
+        } else {
+            double addend = sign * value;
+            double total = this.sum + addend;
+            if (Math.abs(this.sum) >= Math.abs(addend)) {
+                this.compensation += (this.sum - total) + addend;
+            } else {
+                this.compensation += (addend - total) + this.sum;
+            }
+            this.sum = total;
+        }
+    }
+
+    /**
+     * Removes all values and resets the EWMA.
+     */
+    public synchronized void clear() {
+        this.count = 0;
+        this.min_size = this.max_size = 0;
+        this.min_head = this.max_head = 0;
+        this.sum = this.compensation = 0.0;
+        this.nans = this.positive_infinities = this.negative_infinities = 0;
+        this.ewma = Double.NaN;
+    }
+
+    /**
+     * Gets the number of values in the window.
+     *
+     * @return The number of values appended, at most the capacity.
+     */
+    public synchronized int size() {
+        return (int)Math.min(this.count, this.values.length);
+    }
+
+    /**
+     * Gets the number of values appended since the tape was created or cleared.
+     *
+     * @return The number of values appended, including those evicted.
+     */
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the sum of the values in the window.
+     *
+     * @return The sum, which is {@code 0} for an empty window.
+     */
+    public synchronized double sum() {
+        if (this.nans > 0 || (this.positive_infinities > 0 && this.negative_infinities > 0)) {
+            return Double.NaN;
+        } else if (this.positive_infinities > 0) {
+            return Double.POSITIVE_INFINITY;
+        } else if (this.negative_infinities > 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return this.sum + this.compensation;
+    }
+
+    /**
+     * Gets the average of the values in the window.
+     *
+     * @return The average, or {@code NaN} for an empty window.
+     */
+    public synchronized double average() {
+        return (this.count == 0) ? Double.NaN : sum() / size();
+    }
+
+    /**
+     * Gets the smallest value in the window.
+     *
+     * @return The minimum, or {@code NaN} for an empty window or one holding a {@code NaN}.
+     */
+    public synchronized double min() {
+        if (this.min_size == 0 || this.nans > 0) {
+            return Double.NaN;
+        }
+        return this.values[(int)(this.min_deque[this.min_head] % this.values.length)];
+    }
+
+    /**
+     * Gets the largest value in the window.
+     *
+     * @return The maximum, or {@code NaN} for an empty window or one holding a {@code NaN}.
+     */
+    public synchronized double max() {
+        if (this.max_size == 0 || this.nans > 0) {
+            return Double.NaN;
+        }
+        return this.values[(int)(this.max_deque[this.max_head] % this.values.length)];
+    }
+
+    /**
+     * Gets the exponentially weighted moving average of all values appended.
+     * Unlike the other statistics, it is not limited to the window.
+     *
+     * @return The EWMA, or {@code NaN} if no value has been appended.
+     */
+    public synchronized double ewma() {
+        return this.ewma;
+    }
+
+    /**
+     * Gets the values in the window.
+     *
+     * @return A copy of the values, oldest first.
+     */
+    public synchronized double[] toArray() {
+        int size = size();
+        double[] copy = new double[size];
+        long first = this.count - size;
+        for (int i = 0; i < size; i++) {
+            copy[i] = this.values[(int)((first + i) % this.values.length)];
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,261 @@
+package ch.bztf;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+
+/**
+ * Single-pass scanner that splits an RPN expression into tokens
+ * delimited by whitespace.
+ * <p>
+ * Tokens are not copied into strings. Instead, the scanner exposes the
+ * span of the current token, i.e. where it starts in {@link #chars()} and
+ * how long it is. Spans are only valid until {@link #next()} is called again.
+ * </p>
+ * Input can be any {@code CharSequence}, which is scanned in place, or a
+ * {@code Reader}, which is read through a buffer that only needs to hold
+ * the longest token. Whitespace is the same as for the regex {@code \s}.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class Tokenizer {
+
+    /** The initial buffer size used when reading from a {@code Reader}. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The reader tokens are read from, or {@code null} if scanning a sequence. */
+    private final Reader reader;
+
+    /** The buffer {@link #reader} is read into. Unused if scanning a sequence. */
+    private char[] buffer;
+
+    /** The characters being scanned. This is a view of {@link #buffer} for readers. */
+    private CharSequence chars;
+
+    /** The number of valid characters in {@link #chars}. */
+    private int end;
+
+    /** The absolute input offset of {@code chars.charAt(0)}. */
+    private int base = 0;
+
+    /** The scan position within {@link #chars}. */
+    private int pos = 0;
+
+    /** The start of the current token within {@link #chars}. */
+    private int start = 0;
+
+    /** The length of the current token. */
+    private int length = 0;
+
+    /** The index of the current token, or -1 before the first one. */
+    private int index = -1;
+
+    /** The governor charged for buffer growth, or {@code null} if unlimited. */
+    private Governor governor = null;
+
+    /**
+     * Constructor that scans a character sequence in place.
+     * The sequence must not change while it is being scanned.
+     *
+     * @param input The expression to be tokenized.
+     */
+    public Tokenizer(CharSequence input) {
+        this.reader = null;
+        this.chars = input;
+        this.end = input.length();
+    }
+
+    /**
+     * Constructor that scans the characters provided by a reader.
+     * The reader is not closed by the tokenizer.
+     *
+     * @param input The reader providing the expression to be tokenized.
+     */
+    public Tokenizer(Reader input) {
+        this.reader = input;
+        this.buffer = new char[BUFFER_SIZE];
+        this.chars = CharBuffer.wrap(this.buffer);
+        this.end = 0;
+    }
+
+    /**
+     * Makes buffer growth count against the memory budget of an evaluation,
+     * so a single huge token read from a reader cannot exhaust memory.
+     *
+     * @param governor The governor to be charged, or {@code null} if unlimited.
+     */
+    void setGovernor(Governor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Checks whether a character delimits tokens.
+     *
+     * @param c The character to be checked.
+     * @return {@code true} if {@code c} is whitespace as defined by {@code \s}.
+     */
+    public static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Helper function which makes more input available from the reader.
+     * The current token, which starts at {@link #start}, is retained.
+     *
+     * @return Whether any characters were added.
+     * @throws UncheckedIOException Raised if reading fails.
+     * @throws LimitExceededException Raised if growing the buffer exceeds the memory budget.
+     */
+    private boolean fill() throws UncheckedIOException, LimitExceededException {
+        if (this.reader == null) {
+            return false;
+        }
+        /* Discard everything before the current token */
+        if (this.start > 0) {
+            System.arraycopy(this.buffer, this.start, this.buffer, 0, this.end - this.start);
+            this.base += this.start;
+            this.end -= this.start;
+            this.pos -= this.start;
+            this.start = 0;
+        }
+        /* Grow only if a single token fills the entire buffer */
+        if (this.end == this.buffer.length) {
+            if (this.governor != null) {
+                this.length = this.end; // Expose the partial token for error reporting
+                this.governor.work(4L * this.buffer.length);
+            }
+            char[] grown = new char[this.buffer.length * 2];
+            System.arraycopy(this.buffer, 0, grown, 0, this.end);
+            this.buffer = grown;
+            this.chars = CharBuffer.wrap(grown);
+        }
+        try {
+            int read = this.reader.read(this.buffer, this.end, this.buffer.length - this.end);
+            if (read > 0) {
+                this.end += read;
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return {@code true} if there is a next token,
+     *         {@code false} if the end of input has been reached.
+     * @throws UncheckedIOException Raised if reading from a reader fails.
+     * @throws LimitExceededException Raised if a token read from a reader
+     *         exceeds the memory budget of the evaluation.
+     */
+    public boolean next() throws UncheckedIOException, LimitExceededException {
+        /* Skip whitespace */
+        do {
+            while (this.pos < this.end && isWhitespace(this.chars.charAt(this.pos))) {
+                this.pos++;
+            }
+            this.start = this.pos;
+        } while (this.pos == this.end && fill());
+        if (this.pos == this.end) {
+            this.length = 0;
+            return false;
+        }
+        /* Scan the token itself */
+        this.index++;
+        this.length = 0;
+        do {
+            while (this.pos < this.end && !isWhitespace(this.chars.charAt(this.pos))) {
+                this.pos++;
+            }
+        } while (this.pos == this.end && fill());
+        this.length = this.pos - this.start;
+        return true;
+    }
+
+    /**
+     * Gets the characters the current token is part of.
+     *
+     * @return The characters, which the current token occupies
+     *         from {@link #start()} for {@link #length()} characters.
+     */
+    public CharSequence chars() {
+        return this.chars;
+    }
+
+    /**
+     * Gets where the current token starts within {@link #chars()}.
+     *
+     * @return The start of the current token.
+     */
+    public int start() {
+        return this.start;
+    }
+
+    /**
+     * Gets the length of the current token.
+     *
+     * @return The number of characters of the current token.
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Gets the absolute character offset of the current token within the input.
+     *
+     * @return The offset of the first character of the current token.
+     */
+    public int offset() {
+        return this.base + this.start;
+    }
+
+    /**
+     * Gets the index of the current token, counting from zero.
+     *
+     * @return The token index, or -1 if {@link #next()} was never called.
+     */
+    public int index() {
+        return this.index;
+    }
+
+    /**
+     * Gets a single character of the current token.
+     *
+     * @param i The position within the token.
+     * @return The character at position {@code i}.
+     */
+    public char charAt(int i) {
+        return this.chars.charAt(this.start + i);
+    }
+
+    /**
+     * Checks whether the current token consists of the given characters.
+     *
+     * @param str The string to compare with.
+     * @return {@code true} if the current token equals {@code str}.
+     */
+    public boolean matches(String str) {
+        if (str.length() != this.length) {
+            return false;
+        }
+        for (int i = 0; i < this.length; i++) {
+            if (str.charAt(i) != this.chars.charAt(this.start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the current token into a string.
+     * This allocates, so it is best reserved for error reporting.
+     *
+     * @return The current token as a string.
+     */
+    public String text() {
+        return this.chars.subSequence(this.start, this.start + this.length).toString();
+    }
+}
@@ -0,0 +1,374 @@
+package ch.bztf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Records what {@link RPNCalc#eval(CharSequence)} does, token by token.
+ * A tracer is enabled by passing it to {@link RPNCalc#setTracer(Tracer)}.
+ * <p>
+ * Records are kept in a ring buffer of primitive arrays, all allocated up
+ * front, so recording a token never allocates. Once the buffer is full, the
+ * oldest records are overwritten. Records are accessed by position, where
+ * position 0 is the oldest record still held.
+ * </p>
+ * Each record holds the evaluation it belongs to, the token index, how the
+ * token was classified, the operator or register involved, the stack depth
+ * and top value after the token, and the nanoseconds spent on it.
+ * A tracer is not thread-safe and should only be used by one calculator.
+ *
+ * @author Timothy R. Schmid
+ */
+public final class Tracer {
+
+    /** How a token was classified during evaluation. */
+    public enum Kind {
+
+        /** A literal pushed onto the stack. */
+        LITERAL,
+
+        /** A register pushed onto the stack. */
+        REGISTER_READ,
+
+        /** A register followed by {@code <=}, storing the topmost value. */
+        REGISTER_STORE,
+
+        /** An operator applied to the stack. */
+        OPERATOR,
+
+        /** A quotation pushed onto the stack without being run. */
+        QUOTATION
+    }
+
+    /** The classifications, cached to avoid copying {@code Kind.values()}. */
+    private static final Kind[] KINDS = Kind.values();
+
+    /** The default number of records held. */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** The evaluation number of each record. */
+    private final long[] evals;
+
+    /** The token index of each record. */
+    private final int[] indices;
+
+    /** The ordinal of the {@link Kind} of each record. */
+    private final byte[] kinds;
+
+    /** The canonical operator or register name of each record, {@code null} for literals and quotations. */
+    private final String[] symbols;
+
+    /** The stack depth after each record's token. */
+    private final int[] depths;
+
+    /** The topmost stack value after each record's token, NaN for vectors. */
+    private final double[] tops;
+
+    /** The nanoseconds spent on each record's token. */
+    private final long[] nanos;
+
+    /** The ring buffer index of the oldest record. */
+    private int start = 0;
+
+    /** The number of records held. */
+    private int size = 0;
+
+    /** The number of records overwritten since the last {@link #clear()}. */
+    private long dropped = 0;
+
+    /** The number of evaluations started since the last {@link #clear()}. */
+    private long eval = 0;
+
+    /** The time the previous record ended, as per {@link System#nanoTime()}. */
+    private long last = 0;
+
+    /** Constructor that allocates a buffer of {@link #DEFAULT_CAPACITY} records. */
+    public Tracer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor that allocates a buffer of the given size.
+     *
+     * @param capacity The maximum number of records held.
+     * @throws IllegalArgumentException Raised if the capacity is not positive.
+     */
+    public Tracer(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Capacity %d is not positive", capacity));
+        }
+        this.evals = new long[capacity];
+        this.indices = new int[capacity];
+        this.kinds = new byte[capacity];
+        this.symbols = new String[capacity];
+        this.depths = new int[capacity];
+        this.tops = new double[capacity];
+        this.nanos = new long[capacity];
+    }
+
+    /**
+     * Gets the maximum number of records held.
+     *
+     * @return The capacity.
+     */
+    public int capacity() {
+        return this.indices.length;
+    }
+
+    /**
+     * Gets the number of records held.
+     *
+     * @return The number of records, at most {@link #capacity()}.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of records that were overwritten because the buffer was full.
+     *
+     * @return The number of lost records.
+     */
+    public long dropped() {
+        return this.dropped;
+    }
+
+    /** Discards all records. */
+    public void clear() {
+        this.start = 0;
+        this.size = 0;
+        this.dropped = 0;
+        this.eval = 0;
+    }
+
+    /** Marks the start of a new evaluation, which also starts its clock. */
+    void begin() {
+        this.eval++;
+        this.last = System.nanoTime();
+    }
+
+    /**
+     * Records a token that was evaluated successfully.
+     * The elapsed time is measured since the previous record or {@link #begin()}.
+     *
+     * @param index The token index.
+     * @param kind The token classification.
+     * @param symbol The operator or register name, {@code null} for literals and quotations.
+     * @param depth The stack depth after the token.
+     * @param top The topmost stack value after the token, {@code null} if empty.
+     */
+    void record(int index, Kind kind, String symbol, int depth, Object top) {
+        long now = System.nanoTime();
+        int capacity = this.indices.length;
+        int slot = this.start + this.size;
+        if (slot >= capacity) {
+            slot -= capacity;
+        }
+        if (this.size == capacity) {
+            this.start = (this.start + 1 == capacity) ? 0 : this.start + 1;
+            this.dropped++;
+        } else {
+            this.size++;
+        }
+        this.evals[slot] = this.eval;
+        this.indices[slot] = index;
+        this.kinds[slot] = (byte)kind.ordinal();
+        this.symbols[slot] = symbol;
+        this.depths[slot] = depth;
+        this.tops[slot] = (top instanceof Number) ? ((Number)top).doubleValue() : Double.NaN;
+        this.nanos[slot] = now - this.last;
+        this.last = now;
+    }
+
+    /**
+     * Helper function which maps a record position to its ring buffer index.
+     *
+     * @param pos The record position, where 0 is the oldest record.
+     * @return The ring buffer index.
+     * @throws IndexOutOfBoundsException Raised if {@code pos} is out of range.
+     */
+    private int slot(int pos) throws IndexOutOfBoundsException {
+        if (pos < 0 || pos >= this.size) {
+            throw new IndexOutOfBoundsException(String.format("Position %d is out of range", pos));
+        }
+        return (this.start + pos) % this.indices.length;
+    }
+
+    /**
+     * Gets the evaluation a record belongs to.
+     *
+     * @param pos The record position, where 0 is the oldest record.
+     * @return The evaluation number, counting from 1.
+     */
+    public long getEval(int pos) {
+        return this.evals[slot(pos)];
+    }
+
+    /**
+     * Gets the token index of a record.
+     *
+     * @param pos The record position, where 0 is the oldest record.
+     * @return The token index within its expression.
+     */
+    public int getIndex(int pos) {
+        return this.indices[slot(pos)];
+    }
+
+    /**
+     * Gets the classification of a record's token.
+     *
+     * @param pos The record position, where 0 is the oldest record.
+     * @return The token classification.
+     */
+    public Kind getKind(int pos) {
+        return KINDS[this.kinds[slot(pos)]];
+    }
+
+    /**
+     * Gets the operator or register of a record.
+     *
+     * @param pos The record position, where 0 is the oldest record.
+     * @return The operator or register name, {@code null} for literals and quotations.
+     */
+    public String getSymbol(int pos) {
+        return this.symbols[slot(pos)];
+    }
+
+    /**
+     * Gets the stack depth after a record's token.
+     *
+     * @param pos The record position, where 0 is the oldest record.
+     * @return The stack depth.
+     */
+    public int getDepth(int pos) {
+        return this.depths[slot(pos)];
+    }
+
+    /**
+     * Gets the topmost stack value after a record's token.
+     *
+     * @param pos The record position, where 0 is the oldest record.
+     * @return The topmost value. NaN if it is a vector or quotation or the stack is empty.
+     */
+    public double getTop(int pos) {
+        return this.tops[slot(pos)];
+    }
+
+    /**
+     * Gets the time spent on a record's token.
+     *
+     * @param pos The record position, where 0 is the oldest record.
+     * @return The elapsed nanoseconds.
+     */
+    public long getNanos(int pos) {
+        return this.nanos[slot(pos)];
+    }
+
+    /**
+     * Writes all records as CSV, including a header line.
+     *
+     * @param out The destination.
+     * @throws IOException Raised if writing to {@code out} fails.
+     */
+    public void writeCsv(Appendable out) throws IOException {
+        out.append("eval,index,kind,symbol,depth,top,nanos\n");
+        for (int pos = 0; pos < this.size; pos++) {
+            String symbol = getSymbol(pos);
+            out.append(Long.toString(getEval(pos))).append(',')
+               .append(Integer.toString(getIndex(pos))).append(',')
+               .append(getKind(pos).name()).append(',')
+               .append(symbol == null ? "" : quoteCsv(symbol)).append(',')
+               .append(Integer.toString(getDepth(pos))).append(',')
+               .append(Double.toString(getTop(pos))).append(',')
+               .append(Long.toString(getNanos(pos))).append('\n');
+        }
+    }
+
+    /**
+     * Helper function which quotes a CSV field if necessary.
+     *
+     * @param field The field to be quoted.
+     * @return The field, quoted if it contains a delimiter or quote.
+     */
+    private static String quoteCsv(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Writes all records as a JSON array of objects.
+     * Non-finite top values are written as {@code null}.
+     *
+     * @param out The destination.
+     * @throws IOException Raised if writing to {@code out} fails.
+     */
+    public void writeJson(Appendable out) throws IOException {
+        out.append('[');
+        for (int pos = 0; pos < this.size; pos++) {
+            String symbol = getSymbol(pos);
+            double top = getTop(pos);
+            out.append(pos == 0 ? "\n" : ",\n")
+               .append("  {\"eval\": ").append(Long.toString(getEval(pos)))
+               .append(", \"index\": ").append(Integer.toString(getIndex(pos)))
+               .append(", \"kind\": \"").append(getKind(pos).name()).append('"')
+               .append(", \"symbol\": ").append(symbol == null ? "null" : quoteJson(symbol))
+               .append(", \"depth\": ").append(Integer.toString(getDepth(pos)))
+               .append(", \"top\": ").append(Double.isFinite(top) ? Double.toString(top) : "null")
+               .append(", \"nanos\": ").append(Long.toString(getNanos(pos))).append('}');
+        }
+        out.append(this.size == 0 ? "]\n" : "\n]\n");
+    }
+
+    /**
+     * Helper function which quotes a JSON string.
+     *
+     * @param str The string to be quoted.
+     * @return The quoted and escaped string.
+     */
+    private static String quoteJson(String str) {
+        var builder = new StringBuilder("\"");
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int)c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Gets all records as CSV.
+     *
+     * @return The CSV text, including a header line.
+     */
+    public String toCsv() {
+        var builder = new StringBuilder();
+        try {
+            writeCsv(builder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Unreachable for a StringBuilder
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets all records as JSON.
+     *
+     * @return The JSON text.
+     */
+    public String toJson() {
+        var builder = new StringBuilder();
+        try {
+            writeJson(builder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Unreachable for a StringBuilder
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,3 @@
+module ch.bztf {
+    exports ch.bztf;
+}
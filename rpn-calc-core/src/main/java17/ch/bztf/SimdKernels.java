@@ -0,0 +1,311 @@
+package ch.bztf;
+
+import java.util.Optional;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Explicitly vectorized kernels based on the {@code jdk.incubator.vector} API.
+ * <p>
+ * This version is packaged under {@code META-INF/versions/17} of the
+ * multi-release JAR. The API is an incubator module, so it is only used if
+ * the JVM was started with {@code --add-modules jdk.incubator.vector}.
+ * Otherwise, {@link #AVAILABLE} is {@code false} and none of the vector
+ * classes are ever loaded.
+ * </p>
+ * Each kernel processes as many full vectors as possible using the widest
+ * species supported by the hardware and finishes the tail element by element.
+ *
+ * @author Timothy R. Schmid
+ */
+final class SimdKernels {
+
+    /** The name of the module providing the vector API. */
+    private static final String MODULE = "jdk.incubator.vector";
+
+    /** Whether these kernels can be used. */
+    static final boolean AVAILABLE = detect();
+
+    /**
+     * Holds everything that refers to the vector API. The verifier loads the
+     * types a class refers to, so this class must only be loaded once the
+     * vector module is known to be present, i.e. never unless {@link #AVAILABLE}.
+     */
+    private static final class Impl {
+
+        /** The widest double species supported by the hardware. */
+        static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+        /**
+         * Applies a unary operator to each element of a vector.
+         *
+         * @param op The unary operator in string form.
+         * @param x The operand.
+         * @param out The vector receiving the results.
+         * @return Whether {@code op} is supported by this implementation.
+         */
+        private static boolean unary(String op, double[] x, double[] out) {
+            VectorOperators.Unary lanewise;
+            switch (op) {
+                case "neg":  lanewise = VectorOperators.NEG;  break;
+                case "abs":  lanewise = VectorOperators.ABS;  break;
+                case "sqrt": lanewise = VectorOperators.SQRT; break;
+                default:     return false;
+            }
+            VectorSpecies<Double> species = SPECIES;
+            int bound = species.loopBound(x.length);
+            int i = 0;
+            for (; i < bound; i += species.length()) {
+                DoubleVector.fromArray(species, x, i).lanewise(lanewise).intoArray(out, i);
+            }
+            for (; i < x.length; i++) {
+                switch (op) {
+                    case "neg":  out[i] = -x[i];            break;
+                    case "abs":  out[i] = Math.abs(x[i]);   break;
+                    default:     out[i] = Math.sqrt(x[i]);  break;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Helper function which maps an arithmetic operator to its lane-wise operation.
+         *
+         * @param op The binary operator in string form.
+         * @return The lane-wise operation, or {@code null} if {@code op} is not supported.
+         */
+        private static VectorOperators.Binary lanewise(String op) {
+            switch (op) {
+                case "+": return VectorOperators.ADD;
+                case "-": return VectorOperators.SUB;
+                case "*": return VectorOperators.MUL;
+                case "/": return VectorOperators.DIV;
+                default:  return null;
+            }
+        }
+
+        /**
+         * Helper function which applies an arithmetic operator to two scalars.
+         *
+         * @param op The binary operator in string form, as accepted by {@link #lanewise(String)}.
+         * @param l The left operand.
+         * @param r The right operand.
+         * @return The calculation result.
+         */
+        private static double scalar(String op, double l, double r) {
+            switch (op) {
+                case "+": return l + r;
+                case "-": return l - r;
+                case "*": return l * r;
+                default:  return l / r;
+            }
+        }
+
+        /**
+         * Applies a binary operator to each pair of elements of two vectors.
+         *
+         * @param op The binary operator in string form.
+         * @param l The left operand.
+         * @param r The right operand, as long as {@code l}.
+         * @param out The vector receiving the results.
+         * @return Whether {@code op} is supported by this implementation.
+         */
+        private static boolean binary(String op, double[] l, double[] r, double[] out) {
+            VectorOperators.Binary lanewise = lanewise(op);
+            if (lanewise == null) {
+                return false;
+            }
+            VectorSpecies<Double> species = SPECIES;
+            int bound = species.loopBound(l.length);
+            int i = 0;
+            for (; i < bound; i += species.length()) {
+                DoubleVector.fromArray(species, l, i)
+                            .lanewise(lanewise, DoubleVector.fromArray(species, r, i))
+                            .intoArray(out, i);
+            }
+            for (; i < l.length; i++) {
+                out[i] = scalar(op, l[i], r[i]);
+            }
+            return true;
+        }
+
+        /**
+         * Applies a binary operator to each element of a vector and a scalar.
+         *
+         * @param op The binary operator in string form.
+         * @param l The left operand.
+         * @param r The right operand.
+         * @param out The vector receiving the results.
+         * @return Whether {@code op} is supported by this implementation.
+         */
+        private static boolean binary(String op, double[] l, double r, double[] out) {
+            VectorOperators.Binary lanewise = lanewise(op);
+            if (lanewise == null) {
+                return false;
+            }
+            VectorSpecies<Double> species = SPECIES;
+            int bound = species.loopBound(l.length);
+            int i = 0;
+            for (; i < bound; i += species.length()) {
+                DoubleVector.fromArray(species, l, i).lanewise(lanewise, r).intoArray(out, i);
+            }
+            for (; i < l.length; i++) {
+                out[i] = scalar(op, l[i], r);
+            }
+            return true;
+        }
+
+        /**
+         * Sums all elements of a vector, using one partial sum per lane.
+         *
+         * @param x The vector to be summed.
+         * @return The sum of all elements, or zero if {@code x} is empty.
+         */
+        private static double sum(double[] x) {
+            VectorSpecies<Double> species = SPECIES;
+            int bound = species.loopBound(x.length);
+            DoubleVector acc = DoubleVector.zero(species);
+            int i = 0;
+            for (; i < bound; i += species.length()) {
+                acc = acc.add(DoubleVector.fromArray(species, x, i));
+            }
+            double sum = acc.reduceLanes(VectorOperators.ADD);
+            for (; i < x.length; i++) {
+                sum += x[i];
+            }
+            return sum;
+        }
+
+        /**
+         * Finds the smallest element of a non-empty vector.
+         *
+         * @param x The vector to be searched.
+         * @return The smallest element.
+         */
+        private static double min(double[] x) {
+            VectorSpecies<Double> species = SPECIES;
+            int bound = species.loopBound(x.length);
+            DoubleVector acc = DoubleVector.broadcast(species, Double.POSITIVE_INFINITY);
+            int i = 0;
+            for (; i < bound; i += species.length()) {
+                acc = acc.min(DoubleVector.fromArray(species, x, i));
+            }
+            double min = acc.reduceLanes(VectorOperators.MIN);
+            for (; i < x.length; i++) {
+                min = Math.min(min, x[i]);
+            }
+            return min;
+        }
+
+        /**
+         * Finds the largest element of a non-empty vector.
+         *
+         * @param x The vector to be searched.
+         * @return The largest element.
+         */
+        private static double max(double[] x) {
+            VectorSpecies<Double> species = SPECIES;
+            int bound = species.loopBound(x.length);
+            DoubleVector acc = DoubleVector.broadcast(species, Double.NEGATIVE_INFINITY);
+            int i = 0;
+            for (; i < bound; i += species.length()) {
+                acc = acc.max(DoubleVector.fromArray(species, x, i));
+            }
+            double max = acc.reduceLanes(VectorOperators.MAX);
+            for (; i < x.length; i++) {
+                max = Math.max(max, x[i]);
+            }
+            return max;
+        }
+    }
+
+    /** Prevents instantiation, as this class only holds static functions. */
+    private SimdKernels() {
+    }
+
+    /**
+     * Helper function which checks whether the vector API is present.
+     * If the core is a named module, it is made to read the vector module,
+     * as the module declaration cannot require an optional incubator module.
+     *
+     * @return {@code true} if the vector module is in the boot layer.
+     */
+    private static boolean detect() {
+        Optional<Module> vector = ModuleLayer.boot().findModule(MODULE);
+        if (vector.isEmpty()) {
+            return false;
+        }
+        SimdKernels.class.getModule().addReads(vector.get());
+        return true;
+    }
+
+    /**
+     * Applies a unary operator to each element of a vector.
+     *
+     * @param op The unary operator in string form.
+     * @param x The operand.
+     * @param out The vector receiving the results.
+     * @return Whether {@code op} is supported by this implementation.
+     */
+    static boolean unary(String op, double[] x, double[] out) {
+        return Impl.unary(op, x, out);
+    }
+
+    /**
+     * Applies a binary operator to each pair of elements of two vectors.
+     *
+     * @param op The binary operator in string form.
+     * @param l The left operand.
+     * @param r The right operand, as long as {@code l}.
+     * @param out The vector receiving the results.
+     * @return Whether {@code op} is supported by this implementation.
+     */
+    static boolean binary(String op, double[] l, double[] r, double[] out) {
+        return Impl.binary(op, l, r, out);
+    }
+
+    /**
+     * Applies a binary operator to each element of a vector and a scalar.
+     *
+     * @param op The binary operator in string form.
+     * @param l The left operand.
+     * @param r The right operand.
+     * @param out The vector receiving the results.
+     * @return Whether {@code op} is supported by this implementation.
+     */
+    static boolean binary(String op, double[] l, double r, double[] out) {
+        return Impl.binary(op, l, r, out);
+    }
+
+    /**
+     * Sums all elements of a vector.
+     *
+     * @param x The vector to be summed.
+     * @return The sum of all elements, or zero if {@code x} is empty.
+     */
+    static double sum(double[] x) {
+        return Impl.sum(x);
+    }
+
+    /**
+     * Finds the smallest element of a non-empty vector.
+     *
+     * @param x The vector to be searched.
+     * @return The smallest element.
+     */
+    static double min(double[] x) {
+        return Impl.min(x);
+    }
+
+    /**
+     * Finds the largest element of a non-empty vector.
+     *
+     * @param x The vector to be searched.
+     * @return The largest element.
+     */
+    static double max(double[] x) {
+        return Impl.max(x);
+    }
+}
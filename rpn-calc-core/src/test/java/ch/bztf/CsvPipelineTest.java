@@ -0,0 +1,188 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link CsvPipeline} class.
+ * The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class CsvPipelineTest {
+
+    /** The calculator instance whose registers are bound. */
+    private RPNCalc calc;
+
+    @Before
+    public void setUp() {
+        calc = new RPNCalc();
+    }
+
+    /**
+     * Helper function which runs a pipeline on a string.
+     *
+     * @param pipeline The pipeline to be run.
+     * @param csv The input CSV.
+     * @return The output CSV.
+     * @throws IOException Never, as the channels are in memory.
+     * @throws RPNCalcException Raised if the pipeline fails.
+     */
+    private static String run(CsvPipeline pipeline, String csv) throws IOException, RPNCalcException {
+        var out = new ByteArrayOutputStream();
+        pipeline.run(Channels.newChannel(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))),
+                     Channels.newChannel(out));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testColumnsAreBoundByHeaderName() throws IOException, RPNCalcException {
+        var pipeline = new CsvPipeline(calc, "a b * c +");
+        assertEquals("c,name,b,a,result\n" +
+                     "1,\"Smith, J.\",3,2,7.0\n" +
+                     "-1, x ,0.5,4,1.0\n",
+                     run(pipeline, "c,name,b,a\n1,\"Smith, J.\",3,2\n-1, x ,0.5,4\n"));
+    }
+
+    @Test
+    public void testLineEndingsAndQuotesAreHandled() throws IOException, RPNCalcException {
+        var pipeline = new CsvPipeline(calc, "a 2 *");
+        pipeline.setResultColumn("double");
+        /* Byte order mark, CRLF, an empty line, a quoted line break and no final line feed */
+        assertEquals("\uFEFF\"a\",note,double\n" +
+                     "1,\"two\r\nlines\",2.0\n" +
+                     " \"3\" ,,6.0\n",
+                     run(pipeline, "\uFEFF\"a\",note\r\n1,\"two\r\nlines\"\r\n\r\n \"3\" ,"));
+    }
+
+    @Test
+    public void testRowsStartFromTheSameRegisters() throws IOException, RPNCalcException {
+        calc.setRegister("d", 10.0);
+        var pipeline = new CsvPipeline(calc, "d a + d <=");
+        assertEquals("a,result\n1,11.0\n2,12.0\n", run(pipeline, "a\n1\n2\n"));
+        assertEquals(10.0, calc.getRegister("d"), 0.0);
+        assertEquals(0.0, calc.getRegister("a"), 0.0);
+        assertFalse(calc.canUndo());
+    }
+
+    @Test
+    public void testFormulasSeeBoundColumns() throws IOException, RPNCalcException {
+        calc.setFormula("e", "a a *");
+        var pipeline = new CsvPipeline(calc, "e 1 +");
+        assertEquals("a,result\n3,10.0\n", run(pipeline, "a\n3\n"));
+        var bound = new CsvPipeline(calc, "1");
+        var e = assertThrows(RPNCalcException.class, () -> run(bound, "e\n1\n"));
+        assertEquals("Column 'e' is bound to a formula register", e.getMessage());
+    }
+
+    @Test
+    public void testDecimalModeParsesExactly() throws IOException, RPNCalcException {
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        var pipeline = new CsvPipeline(calc, "a b +");
+        assertEquals("a,b,result\n0.1,0.2,0.3\n", run(pipeline, "a,b\n0.1,0.2\n"));
+    }
+
+    @Test
+    public void testParallelChunksKeepTheirOrder() throws IOException, RPNCalcException {
+        var input = new StringBuilder("id,a,b\n");
+        var expected = new StringBuilder("id,a,b,result\n");
+        var check = new RPNCalc();
+        for (int i = 0; i < 20000; i++) {
+            String row = String.format("r%d,%d,%d.25", i, i, i % 97);
+            input.append(row).append('\n');
+            expected.append(row).append(',')
+                    .append(check.eval(String.format("%d %d.25 / %d.25 sqrt +", i, i % 97, i % 97))).append('\n');
+        }
+        var pipeline = new CsvPipeline(calc, "a b / b sqrt +");
+        pipeline.setChunkRows(100);
+        pipeline.setParallelism(4);
+        assertEquals(expected.toString(), run(pipeline, input.toString()));
+        pipeline.setParallelism(1);
+        assertEquals(expected.toString(), run(pipeline, input.toString()));
+    }
+
+    @Test
+    public void testErrorsReportTheRow() {
+        var pipeline = new CsvPipeline(calc, "a b +");
+        var e = assertThrows(RPNCalcException.class, () -> run(pipeline, "a,b\n1,2\n3,x\n"));
+        assertEquals("Row 2: Column 'b' is not a number", e.getMessage());
+        e = assertThrows(RPNCalcException.class, () -> run(pipeline, "a,b\n1,2\n3\n"));
+        assertEquals("Row 2: Too few columns", e.getMessage());
+        var underflow = new CsvPipeline(calc, "a +");
+        e = assertThrows(RPNCalcException.class, () -> run(underflow, "a\n1\n"));
+        assertTrue(e.getMessage().startsWith("Row 1: Stack underflow"));
+        var leftover = new CsvPipeline(calc, "a a");
+        e = assertThrows(RPNCalcException.class, () -> run(leftover, "a\n1\n"));
+        assertEquals("Row 1: Expression must yield exactly one number", e.getMessage());
+        assertThrows(RPNCalcException.class, () -> run(new CsvPipeline(calc, "a foo"), "a\n1\n"));
+        assertThrows(RPNCalcException.class, () -> run(pipeline, ""));
+        assertThrows(IllegalArgumentException.class, () -> pipeline.setChunkRows(0));
+        assertThrows(IllegalArgumentException.class, () -> pipeline.setParallelism(0));
+    }
+
+    @Test
+    public void testChannelErrorsAreRaised() {
+        var input = new StringBuilder("a\n");
+        for (int i = 0; i < 1000; i++) {
+            input.append(i).append('\n');
+        }
+        byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+        var pipeline = new CsvPipeline(calc, "a 2 *");
+        pipeline.setChunkRows(10);
+        pipeline.setParallelism(4);
+        /* Reading fails halfway through, while chunks are in flight */
+        var failing = new InputStream() {
+            private int read = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (read == bytes.length / 2) {
+                    throw new IOException("Disk gone");
+                }
+                return bytes[read++];
+            }
+        };
+        var e = assertThrows(IOException.class,
+                             () -> pipeline.run(Channels.newChannel(failing), Channels.newChannel(new ByteArrayOutputStream())));
+        assertEquals("Disk gone", e.getMessage());
+        /* Writing fails once the header is out */
+        var full = new OutputStream() {
+            private int written = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++written > 20) {
+                    throw new IOException("Disk full");
+                }
+            }
+        };
+        e = assertThrows(IOException.class,
+                         () -> pipeline.run(Channels.newChannel(new ByteArrayInputStream(bytes)), Channels.newChannel(full)));
+        assertEquals("Disk full", e.getMessage());
+    }
+
+    @Test
+    public void testFilesAreStreamed() throws IOException, RPNCalcException {
+        var in = Files.createTempFile("rpn-calc", ".csv");
+        var out = Files.createTempFile("rpn-calc", ".csv");
+        try {
+            Files.writeString(in, "a,b\n1,2\n3,4\n");
+            assertEquals(2, new CsvPipeline(calc, "a b *").run(in, out));
+            assertEquals("a,b,result\n1,2,2.0\n3,4,12.0\n", Files.readString(out));
+        } finally {
+            Files.delete(in);
+            Files.delete(out);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link Dataflow} class.
+ * The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class DataflowTest {
+
+    /** The registers of {@link #evaluator}. */
+    private final Map<String, Object> registers = Collections.synchronizedMap(new HashMap<String, Object>());
+
+    /** The register accesses of {@link #evaluator}, in the order they happened. */
+    private final List<String> accesses = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Evaluator supporting {@code +} and {@code *} on doubles, which logs register accesses.
+     * The operator {@code fail} always fails.
+     */
+    private final Dataflow.Evaluator evaluator = (op, operand, operands) -> {
+        switch (op) {
+            case PUSH:
+                return operand;
+            case READ:
+                accesses.add("read " + operand);
+                return registers.get(operand);
+            case STORE:
+                accesses.add("store " + operand);
+                registers.put((String)operand, operands[0]);
+                return operands[0];
+            default:
+                if (operand.equals("fail")) {
+                    throw new RPNCalcException("Failed");
+                }
+                double acc = operand.equals("*") ? 1.0 : 0.0;
+                for (Object value : operands) {
+                    acc = operand.equals("*") ? acc * (Double)value : acc + (Double)value;
+                }
+                return acc;
+        }
+    };
+
+    @Test
+    public void testIndependentSubexpressionsAreCombined() throws RPNCalcException {
+        /* 1 2 + 3 4 + * with every subexpression large enough to be forked */
+        var graph = new Dataflow(1);
+        graph.push(1.0);
+        graph.push(2.0);
+        assertTrue(graph.apply("+", 2));
+        graph.push(3.0);
+        graph.push(4.0);
+        assertTrue(graph.apply("+", 2));
+        assertTrue(graph.apply("*", 2));
+        assertEquals(7, graph.size());
+        assertArrayEquals(new Object[] { 21.0 }, graph.evaluate(evaluator));
+    }
+
+    @Test
+    public void testFinalStackKeepsAllRoots() throws RPNCalcException {
+        var graph = new Dataflow(1);
+        graph.push(1.0);
+        graph.push(2.0);
+        graph.push(3.0);
+        assertTrue(graph.apply("+", 2));
+        assertArrayEquals(new Object[] { 1.0, 5.0 }, graph.evaluate(evaluator));
+        graph = new Dataflow(1);
+        graph.push(1.0);
+        graph.push(2.0);
+        graph.push(3.0);
+        assertTrue(graph.apply("sum", -1));
+        assertArrayEquals(new Object[] { 6.0 }, graph.evaluate(evaluator));
+    }
+
+    @Test
+    public void testUnderflowIsRejected() {
+        var graph = new Dataflow(1);
+        assertFalse(graph.store("a"));
+        assertFalse(graph.apply("sum", -1));
+        graph.push(1.0);
+        assertFalse(graph.apply("+", 2));
+        assertEquals(1, graph.size());
+    }
+
+    @Test
+    public void testConflictingRegisterAccessesKeepTheirOrder() throws RPNCalcException {
+        /* b 5 b <= + reads b before storing into it, so must see the old value */
+        registers.put("b", 1.0);
+        var graph = new Dataflow(1);
+        graph.read("b");
+        graph.push(5.0);
+        assertTrue(graph.store("b"));
+        assertTrue(graph.apply("+", 2));
+        assertArrayEquals(new Object[] { 6.0 }, graph.evaluate(evaluator));
+        assertEquals(List.of("read b", "store b"), accesses);
+        assertEquals(5.0, registers.get("b"));
+        /* 5 b <= b + stores first */
+        accesses.clear();
+        graph = new Dataflow(1);
+        graph.push(5.0);
+        assertTrue(graph.store("b"));
+        graph.read("b");
+        assertTrue(graph.apply("+", 2));
+        assertArrayEquals(new Object[] { 10.0 }, graph.evaluate(evaluator));
+        assertEquals(List.of("store b", "read b"), accesses);
+    }
+
+    @Test
+    public void testManyStoresKeepTheirOrder() throws RPNCalcException {
+        /* 0 a <= 1 a <= ... 999 a <= sum leaves the last value in a */
+        var graph = new Dataflow(4);
+        for (int i = 0; i < 1000; i++) {
+            graph.push((double)i);
+            assertTrue(graph.store("a"));
+            graph.push(1.0);
+            assertTrue(graph.apply("*", 2));
+        }
+        assertTrue(graph.apply("sum", -1));
+        assertArrayEquals(new Object[] { 499500.0 }, graph.evaluate(evaluator));
+        assertEquals(999.0, registers.get("a"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("store a", accesses.get(i));
+        }
+    }
+
+    @Test
+    public void testFailuresAreRethrown() {
+        var graph = new Dataflow(1);
+        for (int i = 0; i < 8; i++) {
+            graph.push(1.0);
+            graph.push(2.0);
+            assertTrue(graph.apply(i == 5 ? "fail" : "+", 2));
+        }
+        assertTrue(graph.apply("sum", -1));
+        var e = assertThrows(RPNCalcException.class, () -> graph.evaluate(evaluator));
+        assertEquals("Failed", e.getMessage());
+    }
+
+    @Test
+    public void testLongChainsDoNotRecurse() throws RPNCalcException {
+        /* 1 1 + 1 + ... nests every addition inside the next one */
+        var graph = new Dataflow(2);
+        graph.push(1.0);
+        for (int i = 0; i < 200000; i++) {
+            graph.push(1.0);
+            assertTrue(graph.apply("+", 2));
+        }
+        assertArrayEquals(new Object[] { 200001.0 }, graph.evaluate(evaluator));
+    }
+}
@@ -0,0 +1,141 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link Decimal} class.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class DecimalTest {
+
+    /**
+     * Helper function which parses a decimal literal.
+     * 
+     * @param literal The literal to be parsed.
+     * @return The parsed decimal.
+     */
+    private static Decimal d(String literal) {
+        return Decimal.parse(literal);
+    }
+
+    @Test
+    public void testParsingProducesExactValue() {
+        assertEquals("0.1", d("0.1").toString());
+        assertEquals("-12.50", d("-12.50").toString());
+        assertEquals("21", d("2.1e1").toString());
+        assertEquals("123456789012345678901234567890", d("123456789012345678901234567890").toString());
+        assertEquals("5", d("+5").toString());
+    }
+
+    @Test
+    public void testParsingThrowsOnInvalidLiteral() {
+        assertThrows(NumberFormatException.class, () -> d(""));
+        assertThrows(NumberFormatException.class, () -> d("."));
+        assertThrows(NumberFormatException.class, () -> d("-"));
+        assertThrows(NumberFormatException.class, () -> d("NaN"));
+        assertThrows(NumberFormatException.class, () -> d("a"));
+    }
+
+    @Test
+    public void testAddingIsExact() {
+        assertEquals(d("0.3"), d("0.1").add(d("0.2")));
+        assertEquals(d("1.001"), d("1").add(d("0.001")));
+        assertEquals(d("-0.5"), d("0.5").subtract(d("1")));
+    }
+
+    @Test
+    public void testOverflowFallsBackToBigDecimal() {
+        Decimal max = Decimal.valueOf(Long.MAX_VALUE);
+        assertEquals(
+            new BigDecimal(Long.MAX_VALUE).add(BigDecimal.ONE),
+            max.add(Decimal.ONE).toBigDecimal()
+        );
+        assertEquals(
+            new BigDecimal(Long.MAX_VALUE).pow(2),
+            max.multiply(max).toBigDecimal()
+        );
+        assertEquals(d("0.000000000000000000001"), d("0.00000000001").multiply(d("0.0000000001")));
+        assertEquals(d("9223372036854775808"), Decimal.valueOf(Long.MIN_VALUE).negate());
+    }
+
+    @Test
+    public void testDividingIsExactIfTerminating() {
+        assertEquals(d("0.25"), d("1").divide(d("4")));
+        assertEquals(d("0.5"), d("0.1").divide(d("0.2")));
+        assertEquals(d("200"), d("2").divide(d("0.01")));
+        assertEquals(d("-3"), d("3").divide(d("-1")));
+    }
+
+    @Test
+    public void testDividingRoundsIfNonTerminating() {
+        assertEquals(
+            BigDecimal.ONE.divide(new BigDecimal(3), Decimal.CONTEXT),
+            d("1").divide(d("3")).toBigDecimal()
+        );
+    }
+
+    @Test
+    public void testDividingByZeroThrows() {
+        assertThrows(ArithmeticException.class, () -> d("1").divide(Decimal.ZERO));
+        assertThrows(ArithmeticException.class, () -> d("1").mod(d("0.0")));
+        assertThrows(ArithmeticException.class, () -> d("1").remainder(Decimal.ZERO));
+        assertThrows(ArithmeticException.class, () -> Decimal.ZERO.pow(d("-1")));
+    }
+
+    @Test
+    public void testModuloAndRemainderFollowDoubleSemantics() {
+        assertEquals(d("3"), d("-21").mod(d("4")));
+        assertEquals(d("-1"), d("-21").remainder(d("4")));
+        assertEquals(d("0.1"), d("1.1").remainder(d("0.5")));
+        assertEquals(d("-0.4"), d("1.1").mod(d("-0.5")));
+    }
+
+    @Test
+    public void testUnaryOperationsAreExact() {
+        assertEquals(d("0.0125"), d("1.25").percent());
+        assertEquals(d("1.5"), d("-1.5").abs());
+        assertEquals(d("12"), d("144").sqrt());
+        assertThrows(ArithmeticException.class, () -> d("-1").sqrt());
+    }
+
+    @Test
+    public void testPowerIsExactForIntegralExponents() {
+        assertEquals(d("1.21"), d("1.1").pow(d("2")));
+        assertEquals(d("0.125"), d("2").pow(d("-3")));
+        assertEquals(d("1"), d("7").pow(Decimal.ZERO));
+        assertEquals(d("3"), d("9").pow(d("0.5")));
+    }
+
+    @Test
+    public void testComparingIgnoresScale() {
+        assertEquals(d("1.0"), d("1.00"));
+        assertEquals(d("1.0").hashCode(), d("1.00").hashCode());
+        assertTrue(d("0.2").compareTo(d("0.19")) > 0);
+        assertEquals(d("-2"), d("-2").min(d("1")));
+        assertEquals(d("1"), d("-2").max(d("1")));
+    }
+
+    @Test
+    public void testFormattingRoundsHalfUp() {
+        assertEquals("0.300", d("0.3").format(3));
+        assertEquals("1.13", d("1.125").format(2));
+        assertEquals("-1.13", d("-1.125").format(2));
+        assertEquals("0.000", d("0.0004").format(3));
+        assertEquals("3", d("2.5").format(0));
+    }
+
+    @Test
+    public void testConvertingFromDoubleUsesShortestRepresentation() {
+        assertEquals(d("0.1"), Decimal.valueOf(0.1));
+        assertEquals(d("-42"), Decimal.valueOf(-42.0));
+        assertEquals(0.1, d("0.1").doubleValue(), 0.0);
+        assertThrows(ArithmeticException.class, () -> Decimal.valueOf(Double.NaN));
+        assertThrows(ArithmeticException.class, () -> Decimal.valueOf(Double.POSITIVE_INFINITY));
+    }
+}
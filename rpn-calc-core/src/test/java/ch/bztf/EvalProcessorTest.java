@@ -0,0 +1,273 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link EvalProcessor} class.
+ * The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class EvalProcessorTest {
+
+    /** The calculator instance evaluating the expressions. */
+    private RPNCalc calc;
+
+    @Before
+    public void setUp() {
+        calc = new RPNCalc();
+    }
+
+    /** Publisher whose expressions are pushed by the test, recording the demand. */
+    private static final class ManualPublisher implements Flow.Subscription {
+
+        /** The total number of expressions requested. */
+        long requested = 0;
+
+        /** Whether the processor has cancelled. */
+        boolean cancelled = false;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /** Subscriber collecting outcomes, requesting them one batch at a time. */
+    private static class Collector implements Flow.Subscriber<Outcome> {
+
+        /** The outcomes received. */
+        final List<Outcome> outcomes = new ArrayList<Outcome>();
+
+        /** Completed with {@code null} on completion, or failed with the error. */
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        /** The subscription. */
+        Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public synchronized void onNext(Outcome outcome) {
+            outcomes.add(outcome);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            done.completeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Helper function which subscribes a processor to a manual publisher.
+     *
+     * @param processor The processor to be subscribed.
+     * @return The publisher.
+     */
+    private static ManualPublisher subscribe(EvalProcessor processor) {
+        var publisher = new ManualPublisher();
+        processor.onSubscribe(publisher);
+        return publisher;
+    }
+
+    @Test
+    public void testOutcomesArePublishedInOrderOnDemand() {
+        var processor = new EvalProcessor(calc, Runnable::run, 4);
+        var publisher = subscribe(processor);
+        var collector = new Collector();
+        processor.subscribe(collector);
+        assertEquals(4, publisher.requested);
+        processor.onNext("1 2 +");
+        processor.onNext("1 +");
+        processor.onNext("5 a <=");
+        assertEquals(3, processor.getQueueSize());
+        assertTrue(collector.outcomes.isEmpty());
+        collector.subscription.request(2);
+        assertEquals(2, collector.outcomes.size());
+        assertEquals(3.0, collector.outcomes.get(0).getResult(), 0.0);
+        assertTrue(collector.outcomes.get(0).isSuccess());
+        assertFalse(collector.outcomes.get(1).isSuccess());
+        assertEquals("1 +", collector.outcomes.get(1).getExpression());
+        assertTrue(collector.outcomes.get(1).getError().getMessage().startsWith("Stack underflow"));
+        assertEquals(6, publisher.requested);
+        collector.subscription.request(Long.MAX_VALUE);
+        processor.onNext("a 1 +");
+        processor.onComplete();
+        assertEquals(4, collector.outcomes.size());
+        assertEquals(6.0, collector.outcomes.get(3).getResult(), 0.0);
+        assertTrue(collector.done.isDone());
+        assertFalse(collector.done.isCompletedExceptionally());
+        assertEquals(4, processor.getEvaluatedCount());
+        assertEquals(1, processor.getFailedCount());
+        assertEquals(3, processor.getPeakQueueSize());
+        assertEquals(0, processor.getQueueSize());
+    }
+
+    @Test
+    public void testUpstreamNeverExceedsCapacity() {
+        var processor = new EvalProcessor(calc, Runnable::run, 2);
+        var publisher = subscribe(processor);
+        var collector = new Collector();
+        processor.subscribe(collector);
+        int sent = 0;
+        while (sent < 10) {
+            assertEquals(sent + 2, publisher.requested);
+            while (sent < publisher.requested) {
+                processor.onNext(sent++ + "");
+            }
+            assertEquals(processor.getCapacity(), processor.getQueueSize());
+            collector.subscription.request(2);
+        }
+        assertEquals(2, processor.getPeakQueueSize());
+        assertEquals(10, collector.outcomes.size());
+    }
+
+    @Test
+    public void testFuturesShareTheQueue() throws InterruptedException, ExecutionException {
+        var processor = new EvalProcessor(calc, Runnable::run, 2);
+        assertEquals(3.0, processor.evalAsync("1 2 +").get(), 0.0);
+        var failed = processor.evalAsync("foo");
+        var e = assertThrows(ExecutionException.class, failed::get);
+        assertTrue(e.getCause() instanceof RPNCalcException);
+        var publisher = subscribe(processor);
+        assertEquals(2, publisher.requested);
+        e = assertThrows(ExecutionException.class, () -> processor.evalAsync("1").get());
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void testErrorsAndCancellationAreSignalled() {
+        var processor = new EvalProcessor(calc, Runnable::run, 8);
+        var publisher = subscribe(processor);
+        var collector = new Collector();
+        processor.subscribe(collector);
+        processor.onNext("1");
+        processor.onError(new IllegalStateException("Broker disconnected"));
+        assertFalse(collector.done.isDone());
+        collector.subscription.request(1);
+        assertEquals(1, collector.outcomes.size());
+        assertTrue(collector.done.isCompletedExceptionally());
+
+        var second = new Collector();
+        processor.subscribe(second);
+        assertTrue(second.done.isCompletedExceptionally());
+
+        var deferred = new ArrayList<Runnable>();
+        var cancelling = new EvalProcessor(calc, deferred::add, 8);
+        var subscriber = new Collector();
+        cancelling.subscribe(subscriber);
+        CompletableFuture<Double> pending = cancelling.evalAsync("2");
+        var upstream = subscribe(cancelling);
+        assertEquals(7, upstream.requested);
+        subscriber.subscription.cancel();
+        deferred.forEach(Runnable::run);
+        assertTrue(upstream.cancelled);
+        assertFalse(subscriber.done.isDone());
+        assertThrows(CancellationException.class, pending::join);
+
+        var invalid = new EvalProcessor(calc, Runnable::run, 8);
+        var bad = new Collector();
+        invalid.subscribe(bad);
+        bad.subscription.request(0);
+        assertTrue(bad.done.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testUnexpectedExceptionsNeverStallTheQueue() throws InterruptedException, ExecutionException {
+        var broken = new RPNCalc() {
+            @Override
+            public Double eval(CharSequence expr) throws RPNCalcException {
+                if (expr.toString().equals("boom")) {
+                    throw new IllegalStateException("Broken calculator");
+                }
+                return super.eval(expr);
+            }
+        };
+        var processor = new EvalProcessor(broken, Runnable::run, 4);
+        var e = assertThrows(ExecutionException.class, () -> processor.evalAsync("boom").get());
+        assertTrue(e.getCause() instanceof RPNCalcException);
+        assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        assertEquals(3.0, processor.evalAsync("1 2 +").get(), 0.0);
+        assertEquals(1, processor.getFailedCount());
+
+        var publisher = subscribe(processor);
+        var collector = new Collector() {
+            @Override
+            public void onComplete() {
+                super.onComplete();
+                throw new IllegalStateException("Broken subscriber");
+            }
+        };
+        processor.subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        processor.onNext("boom");
+        processor.onNext("2 3 *");
+        processor.onComplete();
+        assertEquals(2, collector.outcomes.size());
+        assertFalse(collector.outcomes.get(0).isSuccess());
+        assertEquals(6.0, collector.outcomes.get(1).getResult(), 0.0);
+        assertTrue(collector.done.isDone());
+        assertEquals(6, publisher.requested);
+        /* Draining was released, so futures are still failed rather than left pending */
+        assertThrows(ExecutionException.class, () -> processor.evalAsync("1").get());
+    }
+
+    @Test
+    public void testPublisherDrivesExecutorInOrder() throws Exception {
+        var executor = Executors.newFixedThreadPool(3);
+        try {
+            var processor = new EvalProcessor(calc, executor, 16);
+            var collector = new Collector() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    super.onSubscribe(subscription);
+                    subscription.request(Long.MAX_VALUE);
+                }
+            };
+            processor.subscribe(collector);
+            try (var publisher = new SubmissionPublisher<String>(executor, 4)) {
+                publisher.subscribe(processor);
+                for (int i = 0; i < 2000; i++) {
+                    publisher.submit(i + " a <= 1 +");
+                }
+            }
+            collector.done.get(10, TimeUnit.SECONDS);
+            assertEquals(2000, collector.outcomes.size());
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(i + 1.0, collector.outcomes.get(i).getResult(), 0.0);
+            }
+            assertEquals(1999.0, calc.getRegister("a"), 0.0);
+            assertTrue(processor.getPeakQueueSize() <= 16);
+            assertTrue(processor.getBusyNanos() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
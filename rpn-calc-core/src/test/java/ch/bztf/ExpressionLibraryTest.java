@@ -0,0 +1,174 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link ExpressionLibrary} class.
+ * The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class ExpressionLibraryTest {
+
+    /** The calculator instance expressions are compiled and evaluated on. */
+    private RPNCalc calc;
+
+    /** The library file. */
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        calc = new RPNCalc();
+        file = Files.createTempFile("rpn-calc", ".rpnl");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testLibraryEvaluatesLikeSource() throws IOException, RPNCalcException {
+        var exprs = new HashMap<String, String>();
+        exprs.put("area", "r r * 3.14159 *");
+        exprs.put("sum", "1 2 3 4 5 sum");
+        exprs.put("branch", "r 1 gt [ r 1 - ] [ 0 ] ifelse");
+        exprs.put("vector", "{1,2,3} 2 * sum");
+        exprs.put("zero", "1 -0.0 /");
+        calc.setRegister("r", 2.0);
+        ExpressionLibrary.write(calc, exprs, file);
+        var check = new RPNCalc();
+        check.setRegister("r", 2.0);
+        var library = ExpressionLibrary.open(file, calc);
+        assertEquals(exprs.size(), library.size());
+        for (Map.Entry<String, String> entry : exprs.entrySet()) {
+            assertTrue(library.contains(entry.getKey()));
+            assertEquals(entry.getValue(), library.getExpression(entry.getKey()));
+            assertEquals(check.eval(entry.getValue()), library.eval(entry.getKey()));
+            assertEquals(check.getLastStack(), calc.getLastStack());
+        }
+        assertFalse(library.contains("volume"));
+        assertNull(library.getExpression("volume"));
+        var e = assertThrows(RPNCalcException.class, () -> library.eval("volume"));
+        assertEquals("Unknown expression 'volume'", e.getMessage());
+    }
+
+    @Test
+    public void testStoresAndUndoBehaveLikeSource() throws IOException, RPNCalcException {
+        ExpressionLibrary.write(calc, Map.of("store", "7 a <= 1 [ a 1 + b <= ] if"), file);
+        var library = ExpressionLibrary.open(file, calc);
+        var check = new RPNCalc();
+        assertEquals(check.eval("7 a <= 1 [ a 1 + b <= ] if"), library.eval("store"));
+        assertEquals(check.getLastStack(), calc.getLastStack());
+        assertEquals(7.0, calc.getRegister("a"), 0.0);
+        assertEquals(8.0, calc.getRegister("b"), 0.0);
+        calc.undo();
+        assertEquals(0.0, calc.getRegister("a"), 0.0);
+        assertEquals(0.0, calc.getRegister("b"), 0.0);
+    }
+
+    @Test
+    public void testDecimalLiteralsKeepTheirScale() throws IOException, RPNCalcException {
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        calc.setPrecision(RPNCalc.MAX_PRECISION);
+        ExpressionLibrary.write(calc, Map.of("tenths", "0.1 0.2 +", "cents", "1.00 1.0 +"), file);
+        var library = ExpressionLibrary.open(file, calc);
+        var check = new RPNCalc();
+        check.setMode(RPNCalc.Mode.DECIMAL);
+        check.setPrecision(RPNCalc.MAX_PRECISION);
+        library.eval("tenths");
+        check.eval("0.1 0.2 +");
+        assertEquals(check.getFormattedLastResult(), calc.getFormattedLastResult());
+        library.eval("cents");
+        check.eval("1.00 1.0 +");
+        assertEquals(check.getFormattedStackEntry(0), calc.getFormattedStackEntry(0));
+    }
+
+    @Test
+    public void testErrorsPointAtTheSameToken() throws IOException, RPNCalcException {
+        ExpressionLibrary.write(calc, Map.of("div", "1 2 + + 3 *"), file);
+        var library = ExpressionLibrary.open(file, calc);
+        var expected = assertThrows(RPNCalcException.class, () -> new RPNCalc().eval("1 2 + + 3 *"));
+        var e = assertThrows(RPNCalcException.class, () -> library.eval("div"));
+        assertEquals(expected.getMessage(), e.getMessage());
+        var compile = assertThrows(RPNCalcException.class,
+                                   () -> ExpressionLibrary.write(calc, Map.of("bad", "1 foo"), file));
+        assertTrue(compile.getMessage().startsWith("Expression 'bad': Unrecognized symbol"));
+    }
+
+    @Test
+    public void testSymbolsAreValidatedOnDecode() throws IOException, RPNCalcException {
+        calc.addRegister("rate", 0.05);
+        ExpressionLibrary.write(calc, Map.of("interest", "100 rate *", "plain", "1 2 +"), file);
+        var library = ExpressionLibrary.open(file, new RPNCalc());
+        assertEquals(3.0, library.eval("plain"), 0.0);
+        var e = assertThrows(RPNCalcException.class, () -> library.eval("interest"));
+        assertTrue(e.getMessage().startsWith("Library expression 'interest' reads unknown register"));
+    }
+
+    @Test
+    public void testCorruptFilesAreRejected() throws IOException, RPNCalcException {
+        Files.write(file, new byte[] { 'R', 'P', 'N' });
+        assertThrows(IOException.class, () -> ExpressionLibrary.open(file, calc));
+        ExpressionLibrary.write(calc, Map.of("one", "1"), file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[5] = 2;
+        Files.write(file, bytes);
+        Exception e = assertThrows(IOException.class, () -> ExpressionLibrary.open(file, calc));
+        assertEquals("Unsupported library version 2", e.getMessage());
+        bytes[5] = 1;
+        int code = ByteBuffer.wrap(bytes).getInt(36);
+        bytes[code + 5] = 9; // Unknown opcode of the first instruction
+        Files.write(file, bytes);
+        var library = ExpressionLibrary.open(file, calc);
+        e = assertThrows(RPNCalcException.class, () -> library.eval("one"));
+        assertEquals("Library expression 'one' is corrupt", e.getMessage());
+    }
+
+    @Test
+    public void testCorruptIndexIsRejected() throws IOException, RPNCalcException {
+        ExpressionLibrary.write(calc, Map.of("one", "1", "two", "2"), file);
+        byte[] bytes = Files.readAllBytes(file);
+        var buffer = ByteBuffer.wrap(bytes);
+        int index = buffer.getInt(20);
+        int name = buffer.getInt(index);
+        buffer.putInt(20, bytes.length - 8); // Index running past the end of the file
+        Files.write(file, bytes);
+        Exception e = assertThrows(IOException.class, () -> ExpressionLibrary.open(file, calc));
+        assertEquals("Truncated expression library", e.getMessage());
+        buffer.putInt(20, index);
+        buffer.putInt(index, bytes.length + 100); // Name outside the file
+        Files.write(file, bytes);
+        var outside = ExpressionLibrary.open(file, calc);
+        e = assertThrows(RPNCalcException.class, () -> outside.contains("one"));
+        assertEquals("Library index is corrupt at entry 0", e.getMessage());
+        buffer.putInt(index, -4);
+        Files.write(file, bytes);
+        var negative = ExpressionLibrary.open(file, calc);
+        assertThrows(RPNCalcException.class, () -> negative.eval("one"));
+        buffer.putInt(index, name);
+        buffer.putShort(name, (short)0xffff); // Name longer than the rest of the file
+        Files.write(file, bytes);
+        var truncated = ExpressionLibrary.open(file, calc);
+        e = assertThrows(RPNCalcException.class, () -> truncated.getExpression("one"));
+        assertEquals("Library index is corrupt at entry 0", e.getMessage());
+        buffer.putShort(name, (short)3);
+        buffer.putInt(buffer.getInt(index + 12), bytes.length); // Source of 'two' outside the file
+        Files.write(file, bytes);
+        var source = ExpressionLibrary.open(file, calc);
+        assertEquals("1", source.getExpression("one"));
+        e = assertThrows(RPNCalcException.class, () -> source.getExpression("two"));
+        assertEquals("Library expression 'two' is corrupt", e.getMessage());
+    }
+}
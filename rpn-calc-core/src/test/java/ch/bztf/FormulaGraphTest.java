@@ -0,0 +1,56 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link FormulaGraph} class.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class FormulaGraphTest {
+
+    @Test
+    public void testLevelsFollowTopologicalOrder() {
+        var graph = new FormulaGraph();
+        graph.define("b", "a 1 +", List.of("a"));
+        graph.define("c", "a 2 +", List.of("a"));
+        graph.define("d", "b c +", List.of("b", "c"));
+        graph.define("e", "d a +", List.of("d", "a"));
+        graph.define("y", "x", List.of("x"));
+        assertEquals(
+            List.of(List.of("b", "c"), List.of("d"), List.of("e")),
+            graph.levels(List.of("a"))
+        );
+        assertEquals(List.of(List.of("d"), List.of("e")), graph.levels(List.of("c")));
+        assertEquals(List.of(), graph.levels(List.of("e")));
+    }
+
+    @Test
+    public void testCyclesAreFound() {
+        var graph = new FormulaGraph();
+        graph.define("b", "a", List.of("a"));
+        graph.define("c", "b", List.of("b"));
+        assertEquals("c", graph.findCycle("a", List.of("x", "c")));
+        assertEquals("a", graph.findCycle("a", List.of("a")));
+        assertNull(graph.findCycle("d", List.of("c")));
+    }
+
+    @Test
+    public void testRemovingFormulaDropsEdges() {
+        var graph = new FormulaGraph();
+        graph.define("b", "a", List.of("a"));
+        graph.define("b", "c", List.of("c")); // Redefinition replaces edges
+        assertEquals(Set.of("c"), graph.inputsOf("b"));
+        assertEquals(List.of(), graph.levels(List.of("a")));
+        assertTrue(graph.remove("b"));
+        assertFalse(graph.isFormula("b"));
+        assertEquals(List.of(), graph.levels(List.of("c")));
+        assertFalse(graph.remove("b"));
+    }
+}
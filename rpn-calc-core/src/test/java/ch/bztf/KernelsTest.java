@@ -0,0 +1,130 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link Kernels} class.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class KernelsTest {
+
+    /** The delta to be used in double assertions using an epsilon. */
+    private static final double delta = 1.0e-12;
+
+    /**
+     * Helper function which builds a vector of the given length
+     * whose elements are not trivially related to their index.
+     * 
+     * @param n The vector length.
+     * @param seed Varies the elements between vectors.
+     * @return The vector.
+     */
+    private static double[] vectorOf(int n, int seed) {
+        var x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = ((i * 31 + seed * 17) % 101) - 50.5;
+        }
+        return x;
+    }
+
+    @Test
+    public void testBinaryKernelsMatchScalarArithmetic() {
+        String[] ops = { "+", "-", "*", "/", "mod", "rem", "pow" };
+        /* Odd lengths make sure tails after full SIMD lanes are handled */
+        for (int n : new int[] { 0, 1, 7, 1023 }) {
+            double[] l = vectorOf(n, 1);
+            double[] r = vectorOf(n, 2);
+            for (String op : ops) {
+                double[] both = Kernels.binary(op, l, r);
+                double[] left = Kernels.binary(op, l, 3.0);
+                double[] right = Kernels.binary(op, 3.0, r);
+                for (int i = 0; i < n; i++) {
+                    assertEquals(op, scalar(op, l[i], r[i]), both[i], delta);
+                    assertEquals(op, scalar(op, l[i], 3.0), left[i], delta);
+                    assertEquals(op, scalar(op, 3.0, r[i]), right[i], delta);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testComparisonKernels() {
+        double[] l = { 1.0, 2.0, 3.0, Double.NaN };
+        double[] r = { 2.0, 2.0, 2.0, 2.0 };
+        assertArrayEquals(new double[] { 1, 0, 0, 0 }, Kernels.binary("lt", l, r), 0.0);
+        assertArrayEquals(new double[] { 1, 1, 0, 0 }, Kernels.binary("le", l, 2.0), 0.0);
+        assertArrayEquals(new double[] { 0, 0, 1, 0 }, Kernels.binary("gt", l, r), 0.0);
+        assertArrayEquals(new double[] { 0, 1, 1, 0 }, Kernels.binary("ge", l, r), 0.0);
+        assertArrayEquals(new double[] { 0, 1, 0, 0 }, Kernels.binary("eq", 2.0, l), 0.0);
+        assertArrayEquals(new double[] { 1, 0, 1, 1 }, Kernels.binary("ne", 2.0, l), 0.0);
+        assertEquals(0, Kernels.relations("+"));
+    }
+
+    /**
+     * Helper function which applies a binary operator to two scalars,
+     * the same way {@link RPNCalc} does.
+     * 
+     * @param op The binary operator in string form.
+     * @param l The left operand.
+     * @param r The right operand.
+     * @return The calculation result.
+     */
+    private static double scalar(String op, double l, double r) {
+        switch (op) {
+            case "+":   return l + r;
+            case "-":   return l - r;
+            case "*":   return l * r;
+            case "/":   return l / r;
+            case "mod": return l - r * Math.floor(l / r);
+            case "rem": return l % r;
+            default:    return Math.pow(l, r);
+        }
+    }
+
+    @Test
+    public void testUnaryKernelsApplyToEachElement() {
+        double[] x = vectorOf(13, 3);
+        double[] abs = Kernels.unary("abs", x);
+        double[] neg = Kernels.unary("neg", x);
+        double[] sqrt = Kernels.unary("sqrt", abs);
+        for (int i = 0; i < x.length; i++) {
+            assertEquals(Math.abs(x[i]), abs[i], 0.0);
+            assertEquals(-x[i], neg[i], 0.0);
+            assertEquals(Math.sqrt(abs[i]), sqrt[i], 0.0);
+        }
+        assertArrayEquals(vectorOf(13, 3), x, 0.0); // Inputs stay untouched
+    }
+
+    @Test
+    public void testReductionsCoverAllElements() {
+        double[] x = vectorOf(1001, 4);
+        double sum = 0.0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double element : x) {
+            sum += element;
+            min = Math.min(min, element);
+            max = Math.max(max, element);
+        }
+        assertEquals(sum, Kernels.reduce("sum", x), 1.0e-9);
+        assertEquals(sum / x.length, Kernels.reduce("avg", x), 1.0e-9);
+        assertEquals(min, Kernels.reduce("min", x), 0.0);
+        assertEquals(max, Kernels.reduce("max", x), 0.0);
+        assertEquals(1001.0, Kernels.reduce("cnt", x), 0.0);
+        assertTrue(Double.isNaN(Kernels.reduce("min", new double[0])));
+    }
+
+    @Test
+    public void testAccumulateCombinesInPlace() {
+        var acc = new double[] { 1.0, 5.0 };
+        Kernels.accumulate("+", acc, new double[] { 2.0, 2.0 });
+        assertArrayEquals(new double[] { 3.0, 7.0 }, acc, 0.0);
+        Kernels.accumulate("min", acc, 4.0);
+        assertArrayEquals(new double[] { 3.0, 4.0 }, acc, 0.0);
+        assertThrows(ArithmeticException.class, () -> Kernels.accumulate("max", acc, new double[3]));
+    }
+}
@@ -0,0 +1,137 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link Limits} class and
+ * the enforcement of its budgets during evaluation.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class LimitsTest {
+
+    /** The delta to be used in double assertions using an epsilon. */
+    private static final double delta = 1.0e-15;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    @Before
+    public void setUp() {
+        calc = new RPNCalc();
+    }
+
+    /**
+     * Helper function which evaluates an expression expected to exceed a limit.
+     * 
+     * @param expr The RPN expression.
+     * @param limits The budgets of the evaluation.
+     * @param resource The resource expected to be exhausted.
+     * @return The raised exception.
+     */
+    private RPNCalcException assertExceeds(String expr, Limits limits, LimitExceededException.Resource resource) {
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval(expr, limits));
+        assertTrue(e.getCause() instanceof LimitExceededException);
+        assertEquals(resource, ((LimitExceededException)e.getCause()).getResource());
+        return e;
+    }
+
+    @Test
+    public void testWithersValidateAndCopy() {
+        Limits limits = Limits.NONE.withMaxTokens(10).withMaxStackDepth(3);
+        assertTrue(Limits.NONE.isUnlimited());
+        assertFalse(limits.isUnlimited());
+        assertEquals(10, limits.getMaxTokens());
+        assertEquals(3, limits.getMaxStackDepth());
+        assertEquals(Long.MAX_VALUE, limits.getMaxBytes());
+        assertEquals(Long.MAX_VALUE, Limits.NONE.getMaxTokens());
+        assertEquals(Duration.ofMillis(5), limits.withMaxTime(Duration.ofMillis(5)).getMaxTime());
+        assertThrows(IllegalArgumentException.class, () -> Limits.NONE.withMaxTokens(0));
+        assertThrows(IllegalArgumentException.class, () -> Limits.NONE.withMaxStackDepth(-1));
+        assertThrows(IllegalArgumentException.class, () -> Limits.NONE.withMaxBytes(0));
+        assertThrows(IllegalArgumentException.class, () -> Limits.NONE.withMaxTime(Duration.ZERO));
+    }
+
+    @Test
+    public void testTokenLimit() throws RPNCalcException {
+        Limits limits = Limits.NONE.withMaxTokens(3);
+        assertEquals(3.0, calc.eval("1 2 +", limits), delta);
+        var e = assertExceeds("1 2 + 3 +", limits, LimitExceededException.Resource.TOKENS);
+        assertEquals("Token limit of 3 exceeded ('3' at index 3, offset 6)", e.getMessage());
+        assertEquals(3, e.getIndex());
+    }
+
+    @Test
+    public void testStackDepthLimit() throws RPNCalcException {
+        Limits limits = Limits.NONE.withMaxStackDepth(2);
+        assertEquals(10.0, calc.eval("1 2 + 3 + 4 +", limits), delta);
+        var e = assertExceeds("1 2 3 + +", limits, LimitExceededException.Resource.STACK_DEPTH);
+        assertEquals(2, e.getIndex());
+        assertEquals(2, ((LimitExceededException)e.getCause()).getLimit());
+    }
+
+    @Test
+    public void testMemoryLimitCountsVectors() throws RPNCalcException {
+        Limits limits = Limits.NONE.withMaxBytes(1024);
+        calc.eval("{1,2,3} 2 *", limits);
+        calc.setRegister("v", new double[256]);
+        assertExceeds("v", limits, LimitExceededException.Resource.BYTES);
+    }
+
+    @Test
+    public void testMemoryLimitStopsHugeTokenWhileReading() {
+        String expr = "1 " + "9".repeat(100_000);
+        Limits limits = Limits.NONE.withMaxBytes(16 * 1024);
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval(new StringReader(expr), limits));
+        assertEquals(LimitExceededException.Resource.BYTES, ((LimitExceededException)e.getCause()).getResource());
+        assertEquals(1, e.getIndex());
+        assertEquals(2, e.getOffset());
+        assertEquals("9".repeat(32) + "...", e.getToken());
+    }
+
+    @Test
+    public void testTimeLimit() {
+        String expr = "1 ".repeat(1000);
+        assertExceeds(expr, Limits.NONE.withMaxTime(Duration.ofNanos(1)), LimitExceededException.Resource.TIME);
+    }
+
+    @Test
+    public void testExceededLimitRollsBack() throws RPNCalcException {
+        calc.eval("1 a <=");
+        calc.setLimits(Limits.NONE.withMaxStackDepth(1));
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("5 a <= 1 2"));
+        assertTrue(e.getCause() instanceof LimitExceededException);
+        assertEquals(1.0, calc.getRegister("a"), delta);
+        assertEquals(3.0, calc.eval("1 2 +", Limits.NONE), delta); // Overrides calculator limits
+    }
+
+    @Test(timeout = 10000)
+    public void testRecomputedFormulasShareTheBudget() throws RPNCalcException {
+        calc.setFormula("b", "a 1 + 2 * 3 -");
+        calc.setLimits(Limits.NONE.withMaxTokens(3));
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("4 a <="));
+        assertTrue(e.getCause() instanceof LimitExceededException);
+        assertEquals(0.0, calc.getRegister("a"), delta); // Rolled back
+        assertEquals(-1.0, calc.getRegister("b"), delta);
+        calc.setLimits(Limits.NONE.withMaxTokens(10)); // Three tokens, and seven of the formula
+        assertEquals(4.0, calc.eval("4 a <="), delta);
+        assertEquals(7.0, calc.getRegister("b"), delta);
+        calc.setLimits(Limits.NONE);
+        calc.setFormula("c", "0 a range sum");
+        assertExceeds("1e15 a <=", Limits.NONE.withMaxTime(Duration.ofMillis(50)), LimitExceededException.Resource.TIME);
+        assertEquals(4.0, calc.getRegister("a"), delta);
+        assertEquals(10.0, calc.getRegister("c"), delta);
+        for (char reg = 'e'; reg <= 'h'; reg++) {
+            calc.setFormula(reg + "", "0 a range cnt"); // Enough for a parallel level
+        }
+        assertExceeds("1e15 a <=", Limits.NONE.withMaxTime(Duration.ofMillis(50)), LimitExceededException.Resource.TIME);
+        assertEquals(5.0, calc.getRegister("e"), delta);
+    }
+}
@@ -0,0 +1,97 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.util.EmptyStackException;
+import java.util.Stack;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link PersistentStack} class.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class PersistentStackTest {
+
+    /**
+     * Helper function which builds a mutable stack from its elements.
+     * 
+     * @param values The elements, from the bottom up.
+     * @return The mutable stack.
+     */
+    private static Stack<Double> stackOf(Double... values) {
+        var stack = new Stack<Double>();
+        for (Double value : values) {
+            stack.push(value);
+        }
+        return stack;
+    }
+
+    @Test
+    public void testPushingDoesNotModifyOriginal() {
+        PersistentStack<Double> empty = PersistentStack.empty();
+        PersistentStack<Double> one = empty.push(1.0);
+        PersistentStack<Double> two = one.push(2.0);
+        assertTrue(empty.isEmpty());
+        assertEquals(1, one.size());
+        assertEquals(2, two.size());
+        assertEquals(2.0, two.peek(), 0.0);
+        assertSame(one, two.pop());
+    }
+
+    @Test
+    public void testAccessingEmptyStackThrows() {
+        assertThrows(EmptyStackException.class, () -> PersistentStack.empty().peek());
+        assertThrows(EmptyStackException.class, () -> PersistentStack.empty().pop());
+    }
+
+    @Test
+    public void testConvertingPreservesOrder() {
+        Stack<Double> stack = stackOf(1.0, 2.0, 3.0);
+        PersistentStack<Double> copy = PersistentStack.of(stack);
+        assertEquals(3.0, copy.peek(), 0.0);
+        assertEquals(stack, copy.toStack());
+        assertArrayEquals(new Object[] { 1.0, 2.0, 3.0 }, copy.toArray());
+    }
+
+    @Test
+    public void testSharingReusesUnchangedBottomNodes() {
+        PersistentStack<Double> base = PersistentStack.of(stackOf(1.0, 2.0, 3.0));
+        Stack<Double> copy = base.toStack();
+        copy.pop();
+        copy.push(5.0);
+        copy.push(6.0);
+        PersistentStack<Double> shared = base.share(copy);
+        assertArrayEquals(new Object[] { 1.0, 2.0, 5.0, 6.0 }, shared.toArray());
+        assertSame(base.pop(), shared.pop().pop());
+        /* An untouched copy shares everything */
+        assertSame(base, base.share(base.toStack()));
+        /* A replaced element prevents sharing from there on */
+        copy = base.toStack();
+        copy.set(1, 2.0);
+        assertSame(base.pop().pop(), base.share(copy).pop().pop());
+        copy.set(0, 9.0);
+        PersistentStack<Double> fresh = base.share(copy);
+        assertArrayEquals(new Object[] { 9.0, 2.0, 3.0 }, fresh.toArray());
+        assertNotSame(base.pop(), fresh.pop());
+    }
+
+    @Test
+    public void testSharingIsConservative() {
+        PersistentStack<Double> base = PersistentStack.of(stackOf(1.0, 2.0, 3.0));
+        /* Equal content is not searched for, as that would take linear time */
+        PersistentStack<Double> other = base.share(stackOf(1.0, 2.0, 3.0));
+        assertArrayEquals(base.toArray(), other.toArray());
+        assertNotSame(base.pop().pop(), other.pop().pop());
+        /* A copy of another stack is not shared */
+        assertNotSame(other, base.share(other.toStack()));
+        /* Untracked modifications count as changing everything */
+        Stack<Double> copy = base.toStack();
+        copy.add(3, 4.0);
+        PersistentStack<Double> inserted = base.share(copy);
+        assertArrayEquals(new Object[] { 1.0, 2.0, 3.0, 4.0 }, inserted.toArray());
+        assertNotSame(base, inserted.pop());
+    }
+}
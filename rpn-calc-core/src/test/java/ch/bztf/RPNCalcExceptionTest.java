@@ -0,0 +1,47 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link RPNCalcException} class.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class RPNCalcExceptionTest {
+    
+    @Test
+    public void testPlainExceptionProvidesCorrectMessage() {
+        assertEquals("Test message", new RPNCalcException("Test message").getMessage());
+    }
+
+    @Test
+    public void testDetailedExceptionProvidesCorrectMessage() {
+        assertEquals(
+            "Stack underflow ('<-' at index 0)", 
+            new RPNCalcException("Stack underflow", "<-", 0).getMessage()
+        );
+    }
+
+    @Test
+    public void testPositionedExceptionProvidesCorrectMessage() {
+        assertEquals(
+            "Stack underflow ('+' at index 2, offset 4)", 
+            new RPNCalcException("Stack underflow", "+", 2, 4).getMessage()
+        );
+    }
+
+    @Test
+    public void testExceptionProvidesPosition() {
+        var plain = new RPNCalcException("Test message");
+        assertNull(plain.getToken());
+        assertEquals(-1, plain.getIndex());
+        assertEquals(-1, plain.getOffset());
+        var positioned = new RPNCalcException("Stack underflow", "+", 2, 4);
+        assertEquals("+", positioned.getToken());
+        assertEquals(2, positioned.getIndex());
+        assertEquals(4, positioned.getOffset());
+    }
+}
@@ -0,0 +1,1013 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link RPNCalc} class.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class RPNCalcTest {
+    
+    /** The delta to be used in double assertions using an epsilon. */
+    private static final double delta = 1.0e-15;
+
+    /** The calculator instance under test. */
+    private RPNCalc calc;
+
+    @Before
+    public void setUp() {
+        calc = new RPNCalc();
+    }
+
+    @Test
+    public void testSettingPrecisionReturnsCorrectValue() {
+        /* Set via constructor */
+        assertEquals(11, new RPNCalc(11).getPrecision());
+        /* Set via absolute value */
+        assertEquals(0, calc.setPrecision(0));
+        assertEquals(RPNCalc.MAX_PRECISION, calc.setPrecision(RPNCalc.MAX_PRECISION));
+        /* Set via relative value */
+        calc.setPrecision(1);
+        assertEquals(0, calc.shiftPrecision(-1));
+        calc.setPrecision(RPNCalc.MAX_PRECISION-1);
+        assertEquals(RPNCalc.MAX_PRECISION, calc.shiftPrecision(+1));
+    }
+
+    @Test
+    public void testSettingPrecisionThrowsOnOutOfBounds() {
+        /* Set via constructor */
+        assertThrows(IllegalArgumentException.class, () -> new RPNCalc(-1));
+        assertThrows(IllegalArgumentException.class, () -> new RPNCalc(RPNCalc.MAX_PRECISION+1));
+        /* Set via absolute value */
+        assertThrows(IllegalArgumentException.class, () -> calc.setPrecision(-1));
+        assertThrows(IllegalArgumentException.class, () -> calc.setPrecision(RPNCalc.MAX_PRECISION+1));
+        /* Set via relative value */
+        calc.setPrecision(0);
+        assertThrows(IllegalArgumentException.class, () -> calc.shiftPrecision(-1));
+        calc.setPrecision(RPNCalc.MAX_PRECISION);
+        assertThrows(IllegalArgumentException.class, () -> calc.shiftPrecision(+1));
+    }
+
+    @Test
+    public void testConstructorInitializesDefaultRegisters() {
+        for (char c = 'a'; c <= 'z'; c++) {
+            assertEquals(0.0, calc.getRegister(c + ""), 0.0);
+        }
+    }
+
+    @Test
+    public void testAccessingValidRegisterReturnsCorrectValue() {
+        assertTrue(calc.setRegister("a", 1.0));
+        assertEquals(1.0, calc.getRegister("a"), 0.0);
+    }
+
+    @Test
+    public void testAccessingInvalidRegisterIsNoOp() {
+        assertFalse(calc.setRegister("A", 1.0));
+        assertNull(calc.getRegister("A"));
+    }
+
+    @Test
+    public void testAddingNewRegisterStoresCorrectValue() {
+        assertTrue(calc.addRegister("PI", Math.PI));
+        assertEquals(Math.PI, calc.getRegister("PI"), 0.0);
+    }
+
+    @Test
+    public void testAddingExistingRegisterIsNoOp() {
+        /* Default register */
+        assertFalse(calc.addRegister("e", 3.0));
+        assertEquals(0.0, calc.getRegister("e"), 0.0);
+        /* Manually added register */
+        assertTrue(calc.addRegister("E", Math.E));
+        assertFalse(calc.addRegister("E", 0.0));
+        assertEquals(Math.E, calc.getRegister("E"), 0.0);
+    }
+
+    @Test
+    public void testEvaluatingUnaryExpressionReturnsCorrectResult() throws RPNCalcException {
+        assertEquals(-0.01, calc.eval("-1 %"),     delta);
+        assertEquals( -6.0, calc.eval("6 neg"),    delta);
+        assertEquals(  0.9, calc.eval("-0.9 abs"), delta);
+        assertEquals( 25.0, calc.eval("5 pow2"),   delta);
+        assertEquals( 12.0, calc.eval("144 sqrt"), delta);
+    }
+
+    @Test
+    public void testEvaluatingBinaryExpressionReturnsCorrectResult() throws RPNCalcException {
+        assertEquals( 5.0, calc.eval("2 3 +"),     delta);
+        assertEquals(-1.0, calc.eval("2 3 -"),     delta);
+        assertEquals( 1.5, calc.eval("3 2 /"),     delta);
+        assertEquals(12.0, calc.eval("4 3 *"),     delta);
+        assertEquals( 3.0, calc.eval("-21 4 mod"), delta);
+        assertEquals(-1.0, calc.eval("-21 4 rem"), delta);
+        assertEquals( 8.0, calc.eval("2 3 pow"),   delta);
+    }
+
+    @Test
+    public void testEvaluatingNAryExpressionReturnsCorrectResult() throws RPNCalcException {
+        assertEquals(-3.0, calc.eval("2 -10 5 sum"),         delta);
+        assertEquals( 4.0, calc.eval("8 4 3 1 avg"),         delta);
+        assertEquals(-1.0, calc.eval("-1 0 +1 min"),         delta);
+        assertEquals(21.0, calc.eval("12 0.6 2.1e1 20 max"), delta);
+        assertEquals( 6.0, calc.eval("1 2 3 a b c cnt"),     delta);
+    }
+
+    @Test
+    public void testEvaluatingNAryExpressionHandlesOneOperand() throws RPNCalcException {
+        assertEquals(   144.0,                 calc.eval("144 sum"),      delta);
+        assertEquals(100000.0,                 calc.eval("1e5 avg"),      delta);
+        assertEquals(Double.NaN,               calc.eval("NaN min"),      delta);
+        assertEquals(Double.POSITIVE_INFINITY, calc.eval("Infinity max"), delta);
+        assertEquals(     1.0,                 calc.eval("0 cnt"),        delta);
+    }
+
+    @Test
+    public void testEvaluatingComplexExpressionReturnsCorrectResult() throws RPNCalcException {
+        assertEquals(18.0,               calc.eval("4 1.5 3 + * abs"),         delta);
+        assertEquals( 7.018333135438927, calc.eval("12.143 neg 61.4 + sqrt"),  delta);
+        assertEquals(15.0,               calc.eval("1 2 3 sum 1 2 3 avg 5 *"), delta);
+    }
+
+    @Test
+    public void testEvaluatingExpressionIgnoresExtraneousWhitespace() throws RPNCalcException {
+        assertEquals(1.0, calc.eval(" 1 1 *"),         delta); // Leading
+        assertEquals(5.0, calc.eval("20 4 / "),        delta); // Trailing
+        assertEquals(1.0, calc.eval(" 11 5 rem "),     delta); // Surrounding
+        assertEquals(4.0, calc.eval("1024   1020\t-"), delta); // Inbetween
+    }
+
+    @Test
+    public void testEvaluatingExpressionStoresCorrectValueInRegister() throws RPNCalcException {
+        /* Default register */
+        assertEquals(1.0, calc.eval("1.0 a <="), delta);
+        assertEquals(1.0, calc.getRegister("a"), delta);
+        /* Manually added register */
+        assertTrue(calc.addRegister("special", 0.0));
+        assertEquals(3.5, calc.eval("2.0 1.5 + special <="), delta);
+        assertEquals(3.5, calc.getRegister("special"), delta);
+        /* Register chaining */
+        assertEquals(1.0, calc.eval("a b <= c <= special <="), delta);
+        assertEquals(1.0, calc.getRegister("a"), delta);
+        assertEquals(1.0, calc.getRegister("b"), delta);
+        assertEquals(1.0, calc.getRegister("c"), delta);
+        assertEquals(1.0, calc.getRegister("special"), delta);
+    }
+
+    @Test
+    public void testEvaluatingExpressionReturnsInfinityOnDivisionByZero() throws RPNCalcException {
+        assertEquals(Double.POSITIVE_INFINITY, calc.eval("1 0 /"),             0.0);
+        assertEquals(Double.NEGATIVE_INFINITY, calc.eval("1 neg 2 3 + 5 - /"), 0.0);
+    }
+
+    @Test
+    public void testEvaluatingExpressionThrowsOnBlankOrEmpty() {
+        assertThrows(RPNCalcException.class, () -> calc.eval(""));
+        assertThrows(RPNCalcException.class, () -> calc.eval(" "));
+        assertThrows(RPNCalcException.class, () -> calc.eval("\t"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("   \t  "));
+    }
+
+    @Test
+    public void testEvaluatingExpressionThrowsOnStackUnderflow() {
+        assertThrows(RPNCalcException.class, () -> calc.eval("neg"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("pow"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 +"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("2 3 * /"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("cnt"));
+    }
+
+    @Test
+    public void testEvaluatingExpressionThrowsOnUnrecognizedSymbol() {
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 2 po"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("4 PI +"));
+    }
+
+    @Test
+    public void testConstantsAreInlinedAndReadOnly() throws RPNCalcException {
+        calc.setConstants(Constants.DEFAULT);
+        assertEquals(Math.PI + 4, calc.eval("4 PI +"), delta);
+        assertEquals(Math.E, calc.eval("E z <="), delta);
+        assertEquals(Math.E, calc.getRegister("z"), delta);
+        assertTrue(Double.isNaN(calc.eval("NAN")));
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("1 a <= 2 PI <="));
+        assertTrue(e.getMessage().startsWith("Cannot store into a constant"));
+        assertEquals("PI", e.getToken());
+        assertEquals(4, e.getIndex());
+        assertEquals(0.0, calc.getRegister("a"), delta);
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("[ 1 E <= ] 1 if"));
+        assertEquals("E", e.getToken());
+        assertFalse(calc.addRegister("PI", 3.0));
+        assertNull(calc.getRegister("PI"));
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertEquals(Math.PI, calc.eval("PI"), delta);
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("1 INF +"));
+        assertEquals("INF", e.getToken());
+    }
+
+    @Test
+    public void testConstantsAreSharedAndValidated() throws RPNCalcException {
+        var constants = Constants.NONE.with("G", 6.6743e-11);
+        var other = new RPNCalc();
+        calc.setConstants(constants);
+        other.setConstants(constants);
+        assertEquals(calc.eval("G 2 *"), other.eval("G 2 *"));
+        assertSame(constants, other.getConstants());
+        assertFalse(Constants.NONE.contains("G"));
+        assertThrows(IllegalArgumentException.class, () -> Constants.NONE.with("1e3", 1.0));
+        assertThrows(IllegalArgumentException.class, () -> Constants.NONE.with("two words", 1.0));
+        assertThrows(IllegalArgumentException.class, () -> calc.setConstants(Constants.NONE.with("a", 1.0)));
+        assertThrows(IllegalArgumentException.class, () -> calc.setConstants(Constants.NONE.with("sqrt", 1.0)));
+        assertSame(constants, calc.getConstants());
+    }
+
+    @Test
+    public void testGettingResultsReturnsNullOnUnderlyingNull() {
+        assertNull(calc.getLastResult());
+        assertNull(calc.getLastStack());
+    }
+
+    @Test
+    public void testGettingFormattedResultsReturnsEmptyStringOnUnderlyingNull() {
+        assertEquals("", calc.getFormattedLastResult());
+        assertEquals("", calc.getFormattedLastStack());
+    }
+
+    @Test
+    public void testGettingResultsReturnsAllOnCompleteEvaluation() throws RPNCalcException {
+        calc.eval("5 2 - 1 -");
+        /* Formatted results */
+        assertEquals("2.000", calc.getFormattedLastResult());
+        assertEquals("2.000", calc.getFormattedLastStack());
+        /* Plain results */
+        assertEquals(2.0, calc.getLastResult(), delta);
+        assertEquals(2.0, calc.getLastStack().pop(), delta);
+        assertTrue(calc.getLastStack().empty());
+    }
+
+    @Test
+    public void testGettingResultsReturnsStackOnPartialEvaulation() throws RPNCalcException {
+        calc.setPrecision(2);
+        calc.setRegister("a", 120.765);
+        calc.eval("a 45 3.4 c <= 2 +");
+        /* Formatted results */
+        assertEquals("", calc.getFormattedLastResult());
+        assertEquals("120.77 45.00 5.40", calc.getFormattedLastStack());
+        /* Plain results */
+        assertNull(calc.getLastResult());
+        assertEquals(5.4,     calc.getLastStack().pop(), delta);
+        assertEquals(45.0,    calc.getLastStack().pop(), delta);
+        assertEquals(120.765, calc.getLastStack().pop(), delta);
+        assertTrue(calc.getLastStack().empty());
+    }
+
+    @Test
+    public void testGettingResultsReturnsInfinityCorrectly() throws RPNCalcException {
+        calc.eval("-Infinity neg");
+        /* Formatted results */
+        assertEquals("Infinity", calc.getFormattedLastResult());
+        assertEquals("Infinity", calc.getFormattedLastStack());
+        /* Plain results */
+        assertEquals(Double.POSITIVE_INFINITY, calc.getLastResult(), delta);
+        assertEquals(Double.POSITIVE_INFINITY, calc.getLastStack().pop(), delta);
+        assertTrue(calc.getLastStack().empty());
+    }
+
+    @Test
+    public void testGettingResultsReturnsNaNCorrectly() throws RPNCalcException {
+        calc.eval("0.0 0.0 /");
+        /* Formatted results */
+        assertEquals("NaN", calc.getFormattedLastResult());
+        assertEquals("NaN", calc.getFormattedLastStack());
+        /* Plain results */
+        assertEquals(Double.NaN, calc.getLastResult(), delta);
+        assertEquals(Double.NaN, calc.getLastStack().pop(), delta);
+        assertTrue(calc.getLastStack().empty());
+    }
+
+    @Test
+    public void testUndoingWithoutHistoryIsNoOp() {
+        assertFalse(calc.canUndo());
+        assertFalse(calc.undo());
+        assertFalse(calc.canRedo());
+        assertFalse(calc.redo());
+    }
+
+    @Test
+    public void testUndoingRestoresPreviousStackAndRegisters() throws RPNCalcException {
+        calc.eval("1 2");
+        calc.eval("7 a <= 3 *");
+        assertEquals(21.0, calc.getLastResult(), delta);
+        assertEquals( 7.0, calc.getRegister("a"), delta);
+        /* Step back to the first evaluation */
+        assertTrue(calc.undo());
+        assertNull(calc.getLastResult());
+        assertEquals("1.000 2.000", calc.getFormattedLastStack());
+        assertEquals(0.0, calc.getRegister("a"), delta);
+        /* Step back to the initial state */
+        assertTrue(calc.undo());
+        assertNull(calc.getLastStack());
+        assertEquals("", calc.getFormattedLastStack());
+        assertFalse(calc.undo());
+    }
+
+    @Test
+    public void testRedoingReappliesUndoneSteps() throws RPNCalcException {
+        calc.eval("7 a <= 3 *");
+        calc.undo();
+        assertTrue(calc.redo());
+        assertEquals(21.0, calc.getLastResult(), delta);
+        assertEquals( 7.0, calc.getRegister("a"), delta);
+        assertFalse(calc.redo());
+    }
+
+    @Test
+    public void testEvaluatingAfterUndoDiscardsRedoableSteps() throws RPNCalcException {
+        calc.eval("1");
+        calc.eval("2");
+        calc.undo();
+        calc.eval("3");
+        assertFalse(calc.canRedo());
+        assertTrue(calc.undo());
+        assertEquals(1.0, calc.getLastResult(), delta);
+    }
+
+    @Test
+    public void testFailedEvaluationIsNotRecorded() {
+        assertThrows(RPNCalcException.class, () -> calc.eval("5 a <= +"));
+        assertEquals(0.0, calc.getRegister("a"), delta);
+        assertFalse(calc.canUndo());
+    }
+
+    @Test
+    public void testHistoryCapacityLimitsUndoableSteps() throws RPNCalcException {
+        calc.setHistoryCapacity(2);
+        calc.eval("1");
+        calc.eval("2");
+        calc.eval("3");
+        assertTrue(calc.undo());
+        assertTrue(calc.undo());
+        assertFalse(calc.undo());
+        assertEquals(1.0, calc.getLastResult(), delta);
+        assertThrows(IllegalArgumentException.class, () -> calc.setHistoryCapacity(-1));
+    }
+
+    @Test
+    public void testEvaluatingOnLastStackContinuesCalculation() throws RPNCalcException {
+        assertNull(calc.evalOnLastStack("1 2"));
+        assertEquals(3.0, calc.evalOnLastStack("+"), delta);
+        assertEquals(12.0, calc.evalOnLastStack("4 *"), delta);
+        assertThrows(RPNCalcException.class, () -> calc.evalOnLastStack("+"));
+        assertEquals(12.0, calc.getLastResult(), delta);
+        assertTrue(calc.undo());
+        assertEquals(3.0, calc.getLastResult(), delta);
+    }
+
+    @Test
+    public void testEvaluatingOnLastStackCoercesToMode() throws RPNCalcException {
+        calc.eval("0.1");
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        calc.evalOnLastStack("0.2 +");
+        assertEquals(0.3, calc.getLastResult(), delta);
+        calc.setMode(RPNCalc.Mode.DOUBLE);
+        calc.eval("1 0 /");
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertThrows(RPNCalcException.class, () -> calc.evalOnLastStack("1 +"));
+    }
+
+    @Test
+    public void testGettingStackEntriesFormatsSingleValues() throws RPNCalcException {
+        assertEquals(0, calc.getLastStackSize());
+        assertThrows(IndexOutOfBoundsException.class, () -> calc.getFormattedStackEntry(0));
+        calc.eval("1 2 {3,4}");
+        assertEquals(3, calc.getLastStackSize());
+        assertEquals("1.000", calc.getFormattedStackEntry(0));
+        assertEquals("{3.000,4.000}", calc.getFormattedStackEntry(2));
+        calc.setPrecision(1);
+        assertEquals("2.0", calc.getFormattedStackEntry(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> calc.getFormattedStackEntry(3));
+        calc.eval("5");
+        assertEquals("5.0", calc.getFormattedStackEntry(0));
+    }
+
+    @Test
+    public void testClearingLastStackCanBeUndone() throws RPNCalcException {
+        calc.eval("1 2");
+        calc.clearLastStack();
+        assertEquals(0, calc.getLastStackSize());
+        assertEquals("", calc.getFormattedLastStack());
+        assertTrue(calc.undo());
+        assertEquals("1.000 2.000", calc.getFormattedLastStack());
+    }
+
+    @Test
+    public void testDecimalModeEvaluatesExactly() throws RPNCalcException {
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        calc.setPrecision(RPNCalc.MAX_PRECISION);
+        calc.eval("0.1 0.2 +");
+        assertEquals("0.300000000000000", calc.getFormattedLastResult());
+        assertEquals(new java.math.BigDecimal("0.3"), calc.getLastDecimalResult());
+        assertEquals(0.3, calc.getLastResult(), 0.0);
+        /* The same expression is inexact in double mode */
+        calc.setMode(RPNCalc.Mode.DOUBLE);
+        calc.eval("0.1 0.2 +");
+        assertEquals("0.300000000000000", calc.getFormattedLastResult());
+        assertNotEquals(0.3, calc.getLastResult(), 0.0);
+        assertNull(calc.getLastDecimalResult());
+    }
+
+    @Test
+    public void testDecimalModeSupportsAllOperators() throws RPNCalcException {
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertEquals(-0.01, calc.eval("-1 %"),              delta);
+        assertEquals( 12.0, calc.eval("144 sqrt"),          delta);
+        assertEquals( 1.5,  calc.eval("3 2 /"),             delta);
+        assertEquals( 3.0,  calc.eval("-21 4 mod"),         delta);
+        assertEquals(-1.0,  calc.eval("-21 4 rem"),         delta);
+        assertEquals( 8.0,  calc.eval("2 3 pow"),           delta);
+        assertEquals(-3.0,  calc.eval("2 -10 5 sum"),       delta);
+        assertEquals( 4.0,  calc.eval("8 4 3 1 avg"),       delta);
+        assertEquals(-1.0,  calc.eval("-1 0 +1 min"),       delta);
+        assertEquals(21.0,  calc.eval("12 0.6 2.1e1 max"),  delta);
+        assertEquals( 3.0,  calc.eval("1 2 3 cnt"),         delta);
+        assertEquals( 0.2,  calc.eval("0.1 a <= 0.2 + a -"), delta);
+    }
+
+    @Test
+    public void testDecimalModeThrowsOnUndefinedResult() {
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 0 /"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("-1 sqrt"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("NaN"));
+        assertTrue(calc.addRegister("INF", Double.POSITIVE_INFINITY));
+        assertThrows(RPNCalcException.class, () -> calc.eval("INF 1 +"));
+    }
+
+    @Test
+    public void testErrorsReportCharacterOffset() {
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("  1\t2 +\n  foo"));
+        assertEquals("foo", e.getToken());
+        assertEquals(3, e.getIndex());
+        assertEquals(10, e.getOffset());
+        e = assertThrows(RPNCalcException.class, () -> calc.eval(" a  <="));
+        assertEquals("<=", e.getToken());
+        assertEquals(1, e.getIndex());
+        assertEquals(4, e.getOffset());
+    }
+
+    @Test
+    public void testUnrepresentableRegisterReportsRegisterPosition() {
+        assertTrue(calc.addRegister("INF", Double.POSITIVE_INFINITY));
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("1 INF +"));
+        assertEquals("INF", e.getToken());
+        assertEquals(1, e.getIndex());
+        assertEquals(2, e.getOffset());
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("1 INF"));
+        assertEquals("INF", e.getToken());
+    }
+
+    @Test
+    public void testEvalAcceptsAnyCharSequence() throws RPNCalcException {
+        var expr = new StringBuilder("3 4 +");
+        assertEquals(7.0, calc.eval(expr), delta);
+        expr.append(" 2 *");
+        assertEquals(14.0, calc.eval(expr), delta);
+    }
+
+    @Test
+    public void testEvalReadsFromReader() throws IOException, RPNCalcException {
+        var expr = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            expr.append(i).append(' ');
+        }
+        expr.append("sum");
+        assertEquals(49995000.0, calc.eval(new StringReader(expr.toString())), delta);
+        expr.append(" foo");
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval(new StringReader(expr.toString())));
+        assertEquals(expr.length() - 3, e.getOffset());
+    }
+
+    @Test
+    public void testEvalPropagatesReadErrors() {
+        Reader broken = new Reader() {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                throw new IOException("Broken");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        assertThrows(IOException.class, () -> calc.eval(broken));
+    }
+
+    @Test
+    public void testLiteralsParseLikeDouble() throws RPNCalcException {
+        String[] literals = {
+            "0", "-0", "+1", "1.", ".5", "-.5", "1e3", "1E-3", "2.5e+2", "0.1", "0.3",
+            "123456789012345678", "1234567890123456789012", "9007199254740993",
+            "1e22", "1e23", "1.7976931348623157e308", "4.9e-324", "NaN", "-Infinity"
+        };
+        for (String literal : literals) {
+            assertEquals(literal, Double.valueOf(literal), calc.eval(literal));
+        }
+        assertThrows(RPNCalcException.class, () -> calc.eval("1.2.3"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("-"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("1e"));
+    }
+
+    @Test
+    public void testVectorLiteralsAreParsed() throws RPNCalcException {
+        assertNull(calc.eval("{1,2.5,-3e2}"));
+        assertArrayEquals(new double[] { 1.0, 2.5, -300.0 }, calc.getLastVectorResult(), delta);
+        assertEquals("{1.000,2.500,-300.000}", calc.getFormattedLastResult());
+        assertThrows(RPNCalcException.class, () -> calc.eval("{}"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("{1,,2}"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("{1,a}"));
+    }
+
+    @Test
+    public void testVectorOperatorsApplyElementWise() throws RPNCalcException {
+        calc.eval("{1,4,9} sqrt");
+        assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, calc.getLastVectorResult(), delta);
+        calc.eval("{1,2,3} {4,5,6} *");
+        assertArrayEquals(new double[] { 4.0, 10.0, 18.0 }, calc.getLastVectorResult(), delta);
+        calc.eval("{-7,7} {3,-3} mod");
+        assertArrayEquals(new double[] { 2.0, -2.0 }, calc.getLastVectorResult(), delta);
+        calc.eval("{2,3} neg pow2");
+        assertArrayEquals(new double[] { 4.0, 9.0 }, calc.getLastVectorResult(), delta);
+        assertThrows(RPNCalcException.class, () -> calc.eval("{1,2} {1,2,3} +"));
+    }
+
+    @Test
+    public void testVectorOperatorsBroadcastScalars() throws RPNCalcException {
+        calc.eval("{1,2,3} 2 pow");
+        assertArrayEquals(new double[] { 1.0, 4.0, 9.0 }, calc.getLastVectorResult(), delta);
+        calc.eval("10 {1,2,4} /");
+        assertArrayEquals(new double[] { 10.0, 5.0, 2.5 }, calc.getLastVectorResult(), delta);
+        calc.eval("1 {1,2,3} -");
+        assertArrayEquals(new double[] { 0.0, -1.0, -2.0 }, calc.getLastVectorResult(), delta);
+    }
+
+    @Test
+    public void testNAryOperatorsReduceVectors() throws RPNCalcException {
+        assertEquals(10.0, calc.eval("{1,2,3,4} sum"), delta);
+        assertEquals(2.5, calc.eval("{1,2,3,4} avg"), delta);
+        assertEquals(-1.0, calc.eval("{3,-1,2} min"), delta);
+        assertEquals(3.0, calc.eval("{3,-1,2} max"), delta);
+        assertEquals(3.0, calc.eval("{3,-1,2} cnt"), delta);
+        calc.eval("{1,2} {3,4} 10 sum");
+        assertArrayEquals(new double[] { 14.0, 16.0 }, calc.getLastVectorResult(), delta);
+        calc.eval("{1,8} 4 {6,2} avg");
+        assertArrayEquals(new double[] { 11.0 / 3.0, 14.0 / 3.0 }, calc.getLastVectorResult(), delta);
+        calc.eval("5 {1,8} {6,2} min");
+        assertArrayEquals(new double[] { 1.0, 2.0 }, calc.getLastVectorResult(), delta);
+        assertEquals(3.0, calc.eval("5 {1,8} {6,2} cnt"), delta);
+    }
+
+    @Test
+    public void testVectorsCanBeBoundFromRegisters() throws RPNCalcException {
+        var prices = new double[] { 10.0, 20.0 };
+        assertTrue(calc.setRegister("p", prices));
+        prices[0] = 0.0; // Must not affect the register
+        calc.eval("p 1.5 * q <= p +");
+        assertArrayEquals(new double[] { 25.0, 50.0 }, calc.getLastVectorResult(), delta);
+        assertArrayEquals(new double[] { 15.0, 30.0 }, calc.getVectorRegister("q"), delta);
+        assertArrayEquals(new double[] { 10.0, 20.0 }, calc.getVectorRegister("p"), delta);
+        assertNull(calc.getRegister("p"));
+        assertNull(calc.getVectorRegister("a"));
+        calc.eval("p q sum");
+        assertArrayEquals(new double[] { 25.0, 50.0 }, calc.getLastVectorResult(), delta);
+        assertArrayEquals(new double[] { 10.0, 20.0 }, calc.getVectorRegister("p"), delta);
+        assertTrue(calc.undo());
+        assertTrue(calc.undo());
+        assertEquals(0.0, calc.getRegister("q"), delta);
+    }
+
+    @Test
+    public void testVectorsAreFormattedWithinStack() throws RPNCalcException {
+        calc.eval("1 {2,3} 4");
+        assertEquals("1.000 {2.000,3.000} 4.000", calc.getFormattedLastStack());
+        assertNull(calc.getLastStack().get(1));
+        assertNull(calc.getLastResult());
+        assertNull(calc.getLastVectorResult());
+    }
+
+    @Test
+    public void testVectorsAreRejectedInDecimalMode() {
+        calc.setRegister("v", new double[] { 1.0 });
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertThrows(RPNCalcException.class, () -> calc.eval("{1,2} 1 +"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("v"));
+    }
+
+    @Test
+    public void testFormulaIsEvaluatedWhenDefined() throws RPNCalcException {
+        calc.setRegister("a", 3.0);
+        assertTrue(calc.setFormula("b", "a 2 *"));
+        assertEquals(6.0, calc.getRegister("b"), delta);
+        assertEquals("a 2 *", calc.getFormula("b"));
+        assertNull(calc.getFormula("a"));
+        assertFalse(calc.setFormula("unknown", "1"));
+    }
+
+    @Test
+    public void testFormulasAreRecomputedWhenInputsChange() throws RPNCalcException {
+        calc.setFormula("b", "a 1 +");
+        calc.setFormula("c", "b b *");
+        calc.setFormula("d", "c a -");
+        calc.setRegister("a", 2.0);
+        assertEquals(3.0, calc.getRegister("b"), delta);
+        assertEquals(9.0, calc.getRegister("c"), delta);
+        assertEquals(7.0, calc.getRegister("d"), delta);
+        calc.eval("4 a <= d +");
+        assertEquals(5.0, calc.getRegister("b"), delta);
+        assertEquals(25.0, calc.getRegister("c"), delta);
+        assertEquals(25.0, calc.getLastResult(), delta); // Reads the recomputed formula
+    }
+
+    @Test
+    public void testIndependentFormulasAreRecomputed() throws RPNCalcException {
+        for (char c = 'b'; c <= 'k'; c++) {
+            calc.setFormula(c + "", "a " + (c - 'a') + " *");
+        }
+        calc.setFormula("z", "b c d e f g h i j k sum");
+        calc.setRegister("a", 2.0);
+        for (char c = 'b'; c <= 'k'; c++) {
+            assertEquals(2.0 * (c - 'a'), calc.getRegister(c + ""), delta);
+        }
+        assertEquals(110.0, calc.getRegister("z"), delta);
+    }
+
+    @Test
+    public void testCyclicFormulasAreRejected() throws RPNCalcException {
+        calc.setFormula("b", "a 1 +");
+        calc.setFormula("c", "b 1 +");
+        assertThrows(RPNCalcException.class, () -> calc.setFormula("a", "c 1 +"));
+        assertThrows(RPNCalcException.class, () -> calc.setFormula("d", "d 1 +"));
+        assertNull(calc.getFormula("a"));
+        calc.setRegister("a", 1.0);
+        assertEquals(3.0, calc.getRegister("c"), delta);
+    }
+
+    @Test
+    public void testInvalidFormulasAreRejected() {
+        assertThrows(RPNCalcException.class, () -> calc.setFormula("b", "1 +"));
+        assertThrows(RPNCalcException.class, () -> calc.setFormula("b", "1 2"));
+        assertThrows(RPNCalcException.class, () -> calc.setFormula("b", "1 c <="));
+        assertThrows(RPNCalcException.class, () -> calc.setFormula("b", " "));
+        assertNull(calc.getFormula("b"));
+    }
+
+    @Test
+    public void testFormulasCannotStoreThroughQuotations() throws RPNCalcException {
+        calc.eval("[ 7 b <= ] q <=");
+        var e = assertThrows(RPNCalcException.class, () -> calc.setFormula("x", "1 q if"));
+        assertTrue(e.getMessage().startsWith("Formulas cannot store into registers"));
+        assertEquals(0.0, calc.getRegister("b"), delta);
+        assertNull(calc.getFormula("x"));
+        calc.setRegister("a", 1.0);
+        calc.eval("[ 1 ] q <=");
+        calc.setFormula("x", "a q if");
+        assertEquals(1.0, calc.getRegister("x"), delta);
+        calc.eval("[ 8 b <= ] q <=");
+        calc.setRegister("a", 2.0);
+        assertTrue(Double.isNaN(calc.getRegister("x"))); // Recomputing fails as well
+        assertEquals(0.0, calc.getRegister("b"), delta);
+    }
+
+    @Test
+    public void testFormulaRegistersAreReadOnlyInExpressions() throws RPNCalcException {
+        calc.setFormula("b", "a 1 +");
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("5 a <= 2 b <="));
+        assertEquals("b", e.getToken());
+        assertEquals(0.0, calc.getRegister("a"), delta); // Rolled back
+        assertEquals(1.0, calc.getRegister("b"), delta);
+    }
+
+    @Test
+    public void testSettingFormulaRegisterReplacesFormula() throws RPNCalcException {
+        calc.setFormula("b", "a 1 +");
+        calc.setFormula("c", "b 2 *");
+        calc.setRegister("b", 10.0);
+        assertNull(calc.getFormula("b"));
+        assertEquals(20.0, calc.getRegister("c"), delta);
+        calc.setRegister("a", 5.0);
+        assertEquals(10.0, calc.getRegister("b"), delta);
+        assertTrue(calc.clearFormula("c"));
+        assertFalse(calc.clearFormula("c"));
+        calc.setRegister("b", 1.0);
+        assertEquals(20.0, calc.getRegister("c"), delta);
+    }
+
+    @Test
+    public void testUndoRestoresRecomputedFormulas() throws RPNCalcException {
+        calc.setFormula("b", "a 10 *");
+        calc.eval("3 a <=");
+        assertEquals(30.0, calc.getRegister("b"), delta);
+        assertTrue(calc.undo());
+        assertEquals(0.0, calc.getRegister("b"), delta);
+        assertTrue(calc.redo());
+        assertEquals(30.0, calc.getRegister("b"), delta);
+    }
+
+    @Test
+    public void testFailingFormulaBecomesNaN() throws RPNCalcException {
+        calc.setRegister("a", 1.0);
+        calc.setFormula("b", "{1,2} a +");
+        calc.setRegister("a", new double[] { 1.0, 2.0, 3.0 });
+        assertTrue(Double.isNaN(calc.getRegister("b")));
+    }
+
+    @Test
+    public void testComparisonOperators() throws RPNCalcException {
+        assertEquals(1.0, calc.eval("1 2 lt"), delta);
+        assertEquals(0.0, calc.eval("2 2 lt"), delta);
+        assertEquals(1.0, calc.eval("2 2 le"), delta);
+        assertEquals(1.0, calc.eval("3 2 gt"), delta);
+        assertEquals(0.0, calc.eval("1 2 ge"), delta);
+        assertEquals(1.0, calc.eval("2 2 eq"), delta);
+        assertEquals(0.0, calc.eval("0 0 / 1 eq"), delta);
+        assertEquals(1.0, calc.eval("0 0 / 0 0 / ne"), delta);
+        calc.eval("{1,3} 2 lt");
+        assertArrayEquals(new double[] { 1.0, 0.0 }, calc.getLastVectorResult(), 0.0);
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertEquals(1.0, calc.eval("0.1 0.2 + 0.3 eq"), delta);
+        assertEquals(0.0, calc.eval("0.1 0.2 + 0.3 ne"), delta);
+    }
+
+    @Test
+    public void testIfRunsQuotationOnlyIfConditionHolds() throws RPNCalcException {
+        assertEquals(20.0, calc.eval("10 1 [ 2 * ] if"), delta);
+        assertEquals(10.0, calc.eval("10 0 [ 2 * ] if"), delta);
+        assertEquals(10.0, calc.eval("10 0 0 / [ 2 * ] if"), delta);
+        assertEquals(3.0, calc.eval("5 3 lt [ 2 ] [ 3 ] ifelse"), delta);
+        assertEquals(2.0, calc.eval("5 3 gt [ 2 ] [ 3 ] ifelse"), delta);
+        assertNull(calc.eval("0 [ 1 ] if"));
+        assertEquals("", calc.getFormattedLastStack());
+    }
+
+    @Test
+    public void testBranchNotTakenHasNoEffect() throws RPNCalcException {
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertEquals(2.0, calc.eval("4 a <= 0 eq [ 0 ] [ 8 a / ] ifelse"), delta);
+        assertEquals(0.0, calc.eval("0 b <= 0 ne [ 8 b / ] [ 0 ] ifelse"), delta);
+        calc.setMode(RPNCalc.Mode.DOUBLE);
+        calc.eval("0 [ 5 c <= ] if");
+        assertEquals(0.0, calc.getRegister("c"), delta);
+        calc.eval("1 [ 5 c <= ] if");
+        assertEquals(5.0, calc.getRegister("c"), delta);
+    }
+
+    @Test
+    public void testNestedQuotations() throws RPNCalcException {
+        assertEquals(7.0, calc.eval("1 [ 0 [ 5 ] [ 7 ] ifelse ] if"), delta);
+        calc.eval("[ 1   [ 2 + ] ]");
+        assertEquals("[ 1 [ 2 + ] ]", calc.getFormattedLastStack());
+        assertNull(calc.getLastResult());
+    }
+
+    @Test
+    public void testQuotationInRegisterRunsRepeatedly() throws RPNCalcException {
+        calc.eval("[ 1 + ] q <=");
+        assertNull(calc.getRegister("q"));
+        assertEquals(3.0, calc.eval("1 1 q if 1 q if"), delta);
+        /* A quotation may run itself through its register, which gives loops */
+        calc.eval("[ t s + t <= 0 * s 1 - + s <= 0 gt l if ] l <=");
+        assertEquals(55.0, calc.eval("10 s <= l if t"), delta);
+        assertEquals(0.0, calc.getRegister("s"), delta);
+    }
+
+    @Test
+    public void testRecursionDepthIsBounded() throws RPNCalcException {
+        calc.eval("[ 1 r if ] r <=");
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("1 r if"));
+        assertTrue(e.getMessage().startsWith("Quotations nested too deeply"));
+    }
+
+    @Test
+    public void testQuotationErrorsReportInnerToken() throws RPNCalcException {
+        calc.eval("7 a <=");
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("1 a <= 1 [ + ] if"));
+        assertEquals("Stack underflow ('+' at index 5, offset 11)", e.getMessage());
+        assertEquals(7.0, calc.getRegister("a"), delta); // Rolled back
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("1 [ 2 foo ] if"));
+        assertEquals("foo", e.getToken());
+        assertEquals(3, e.getIndex());
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("1 [ 2 [ 3 ]"));
+        assertEquals("Unterminated quotation ('[' at index 1, offset 2)", e.getMessage());
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("1 2 ]"));
+        assertEquals("]", e.getToken());
+    }
+
+    @Test
+    public void testQuotationsAreNoArithmeticOperands() {
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("[ 1 ] 2 +"));
+        assertEquals("+", e.getToken());
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 2 [ 3 ] sum"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 2 3 if"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("{1,2} [ 3 ] if"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("[ 1 ] if"));
+    }
+
+    @Test
+    public void testFormulaWithBranches() throws RPNCalcException {
+        calc.setFormula("t", "a 100 gt [ a 0.9 * ] [ a ] ifelse");
+        calc.setRegister("a", 50.0);
+        assertEquals(50.0, calc.getRegister("t"), delta);
+        calc.eval("200 a <=");
+        assertEquals(180.0, calc.getRegister("t"), 1.0e-12);
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("1 [ 3 t <= ] if"));
+        assertEquals("Register holds a formula ('t' at index 3, offset 6)", e.getMessage());
+    }
+
+    @Test
+    public void testRangeIsReducedWithoutStack() throws RPNCalcException {
+        assertEquals(500000500000.0, calc.eval("1 1000000 range sum"), delta);
+        assertEquals(1000000.0, calc.eval("1 1000000 range cnt"), delta);
+        assertEquals(500000.5, calc.eval("1 1000000 range avg"), delta);
+        assertEquals(3.0, calc.eval("5 3 range min"), delta);
+        assertEquals(2.5, calc.eval("0.5 3 range max"), delta);
+        assertEquals(16.0, calc.eval("10 1 3 range sum"), delta); // Scalars are operands, too
+        assertEquals(4.0, calc.eval("10 1 3 range cnt"), delta);
+        calc.eval("1 3 range");
+        assertEquals("1.0 3.0 range", calc.getFormattedLastStack());
+    }
+
+    @Test
+    public void testMappedRange() throws RPNCalcException {
+        assertEquals(385.0, calc.eval("1 10 range [ pow2 ] map sum"), delta);
+        assertEquals(-1.0, calc.eval("1 10 range [ 2 mod 0 eq [ 1 ] [ 0 ] ifelse ] map [ neg ] map min"), delta);
+        calc.eval("3 k <=");
+        assertEquals(165.0, calc.eval("1 10 range [ k * ] map sum"), delta);
+        calc.eval("1 5 range [ 1 + ] map g <=");
+        assertEquals(20.0, calc.eval("g sum"), delta);
+        assertEquals(5.0, calc.eval("g cnt"), delta);
+    }
+
+    @Test
+    public void testStatisticsOperators() throws RPNCalcException {
+        assertEquals(5.0 / 3.0, calc.eval("1 2 3 4 var"), delta);
+        assertEquals(Math.sqrt(5.0 / 3.0), calc.eval("1 2 3 4 stddev"), delta);
+        assertEquals(2.5, calc.eval("4 1 3 2 median"), delta);
+        assertEquals(3.0, calc.eval("5 1 3 median"), delta);
+        assertEquals(1.75, calc.eval("4 1 3 2 25 pct"), delta);
+        assertEquals(4.0, calc.eval("4 1 3 2 100 pct"), delta);
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("7 var"));
+        assertTrue(e.getMessage().startsWith("Variance requires at least two values"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("{7} stddev"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("7 7 range var"));
+        assertTrue(Double.isNaN(calc.eval("1 0 0 / 3 median")));
+        assertEquals(0.1, calc.eval("10000000.2 10000000.1 10000000.3 10000000.1 10000000.3 stddev"), 1.0e-8);
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 2 101 pct"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("50 pct"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("median"));
+    }
+
+    @Test
+    public void testStatisticsOfVectorsAndDecimals() throws RPNCalcException {
+        assertEquals(5.0 / 3.0, calc.eval("{1,2,3,4} var"), delta);
+        assertEquals(2.5, calc.eval("{4,1,3,2} median"), delta);
+        assertEquals(1.75, calc.eval("{4,1,3,2} 25 pct"), delta);
+        calc.eval("{3,1,2} v <=");
+        assertEquals(2.0, calc.eval("v median"), delta);
+        calc.eval("v");
+        assertArrayEquals(new double[] { 3.0, 1.0, 2.0 }, calc.getLastVectorResult(), 0.0); // Not reordered
+        assertThrows(RPNCalcException.class, () -> calc.eval("{1,2} {3,4} median"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("{1,2} 1 var"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 {1,2} pct"));
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        calc.setPrecision(RPNCalc.MAX_PRECISION);
+        calc.eval("0.1 0.2 0.3 0.4 var");
+        assertEquals("0.016666666666667", calc.getFormattedLastResult());
+        calc.eval("0.4 0.1 0.3 0.2 25 pct");
+        assertEquals(new java.math.BigDecimal("0.175"), calc.getLastDecimalResult().stripTrailingZeros());
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("1 var"));
+        assertTrue(e.getMessage().startsWith("Variance requires at least two values"));
+    }
+
+    @Test
+    public void testStatisticsOfMillionsOfElements() throws RPNCalcException {
+        /* The sample variance of 1..n is n(n+1)/12 */
+        assertEquals(1000000.0 * 1000001.0 / 12.0, calc.eval("1 1000000 range var"), 1.0e-3);
+        assertEquals(500000.5, calc.eval("1 1000000 range median"), delta);
+        assertEquals(990000.01, calc.eval("1 1000000 range 99 pct"), 1.0e-6);
+        assertEquals(62500250000.5, calc.eval("1 500000 range [ pow2 ] map median"), 1.0e-3);
+        /* Chunks are merged in order, so threads do not change the result */
+        double parallel = calc.eval("1 300000 range [ sqrt ] map stddev");
+        double sequential = calc.eval("1 300000 range [ sqrt z <= ] map stddev");
+        assertEquals(sequential, parallel, 0.0);
+        assertEquals(3.0, calc.eval("3 1 5 range 2 median"), delta); // Scalars are operands, too
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 3 range 1 3 range pct"));
+    }
+
+    /**
+     * Helper function which generates a large expression of independent
+     * subexpressions, the way tooling would.
+     * 
+     * @param parts The number of independent subexpressions.
+     * @param terms The number of terms in each of them.
+     * @param stores Whether subexpressions store into and read registers.
+     * @return The expression, summing all subexpressions.
+     */
+    private static String generateExpression(int parts, int terms, boolean stores) {
+        var builder = new StringBuilder();
+        for (int p = 0; p < parts; p++) {
+            builder.append(p + 1).append(' ');
+            for (int t = 0; t < terms; t++) {
+                builder.append(t % 7 + 0.1).append(t % 3 == 0 ? " * " : " + ").append(t % 5 == 0 ? "sqrt " : "");
+            }
+            if (stores) {
+                builder.append("a <= a + ").append((char)('b' + p % 20)).append(" <= ");
+            }
+        }
+        return builder.append("sum").toString();
+    }
+
+    @Test
+    public void testDataflowMatchesSequentialEvaluation() throws RPNCalcException {
+        for (boolean stores : new boolean[] { false, true }) {
+            String expr = generateExpression(16, 600, stores);
+            calc.clearRegisters();
+            double sequential = calc.eval(expr);
+            double b = calc.getRegister("b");
+            calc.setDataflow(true);
+            calc.clearRegisters();
+            assertEquals(sequential, calc.eval(expr), 0.0); // Bit-identical
+            assertEquals(b, calc.getRegister("b"), 0.0);
+            assertTrue(calc.undo());
+            assertEquals(0.0, calc.getRegister("b"), 0.0);
+            calc.setDataflow(false);
+        }
+    }
+
+    @Test
+    public void testDataflowReportsErrorsLikeSequentialEvaluation() throws RPNCalcException {
+        calc.setDataflow(true);
+        assertTrue(calc.isDataflow());
+        String expr = generateExpression(8, 600, true);
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval(expr + " 1 x2"));
+        assertEquals("x2", e.getToken());
+        assertEquals(0.0, calc.getRegister("a"), 0.0); // Stores are rolled back
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        e = assertThrows(RPNCalcException.class, () -> calc.eval(expr.replace("sum", "0 / sum")));
+        assertEquals("/", e.getToken());
+        assertEquals(0.0, calc.getRegister("a"), 0.0);
+        /* Quotations are evaluated sequentially */
+        assertEquals(5.0, calc.eval(expr.replace("sum", "sum 0 * 1 [ 5 + ] if")), delta);
+    }
+
+    @Test
+    public void testLargeMappedRangeMatchesSequentialSum() throws RPNCalcException {
+        /* Pure arithmetic mappings are split across threads, those with stores are not */
+        double parallel = calc.eval("1 300000 range [ sqrt ] map sum");
+        double sequential = calc.eval("1 300000 range [ sqrt z <= ] map sum");
+        assertEquals(sequential, parallel, 0.0);
+        double expected = 0.0;
+        for (int i = 1; i <= 300000; i++) {
+            expected += Math.sqrt(i);
+        }
+        assertEquals(expected, parallel, 1.0e-5);
+        assertEquals(Math.sqrt(300000), calc.getRegister("z"), delta);
+    }
+
+    @Test
+    public void testGeneratorErrors() throws RPNCalcException {
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("1 10 range 2 *"));
+        assertEquals("*", e.getToken());
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 0 0 / range"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("0 1e300 range"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("{1,2} 1 3 range sum"));
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 3 range 2 map"));
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("1 a <= 200000 1 range [ 100 gt [ 1 ] [ + ] ifelse ] map sum"));
+        assertEquals("+", e.getToken());
+        assertEquals(0.0, calc.getRegister("a"), delta); // Rolled back
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("1 3 range [ 1 2 ] map sum"));
+        assertEquals("sum", e.getToken());
+        calc.setRegister("v", new double[] { 1.0, 2.0 });
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("1 3 range [ v + ] map sum"));
+        assertEquals("Mapping must yield exactly one number ('sum' at index 8, offset 22)", e.getMessage());
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertThrows(RPNCalcException.class, () -> calc.eval("1 3 range"));
+    }
+
+    @Test
+    public void testGeneratorsRespectLimits() {
+        Limits limits = Limits.NONE.withMaxTokens(1000);
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("1 1000 range [ 1 + ] map sum", limits));
+        assertTrue(e.getCause() instanceof LimitExceededException);
+        assertThrows(RPNCalcException.class, 
+                     () -> calc.eval("1 1e15 range sum", Limits.NONE.withMaxTime(java.time.Duration.ofMillis(10))));
+    }
+}
@@ -0,0 +1,192 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link ShardCoordinator} and
+ * {@link ShardWorker} classes. The tests are executed using the
+ * standard JUnit framework. They start real worker processes.
+ *
+ * @author Timothy R. Schmid
+ */
+public class ShardCoordinatorTest {
+
+    /** Worker that crashes after its first expression while a marker file exists, removing it. */
+    public static final class CrashingWorker {
+
+        /**
+         * Entry point of the worker process.
+         *
+         * @param args The marker file and the name of the mode.
+         * @throws IOException Raised if reading or writing fails.
+         */
+        public static void main(String[] args) throws IOException {
+            if (Files.deleteIfExists(Path.of(args[0]))) {
+                new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+                Runtime.getRuntime().halt(3);
+            }
+            ShardWorker.main(new String[] { args[1] });
+        }
+    }
+
+    /** Worker that hangs after its first expression while a marker file exists, removing it. */
+    public static final class HangingWorker {
+
+        /**
+         * Entry point of the worker process.
+         *
+         * @param args The marker file and the name of the mode.
+         * @throws IOException Raised if reading or writing fails.
+         * @throws InterruptedException Never raised, as nothing interrupts the worker.
+         */
+        public static void main(String[] args) throws IOException, InterruptedException {
+            if (Files.deleteIfExists(Path.of(args[0]))) {
+                new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+                Thread.sleep(Long.MAX_VALUE);
+            }
+            ShardWorker.main(new String[] { args[1] });
+        }
+    }
+
+    /**
+     * Helper function which finds the class path entry a class was loaded from.
+     *
+     * @param cls The class.
+     * @return The directory or JAR file.
+     */
+    private static String location(Class<?> cls) {
+        try {
+            return Path.of(cls.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper function which builds a batch of expressions, including failing ones.
+     *
+     * @param size The number of expressions.
+     * @return The expressions.
+     */
+    private static List<String> batch(int size) {
+        var exprs = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            exprs.add((i % 50 == 7) ? i + " +" : i + " a <= 2 *\n1 +");
+        }
+        return exprs;
+    }
+
+    /**
+     * Helper function which checks outcomes against evaluating the batch in process.
+     *
+     * @param exprs The expressions.
+     * @param outcomes The outcomes of the coordinator.
+     */
+    private static void check(List<String> exprs, List<Outcome> outcomes) {
+        assertEquals(exprs.size(), outcomes.size());
+        var calc = new RPNCalc();
+        for (int i = 0; i < exprs.size(); i++) {
+            Outcome outcome = outcomes.get(i);
+            assertSame(exprs.get(i), outcome.getExpression());
+            String expected = ShardWorker.evaluate(calc, exprs.get(i));
+            if (outcome.isSuccess()) {
+                assertEquals(expected, "R " + outcome.getResult());
+            } else {
+                assertEquals(expected, "E " + outcome.getError().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testWorkerProtocol() {
+        var calc = new RPNCalc();
+        assertEquals("R 3.0", ShardWorker.evaluate(calc, "1 2 +"));
+        assertEquals("N", ShardWorker.evaluate(calc, "1 2"));
+        assertEquals("R 5.0", ShardWorker.evaluate(calc, "5 a <="));
+        assertEquals("R 0.0", ShardWorker.evaluate(calc, "a"));
+        assertTrue(ShardWorker.evaluate(calc, "+").startsWith("E Stack underflow"));
+    }
+
+    @Test
+    public void testOutcomesAreMergedInInputOrder() throws IOException {
+        var exprs = batch(5000);
+        try (var coordinator = new ShardCoordinator(3)) {
+            coordinator.setShardSize(700);
+            check(exprs, coordinator.evaluate(exprs));
+            check(exprs.subList(0, 10), coordinator.evaluate(exprs.subList(0, 10)));
+            assertTrue(coordinator.evaluate(List.of()).isEmpty());
+        }
+    }
+
+    @Test
+    public void testCrashedShardIsRetried() throws IOException {
+        Path marker = Files.createTempFile("rpn-calc", ".crash");
+        var exprs = batch(1000);
+        try (var coordinator = new ShardCoordinator(2)) {
+            coordinator.setShardSize(100);
+            coordinator.setWorkerCommand(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", location(ShardWorker.class) + File.pathSeparator + location(CrashingWorker.class),
+                CrashingWorker.class.getName(), marker.toString()
+            ));
+            check(exprs, coordinator.evaluate(exprs));
+            assertFalse(Files.exists(marker));
+            Files.createFile(marker);
+            coordinator.close(); // Running workers would not look at the marker again
+            coordinator.setMaxRetries(0);
+            assertThrows(IOException.class, () -> coordinator.evaluate(exprs));
+        } finally {
+            Files.deleteIfExists(marker);
+        }
+    }
+
+    @Test
+    public void testHungShardIsRetried() throws IOException {
+        Path marker = Files.createTempFile("rpn-calc", ".hang");
+        var exprs = batch(200);
+        try (var coordinator = new ShardCoordinator(2)) {
+            coordinator.setShardSize(50);
+            coordinator.setShardTimeout(Duration.ofSeconds(2));
+            coordinator.setWorkerCommand(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", location(ShardWorker.class) + File.pathSeparator + location(HangingWorker.class),
+                HangingWorker.class.getName(), marker.toString()
+            ));
+            check(exprs, coordinator.evaluate(exprs));
+            assertFalse(Files.exists(marker));
+            Files.createFile(marker);
+            coordinator.close(); // Running workers would not look at the marker again
+            coordinator.setMaxRetries(0);
+            var e = assertThrows(IOException.class, () -> coordinator.evaluate(exprs));
+            assertTrue(e.getMessage().contains("timed out"));
+            assertThrows(IllegalArgumentException.class, () -> coordinator.setShardTimeout(Duration.ZERO));
+        } finally {
+            Files.deleteIfExists(marker);
+        }
+    }
+
+    @Test
+    public void testDecimalModeIsPassedOn() throws IOException {
+        try (var coordinator = new ShardCoordinator(1)) {
+            coordinator.setMode(RPNCalc.Mode.DECIMAL);
+            List<Outcome> outcomes = coordinator.evaluate(List.of("0.1 0.2 +", "1 0 /"));
+            assertEquals(0.3, outcomes.get(0).getResult(), 0.0);
+            assertFalse(outcomes.get(1).isSuccess());
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ShardCoordinator(0));
+    }
+}
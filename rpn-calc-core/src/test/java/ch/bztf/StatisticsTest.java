@@ -0,0 +1,231 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link Statistics} and {@link Accumulator} classes.
+ * The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class StatisticsTest {
+
+    /** The delta to be used in double assertions using an epsilon. */
+    private static final double delta = 1.0e-12;
+
+    /**
+     * Helper function which builds one of the NIST StRD "NumAcc" data sets:
+     * a center value, followed by 500 pairs just below and above it.
+     * Their certified standard deviation is exactly 0.1.
+     *
+     * @param center The center value, e.g. 1000000.2.
+     * @return The 1001 values.
+     */
+    private static double[] numAcc(double center) {
+        var x = new double[1001];
+        x[0] = center;
+        for (int i = 1; i < x.length; i += 2) {
+            x[i] = center - 0.1;
+            x[i + 1] = center + 0.1;
+        }
+        return x;
+    }
+
+    /**
+     * Helper function which computes the sample variance of some doubles
+     * exactly, rounding only the final result.
+     *
+     * @param x The values.
+     * @return The reference variance.
+     */
+    private static double referenceVariance(double[] x) {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (double value : x) {
+            sum = sum.add(new BigDecimal(value));
+        }
+        BigDecimal mean = sum.divide(BigDecimal.valueOf(x.length), MathContext.DECIMAL128);
+        BigDecimal squares = BigDecimal.ZERO;
+        for (double value : x) {
+            BigDecimal deviation = new BigDecimal(value).subtract(mean);
+            squares = squares.add(deviation.multiply(deviation));
+        }
+        return squares.divide(BigDecimal.valueOf(x.length - 1), MathContext.DECIMAL128).doubleValue();
+    }
+
+    /**
+     * Helper function which computes a percentile by sorting a copy.
+     *
+     * @param x The values.
+     * @param p The percentile.
+     * @return The reference percentile.
+     */
+    private static double referencePercentile(double[] x, double p) {
+        double[] sorted = x.clone();
+        Arrays.sort(sorted);
+        double h = (sorted.length - 1) * (p / 100.0);
+        int k = (int)Math.floor(h);
+        return (k + 1 < sorted.length) ? sorted[k] + (h - k) * (sorted[k + 1] - sorted[k]) : sorted[k];
+    }
+
+    @Test
+    public void testWelfordMatchesCertifiedValues() {
+        for (double center : new double[] { 1.2, 1000000.2, 10000000.2 }) {
+            var acc = new Accumulator(Accumulator.Kind.MOMENTS);
+            double[] x = numAcc(center);
+            acc.addAll(x, x.length);
+            assertEquals(0.1, Math.sqrt(acc.variance()), 1.0e-9);
+        }
+        /* The textbook formula using the sum of squares loses all digits here */
+        double[] x = numAcc(10000000.2);
+        double sum = 0.0;
+        double squares = 0.0;
+        for (double value : x) {
+            sum += value;
+            squares += value * value;
+        }
+        double naive = (squares - sum * sum / x.length) / (x.length - 1);
+        assertTrue(Math.abs(Math.sqrt(Math.abs(naive)) - 0.1) > 1.0e-3);
+    }
+
+    @Test
+    public void testWelfordMatchesExactReference() {
+        var random = new Random(36);
+        var x = new double[100000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = 1.0e9 + random.nextGaussian() * 3.0; // Large offset, small spread
+        }
+        var acc = new Accumulator(Accumulator.Kind.MOMENTS);
+        for (double value : x) {
+            acc.add(value);
+        }
+        /* Relative to the spread, the values carry only about eight digits, the sum of squares none */
+        double expected = referenceVariance(x);
+        assertEquals(expected, acc.variance(), expected * 1.0e-7);
+    }
+
+    @Test
+    public void testMergedMomentsMatchSinglePass() {
+        var random = new Random(7);
+        var x = new double[10000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = 1.0e6 + random.nextDouble();
+        }
+        var whole = new Accumulator(Accumulator.Kind.MOMENTS);
+        whole.addAll(x, x.length);
+        var merged = new Accumulator(Accumulator.Kind.MOMENTS);
+        for (int from = 0; from < x.length; from += 1234) {
+            var part = new Accumulator(Accumulator.Kind.MOMENTS);
+            for (int i = from; i < Math.min(x.length, from + 1234); i++) {
+                part.add(x[i]);
+            }
+            merged.merge(part);
+        }
+        assertEquals(x.length, merged.count());
+        assertEquals(whole.variance(), merged.variance(), whole.variance() * 1.0e-10);
+    }
+
+    @Test
+    public void testAccumulatorEdgeCases() {
+        var moments = new Accumulator(Accumulator.Kind.MOMENTS);
+        moments.add(5.0);
+        assertThrows(ArithmeticException.class, moments::variance); // Like Statistics.variance(Decimal[])
+        moments.add(7.0);
+        assertEquals(2.0, moments.variance(), delta);
+        var min = new Accumulator(Accumulator.Kind.MIN);
+        assertTrue(Double.isNaN(min.value()));
+        min.merge(new Accumulator(Accumulator.Kind.MIN)); // Empty parts are ignored
+        min.add(3.0);
+        assertEquals(3.0, min.value(), 0.0);
+        var values = new Accumulator(Accumulator.Kind.VALUES);
+        var batch = new double[100];
+        Arrays.fill(batch, 1.0);
+        values.addAll(batch, 100);
+        values.add(2.0);
+        assertEquals(101, values.count());
+        assertEquals(2.0, values.values()[100], 0.0);
+        assertThrows(IllegalArgumentException.class, () -> Accumulator.kindOf("+"));
+    }
+
+    @Test
+    public void testSelectMatchesSortedOrder() {
+        var random = new Random(42);
+        for (int n : new int[] { 1, 2, 15, 16, 17, 1000, 100001 }) {
+            var x = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = random.nextInt(n / 3 + 1); // Plenty of duplicates
+            }
+            double[] sorted = x.clone();
+            Arrays.sort(sorted);
+            for (int k : new int[] { 0, n / 2, n - 1 }) {
+                double[] copy = x.clone();
+                assertEquals(sorted[k], Statistics.select(copy, n, k), 0.0);
+                for (int i = 0; i < n; i++) {
+                    assertTrue(i < k ? copy[i] <= copy[k] : copy[i] >= copy[k]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSelectHandlesAdversarialInput() {
+        /* Sorted, reversed and constant inputs must not degrade */
+        int n = 1000000;
+        var ascending = new double[n];
+        var descending = new double[n];
+        var constant = new double[n];
+        for (int i = 0; i < n; i++) {
+            ascending[i] = i;
+            descending[i] = n - i;
+            constant[i] = 4.0;
+        }
+        assertEquals(500000.0, Statistics.select(ascending, n, n / 2), 0.0);
+        assertEquals(500001.0, Statistics.select(descending, n, n / 2), 0.0);
+        assertEquals(4.0, Statistics.select(constant, n, n / 2), 0.0);
+    }
+
+    @Test
+    public void testPercentileMatchesSortedReference() {
+        var random = new Random(1);
+        var x = new double[12345];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextGaussian() * 100.0;
+        }
+        for (double p : new double[] { 0.0, 0.1, 1.0, 25.0, 50.0, 75.0, 99.9, 100.0 }) {
+            assertEquals(referencePercentile(x, p), Statistics.percentile(x.clone(), x.length, p), delta);
+        }
+        assertEquals(2.5, Statistics.percentile(new double[] { 4.0, 1.0, 3.0, 2.0 }, 4, 50.0), 0.0);
+        assertEquals(3.0, Statistics.percentile(new double[] { 5.0, 1.0, 3.0 }, 3, 50.0), 0.0);
+        assertEquals(1.75, Statistics.percentile(new double[] { 4.0, 1.0, 3.0, 2.0 }, 4, 25.0), 0.0);
+    }
+
+    @Test
+    public void testPercentileEdgeCases() {
+        assertTrue(Double.isNaN(Statistics.percentile(new double[0], 0, 50.0)));
+        assertTrue(Double.isNaN(Statistics.percentile(new double[] { 1.0, Double.NaN }, 2, 50.0)));
+        assertEquals(Double.POSITIVE_INFINITY,
+                     Statistics.percentile(new double[] { 1.0, Double.POSITIVE_INFINITY }, 2, 100.0), 0.0);
+        assertThrows(ArithmeticException.class, () -> Statistics.percentile(new double[] { 1.0 }, 1, -1.0));
+        assertThrows(ArithmeticException.class, () -> Statistics.percentile(new double[] { 1.0 }, 1, 100.5));
+        assertThrows(ArithmeticException.class, () -> Statistics.percentile(new double[] { 1.0 }, 1, Double.NaN));
+    }
+
+    @Test
+    public void testDecimalStatistics() {
+        var x = new Decimal[] { Decimal.parse("0.1"), Decimal.parse("0.4"), Decimal.parse("0.3"), Decimal.parse("0.2") };
+        assertEquals(0, Decimal.parse("0.25").compareTo(Statistics.percentile(x.clone(), Decimal.valueOf(50))));
+        assertEquals(0, Decimal.parse("0.175").compareTo(Statistics.percentile(x.clone(), Decimal.valueOf(25))));
+        assertEquals(0, Decimal.parse("0.4").compareTo(Statistics.percentile(x.clone(), Decimal.valueOf(100))));
+        /* Sum of squared deviations 0.05, over 3 */
+        assertEquals(0, new BigDecimal("0.05").divide(new BigDecimal(3), MathContext.DECIMAL128)
+                                              .compareTo(Statistics.variance(x).toBigDecimal()));
+        assertThrows(ArithmeticException.class, () -> Statistics.variance(new Decimal[] { Decimal.ONE }));
+        assertThrows(ArithmeticException.class, () -> Statistics.percentile(x, Decimal.valueOf(101)));
+    }
+}
@@ -0,0 +1,108 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link Tape} class and the tape operators
+ * of {@link RPNCalc}. The tests are executed using the standard JUnit framework.
+ *
+ * @author Timothy R. Schmid
+ */
+public class TapeTest {
+
+    /** The calculator instance reading the tape. */
+    private RPNCalc calc;
+
+    @Before
+    public void setUp() {
+        calc = new RPNCalc();
+    }
+
+    @Test
+    public void testWindowMatchesRecomputation() {
+        var random = new Random(44);
+        var tape = new Tape(7);
+        double[] all = new double[500];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = random.nextInt(100) - 50 + random.nextDouble();
+            tape.append(all[i]);
+            int from = Math.max(0, i - 6);
+            double sum = 0.0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int j = from; j <= i; j++) {
+                sum += all[j];
+                min = Math.min(min, all[j]);
+                max = Math.max(max, all[j]);
+            }
+            assertEquals(i + 1 - from, tape.size());
+            assertEquals(sum, tape.sum(), 1e-9);
+            assertEquals(sum / (i + 1 - from), tape.average(), 1e-9);
+            assertEquals(min, tape.min(), 0.0);
+            assertEquals(max, tape.max(), 0.0);
+        }
+        assertEquals(500, tape.getCount());
+        assertArrayEquals(Arrays.copyOfRange(all, 493, 500), tape.toArray(), 0.0);
+    }
+
+    @Test
+    public void testEwmaAndEmptyWindow() {
+        var tape = new Tape(3, 0.5);
+        assertEquals(0.0, tape.sum(), 0.0);
+        assertTrue(Double.isNaN(tape.average()));
+        assertTrue(Double.isNaN(tape.min()));
+        assertTrue(Double.isNaN(tape.ewma()));
+        tape.append(4.0, 8.0, 0.0);
+        assertEquals(2.0 / 4.0, new Tape(3).getAlpha(), 0.0);
+        assertEquals(3.0, tape.ewma(), 0.0);
+        tape.clear();
+        assertEquals(0, tape.size());
+        tape.append(1.0);
+        assertEquals(1.0, tape.ewma(), 0.0);
+        assertThrows(IllegalArgumentException.class, () -> new Tape(0));
+        assertThrows(IllegalArgumentException.class, () -> new Tape(3, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> new Tape(3, 1.5));
+    }
+
+    @Test
+    public void testNonFiniteValuesLeaveTheWindow() {
+        var tape = new Tape(2);
+        tape.append(1.0, Double.POSITIVE_INFINITY);
+        assertEquals(Double.POSITIVE_INFINITY, tape.sum(), 0.0);
+        tape.append(Double.NaN);
+        assertTrue(Double.isNaN(tape.sum()));
+        assertTrue(Double.isNaN(tape.max()));
+        tape.append(2.0, 3.0);
+        assertEquals(5.0, tape.sum(), 0.0);
+        assertEquals(2.0, tape.min(), 0.0);
+        assertEquals(3.0, tape.max(), 0.0);
+    }
+
+    @Test
+    public void testTapeOperatorsAreOperands() throws RPNCalcException {
+        var e = assertThrows(RPNCalcException.class, () -> calc.eval("tavg"));
+        assertTrue(e.getMessage().startsWith("No tape is attached"));
+        var tape = new Tape(3);
+        calc.setTape(tape);
+        assertEquals(0.0, calc.eval("tcnt"), 0.0);
+        e = assertThrows(RPNCalcException.class, () -> calc.eval("tmax"));
+        assertTrue(e.getMessage().startsWith("Tape is empty"));
+        tape.append(1.0, 5.0, 3.0, 4.0);
+        assertEquals(12.0, calc.eval("tsum"), 0.0);
+        assertEquals(1.0, calc.eval("tmax tmin - 1 - tavg 4 - +"), 0.0);
+        assertEquals(1.0, calc.eval("tmax tavg 1.2 * gt"), 0.0);
+        assertEquals(8.0, calc.eval("tavg tcnt [ 2 * ] if"), 0.0);
+        tape.append(10.0);
+        assertEquals(17.0, calc.eval("tsum x <="), 0.0);
+        assertEquals(17.0, calc.getRegister("x"), 0.0);
+        calc.setMode(RPNCalc.Mode.DECIMAL);
+        assertEquals(10.0, calc.eval("tmax"), 0.0);
+        assertSame(tape, calc.fork().getTape());
+    }
+}
@@ -0,0 +1,96 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link Tokenizer} class.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class TokenizerTest {
+
+    /**
+     * Helper function which collects all tokens and their offsets.
+     * 
+     * @param tokens The tokenizer to be drained.
+     * @return The tokens, each followed by '@' and its offset.
+     */
+    private static List<String> drain(Tokenizer tokens) {
+        var result = new ArrayList<String>();
+        while (tokens.next()) {
+            assertEquals(result.size(), tokens.index());
+            result.add(tokens.text() + "@" + tokens.offset());
+        }
+        return result;
+    }
+
+    /**
+     * Helper function which provides a reader that returns at most one
+     * character per call, to exercise refilling in the middle of tokens.
+     * 
+     * @param input The characters to be read.
+     * @return The trickling reader.
+     */
+    private static Reader trickle(String input) {
+        return new StringReader(input) {
+            @Override
+            public int read(char[] buf, int off, int len) throws java.io.IOException {
+                return super.read(buf, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    @Test
+    public void testSplitsOnWhitespace() {
+        assertEquals(
+            List.of("1@2", "2.5@4", "+@10", "a@12", "<=@14"),
+            drain(new Tokenizer("  1 2.5\t\n +\ra <=  "))
+        );
+    }
+
+    @Test
+    public void testBlankInputHasNoTokens() {
+        var tokens = new Tokenizer(" \t\n ");
+        assertFalse(tokens.next());
+        assertEquals(-1, tokens.index());
+        assertFalse(new Tokenizer("").next());
+    }
+
+    @Test
+    public void testReaderProducesSameTokens() {
+        String expr = " 10 20 a <= \n a 3 ^ sum ";
+        List<String> expected = drain(new Tokenizer(expr));
+        assertEquals(expected, drain(new Tokenizer(new StringReader(expr))));
+        assertEquals(expected, drain(new Tokenizer(trickle(expr))));
+    }
+
+    @Test
+    public void testReaderHandlesTokensLongerThanBuffer() {
+        String token = "x".repeat(20000);
+        String expr = "1 " + token + " 2";
+        assertEquals(
+            List.of("1@0", token + "@2", "2@20003"),
+            drain(new Tokenizer(new StringReader(expr)))
+        );
+    }
+
+    @Test
+    public void testSpansReferToCurrentToken() {
+        var tokens = new Tokenizer("12 <=");
+        assertTrue(tokens.next());
+        assertEquals(2, tokens.length());
+        assertEquals('2', tokens.charAt(1));
+        assertFalse(tokens.matches("<="));
+        assertTrue(tokens.next());
+        assertTrue(tokens.matches("<="));
+        assertEquals("<=", tokens.chars().subSequence(tokens.start(), tokens.start() + tokens.length()).toString());
+    }
+}
@@ -0,0 +1,116 @@
+package ch.bztf;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This is the test suite for the {@link Tracer} class.
+ * The tests are executed using the standard JUnit framework.
+ * 
+ * @author Timothy R. Schmid
+ */
+public class TracerTest {
+
+    /** The calculator instance recording into {@link #tracer}. */
+    private RPNCalc calc;
+
+    /** The tracer under test. */
+    private Tracer tracer;
+
+    @Before
+    public void setUp() {
+        calc = new RPNCalc();
+        tracer = new Tracer(8);
+        calc.setTracer(tracer);
+    }
+
+    @Test
+    public void testTokensAreClassified() throws RPNCalcException {
+        calc.eval("2 a <= a 3 * b");
+        assertEquals(6, tracer.size());
+        assertEquals(Tracer.Kind.LITERAL, tracer.getKind(0));
+        assertNull(tracer.getSymbol(0));
+        assertEquals(Tracer.Kind.REGISTER_STORE, tracer.getKind(1));
+        assertEquals("a", tracer.getSymbol(1));
+        assertEquals(1, tracer.getIndex(1));
+        assertEquals(Tracer.Kind.REGISTER_READ, tracer.getKind(2));
+        assertEquals(3, tracer.getIndex(2));
+        assertEquals(2, tracer.getDepth(2));
+        assertEquals(Tracer.Kind.OPERATOR, tracer.getKind(4));
+        assertEquals(5, tracer.getIndex(4));
+        assertEquals(6.0, tracer.getTop(4), 0.0);
+        assertEquals(2, tracer.getDepth(4));
+        assertEquals(Tracer.Kind.REGISTER_READ, tracer.getKind(5));
+        assertEquals("b", tracer.getSymbol(5));
+        calc.eval("b");
+        assertEquals(2, tracer.getEval(6));
+        assertTrue(tracer.getNanos(6) >= 0);
+    }
+
+    @Test
+    public void testOldestRecordsAreOverwritten() throws RPNCalcException {
+        calc.eval("1 2 3 4 5 6 7 8 9 10 sum");
+        assertEquals(8, tracer.size());
+        assertEquals(3, tracer.dropped());
+        assertEquals(3, tracer.getIndex(0));
+        assertEquals(Tracer.Kind.OPERATOR, tracer.getKind(7));
+        assertEquals(55.0, tracer.getTop(7), 0.0);
+        assertThrows(IndexOutOfBoundsException.class, () -> tracer.getIndex(8));
+        tracer.clear();
+        assertEquals(0, tracer.size());
+    }
+
+    @Test
+    public void testTracingCanBeDisabled() throws RPNCalcException {
+        calc.setTracer(null);
+        calc.eval("1 2 +");
+        assertEquals(0, tracer.size());
+        assertNull(calc.getTracer());
+    }
+
+    @Test
+    public void testVectorTopsAreNaN() throws RPNCalcException {
+        calc.eval("{1,2}");
+        assertTrue(Double.isNaN(tracer.getTop(0)));
+    }
+
+    @Test
+    public void testRecordsAreExportedAsCsv() throws RPNCalcException {
+        calc.eval("1 2 +");
+        String[] lines = tracer.toCsv().split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("eval,index,kind,symbol,depth,top,nanos", lines[0]);
+        assertTrue(lines[1].startsWith("1,0,LITERAL,,1,1.0,"));
+        assertTrue(lines[3].startsWith("1,2,OPERATOR,+,1,3.0,"));
+    }
+
+    @Test
+    public void testRecordsAreExportedAsJson() throws RPNCalcException {
+        calc.eval("0 0 /");
+        String json = tracer.toJson();
+        assertTrue(json.startsWith("[\n  {\"eval\": 1, \"index\": 0, \"kind\": \"LITERAL\", \"symbol\": null"));
+        assertTrue(json.contains("\"kind\": \"OPERATOR\", \"symbol\": \"/\", \"depth\": 1, \"top\": null"));
+        assertEquals("[]\n", new Tracer(1).toJson());
+    }
+
+    @Test
+    public void testInvalidCapacityIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new Tracer(0));
+    }
+
+    @Test
+    public void testQuotationInstructionsAreRecorded() throws RPNCalcException {
+        calc.eval("1 [ 2 3 * ] if");
+        assertEquals(6, tracer.size());
+        assertEquals(Tracer.Kind.QUOTATION, tracer.getKind(1));
+        assertNull(tracer.getSymbol(1));
+        assertEquals(Tracer.Kind.LITERAL, tracer.getKind(3));
+        assertEquals(3, tracer.getIndex(3));
+        assertEquals("*", tracer.getSymbol(4));
+        assertEquals(Tracer.Kind.OPERATOR, tracer.getKind(5));
+        assertEquals("if", tracer.getSymbol(5));
+        assertEquals(6.0, tracer.getTop(5), 0.0);
+    }
+}
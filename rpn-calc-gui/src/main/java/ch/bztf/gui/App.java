@@ -0,0 +1,190 @@
+package ch.bztf.gui;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+import ch.bztf.Constants;
+import ch.bztf.RPNCalc;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.image.Image;
+import javafx.scene.layout.StackPane;
+import javafx.scene.text.Font;
+import javafx.scene.Group;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+/**
+ * JavaFX App initialization.
+ * View the README for operative details.
+ * <p>
+ * Only what the first frame needs is loaded before the window is shown:
+ * the font, loaded in the background while the FXML is parsed, the
+ * stylesheet and the smallest icon. The larger icons are decoded
+ * in the background and added once they are ready.
+ * </p>
+ * 
+ * @author Timothy R. Schmid
+ */
+public class App extends Application {
+
+    /**
+     * The system property which, if {@code true}, makes the application
+     * print its time to first frame and exit right after the first frame.
+     * This is used by the startup benchmark and to train the CDS archive.
+     */
+    static final String STARTUP_PROBE = "rpn-calc.startupProbe";
+
+    /** The icons other than the smallest one, decoded in the background. */
+    private static final String[] LARGE_ICONS = {
+        "/ch/bztf/gui/icon-32.png",
+        "/ch/bztf/gui/icon-64.png",
+        "/ch/bztf/gui/icon-128.png"
+    };
+
+    /** The font, loaded in the background from {@link #init()} on. */
+    private CompletableFuture<Font> font;
+
+    /**
+     * Sets up a calculator instance with constants predefined.
+     * 
+     * @return The fully initialized calculator instance.
+     */
+    private RPNCalc makeCalcInstance() {
+        RPNCalc calc = new RPNCalc();
+        calc.setConstants(Constants.DEFAULT);
+        return calc;
+    }
+
+    /**
+     * Runs an action after the initial window layout has settled.
+     * {@code runLater()} needs to be wrapped again for this to work.
+     * 
+     * @param action The action to defer.
+     */
+    private void deferUntilStable(Runnable action) {
+        Platform.runLater(() -> Platform.runLater(action));
+    }
+
+    /**
+     * Adds icons to the window as soon as they have been decoded in the background.
+     * Icons that fail to load are left out.
+     * 
+     * @param stage The window.
+     * @param paths The resource paths of the icons.
+     */
+    private void addIconsInBackground(Stage stage, String... paths) {
+        for (String path : paths) {
+            Image icon = new Image(getClass().getResource(path).toExternalForm(), true);
+            icon.progressProperty().addListener((observable, oldProgress, progress) -> {
+                if (progress.doubleValue() >= 1.0 && !icon.isError()) {
+                    stage.getIcons().add(icon);
+                }
+            });
+        }
+    }
+
+    /**
+     * Prints the time since the JVM was started once the scene has been laid
+     * out for the first time, and exits, if the {@link #STARTUP_PROBE} property
+     * is set. This is after the first layout pulse, not after the first frame
+     * has been rendered and shown, which comes slightly later and has no public
+     * callback. The time printed is thus a lower bound of the time to first frame.
+     * 
+     * @param scene The scene whose first layout is awaited.
+     */
+    private void probeFirstFrame(Scene scene) {
+        if (!Boolean.getBoolean(STARTUP_PROBE)) {
+            return;
+        }
+        boolean[] done = { false };
+        scene.addPostLayoutPulseListener(() -> {
+            if (!done[0]) {
+                done[0] = true;
+                long millis = ProcessHandle.current().info().startInstant()
+                    .map(start -> Duration.between(start, Instant.now()).toMillis())
+                    .orElse(-1L);
+                System.out.println("First frame after " + millis + " ms");
+                Platform.exit();
+            }
+        });
+    }
+
+    /**
+     * JavaFX init hook, called before {@link #start(Stage)} on the launcher thread.
+     * This starts loading the font, so it is ready by the time the scene is styled.
+     */
+    @Override
+    public void init() {
+        font = CompletableFuture.supplyAsync(
+            () -> Font.loadFont(getClass().getResourceAsStream("/ch/bztf/gui/fonts/DejaVuSans.ttf"), 13)
+        );
+    }
+
+    /**
+     * JavaFX start hook.
+     * This is used to bring the user interface up.
+     * The scene is set to the default window size.
+     * 
+     * @param stage The stage to be coupled to the
+     *              RPN calculator scene.
+     */
+    @Override
+    public void start(Stage stage) throws Exception {
+
+        /* Load FXML while the font is being loaded */
+        FXMLLoader loader = new FXMLLoader(getClass().getResource("/ch/bztf/gui/calc.fxml"));
+        Parent root = loader.load();
+
+        /* Inject calculator instance into controller */
+        CalcController controller = loader.<CalcController>getController();
+        controller.initialize(makeCalcInstance());
+
+        /* Enable proportional scaling */
+        final double baseWidth = root.prefWidth(-1);
+        final double baseHeight = root.prefHeight(-1);
+        Group scaledGroup = new Group(root);
+        StackPane scaledRoot = new StackPane(scaledGroup);
+        root.scaleXProperty().bind(
+            Bindings.min(
+                scaledRoot.widthProperty().divide(baseWidth),
+                scaledRoot.heightProperty().divide(baseHeight)
+            )
+        );
+        root.scaleYProperty().bind(root.scaleXProperty());
+
+        /* Set window properties */
+        Scene scene = new Scene(scaledRoot, baseWidth, baseHeight);
+        stage.setScene(scene);
+        stage.setTitle("RPN Calculator");
+        stage.setResizable(true);
+
+        /* Override application icon, larger sizes follow once decoded */
+        stage.getIcons().add(new Image(getClass().getResourceAsStream("/ch/bztf/gui/icon-16.png")));
+
+        /* Add custom CSS stylesheet, which needs the font */
+        font.join();
+        scene.getStylesheets().add(
+            getClass().getResource("/ch/bztf/gui/calc.css").toExternalForm()
+        );
+
+        /* Show the window first, then load what it can do without */
+        probeFirstFrame(scene);
+        stage.show();
+        addIconsInBackground(stage, LARGE_ICONS);
+
+        /* Lock minimum width and height */
+        deferUntilStable(() -> {
+            stage.setMinWidth(stage.getWidth());
+            stage.setMinHeight(stage.getHeight());
+        });
+    }
+
+    public static void main(String[] args) {
+        launch();
+    }
+}
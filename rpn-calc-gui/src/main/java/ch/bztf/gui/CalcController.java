@@ -1,10 +1,16 @@
-package ch.bztf;
+package ch.bztf.gui;
 
+import ch.bztf.RPNCalc;
+import ch.bztf.RPNCalcException;
+import ch.bztf.Tracer;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.robot.Robot;
 
@@ -27,16 +33,105 @@ public class CalcController {
     @FXML
     private TextField error;
 
+    /**
+     * The list showing the result stack, one value per cell.
+     * It is kept apart from the input so large stacks never have to
+     * be formatted in full, nor edited as text.
+     */
+    @FXML
+    private ListView<String> stack;
+
+    /** Key combination for undoing the last evaluation. */
+    private static final KeyCombination UNDO = 
+        new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN);
+
+    /** Key combination for redoing the last undone evaluation. */
+    private static final KeyCombination REDO = 
+        new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN);
+
+    /** Alternative key combination for redoing the last undone evaluation. */
+    private static final KeyCombination REDO_ALT = 
+        new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN);
+
+    /** Key combination for showing or hiding the evaluation trace. */
+    private static final KeyCombination TRACE = 
+        new KeyCodeCombination(KeyCode.T, KeyCombination.SHORTCUT_DOWN);
+
     /** The calculator instance used for evaluating expressions. */
     private RPNCalc calc;
 
+    /** The window listing traced evaluation steps, created when first shown. */
+    private TraceWindow trace = null;
+
+    /** The panel filling {@link #stack}. */
+    private StackPanel panel;
+
     /**
      * Sets the internal calculator instance to the one passed in.
+     * This also installs the undo, redo and trace key bindings
+     * and shows the stack of the calculator.
      * 
      * @param calc The new calculator instance.
      */
     public void initialize(RPNCalc calc) {
         this.calc = calc;
+        this.panel = new StackPanel(stack, calc);
+        /* Filter, as the text field would otherwise consume these itself */
+        input.addEventFilter(KeyEvent.KEY_PRESSED, this::handleHistoryKeys);
+        input.addEventFilter(KeyEvent.KEY_PRESSED, this::handleTraceKey);
+    }
+
+    /**
+     * Shows or hides the evaluation trace when the corresponding
+     * key combination is pressed.
+     * 
+     * @param ev The key event. It is only handled on the trace combination.
+     */
+    private void handleTraceKey(KeyEvent ev) {
+        if (TRACE.match(ev)) {
+            toggleTrace();
+            ev.consume();
+        }
+    }
+
+    /**
+     * Enables tracing and shows the step list, or hides it and disables
+     * tracing again. Tracing is only enabled while the list is shown,
+     * so evaluation is not slowed down otherwise.
+     */
+    private void toggleTrace() {
+        if (trace != null && trace.isShowing()) {
+            trace.hide(); // Disables tracing via the hidden handler
+            return;
+        }
+        var tracer = new Tracer();
+        trace = new TraceWindow(input.getScene().getWindow(), tracer, () -> calc.setTracer(null));
+        calc.setTracer(tracer);
+        trace.show();
+    }
+
+    /** Helper function that updates the step list, if it is shown. */
+    private void refreshTrace() {
+        if (trace != null && trace.isShowing()) {
+            trace.refresh();
+        }
+    }
+
+    /**
+     * Undoes or redoes an evaluation step when the corresponding
+     * key combination is pressed. This replaces the text field's
+     * own undo, as the input is overwritten on every evaluation.
+     * 
+     * @param ev The key event. It is only handled on undo or redo.
+     */
+    private void handleHistoryKeys(KeyEvent ev) {
+        if (UNDO.match(ev)) {
+            undoEval(null);
+            ev.consume();
+        } else if (REDO.match(ev) || REDO_ALT.match(ev)) {
+            redoEval(null);
+            ev.consume();
+        }
     }
 
     /**
@@ -62,6 +157,19 @@ public class CalcController {
         input.setText("");
     }
 
+    /**
+     * Wipes the input field and the stack completely.
+     * Clearing the stack can be undone like an evaluation.
+     * 
+     * @param ev The action event. It is unused by this function.
+     */
+    @FXML
+    private void clearAll(ActionEvent ev) {
+        clearInput(ev);
+        calc.clearLastStack();
+        setResult();
+    }
+
     /**
      * Deletes the character that precedes the current
      * caret position from the input text field.
@@ -157,38 +265,67 @@ public class CalcController {
     }
 
     /**
-     * Helper function that sets both the input and error text fields.
-     * The cursor is automatically set to the end of the input text field
-     * while the error text field is cleared.
-     * 
-     * @param result The string to be assigned to the input text field.
-     *               A single space will be appended to it.
+     * Helper function that shows the current stack of the calculator
+     * and clears the error text field.
      */
-    private void setResult(String result) {
-        input.setText(result + " ");
-        input.end();
+    private void setResult() {
+        panel.refresh();
         error.setText("");
     }
 
     /**
-     * Evaluates the expression currently set in the input text field.
+     * Evaluates the expression currently set in the input text field
+     * on top of the shown stack. The input is cleared on success,
+     * so the next expression can be entered right away.
      * 
      * @param ev The action event. It is unused by this function.
      */
     @FXML
     private void evalInput(ActionEvent ev) {
         try {
-            calc.eval(input.getText());
-            setResult(calc.getFormattedLastStack());
+            calc.evalOnLastStack(input.getText());
+            input.setText("");
+            setResult();
         } catch (RPNCalcException e) {
             error.setText(e.getMessage());
         }
+        refreshTrace(); // Steps up to an error are recorded as well
+    }
+
+    /**
+     * Reverts the most recent evaluation.
+     * The previous stack is shown again.
+     * 
+     * @param ev The action event. It is unused by this function.
+     */
+    @FXML
+    private void undoEval(ActionEvent ev) {
+        if (calc.undo()) {
+            setResult();
+        } else {
+            error.setText("Nothing to undo");
+        }
+    }
+
+    /**
+     * Reapplies the most recently reverted evaluation.
+     * The restored stack is shown again.
+     * 
+     * @param ev The action event. It is unused by this function.
+     */
+    @FXML
+    private void redoEval(ActionEvent ev) {
+        if (calc.redo()) {
+            setResult();
+        } else {
+            error.setText("Nothing to redo");
+        }
     }
 
     /**
      * Increases calculator output precision by one.
-     * This will trigger the current stack to be printed to
-     * the input text field again, but with the new precision. 
+     * This will trigger the visible part of the stack to be
+     * shown again, but with the new precision. 
      * 
      * @param ev The action event. It is unused by this function.
      */
@@ -196,7 +333,8 @@ public class CalcController {
     private void increasePrecision(ActionEvent ev) {
         try {
             calc.shiftPrecision(+1);
-            setResult(calc.getFormattedLastStack());
+            panel.refreshPrecision();
+            error.setText("");
         } catch (IllegalArgumentException e) {
             error.setText("Maximum precision reached");
         }
@@ -204,8 +342,8 @@ public class CalcController {
 
     /**
      * Decreases calculator output precision by one.
-     * This will trigger the current stack to be printed to
-     * the input text field again, but with the new precision. 
+     * This will trigger the visible part of the stack to be
+     * shown again, but with the new precision. 
      * 
      * @param ev The action event. It is unused by this function.
      */
@@ -213,7 +351,8 @@ public class CalcController {
     private void decreasePrecision(ActionEvent ev) {
         try {
             calc.shiftPrecision(-1);
-            setResult(calc.getFormattedLastStack());
+            panel.refreshPrecision();
+            error.setText("");
         } catch (IllegalArgumentException e) {
             error.setText("Minimum precision reached");
         }
@@ -1,4 +1,4 @@
-package ch.bztf;
+package ch.bztf.gui;
 
 /**
  * Wrapper for {@code main} that does not {@code extend Application}.
@@ -0,0 +1,105 @@
+package ch.bztf.gui;
+
+import java.util.AbstractList;
+
+import ch.bztf.RPNCalc;
+import javafx.collections.FXCollections;
+import javafx.scene.control.ListView;
+
+/**
+ * Shows the result stack of the calculator in a list, one value per cell,
+ * with the top of the stack at the bottom of the list.
+ * <p>
+ * The list is virtualized: it only asks for the values of its visible cells,
+ * and only those are formatted, so showing a stack of millions of values costs
+ * as much as showing a few. The formatted values are cached for the current
+ * precision, so scrolling back and forth does not format the same values
+ * again. Only one precision is cached, so a stack of millions of values
+ * holds at most one string per value, however often the precision changes.
+ * </p>
+ *
+ * @author Timothy R. Schmid
+ */
+public class StackPanel {
+
+    /** The list the stack is shown in. */
+    private final ListView<String> view;
+
+    /** The calculator whose result stack is shown. */
+    private final RPNCalc calc;
+
+    /**
+     * The values formatted so far with {@link #precision}. A slot is {@code null}
+     * until its value is first shown. Dropped whenever the stack or the precision changes.
+     */
+    private String[] formatted = null;
+
+    /** The precision {@link #formatted} holds values in. */
+    private int precision = -1;
+
+    /** The number of values on the shown stack. */
+    private int size = 0;
+
+    /**
+     * Constructor that attaches the panel to a list.
+     *
+     * @param view The list the stack is to be shown in.
+     * @param calc The calculator whose result stack is to be shown.
+     */
+    public StackPanel(ListView<String> view, RPNCalc calc) {
+        this.view = view;
+        this.calc = calc;
+        view.setFocusTraversable(false);
+        refresh();
+    }
+
+    /**
+     * Helper function which formats a single value, or takes it from the cache.
+     *
+     * @param pos The position of the value, from 0 for the bottom.
+     * @return The formatted value.
+     */
+    private String format(int pos) {
+        if (formatted == null || precision != calc.getPrecision()) {
+            formatted = new String[size];
+            precision = calc.getPrecision();
+        }
+        if (formatted[pos] == null) {
+            formatted[pos] = calc.getFormattedStackEntry(pos);
+        }
+        return formatted[pos];
+    }
+
+    /**
+     * Shows the current result stack and scrolls to its top.
+     * This must be called whenever the stack has changed.
+     */
+    public void refresh() {
+        formatted = null;
+        size = calc.getLastStackSize();
+        /* A view over the stack, rather than a copy of it, so only visible cells are formatted */
+        view.setItems(FXCollections.observableList(new AbstractList<String>() {
+            @Override
+            public String get(int pos) {
+                return format(pos);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        }));
+        if (size > 0) {
+            view.scrollTo(size - 1);
+        }
+    }
+
+    /**
+     * Shows the current result stack again with the current precision.
+     * This must be called whenever the precision has changed.
+     */
+    public void refreshPrecision() {
+        formatted = null;
+        view.refresh();
+    }
+}
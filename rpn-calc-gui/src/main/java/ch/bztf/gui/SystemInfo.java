@@ -1,4 +1,4 @@
-package ch.bztf;
+package ch.bztf.gui;
 
 public class SystemInfo {
 
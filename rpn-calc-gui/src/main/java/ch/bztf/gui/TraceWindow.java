@@ -0,0 +1,120 @@
+package ch.bztf.gui;
+
+import ch.bztf.Tracer;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.ListView;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+/**
+ * Secondary window listing the steps recorded by a {@link Tracer},
+ * one line per evaluated token, with the newest step at the bottom.
+ * The records can be copied to the clipboard as CSV or JSON.
+ *
+ * @author Timothy R. Schmid
+ */
+public class TraceWindow {
+
+    /** The stage showing the step list. */
+    private final Stage stage = new Stage();
+
+    /** The list of formatted steps. */
+    private final ListView<String> steps = new ListView<String>();
+
+    /** The tracer whose records are shown. */
+    private final Tracer tracer;
+
+    /**
+     * Constructor that builds the window without showing it.
+     *
+     * @param owner The calculator window, which the trace window stays on top of.
+     * @param tracer The tracer whose records are to be shown.
+     * @param onHidden Called whenever the window is hidden, including by the user.
+     */
+    public TraceWindow(Window owner, Tracer tracer, Runnable onHidden) {
+        this.tracer = tracer;
+
+        Button csv = new Button("Copy CSV");
+        csv.setOnAction(ev -> copy(tracer.toCsv()));
+        Button json = new Button("Copy JSON");
+        json.setOnAction(ev -> copy(tracer.toJson()));
+        Button clear = new Button("Clear");
+        clear.setOnAction(ev -> {
+            tracer.clear();
+            refresh();
+        });
+
+        HBox buttons = new HBox(8.0, csv, json, clear);
+        buttons.setPadding(new Insets(8.0));
+        BorderPane root = new BorderPane(steps);
+        root.setBottom(buttons);
+
+        stage.initOwner(owner);
+        stage.setTitle("Evaluation Trace");
+        stage.setScene(new Scene(root, 420.0, 320.0));
+        stage.setOnHidden(ev -> onHidden.run());
+    }
+
+    /**
+     * Helper function which puts text onto the system clipboard.
+     *
+     * @param text The text to be copied.
+     */
+    private void copy(String text) {
+        ClipboardContent content = new ClipboardContent();
+        content.putString(text);
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    /**
+     * Helper function which formats a single step for the list.
+     *
+     * @param pos The record position within the tracer.
+     * @return The formatted step.
+     */
+    private String formatStep(int pos) {
+        String symbol = tracer.getSymbol(pos);
+        return String.format(
+            "#%d  [%d] %-14s %-6s depth %-3d top %-12.6g %,d ns",
+            tracer.getEval(pos), tracer.getIndex(pos), tracer.getKind(pos),
+            symbol == null ? "" : symbol, tracer.getDepth(pos),
+            tracer.getTop(pos), tracer.getNanos(pos)
+        );
+    }
+
+    /** Reloads the step list from the tracer and scrolls to the newest step. */
+    public void refresh() {
+        var items = new String[tracer.size()];
+        for (int pos = 0; pos < items.length; pos++) {
+            items[pos] = formatStep(pos);
+        }
+        steps.getItems().setAll(items);
+        steps.scrollTo(items.length - 1);
+    }
+
+    /**
+     * Checks whether the window is currently shown.
+     *
+     * @return {@code true} if the window is visible.
+     */
+    public boolean isShowing() {
+        return stage.isShowing();
+    }
+
+    /** Shows the window with up-to-date steps. */
+    public void show() {
+        refresh();
+        stage.show();
+    }
+
+    /** Hides the window. */
+    public void hide() {
+        stage.hide();
+    }
+}
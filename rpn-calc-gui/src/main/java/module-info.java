@@ -0,0 +1,7 @@
+module ch.bztf.gui {
+    requires ch.bztf;
+    requires transitive javafx.controls;
+    requires javafx.fxml;
+    exports ch.bztf.gui;
+    opens ch.bztf.gui to javafx.fxml;
+}